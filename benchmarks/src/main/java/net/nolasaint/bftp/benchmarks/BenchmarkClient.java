@@ -0,0 +1,172 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal blocking BFTP client used to drive the server during benchmarks.
+ *
+ * Requests are built in reused direct buffers and response content is read into a reused buffer
+ * and discarded, so that the client allocates nothing per request and the allocation rate
+ * reported by the GC profiler is the server's.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class BenchmarkClient implements Closeable {
+
+    /* RECEIVE_BUFFER_SIZE is the size, in bytes, of the buffer response content is read into */
+    private static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer header, receive, request;
+    private final ByteBuffer frame[];
+
+    /**
+     * Creates a BenchmarkClient connected to a server on the loopback interface.
+     *
+     * @param   port    - the port the server is bound to
+     *
+     * @throws  IOException if the connection cannot be made.
+     */
+    BenchmarkClient(int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        header = ByteBuffer.allocateDirect(BFTP.EXTENDED_HEADER_LENGTH);
+        receive = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+        request = ByteBuffer.allocateDirect(BFTP.EXTENDED_HEADER_LENGTH + BFTP.PLEN_LENGTH
+                + 0xFFFF);
+        frame = new ByteBuffer[2];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Requests a file and reads the whole response.
+     *
+     * @param   path    - UTF-8 path of the file, relative to the server's root directory
+     *
+     * @return  the number of content bytes received.
+     *
+     * @throws  IOException if the server answers with an error, or if one is encountered while
+     *          communicating with the server.
+     */
+    long get(byte path[]) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, path.length, BFTP.GET);
+        request.put(path).flip();
+        write(request);
+
+        return readResponse();
+    }
+
+    /**
+     * Stores a file and reads the response.
+     *
+     * @param   path    - UTF-8 path of the file, relative to the server's root directory
+     * @param   data    - the content of the file, which is read from its position to its limit
+     *                    without being consumed
+     *
+     * @throws  IOException if the server answers with an error, or if one is encountered while
+     *          communicating with the server.
+     */
+    void put(byte path[], ByteBuffer data) throws IOException {
+        int position = data.position();
+
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.PLEN_LENGTH + path.length + data.remaining(),
+                BFTP.PUT);
+        request.putShort((short) path.length).put(path).flip();
+
+        // Gather the request and the file data, so they are not sent as separate segments
+        frame[0] = request;
+        frame[1] = data;
+
+        while (data.hasRemaining()) {
+            channel.write(frame);
+        }
+
+        data.position(position);
+        readResponse();
+    }
+
+    /**
+     * Helper method to read a response, discarding its content.
+     *
+     * @return  the number of content bytes received.
+     *
+     * @throws  IOException if the response is an error, or if one is encountered while reading.
+     */
+    private long readResponse() throws IOException {
+        long csize, remaining;
+
+        header.clear().limit(BFTP.HEADER_LENGTH);
+        read(header);
+
+        if (FrameCodec.headerLength(header, 0) > BFTP.HEADER_LENGTH) {
+            header.limit(BFTP.EXTENDED_HEADER_LENGTH);
+            read(header);
+        }
+
+        csize = remaining = FrameCodec.csize(header, 0);
+
+        if (FrameCodec.isSet(FrameCodec.opcode(header, 0), BFTP.ERR)) {
+            receive.clear().limit((int) Math.min(receive.capacity(), csize));
+            read(receive);
+
+            throw new IOException("Server responded with an error: "
+                    + StandardCharsets.UTF_8.decode(receive.flip()));
+        }
+
+        while (remaining > 0) {
+            receive.clear().limit((int) Math.min(receive.capacity(), remaining));
+            read(receive);
+            remaining -= receive.limit();
+        }
+
+        return csize;
+    }
+
+    /**
+     * Helper method to fill a buffer from the connection.
+     *
+     * @param   buffer  - the buffer to fill up to its limit
+     *
+     * @throws  EOFException if the server closes the connection.
+     * @throws  IOException if one is encountered while reading.
+     */
+    private void read(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Helper method to write a whole buffer to the connection.
+     *
+     * @param   buffer  - the buffer to write from its position to its limit
+     *
+     * @throws  IOException if one is encountered while writing.
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package net.nolasaint.bftp.benchmarks;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Files served to and received from the server during benchmarks.
+ *
+ * The server serves files from the "public" directory of its working directory, so benchmark
+ * files are kept in a subdirectory of it, which is created as needed. Files are filled with a
+ * pattern rather than left sparse, so that reading them costs what reading real files costs, and
+ * are kept between trials, since generating the largest takes several seconds.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class BenchmarkFiles {
+
+    /* DIRECTORY is the path of the benchmark files, relative to the server's root directory */
+    static final String DIRECTORY = "bftp-benchmarks/";
+
+    /* ROOT is the path of the benchmark files, relative to the working directory */
+    private static final Path ROOT = Paths.get("public", DIRECTORY);
+
+    /**
+     * Creates a file of the given size, unless it already exists with that size.
+     *
+     * @param   size    - the size of the file, in bytes
+     *
+     * @return  the path of the file, relative to the server's root directory.
+     *
+     * @throws  IOException if one is encountered while writing the file.
+     */
+    static String create(long size) throws IOException {
+        String name = "get-" + size + ".bin";
+        Path file = ROOT.resolve(name);
+
+        if (Files.isRegularFile(file) && Files.size(file) == size) {
+            return DIRECTORY + name;
+        }
+
+        createDirectory();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = pattern(1024 * 1024);
+
+            for (long written = 0; written < size; written += chunk.limit()) {
+                chunk.clear().limit((int) Math.min(chunk.capacity(), size - written));
+
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        }
+
+        return DIRECTORY + name;
+    }
+
+    /**
+     * Creates the directory holding the benchmark files, if it does not exist.
+     *
+     * @throws  IOException if one is encountered while creating the directory.
+     */
+    static void createDirectory() throws IOException {
+        Files.createDirectories(ROOT);
+    }
+
+    /**
+     * Deletes a file created by a benchmark, if it exists.
+     *
+     * @param   path    - the path of the file, relative to the server's root directory
+     *
+     * @throws  IOException if one is encountered while deleting the file.
+     */
+    static void delete(String path) throws IOException {
+        Files.deleteIfExists(Paths.get("public", path));
+    }
+
+    /**
+     * Creates a direct buffer filled with a repeating, poorly compressible pattern.
+     *
+     * @param   size    - the size of the buffer, in bytes
+     *
+     * @return  the flipped buffer.
+     */
+    static ByteBuffer pattern(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        long seed = 0x5DEECE66DL;
+
+        while (buffer.hasRemaining()) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            buffer.put((byte) (seed >>> 56));
+        }
+
+        return buffer.flip();
+    }
+
+}
@@ -0,0 +1,43 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.impl.BFTPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Starts servers for benchmarks to run against.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class BenchmarkServer {
+
+    /**
+     * Creates a server bound to an ephemeral port, and runs it on a daemon thread.
+     *
+     * @param   engine      - the engine with which to handle client connections
+     * @param   logstream   - the OutputStream to log to, or null to not log
+     *
+     * @return  the running server, see BFTPServer.getPort().
+     *
+     * @throws  IOException if the server cannot be bound.
+     */
+    static BFTPServer start(BFTPServer.Engine engine, OutputStream logstream) throws IOException {
+        BFTPServer server = new BFTPServer(0, logstream, engine);
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            }
+            catch (IOException ioe) {
+                // Stopped by shutdown()
+            }
+        }, "BFTP-Benchmark-Server");
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return server;
+    }
+
+}
@@ -0,0 +1,210 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+import net.nolasaint.bftp.impl.BFTPServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scaling of small GET requests from 1 to 10,000 concurrent clients over loopback.
+ *
+ * The clients are multiplexed on a single selector, so that their number is not limited by
+ * benchmark threads. Each operation is one round, in which every client sends a GET for a 1KB
+ * file and the round ends once every response has been read. The "requests" counter reports the
+ * number of requests answered per second, across all clients.
+ *
+ * The client and server sockets of the largest runs need more than 20,000 file descriptors, so
+ * the open file limit may need raising first, e.g. with "ulimit -n 32768".
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class ConcurrencyBenchmark {
+
+    /* FILE_SIZE is the size, in bytes, of the file each client requests */
+    private static final int FILE_SIZE = 1024;
+
+    /* MAX_PENDING is how many connections may wait to be accepted, below the default backlog */
+    private static final int MAX_PENDING = 32;
+
+    /* TIMEOUT is how long, in milliseconds, the server may go without accepting or responding */
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    @Param({"BLOCKING", "SELECTOR"})
+    public BFTPServer.Engine engine;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int clients;
+
+    private BFTPServer server;
+    private ByteBuffer receive, request;
+    private Selector selector;
+    private SocketChannel channels[];
+    private long remaining[], responseLength;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte path[] = BenchmarkFiles.create(FILE_SIZE).getBytes(StandardCharsets.UTF_8);
+        InetSocketAddress address;
+
+        server = BenchmarkServer.start(engine, null);
+        address = new InetSocketAddress("localhost", server.getPort());
+
+        try (BenchmarkClient client = new BenchmarkClient(server.getPort())) {
+            responseLength = BFTP.HEADER_LENGTH + client.get(path);
+        }
+
+        receive = ByteBuffer.allocateDirect(64 * 1024);
+        request = ByteBuffer.allocateDirect(BFTP.HEADER_LENGTH + path.length);
+        FrameCodec.putHeader(request, path.length, BFTP.GET).put(path).flip();
+
+        selector = Selector.open();
+        channels = new SocketChannel[clients];
+        remaining = new long[clients];
+
+        for (int i = 0; i < clients; i++) {
+            awaitAccepted(i - MAX_PENDING);
+
+            try {
+                channels[i] = SocketChannel.open(address);
+            }
+            catch (IOException ioe) {
+                throw new IOException("Could not open client " + i + ", the open file limit may "
+                        + "be too low", ioe);
+            }
+
+            channels[i].configureBlocking(false);
+            channels[i].register(selector, SelectionKey.OP_READ, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : channels) {
+            if (null != channel) {
+                channel.close();
+            }
+        }
+
+        selector.close();
+        server.shutdown();
+    }
+
+    /**
+     * Requests answered per second, reported alongside the rounds per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Requests {
+
+        public long requests;
+
+    }
+
+    @Benchmark
+    public void round(Requests counter) throws IOException {
+        int outstanding = clients;
+
+        for (int i = 0; i < clients; i++) {
+            request.rewind();
+
+            while (request.hasRemaining()) {
+                channels[i].write(request);
+            }
+
+            remaining[i] = responseLength;
+        }
+
+        while (outstanding > 0) {
+            if (0 == selector.select(TIMEOUT)) {
+                throw new IOException(outstanding + " responses timed out, the server may have "
+                        + "run out of file descriptors");
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                int client = (Integer) key.attachment();
+                int count;
+
+                keys.remove();
+
+                while (remaining[client] > 0) {
+                    receive.clear();
+
+                    if ((count = channels[client].read(receive)) < 0) {
+                        throw new EOFException("Server closed the connection of client " + client);
+                    }
+                    else if (0 == count) {
+                        break;
+                    }
+
+                    remaining[client] -= count;
+
+                    if (0 == remaining[client]) {
+                        outstanding--;
+                    }
+                }
+            }
+        }
+
+        counter.requests += clients;
+    }
+
+    /**
+     * Helper method to wait until the server has accepted the given number of clients, so that
+     * connections beyond its backlog are not dropped and retried after a second or more.
+     *
+     * @param   count   - the number of clients which must have been accepted
+     *
+     * @throws  IOException if the server stops accepting connections.
+     */
+    private void awaitAccepted(int count) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+
+        // The first connection accepted measured the response length
+        while (server.getStatistics().get("connections.accepted").longValue() - 1 < count) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("Server stopped accepting connections after " + count
+                        + " clients, it may have run out of file descriptors");
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding and decoding frames, without any I/O.
+ *
+ * Frames are decoded both from a stream, as the blocking engine does, and in place from a
+ * buffer, as the selector engine does. Operations take nanoseconds, so only throughput is
+ * measured; latency percentiles at this scale would mostly measure the timer.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    /* FRAMES is the number of frames held in the decoded stream and buffer */
+    private static final int FRAMES = 256;
+
+    @Param({"0", "64", "4096", "65536"})
+    public int contentSize;
+
+    private byte content[];
+    private ByteBuffer encoded, frames;
+    private FrameCodec codec;
+    private int index;
+
+    @Setup
+    public void setup() {
+        content = new byte[contentSize];
+        encoded = ByteBuffer.allocate(BFTP.EXTENDED_HEADER_LENGTH + contentSize);
+        frames = ByteBuffer.allocate(FRAMES * (BFTP.HEADER_LENGTH + contentSize));
+
+        for (int i = 0; i < FRAMES; i++) {
+            FrameCodec.putHeader(frames, contentSize, (byte) (BFTP.GET | BFTP.RSP)).put(content);
+        }
+
+        frames.flip();
+        codec = new FrameCodec(new LoopingInputStream(frames.array()), Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        encoded.clear();
+
+        return FrameCodec.putHeader(encoded, contentSize, (byte) (BFTP.GET | BFTP.RSP))
+                .put(content);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeExtendedHeader() {
+        encoded.clear();
+
+        return FrameCodec.putHeader(encoded, 1L << 32, (byte) (BFTP.GET | BFTP.RSP));
+    }
+
+    @Benchmark
+    public ByteBuffer decodeStream() throws IOException {
+        codec.readHeader();
+
+        return codec.readContent();
+    }
+
+    @Benchmark
+    public long decodeBuffer() {
+        long csize = FrameCodec.csize(frames, index);
+        byte opcode = FrameCodec.opcode(frames, index);
+
+        index += FrameCodec.headerLength(frames, index) + (int) csize;
+
+        if (index == frames.limit()) {
+            index = 0;
+        }
+
+        return csize + opcode;
+    }
+
+    /**
+     * Stream which endlessly repeats an array of whole frames.
+     */
+    private static final class LoopingInputStream extends InputStream {
+
+        private final byte data[];
+        private int position;
+
+        /**
+         * Creates a LoopingInputStream.
+         *
+         * @param   data    - the frames to repeat
+         */
+        LoopingInputStream(byte data[]) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int value = data[position] & 0xFF;
+
+            position = (position + 1) % data.length;
+
+            return value;
+        }
+
+        @Override
+        public int read(byte buffer[], int offset, int length) {
+            int count = Math.min(length, data.length - position);
+
+            System.arraycopy(data, position, buffer, offset, count);
+            position = (position + count) % data.length;
+
+            return count;
+        }
+
+    }
+
+}
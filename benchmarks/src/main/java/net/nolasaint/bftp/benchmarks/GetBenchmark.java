@@ -0,0 +1,87 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.impl.BFTPServer;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of GET requests over loopback, from 1KB to 1GB files.
+ *
+ * Small files are served from the hot-file cache, mid-sized files through
+ * FileChannel.transferTo(), and files above the mapping threshold from shared mappings, so the
+ * sizes cover each of the server's GET paths.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetBenchmark {
+
+    @Param({"BLOCKING", "SELECTOR"})
+    public BFTPServer.Engine engine;
+
+    @Param({"1024", "65536", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private BFTPServer server;
+    private byte path[];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = BenchmarkFiles.create(size).getBytes(StandardCharsets.UTF_8);
+        server = BenchmarkServer.start(engine, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Each benchmark thread holds its own connection.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private BenchmarkClient client;
+
+        @Setup(Level.Trial)
+        public void connect(GetBenchmark benchmark) throws IOException {
+            client = new BenchmarkClient(benchmark.server.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            client.close();
+        }
+
+    }
+
+    @Benchmark
+    public long get(Connection connection) throws IOException {
+        return connection.client.get(path);
+    }
+
+}
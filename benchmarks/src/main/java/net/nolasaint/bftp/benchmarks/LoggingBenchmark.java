@@ -0,0 +1,100 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.impl.BFTPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of logging on small GET requests.
+ *
+ * The same 1KB GET is measured against a server which does not log, and against servers logging
+ * to a discarding stream at each level. Comparing OFF with ERROR gives the cost of entries which
+ * are filtered out, and comparing ERROR with DEBUG gives the cost of entries which are buffered
+ * and written.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+    /* FILE_SIZE is the size, in bytes, of the requested file */
+    private static final int FILE_SIZE = 1024;
+
+    @Param({"BLOCKING", "SELECTOR"})
+    public BFTPServer.Engine engine;
+
+    /* level is a BFTPServer.LogLevel, or OFF for a server without a logstream */
+    @Param({"OFF", "ERROR", "INFO", "DEBUG"})
+    public String level;
+
+    private BFTPServer server;
+    private byte path[];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = BenchmarkFiles.create(FILE_SIZE).getBytes(StandardCharsets.UTF_8);
+
+        if ("OFF".equals(level)) {
+            server = BenchmarkServer.start(engine, null);
+        }
+        else {
+            server = BenchmarkServer.start(engine, OutputStream.nullOutputStream());
+            server.setLogLevel(BFTPServer.LogLevel.valueOf(level));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Each benchmark thread holds its own connection.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private BenchmarkClient client;
+
+        @Setup(Level.Trial)
+        public void connect(LoggingBenchmark benchmark) throws IOException {
+            client = new BenchmarkClient(benchmark.server.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            client.close();
+        }
+
+    }
+
+    @Benchmark
+    public long get(Connection connection) throws IOException {
+        return connection.client.get(path);
+    }
+
+}
@@ -0,0 +1,137 @@
+package net.nolasaint.bftp.benchmarks;
+
+import net.nolasaint.bftp.impl.BFTPServer;
+import net.nolasaint.bftp.impl.Storage;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of PUT requests over loopback, from 1KB to 64MB files.
+ *
+ * The server is overwriting, so each benchmark thread repeatedly replaces its own file, and each
+ * operation includes writing the temporary file and committing it.
+ *
+ * Files are stored on the filesystem or the heap. The pack-file backend may be selected with
+ * -p storage=pack, but keeps every version of each file, so grows by the size of each PUT.
+ * Each PUT is synced alone; group commit may be measured with -p durability=GROUP and several
+ * threads, e.g. -t 16.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PutBenchmark {
+
+    @Param({"SYNC"})
+    public BFTPServer.Durability durability;
+
+    @Param({"BLOCKING", "SELECTOR"})
+    public BFTPServer.Engine engine;
+
+    @Param({"1024", "65536", "1048576", "67108864"})
+    public int size;
+
+    @Param({"filesystem", "memory"})
+    public String storage;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private BFTPServer server;
+    private ByteBuffer data;
+    private Path packDirectory;
+    private Storage store;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkFiles.createDirectory();
+
+        if ("pack".equals(storage)) {
+            packDirectory = Files.createTempDirectory("bftp-pack");
+            store = Storage.pack(packDirectory);
+        }
+        else {
+            store = "memory".equals(storage) ? Storage.memory() : Storage.filesystem();
+        }
+
+        data = BenchmarkFiles.pattern(size);
+        server = BenchmarkServer.start(engine, null);
+        server.setOverwriting(true);
+        server.setStorage(store);
+        server.setDurability(durability);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+        store.close();
+
+        if (null != packDirectory) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(packDirectory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+
+            Files.delete(packDirectory);
+        }
+    }
+
+    /**
+     * Each benchmark thread holds its own connection, and stores its own file.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private BenchmarkClient client;
+        private String name;
+        private byte path[];
+
+        @Setup(Level.Trial)
+        public void connect(PutBenchmark benchmark) throws IOException {
+            name = BenchmarkFiles.DIRECTORY + "put-" + benchmark.connections.incrementAndGet()
+                    + ".bin";
+            path = name.getBytes(StandardCharsets.UTF_8);
+            client = new BenchmarkClient(benchmark.server.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            client.close();
+            BenchmarkFiles.delete(name);
+        }
+
+    }
+
+    @Benchmark
+    public void put(Connection connection) throws IOException {
+        connection.client.put(connection.path, data);
+    }
+
+}
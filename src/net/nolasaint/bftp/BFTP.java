@@ -20,12 +20,176 @@ public final class BFTP {
     public static final int OPCODE_LENGTH = 1; // in bytes ... length of opcode field
     public static final int HEADER_LENGTH = CSIZE_LENGTH + OPCODE_LENGTH;
 
+    /* EXTENDED HEADER LAYOUT ... [LCSIZE_MARKER][opcode][lcsize] */
+    public static final int LCSIZE_LENGTH = 8; // in bytes ... length of 64-bit content size field
+    public static final int LCSIZE_MARKER = -1; // csize value which indicates an lcsize follows
+    public static final int EXTENDED_HEADER_LENGTH = HEADER_LENGTH + LCSIZE_LENGTH;
+
+    /* PUT CONTENT LAYOUT ... [plen][path][file data] */
+    public static final int PLEN_LENGTH   = 2; // in bytes ... length of PUT path length field
+
+    /* SEQ CONTENT LAYOUT ... [rid][content of the untagged frame] */
+    public static final int RID_LENGTH    = 4; // in bytes ... length of request ID field
+    public static final int WINDOW_LENGTH = 4; // in bytes ... length of SEQ negotiation field
+
+    /* CMP CONTENT LAYOUT ... GET request: [codecs][path], compressed data: [codec][data] */
+    public static final int CODEC_LENGTH  = 1; // in bytes ... length of codec field
+
+    /* EXT CONTENT LAYOUT ... [xop][content of the extended command] */
+    public static final int XOP_LENGTH    = 1; // in bytes ... length of extended command field
+
+    /* RANGE CONTENT LAYOUT ... request: [offset][count][path], response: [fsize][file data] */
+    public static final int OFFSET_LENGTH = 8; // in bytes ... length of range offset field
+    public static final int COUNT_LENGTH  = 8; // in bytes ... length of range count field
+    public static final int FSIZE_LENGTH  = 8; // in bytes ... length of total file size field
+
+    /* BATCH CONTENT LAYOUT ... [kind][plen][path] per request entry, [status][plen][path][...] */
+    public static final int KIND_LENGTH   = 1; // in bytes ... length of entry kind field
+    public static final int STATUS_LENGTH = 1; // in bytes ... length of batch status field
+
+    /* LIST CONTENT LAYOUT ... [flags][path] request, [kind][size][mtime][plen][path] per entry */
+    public static final int FLAGS_LENGTH  = 1; // in bytes ... length of listing flags field
+    public static final int SIZE_LENGTH   = 8; // in bytes ... length of entry size field
+    public static final int MTIME_LENGTH  = 8; // in bytes ... length of entry modified time field
+    public static final int HASH_LENGTH   = 32; // in bytes ... length of entry content hash field
+
+    /* STRIPE CONTENT LAYOUT ... [stage][content of the stage], see STRIPE STAGES */
+    public static final int STAGE_LENGTH  = 1; // in bytes ... length of striped upload stage field
+    public static final int TOKEN_LENGTH  = 8; // in bytes ... length of upload session token field
+
     /* OPCODES */
-    //                                 0b000ERFPG ... Philosophy
+    //                                 0bXCSERFPG ... Philosophy
     public static final byte GET     = 0b00000001; // GET bit set
     public static final byte PUT     = 0b00000010; // PUT bit set
     public static final byte FIN     = 0b00000100; // FIN bit set
     public static final byte RSP     = 0b00001000; // RSP bit set
     public static final byte ERR     = 0b00010000; // ERR bit set
+    public static final byte SEQ     = 0b00100000; // SEQ bit set
+    public static final byte CMP     = 0b01000000; // CMP bit set
+    public static final byte EXT     = (byte) 0b10000000; // EXT bit set
+
+    /* CODECS ... may be combined in the codecs field of a request */
+    public static final byte CODEC_DEFLATE = 0x01; // zlib-wrapped deflate, see java.util.zip
+
+    /* EXTENDED COMMANDS ... xop values, each may be combined with RSP / ERR in the opcode */
+    public static final byte X_RANGE  = 0x01; // GET part of a file
+    public static final byte X_STATS  = 0x02; // GET server statistics
+    public static final byte X_BATCH  = 0x03; // GET many files
+    public static final byte X_LIST   = 0x04; // GET the entries of a directory
+    public static final byte X_CGET   = 0x05; // GET a file, unless it has the given hash
+    public static final byte X_STRIPE = 0x06; // PUT a file in parallel stripes
+
+    /* BATCH ENTRY KINDS */
+    public static final byte BATCH_PATH = 0x00; // path of a single file
+    public static final byte BATCH_GLOB = 0x01; // glob matched against every file under the root
+
+    /* BATCH STATUSES */
+    public static final byte BATCH_OK   = 0x00; // [plen][path][file data]
+    public static final byte BATCH_ERR  = 0x01; // [plen][path][response string]
+    public static final byte BATCH_END  = 0x02; // no further content, the batch is complete
+
+    /* LIST FLAGS ... may be combined in the flags field of a request */
+    public static final byte LIST_RECURSIVE = 0x01; // include the contents of subdirectories
+    public static final byte LIST_HASHES    = 0x02; // follow each entry with its content hash
+
+    /* LIST ENTRY KINDS */
+    public static final byte LIST_FILE      = 0x00; // regular file
+    public static final byte LIST_DIRECTORY = 0x01; // directory, whose size is 0
+
+    /* CGET STATUSES ... request: [hash][path], response: [status][hash][...] */
+    public static final byte CGET_MODIFIED  = 0x00; // [hash][file data]
+    public static final byte CGET_UNCHANGED = 0x01; // [hash], the client's copy is current
+
+    /* STRIPE STAGES ... request content, response content; responses begin with the stage */
+    public static final byte STRIPE_OPEN   = 0x00; // [fsize][path], [token]
+    public static final byte STRIPE_DATA   = 0x01; // [token][offset][file data], none
+    public static final byte STRIPE_COMMIT = 0x02; // [token], none
+    public static final byte STRIPE_ABORT  = 0x03; // [token], none
+
+    /*
+     * PIPELINING
+     *
+     * A client negotiates pipelining by sending a frame with only the SEQ bit set, whose content
+     * is the number of requests it would like to have in flight (WINDOW_LENGTH bytes). The server
+     * answers with SEQ | RSP and the number it grants, or with SEQ | RSP | ERR if it does not
+     * support pipelining, in which case the connection remains lock-step.
+     *
+     * Once granted, the client may set the SEQ bit on requests. The content of such a frame is
+     * prefixed with a request ID (RID_LENGTH bytes) chosen by the client, and the response to it
+     * carries the SEQ bit and the same request ID. Responses to SEQ requests may arrive in any
+     * order. Requests without the SEQ bit are still answered in lock-step, after all requests in
+     * flight have been answered.
+     */
+
+    /*
+     * COMPRESSION
+     *
+     * Compression is negotiated per frame. A client which accepts a compressed GET response sets
+     * the CMP bit on the request, and prefixes the path with the codecs it accepts. The server
+     * chooses whether to compress: a compressed response carries the CMP bit, and its content is
+     * the codec used followed by the compressed file. Otherwise the response is sent as if the
+     * CMP bit had not been set. Error responses are never compressed.
+     *
+     * A client may likewise set the CMP bit on a PUT, in which case the file data is the codec
+     * used followed by the compressed file.
+     */
+
+    /*
+     * LARGE CONTENT
+     *
+     * A csize field can only describe content of up to 2GiB. Larger content is described by
+     * setting csize to LCSIZE_MARKER, and following the opcode with a 64-bit content size
+     * (LCSIZE_LENGTH bytes). Smaller content must use the plain header.
+     *
+     * EXTENDED COMMANDS
+     *
+     * Commands which do not have an opcode bit of their own are sent with the EXT bit set, and
+     * their content begins with the xop identifying the command. The response, including an ERR
+     * response, carries the EXT bit and begins with the same xop.
+     *
+     * X_RANGE requests count bytes of the file at path, starting from offset. The response holds
+     * the total size of the file, then the bytes from offset up to offset + count or the end of
+     * the file, whichever comes first. A client can therefore resume an interrupted download
+     * from the number of bytes it has, or fetch parts of a large file in parallel.
+     *
+     * X_STATS requests the server's statistics. The response holds one statistic per line, as
+     * its name, a space and its value, in UTF-8. Names are stable, but new statistics may be
+     * added, so clients should ignore names they do not recognize.
+     *
+     * X_BATCH requests many files at once. Its content is a sequence of entries, each a kind, a
+     * path length (PLEN_LENGTH bytes) and a path. A BATCH_PATH entry names one file, and a
+     * BATCH_GLOB entry names every regular file whose path, relative to the root directory and
+     * separated by '/', matches the glob (see java.nio.file.FileSystem.getPathMatcher()), in
+     * lexicographic order. The server answers with one frame per file, in request order, each
+     * holding the xop, a status, the path and either the file data or the response string. A
+     * file which cannot be sent, or a glob which matches no files, only fails its own frame. A
+     * final BATCH_END frame completes the batch. If the batch cannot be handled at all, e.g.
+     * because it names too many files, the server sends a single ERR response instead.
+     *
+     * X_LIST requests the entries of the directory at path, which is empty for the root
+     * directory. Each entry holds its kind, its size, its modification time in milliseconds since
+     * the epoch, and its path relative to the root directory, separated by '/'. Entries are
+     * sorted by name; with LIST_RECURSIVE, each directory is followed by its own entries. With
+     * LIST_HASHES, each entry is followed by the SHA-256 digest of the file, which is all zeros
+     * for a directory or a file which could not be hashed. Listings are served from an index,
+     * which may trail changes made by other processes by a few seconds.
+     *
+     * X_CGET is a conditional GET, which carries the SHA-256 digest of the copy of the file at
+     * path which the client already has, or all zeros if it has none. If the file still has that
+     * digest, the server answers CGET_UNCHANGED without the file data. Otherwise it answers
+     * CGET_MODIFIED with the file data. Both responses carry the current digest of the file,
+     * which the client may keep for its next X_CGET.
+     *
+     * X_STRIPE uploads a large file over several connections at once. STRIPE_OPEN begins an
+     * upload of fsize bytes to path, and answers with a token which names the upload on any
+     * connection. Each STRIPE_DATA then carries the bytes of the file from offset, and may be
+     * sent in any order, on any connection, and again if it was lost. STRIPE_COMMIT replaces the
+     * file at path once every byte of the file has been received, and fails otherwise, leaving
+     * the upload open for the missing stripes. STRIPE_ABORT discards the upload. Unlike other
+     * requests, STRIPE_DATA may exceed the maximum frame size. An upload which receives no
+     * stripes for several minutes is discarded by the server.
+     *
+     * Downloads may be striped without a session, with one X_RANGE request per stripe.
+     */
 
 }
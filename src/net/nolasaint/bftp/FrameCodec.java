@@ -0,0 +1,363 @@
+package net.nolasaint.bftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes BFTP frames.
+ *
+ * A FrameCodec reads from its InputStream in bulk into a single reusable buffer, and decodes the
+ * header of each frame in place into primitive fields. Content is returned as a view of the same
+ * buffer, so decoding a frame does not allocate. The returned views are only valid until the
+ * next call which reads from the codec.
+ *
+ * Content which is buffered in full is bounded by a maximum frame size, so that a client cannot
+ * make the reader allocate arbitrary amounts of memory. Content which is streamed with
+ * readChunk() is not bounded.
+ *
+ * The static methods encode and decode frame headers held in any ByteBuffer, and may be used
+ * without an instance, for example by non-blocking readers. Headers of content larger than 2GiB
+ * are extended with a 64-bit content size, as described in BFTP.
+ *
+ * Instances are not thread-safe.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public final class FrameCodec {
+
+    /* DEFAULT_BUFFER_SIZE is the initial size of the read buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /* DEFAULT_MAX_FRAME_SIZE is the default bound on content that is buffered in full */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+    private final InputStream input;
+    private final int maxFrameSize;
+
+    private byte opcode;
+    private long csize;
+    private ByteBuffer buffer, view;
+
+    /**
+     * Creates a FrameCodec which reads frames from the given stream.
+     *
+     * @param   input           - the stream to read frames from
+     * @param   maxFrameSize    - the maximum number of content bytes which may be buffered
+     *
+     * @throws  IllegalArgumentException if maxFrameSize is negative.
+     */
+    public FrameCodec(InputStream input, int maxFrameSize) {
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("Maximum frame size must not be negative");
+        }
+
+        this.input = input;
+        this.maxFrameSize = maxFrameSize;
+
+        buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        buffer.flip(); // nothing buffered yet
+        view = buffer.duplicate();
+    }
+
+    /**
+     * Creates a FrameCodec which reads frames from the given stream, using the default maximum
+     * frame size.
+     *
+     * @param   input   - the stream to read frames from
+     */
+    public FrameCodec(InputStream input) {
+        this(input, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Returns the content size of the current frame.
+     *
+     * @return  the csize of the frame whose header was last read, or its lcsize if the header was
+     *          extended.
+     */
+    public long csize() {
+        return csize;
+    }
+
+    /**
+     * Returns whether the content of the current frame is too large to be buffered in full.
+     *
+     * @return  TRUE if csize is negative or larger than the maximum frame size, else FALSE.
+     */
+    public boolean exceedsMaxFrameSize() {
+        return csize < 0 || csize > maxFrameSize;
+    }
+
+    /**
+     * Returns whether the given bit is set in the opcode of the current frame.
+     *
+     * @param   bit - the opcode bit(s) to test, e.g. BFTP.FIN
+     *
+     * @return  TRUE if any of the given bits is set, else FALSE.
+     */
+    public boolean isSet(byte bit) {
+        return isSet(opcode, bit);
+    }
+
+    /**
+     * Returns the maximum number of content bytes which this codec will buffer.
+     *
+     * @return  the maximum frame size.
+     */
+    public int maxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Returns the opcode field of the current frame.
+     *
+     * @return  the opcode of the frame whose header was last read.
+     */
+    public byte opcode() {
+        return opcode;
+    }
+
+    /**
+     * Reads up to the given number of bytes of streamed content.
+     *
+     * Whatever is already buffered is returned first. Otherwise, this blocks until at least one
+     * byte is available.
+     *
+     * @param   remaining   - the number of content bytes which have not yet been read
+     *
+     * @return  a view of between 1 and remaining bytes, valid until the next read.
+     *
+     * @throws  EOFException if the stream ends.
+     * @throws  IOException if one is encountered while reading from the stream.
+     */
+    public ByteBuffer readChunk(long remaining) throws IOException {
+        require(1);
+
+        return consume((int) Math.min(remaining, buffer.remaining()));
+    }
+
+    /**
+     * Reads the entire content of the current frame.
+     *
+     * @return  a view of the content, valid until the next read.
+     *
+     * @throws  EOFException if the stream ends.
+     * @throws  IOException if the content exceeds the maximum frame size, or if one is
+     *          encountered while reading from the stream.
+     */
+    public ByteBuffer readContent() throws IOException {
+        if (exceedsMaxFrameSize()) {
+            throw new IOException("Frame content exceeds maximum frame size");
+        }
+
+        return readContent((int) csize);
+    }
+
+    /**
+     * Reads the given number of content bytes of the current frame.
+     *
+     * @param   length  - the number of bytes to read, at most 65535 more than the maximum frame
+     *                    size
+     *
+     * @return  a view of the content, valid until the next read.
+     *
+     * @throws  EOFException if the stream ends.
+     * @throws  IOException if one is encountered while reading from the stream.
+     */
+    public ByteBuffer readContent(int length) throws IOException {
+        require(length);
+
+        return consume(length);
+    }
+
+    /**
+     * Reads the header of the next frame, blocking until it is available.
+     *
+     * @throws  EOFException if the stream ends.
+     * @throws  IOException if one is encountered while reading from the stream.
+     */
+    public void readHeader() throws IOException {
+        require(BFTP.HEADER_LENGTH);
+
+        // Extended headers are only consumed once the lcsize field is buffered as well
+        require(headerLength(buffer, buffer.position()));
+
+        csize = csize(buffer, buffer.position());
+        opcode = opcode(buffer, buffer.position());
+        buffer.position(buffer.position() + headerLength(buffer, buffer.position()));
+    }
+
+    /**
+     * Discards the given number of content bytes.
+     *
+     * @param   length  - the number of bytes to discard
+     *
+     * @throws  EOFException if the stream ends.
+     * @throws  IOException if one is encountered while reading from the stream.
+     */
+    public void skip(long length) throws IOException {
+        while (length > 0) {
+            length -= readChunk(length).remaining();
+        }
+    }
+
+    /**
+     * Decodes the content size of a header held in a buffer.
+     *
+     * @param   frame   - the buffer holding the whole header, see headerLength()
+     * @param   index   - the index of the first byte of the header
+     *
+     * @return  the csize of the header, or its lcsize if the header is extended.
+     */
+    public static long csize(ByteBuffer frame, int index) {
+        int csize = frame.getInt(index);
+
+        return (BFTP.LCSIZE_MARKER == csize) ? frame.getLong(index + BFTP.HEADER_LENGTH) : csize;
+    }
+
+    /**
+     * Returns the length of a header held in a buffer.
+     *
+     * @param   frame   - the buffer holding at least the csize field of the header
+     * @param   index   - the index of the first byte of the header
+     *
+     * @return  EXTENDED_HEADER_LENGTH if the header is extended, else HEADER_LENGTH.
+     */
+    public static int headerLength(ByteBuffer frame, int index) {
+        return (BFTP.LCSIZE_MARKER == frame.getInt(index))
+                ? BFTP.EXTENDED_HEADER_LENGTH
+                : BFTP.HEADER_LENGTH;
+    }
+
+    /**
+     * Returns the length of the header which putHeader() encodes for the given content size.
+     *
+     * @param   csize   - the content size of the frame
+     *
+     * @return  EXTENDED_HEADER_LENGTH if csize does not fit in the csize field, else
+     *          HEADER_LENGTH.
+     */
+    public static int headerLength(long csize) {
+        return (csize > Integer.MAX_VALUE) ? BFTP.EXTENDED_HEADER_LENGTH : BFTP.HEADER_LENGTH;
+    }
+
+    /**
+     * Returns whether the given bit is set in an opcode.
+     *
+     * @param   opcode  - the opcode to test
+     * @param   bit     - the opcode bit(s) to test, e.g. BFTP.FIN
+     *
+     * @return  TRUE if any of the given bits is set, else FALSE.
+     */
+    public static boolean isSet(byte opcode, byte bit) {
+        return (opcode & bit) != 0;
+    }
+
+    /**
+     * Decodes the opcode field of a header held in a buffer.
+     *
+     * @param   frame   - the buffer holding the header
+     * @param   index   - the index of the first byte of the header
+     *
+     * @return  the opcode of the header.
+     */
+    public static byte opcode(ByteBuffer frame, int index) {
+        return frame.get(index + BFTP.CSIZE_LENGTH);
+    }
+
+    /**
+     * Encodes a frame header at the position of the given buffer.
+     *
+     * The header is extended if csize does not fit in the csize field.
+     *
+     * @param   frame   - the buffer to write the header to
+     * @param   csize   - the content size of the frame
+     * @param   opcode  - the opcode of the frame
+     *
+     * @return  the given buffer.
+     */
+    public static ByteBuffer putHeader(ByteBuffer frame, long csize, byte opcode) {
+        if (csize > Integer.MAX_VALUE) {
+            // [0,3] ~ LCSIZE_MARKER, [4] ~ opcode, [5,12] ~ lcsize
+            frame.putInt(BFTP.LCSIZE_MARKER);
+            frame.put(opcode);
+            frame.putLong(csize);
+        }
+        else {
+            // [0,4] ~ csize, [5,6] ~ opcode
+            frame.putInt((int) csize);
+            frame.put(opcode);
+        }
+
+        return frame;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to consume buffered bytes through the reusable view.
+     *
+     * @param   length  - the number of buffered bytes to consume
+     *
+     * @return  a view of the consumed bytes.
+     */
+    private ByteBuffer consume(int length) {
+        int position = buffer.position();
+
+        view.clear();
+        view.position(position).limit(position + length);
+        buffer.position(position + length);
+
+        return view;
+    }
+
+    /**
+     * Helper method to ensure that at least the given number of bytes are buffered.
+     *
+     * The buffer is grown if it is too small, but otherwise reused; reads fill as much of it as
+     * the stream makes available.
+     *
+     * @param   length  - the number of bytes which must be buffered
+     *
+     * @throws  EOFException if the stream ends first.
+     * @throws  IOException if one is encountered while reading from the stream.
+     */
+    private void require(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+
+        if (buffer.capacity() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+
+            larger.put(buffer);
+            buffer = larger;
+            view = buffer.duplicate();
+        }
+        else {
+            buffer.compact();
+        }
+
+        try {
+            while (buffer.position() < length) {
+                int count = input.read(buffer.array(), buffer.position(), buffer.remaining());
+
+                if (count < 0) {
+                    throw new EOFException("Stream ended within a frame");
+                }
+
+                buffer.position(buffer.position() + count);
+            }
+        }
+        finally {
+            buffer.flip();
+        }
+    }
+
+}
@@ -0,0 +1,1162 @@
+package net.nolasaint.bftp.client;
+
+import net.nolasaint.bftp.BFTP;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client for a BFTP server, with a pool of persistent connections.
+ *
+ * Requests are asynchronous: each returns a CompletableFuture, and is run on one of the client's
+ * threads over a pooled connection. There are as many threads as connections, so no more than
+ * maxConnections requests are in flight at once, and further requests wait their turn.
+ *
+ * File data is streamed between the connection and a file or channel, so files are never held in
+ * memory as a whole. Requests which fail because the server sent FIN or the connection was lost
+ * are retried on a new connection, up to maxRetries times. A GET which fails part way through is
+ * resumed with X_RANGE from the bytes already written, rather than restarted. ERR responses are
+ * not retried, and complete the request with a BFTPException.
+ *
+ * A batch GET downloads many files over one connection, each of which may fail on its own. If the
+ * connection is lost, the whole batch is retried.
+ *
+ * Large files may be striped: split into ranges which are transferred over several connections
+ * at once, so that one transfer is not limited to the throughput of a single TCP stream. Each
+ * stripe is retried on its own.
+ *
+ * A PUT, or the commit of a striped PUT, is not idempotent: once the server has stored the file,
+ * retrying it against a server which is not overwriting would fail with "File already exists".
+ * So these are only retried if the connection was lost before the request was sent in full, or
+ * the server sent FIN in place of a response. If the connection is lost while waiting for the
+ * response, the request fails with the IOException, and whether the file was stored is unknown.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public class BFTPClient implements Closeable {
+
+    /* DEFAULT_MAX_CONNECTIONS is the default number of connections opened to the server */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /* DEFAULT_MAX_RETRIES is the default number of times a request is retried */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /* DOWNLOAD_SUFFIX is appended to the name of a file which is downloaded before replacing it */
+    private static final String DOWNLOAD_SUFFIX = ".bftp-download";
+
+    /* HASH_ALGORITHM is the MessageDigest which X_CGET hashes are computed with */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /* HASH_BUFFER_SIZE is the size, in bytes, of the buffer local files are hashed through */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /* MIN_STRIPE_SIZE is the size, in bytes, of the smallest stripe a file is split into */
+    private static final long MIN_STRIPE_SIZE = 4 * 1024 * 1024;
+
+    private final InetSocketAddress address;
+    private final Deque<Connection> connections;
+    private final ExecutorService executor;
+
+    private volatile boolean closed;
+    private volatile int maxRetries;
+
+    /**
+     * Creates a BFTPClient for the server at the given address. Connections are opened as they
+     * are needed.
+     *
+     * @param   host            - the host name or address of the server
+     * @param   port            - the port the server is bound to
+     * @param   maxConnections  - the maximum number of connections to open to the server
+     *
+     * @throws  IllegalArgumentException if the port is outside the range of valid port values, or
+     *          if maxConnections is not positive.
+     */
+    public BFTPClient(String host, int port, int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Maximum connections must be positive");
+        }
+
+        address = new InetSocketAddress(host, port);
+        connections = new ConcurrentLinkedDeque<>();
+        maxRetries = DEFAULT_MAX_RETRIES;
+
+        executor = Executors.newFixedThreadPool(maxConnections, task -> {
+            Thread thread = new Thread(task, "BFTP-Client");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a BFTPClient for the server at the given address, with the default maximum number
+     * of connections.
+     *
+     * @param   host    - the host name or address of the server
+     * @param   port    - the port the server is bound to
+     *
+     * @throws  IllegalArgumentException if the port is outside the range of valid port values.
+     */
+    public BFTPClient(String host, int port) {
+        this(host, port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Closes every pooled connection, after the requests already made have completed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+
+        try {
+            while (!executor.isTerminated()) {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeIdleConnections();
+    }
+
+    /**
+     * Downloads several files into a local directory with a single request.
+     *
+     * Each file is written to its path under the directory, creating any missing directories,
+     * and replacing any existing file. Files which cannot be downloaded are reported in the
+     * result rather than failing the batch.
+     *
+     * @param   paths       - paths of the files, relative to the server's root directory
+     * @param   directory   - the local directory to write the files to
+     *
+     * @return  a future completed with the files downloaded and the files which failed.
+     *
+     * @throws  IllegalArgumentException if a path is too long to be sent.
+     */
+    public CompletableFuture<BatchResult> getAll(List<String> paths, Path directory) {
+        ByteBuffer entries = batchEntries(BFTP.BATCH_PATH, paths);
+
+        return submit(connection -> receiveBatch(connection, entries.duplicate(), directory));
+    }
+
+    /**
+     * Downloads every file which matches a glob into a local directory, with a single request.
+     *
+     * The glob is matched by the server against paths relative to its root directory, separated
+     * by '/', e.g. "docs/**.md". Files are written as by getAll().
+     *
+     * @param   glob        - the glob, see java.nio.file.FileSystem.getPathMatcher()
+     * @param   directory   - the local directory to write the files to
+     *
+     * @return  a future completed with the files downloaded and the files which failed, which
+     *          holds an error for the glob itself if it matched no files.
+     *
+     * @throws  IllegalArgumentException if the glob is too long to be sent.
+     */
+    public CompletableFuture<BatchResult> getMatching(String glob, Path directory) {
+        ByteBuffer entries = batchEntries(BFTP.BATCH_GLOB, List.of(glob));
+
+        return submit(connection -> receiveBatch(connection, entries.duplicate(), directory));
+    }
+
+    /**
+     * Downloads a file to a channel.
+     *
+     * The channel is written sequentially, and is not closed.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   target  - the channel to write the file to
+     *
+     * @return  a future completed with the size of the file, in bytes.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<Long> get(String path, WritableByteChannel target) {
+        byte pathBytes[] = pathBytes(path);
+        Download download = new Download();
+
+        return submit(connection -> download.run(connection, pathBytes, target));
+    }
+
+    /**
+     * Downloads a file to a local file, which is created or replaced.
+     *
+     * If the download fails, the local file is deleted.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   target  - the local file to write
+     *
+     * @return  a future completed with the size of the file, in bytes.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<Long> get(String path, Path target) {
+        byte pathBytes[] = pathBytes(path);
+        Download download = new Download();
+
+        return submit(connection -> {
+            if (null == download.file) {
+                download.file = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
+
+            return download.run(connection, pathBytes, download.file);
+        }).whenComplete((size, throwable) -> {
+            try {
+                if (null != download.file) {
+                    download.file.close();
+                }
+
+                if (null != throwable) {
+                    Files.deleteIfExists(target);
+                }
+            }
+            catch (IOException ioe) {
+                // The download has already succeeded or failed
+            }
+        });
+    }
+
+    /**
+     * Downloads a file to a local file, unless the local file already has the same content.
+     *
+     * The server compares the SHA-256 hash of the local file with its own, and only sends the
+     * file if they differ. It is downloaded beside the local file, which is then replaced, so the
+     * local file is left unchanged if the download fails.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   target  - the local file to compare and write, which need not exist
+     *
+     * @return  a future completed with TRUE if the file was downloaded, or FALSE if the local file
+     *          was already current.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<Boolean> getIfChanged(String path, Path target) {
+        byte pathBytes[] = pathBytes(path);
+        Path download = target.resolveSibling(target.getFileName() + DOWNLOAD_SUFFIX);
+
+        return submit(connection -> {
+            ByteBuffer prefix = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH
+                    + BFTP.HASH_LENGTH);
+
+            connection.sendConditionalGet(pathBytes, localHash(target));
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+            // [0] ~ xop, [1] ~ status, [2,33] ~ hash, then file data if modified
+            while (prefix.hasRemaining()) {
+                connection.read(prefix);
+            }
+
+            if (BFTP.CGET_UNCHANGED == prefix.get(BFTP.XOP_LENGTH)) {
+                connection.skip();
+
+                return false;
+            }
+
+            try (FileChannel file = FileChannel.open(download, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (connection.remaining() > 0) {
+                    connection.transferTo(file);
+                }
+            }
+
+            try {
+                Files.move(download, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(download, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return true;
+        }).whenComplete((changed, throwable) -> {
+            try {
+                if (null != throwable) {
+                    Files.deleteIfExists(download);
+                }
+            }
+            catch (IOException ioe) {
+                // The download has already failed
+            }
+        });
+    }
+
+    /**
+     * Downloads a file to a local file, which is created or replaced, over several connections at
+     * once. Each stripe of the file is requested with X_RANGE, and written at its position in the
+     * local file.
+     *
+     * Files too small to be split into stripes of at least 4MB are downloaded in fewer stripes.
+     * If a stripe fails, the local file is deleted.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   target  - the local file to write
+     * @param   stripes - the number of stripes to split the file into, of which no more than
+     *                    maxConnections are downloaded at once
+     *
+     * @return  a future completed with the size of the file, in bytes.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent, or if stripes is not
+     *          positive.
+     */
+    public CompletableFuture<Long> getStriped(String path, Path target, int stripes) {
+        byte pathBytes[] = pathBytes(path);
+
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripes must be positive");
+        }
+
+        return submit(connection -> receiveRange(connection, pathBytes, 0, 0, null, 0))
+                .thenCompose(size -> {
+                    FileChannel file;
+                    List<CompletableFuture<Long>> parts = new ArrayList<>();
+                    long length = stripeLength(size, stripes);
+
+                    try {
+                        file = FileChannel.open(target, StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    }
+                    catch (IOException ioe) {
+                        return CompletableFuture.failedFuture(ioe);
+                    }
+
+                    for (long offset = 0; offset < size; offset += length) {
+                        long start = offset, count = Math.min(length, size - offset);
+
+                        parts.add(submit(connection -> receiveRange(connection, pathBytes,
+                                start, count, file, size)));
+                    }
+
+                    return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                            .whenComplete((done, throwable) -> {
+                                try {
+                                    file.close();
+
+                                    if (null != throwable) {
+                                        Files.deleteIfExists(target);
+                                    }
+                                }
+                                catch (IOException ioe) {
+                                    // The download has already succeeded or failed
+                                }
+                            })
+                            .thenApply(done -> size);
+                });
+    }
+
+    /**
+     * Lists the files and subdirectories of a directory.
+     *
+     * @param   path        - path of the directory, relative to the server's root directory, or
+     *                        "" for the root directory
+     * @param   recursive   - whether to list the contents of subdirectories as well, each
+     *                        directory being followed by its contents
+     * @param   hashes      - whether the server should compute the hash of each file
+     *
+     * @return  a future completed with the entries of the directory, sorted by name.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<List<RemoteFile>> list(String path, boolean recursive,
+            boolean hashes) {
+        byte pathBytes[] = pathBytes(path);
+        byte flags = (byte) ((recursive ? BFTP.LIST_RECURSIVE : 0)
+                | (hashes ? BFTP.LIST_HASHES : 0));
+
+        return submit(connection -> {
+            connection.sendList(pathBytes, flags);
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+            return readListing(connection, hashes);
+        });
+    }
+
+    /**
+     * Uploads a file held in a buffer.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   data    - the file data, from its position to its limit, which must not be
+     *                    modified until the future completes; its position is not changed
+     *
+     * @return  a future completed once the server has stored the file.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<Void> put(String path, ByteBuffer data) {
+        byte pathBytes[] = pathBytes(path);
+
+        return submit(connection -> {
+            connection.sendPut(pathBytes, data.duplicate());
+
+            return expectPut(connection);
+        }, false);
+    }
+
+    /**
+     * Uploads a local file.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   source  - the local file to send, which must not change until the future completes
+     *
+     * @return  a future completed once the server has stored the file.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    public CompletableFuture<Void> put(String path, Path source) {
+        byte pathBytes[] = pathBytes(path);
+
+        return submit(connection -> {
+            try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+                connection.sendPut(pathBytes, file);
+            }
+
+            return expectPut(connection);
+        }, false);
+    }
+
+    /**
+     * Uploads a local file over several connections at once, with X_STRIPE.
+     *
+     * The server only replaces the file once every stripe has been received, and discards the
+     * upload if it fails. Files too small to be split into stripes of at least 4MB are uploaded
+     * in fewer stripes.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     * @param   source  - the local file to send, which must not change until the future completes
+     * @param   stripes - the number of stripes to split the file into, of which no more than
+     *                    maxConnections are uploaded at once
+     *
+     * @return  a future completed once the server has stored the file.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent, or if stripes is not
+     *          positive.
+     */
+    public CompletableFuture<Void> putStriped(String path, Path source, int stripes) {
+        byte pathBytes[] = pathBytes(path);
+        StripedPut put = new StripedPut();
+
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripes must be positive");
+        }
+
+        return submit(connection -> put.open(connection, pathBytes, source))
+                .thenCompose(opened -> {
+                    List<CompletableFuture<Void>> parts = new ArrayList<>();
+                    long length = stripeLength(put.size, stripes);
+
+                    for (long offset = 0; offset < put.size; offset += length) {
+                        long start = offset, count = Math.min(length, put.size - offset);
+
+                        parts.add(submit(connection -> put.send(connection, source, start,
+                                count)));
+                    }
+
+                    return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]));
+                })
+                .thenCompose(sent -> submit(connection -> put.end(connection,
+                        BFTP.STRIPE_COMMIT), false))
+                .whenComplete((committed, throwable) -> {
+                    if (null != throwable && put.opened) {
+                        // Frees the server of the upload at once, rather than once it is idle
+                        submit(connection -> put.end(connection, BFTP.STRIPE_ABORT));
+                    }
+                });
+    }
+
+    /**
+     * Sets the number of times a request is retried after the connection is lost.
+     *
+     * @param   maxRetries  - the maximum number of retries, or 0 to never retry
+     *
+     * @throws  IllegalArgumentException if maxRetries is negative.
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Maximum retries must not be negative");
+        }
+
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Returns the number of times a request is retried after the connection is lost.
+     *
+     * @return  the maximum number of retries.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to encode the entries of a batch request.
+     *
+     * @param   kind    - the kind of every entry
+     * @param   paths   - the paths or globs of the entries
+     *
+     * @return  a buffer holding the entries, ready to be sent.
+     *
+     * @throws  IllegalArgumentException if a path is too long to be sent.
+     */
+    private static ByteBuffer batchEntries(byte kind, List<String> paths) {
+        ByteBuffer entries;
+        byte pathBytes[][] = new byte[paths.size()][];
+        int length = 0;
+
+        for (int i = 0; i < pathBytes.length; i++) {
+            pathBytes[i] = pathBytes(paths.get(i));
+            length += BFTP.KIND_LENGTH + BFTP.PLEN_LENGTH + pathBytes[i].length;
+        }
+
+        entries = ByteBuffer.allocate(length);
+
+        for (byte path[] : pathBytes) {
+            entries.put(kind).putShort((short) path.length).put(path);
+        }
+
+        return entries.flip();
+    }
+
+    /**
+     * Helper method to close every pooled connection.
+     */
+    private void closeIdleConnections() {
+        Connection connection;
+
+        while (null != (connection = connections.poll())) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Helper method to read the response to a PUT request.
+     *
+     * @param   connection  - the connection the request was sent on
+     *
+     * @return  null.
+     *
+     * @throws  IOException if the server did not store the file.
+     */
+    private static Void expectPut(Connection connection) throws IOException {
+        expect(connection.receive(), (byte) (BFTP.PUT | BFTP.RSP));
+        connection.skip();
+
+        return null;
+    }
+
+    /**
+     * Helper method to check the opcode of a response.
+     *
+     * @param   opcode      - the opcode received
+     * @param   expected    - the opcode expected
+     *
+     * @throws  IOException if the opcodes differ.
+     */
+    private static void expect(byte opcode, byte expected) throws IOException {
+        if (opcode != expected) {
+            throw new IOException("Unexpected response opcode " + opcode + ", expected "
+                    + expected);
+        }
+    }
+
+    /**
+     * Helper method to encode a path for a request.
+     *
+     * @param   path    - path of the file, relative to the server's root directory
+     *
+     * @return  the UTF-8 path.
+     *
+     * @throws  IllegalArgumentException if the path is too long to be sent.
+     */
+    private static byte[] pathBytes(String path) {
+        byte pathBytes[] = path.getBytes(StandardCharsets.UTF_8);
+
+        if (pathBytes.length > Connection.MAX_PATH_LENGTH) {
+            throw new IllegalArgumentException("Path exceeds " + Connection.MAX_PATH_LENGTH
+                    + " bytes");
+        }
+
+        return pathBytes;
+    }
+
+    /**
+     * Helper method to read the entries of an X_LIST response.
+     *
+     * @param   connection  - the connection the response is read from
+     * @param   hashes      - whether each entry is followed by a hash
+     *
+     * @return  the entries, in the order they were sent.
+     *
+     * @throws  IOException if the socket fails, or the response is malformed.
+     */
+    private static List<RemoteFile> readListing(Connection connection, boolean hashes)
+            throws IOException {
+        List<RemoteFile> files = new ArrayList<>();
+        ByteBuffer fields = ByteBuffer.allocate(BFTP.KIND_LENGTH + BFTP.SIZE_LENGTH
+                + BFTP.MTIME_LENGTH + BFTP.PLEN_LENGTH);
+        ByteBuffer xop = ByteBuffer.allocate(BFTP.XOP_LENGTH);
+
+        connection.read(xop);
+
+        while (connection.remaining() > 0) {
+            byte hash[] = null;
+            String path;
+
+            fields.clear();
+
+            while (fields.hasRemaining()) {
+                connection.read(fields);
+            }
+
+            // [0] ~ kind, [1,8] ~ size, [9,16] ~ mtime, [17,18] ~ plen, then path and hash
+            path = readString(connection, fields.getShort(BFTP.KIND_LENGTH + BFTP.SIZE_LENGTH
+                    + BFTP.MTIME_LENGTH) & 0xFFFF);
+
+            if (hashes) {
+                ByteBuffer digest = ByteBuffer.allocate(BFTP.HASH_LENGTH);
+
+                while (digest.hasRemaining()) {
+                    connection.read(digest);
+                }
+
+                // A hash of all zeros means the server could not compute one
+                if (!digest.flip().equals(ByteBuffer.allocate(BFTP.HASH_LENGTH))) {
+                    hash = digest.array();
+                }
+            }
+
+            files.add(new RemoteFile(path, BFTP.LIST_DIRECTORY == fields.get(0),
+                    fields.getLong(BFTP.KIND_LENGTH),
+                    fields.getLong(BFTP.KIND_LENGTH + BFTP.SIZE_LENGTH), hash));
+        }
+
+        return files;
+    }
+
+    /**
+     * Helper method to compute the hash of a local file, as sent in an X_CGET request.
+     *
+     * @param   file    - the local file
+     *
+     * @return  its SHA-256 digest, or all zeros if it is not a regular file.
+     *
+     * @throws  IOException if the file cannot be read.
+     */
+    private static byte[] localHash(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return new byte[BFTP.HASH_LENGTH];
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+            while (channel.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to support SHA-256
+            throw new AssertionError(HASH_ALGORITHM + " not supported");
+        }
+    }
+
+    /**
+     * Helper method to request a range of a file with X_RANGE, and write it at its position in a
+     * local file.
+     *
+     * @param   connection  - the connection to use
+     * @param   path        - UTF-8 path of the file
+     * @param   offset      - position of the first byte requested
+     * @param   count       - the number of bytes requested
+     * @param   file        - the local file to write, or null if count is 0
+     * @param   size        - the size the file is expected to have, if file is not null
+     *
+     * @return  the size of the file, in bytes.
+     *
+     * @throws  IOException if the request fails, or the file does not have the expected size.
+     */
+    private static long receiveRange(Connection connection, byte path[], long offset,
+            long count, FileChannel file, long size) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.FSIZE_LENGTH);
+
+        connection.sendRange(path, offset, count);
+        expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+        // [0] ~ xop, [1,8] ~ fsize, then file data
+        while (prefix.hasRemaining()) {
+            connection.read(prefix);
+        }
+
+        if (null == file) {
+            connection.skip();
+
+            return prefix.getLong(BFTP.XOP_LENGTH);
+        }
+
+        if (prefix.getLong(BFTP.XOP_LENGTH) != size || connection.remaining() != count) {
+            throw new IOException("File changed size while being downloaded");
+        }
+
+        while (connection.remaining() > 0) {
+            offset += connection.transferTo(file, offset);
+        }
+
+        return size;
+    }
+
+    /**
+     * Helper method to read response content which is known to be short, in full.
+     *
+     * @param   connection  - the connection the content is read from
+     * @param   length      - the number of bytes to read
+     *
+     * @return  the content, decoded as UTF-8.
+     *
+     * @throws  IOException if the socket fails, or the content is too long.
+     */
+    private static String readString(Connection connection, long length) throws IOException {
+        ByteBuffer content;
+
+        if (length > connection.remaining() || length > Connection.MAX_PATH_LENGTH) {
+            throw new IOException("Malformed response");
+        }
+
+        content = ByteBuffer.allocate((int) length);
+
+        while (content.hasRemaining()) {
+            connection.read(content);
+        }
+
+        return StandardCharsets.UTF_8.decode(content.flip()).toString();
+    }
+
+    /**
+     * Helper method to send a batch request, and write each file of its response under a local
+     * directory.
+     *
+     * @param   connection  - the connection to use
+     * @param   entries     - the entries of the batch
+     * @param   directory   - the local directory to write the files to
+     *
+     * @return  the files downloaded and the files which failed.
+     *
+     * @throws  IOException if the batch was refused, or the request fails.
+     */
+    private static BatchResult receiveBatch(Connection connection, ByteBuffer entries,
+            Path directory) throws IOException {
+        BatchResult result = new BatchResult();
+        ByteBuffer fields = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH
+                + BFTP.PLEN_LENGTH);
+        Path root = directory.toAbsolutePath().normalize();
+
+        connection.sendBatch(entries);
+
+        while (true) {
+            byte status;
+            String path;
+
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+            // [0] ~ xop, [1] ~ status, [2,3] ~ plen, then path and file data or response
+            fields.clear().limit(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH);
+
+            while (fields.hasRemaining()) {
+                connection.read(fields);
+            }
+
+            status = fields.get(BFTP.XOP_LENGTH);
+
+            if (BFTP.BATCH_END == status) {
+                connection.endFrames();
+                connection.skip();
+
+                return result;
+            }
+
+            fields.limit(fields.capacity());
+
+            while (fields.hasRemaining()) {
+                connection.read(fields);
+            }
+
+            path = readString(connection, fields.getShort(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH)
+                    & 0xFFFF);
+
+            if (BFTP.BATCH_ERR == status) {
+                result.failed(path, new BFTPException(readString(connection,
+                        connection.remaining())));
+            }
+            else {
+                receiveFile(connection, path, root, result);
+            }
+        }
+    }
+
+    /**
+     * Helper method to write the file in the current batch frame under a local directory.
+     *
+     * A file which cannot be written is discarded from the socket, and recorded as failed, so
+     * that the rest of the batch can still be received.
+     *
+     * @param   connection  - the connection the file is read from
+     * @param   path        - path of the file, relative to the server's root directory
+     * @param   root        - absolute, normalized path of the local directory
+     * @param   result      - the result the file is recorded in
+     *
+     * @throws  IOException if the socket fails.
+     */
+    private static void receiveFile(Connection connection, String path, Path root,
+            BatchResult result) throws IOException {
+        long size = connection.remaining();
+        Path target;
+
+        try {
+            target = root.resolve(path).normalize();
+        }
+        catch (InvalidPathException ipe) {
+            target = root;
+        }
+
+        if (!target.startsWith(root) || target.equals(root)) {
+            connection.skip();
+            result.failed(path, new IOException("Path is outside of the target directory"));
+
+            return;
+        }
+
+        try {
+            Files.createDirectories(target.getParent());
+
+            try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (connection.remaining() > 0) {
+                    connection.transferTo(file);
+                }
+            }
+
+            result.received(path, size);
+        }
+        catch (IOException ioe) {
+            if (connection.isBroken()) {
+                throw ioe;
+            }
+
+            // Only the local file failed, so keep the connection in sync
+            connection.skip();
+
+            try {
+                Files.deleteIfExists(target);
+            }
+            catch (IOException dioe) {
+                // The failure is already recorded
+            }
+
+            result.failed(path, ioe);
+        }
+    }
+
+    /**
+     * Helper method to choose the length of the stripes of a file.
+     *
+     * @param   size    - the size of the file, in bytes
+     * @param   stripes - the number of stripes requested
+     *
+     * @return  the length of every stripe but the last, in bytes.
+     */
+    private static long stripeLength(long size, int stripes) {
+        return Math.max(MIN_STRIPE_SIZE, (size + stripes - 1) / stripes);
+    }
+
+    /**
+     * Helper method to run a request on a pooled connection, retrying it on a new connection if
+     * the connection is lost.
+     *
+     * Connections which are left in sync are returned to the pool, and all others are closed.
+     * Once a pooled connection is found broken, the rest of the pool is likely to be stale as
+     * well, for example after the server restarts, so it is closed and retries use new
+     * connections. A request which is not idempotent is only retried if the server cannot have
+     * acted on it.
+     *
+     * @param   request     - the request to run, which may be run several times
+     * @param   idempotent  - whether the request may be retried once the server has received it
+     *
+     * @return  the result of the request.
+     *
+     * @throws  IOException if the request fails, or if no connection can be made.
+     */
+    private <T> T execute(Request<T> request, boolean idempotent) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Connection connection = (0 == attempt) ? connections.poll() : null;
+            boolean pooled = (null != connection);
+
+            try {
+                if (!pooled) {
+                    connection = new Connection(address);
+                }
+
+                return request.run(connection);
+            }
+            catch (IOException ioe) {
+                // Connection refused and lost connections are both worth retrying
+                boolean retry = (null == connection || connection.isBroken()
+                        && (idempotent || !connection.isDelivered()))
+                        && attempt < maxRetries && !closed;
+
+                if (pooled && connection.isBroken()) {
+                    closeIdleConnections();
+                }
+
+                if (!retry) {
+                    throw ioe;
+                }
+            }
+            finally {
+                if (null != connection) {
+                    if (connection.isReusable() && !closed) {
+                        connections.push(connection);
+                    }
+                    else {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to run an idempotent request asynchronously.
+     *
+     * @param   request - the request to run
+     *
+     * @return  a future completed with the result of the request, or exceptionally with its
+     *          IOException.
+     */
+    private <T> CompletableFuture<T> submit(Request<T> request) {
+        return submit(request, true);
+    }
+
+    /**
+     * Helper method to run a request asynchronously.
+     *
+     * @param   request     - the request to run
+     * @param   idempotent  - whether the request may be retried once the server has received it
+     *
+     * @return  a future completed with the result of the request, or exceptionally with its
+     *          IOException.
+     */
+    private <T> CompletableFuture<T> submit(Request<T> request, boolean idempotent) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return execute(request, idempotent);
+                }
+                catch (IOException ioe) {
+                    throw new CompletionException(ioe);
+                }
+            }, executor);
+        }
+        catch (RejectedExecutionException ree) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+    }
+
+    /**
+     * A request, which may be run several times if the connection is lost.
+     */
+    @FunctionalInterface
+    private interface Request<T> {
+
+        /**
+         * Sends the request, and reads the response.
+         *
+         * @param   connection  - the connection to use
+         *
+         * @return  the result of the request.
+         *
+         * @throws  IOException if the request fails.
+         */
+        T run(Connection connection) throws IOException;
+
+    }
+
+    /**
+     * State of a striped PUT, which is shared by the requests for each of its stripes.
+     */
+    private static final class StripedPut {
+
+        private volatile boolean opened;
+        private volatile long size, token;
+
+        /**
+         * Sends a STRIPE_COMMIT or STRIPE_ABORT request for the upload.
+         *
+         * @param   connection  - the connection to use
+         * @param   stage       - the stage of the request
+         *
+         * @return  null.
+         *
+         * @throws  IOException if the request fails.
+         */
+        Void end(Connection connection, byte stage) throws IOException {
+            connection.sendStripe(stage, token);
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+            connection.skip();
+
+            return null;
+        }
+
+        /**
+         * Opens the upload, recording its size and the token which names it.
+         *
+         * @param   connection  - the connection to use
+         * @param   path        - UTF-8 path of the file
+         * @param   source      - the local file to send
+         *
+         * @return  null.
+         *
+         * @throws  IOException if the request fails, or the local file cannot be read.
+         */
+        Void open(Connection connection, byte path[], Path source) throws IOException {
+            ByteBuffer content = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH
+                    + BFTP.TOKEN_LENGTH);
+
+            size = Files.size(source);
+
+            connection.sendStripeOpen(path, size);
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+            // [0] ~ xop, [1] ~ stage, [2,9] ~ token
+            if (connection.remaining() != content.capacity()) {
+                throw new IOException("Malformed response");
+            }
+
+            while (content.hasRemaining()) {
+                connection.read(content);
+            }
+
+            token = content.getLong(BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH);
+            opened = true;
+
+            return null;
+        }
+
+        /**
+         * Sends one stripe of the file.
+         *
+         * @param   connection  - the connection to use
+         * @param   source      - the local file to send
+         * @param   offset      - position in the file of the first byte of the stripe
+         * @param   length      - the number of bytes in the stripe
+         *
+         * @return  null.
+         *
+         * @throws  IOException if the request fails, or the local file cannot be read.
+         */
+        Void send(Connection connection, Path source, long offset, long length)
+                throws IOException {
+            try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+                connection.sendStripe(token, file, offset, length);
+            }
+
+            expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+            connection.skip();
+
+            return null;
+        }
+
+    }
+
+    /**
+     * State of a GET which is carried between attempts, so that it can be resumed.
+     */
+    private static final class Download {
+
+        private FileChannel file;
+        private long size, written;
+
+        /**
+         * Requests the file, or the part of it not yet written, and streams it to the target.
+         *
+         * @param   connection  - the connection to use
+         * @param   path        - UTF-8 path of the file
+         * @param   target      - the channel to write the file to
+         *
+         * @return  the size of the file, in bytes.
+         *
+         * @throws  IOException if the request fails, or the file changed size between attempts.
+         */
+        long run(Connection connection, byte path[], WritableByteChannel target)
+                throws IOException {
+            if (0 == written) {
+                connection.sendGet(path);
+                expect(connection.receive(), (byte) (BFTP.GET | BFTP.RSP));
+
+                size = connection.remaining();
+            }
+            else {
+                ByteBuffer prefix = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.FSIZE_LENGTH);
+
+                connection.sendRange(path, written);
+                expect(connection.receive(), (byte) (BFTP.EXT | BFTP.RSP));
+
+                while (prefix.hasRemaining()) {
+                    connection.read(prefix);
+                }
+
+                if (prefix.getLong(BFTP.XOP_LENGTH) != size
+                        || connection.remaining() != size - written) {
+                    throw new IOException("File changed size while being downloaded");
+                }
+            }
+
+            while (connection.remaining() > 0) {
+                written += connection.transferTo(target);
+            }
+
+            return size;
+        }
+
+    }
+
+}
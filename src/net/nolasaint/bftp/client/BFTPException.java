@@ -0,0 +1,40 @@
+package net.nolasaint.bftp.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a BFTP server answers a request with an ERR response.
+ *
+ * The connection remains usable, and the request is not retried, since the server would be
+ * expected to answer it the same way again.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public class BFTPException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String response;
+
+    /**
+     * Creates a BFTPException for the given ERR response.
+     *
+     * @param   response    - the response string sent by the server
+     */
+    public BFTPException(String response) {
+        super("Server responded with error: " + response);
+
+        this.response = response;
+    }
+
+    /**
+     * Returns the response string sent by the server, e.g. "File not found".
+     *
+     * @return  the response.
+     */
+    public String getResponse() {
+        return response;
+    }
+
+}
@@ -0,0 +1,83 @@
+package net.nolasaint.bftp.client;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a batch GET, with the files which were downloaded and those which were not.
+ *
+ * Paths are relative to the server's root directory, and are kept in the order the server sent
+ * them. A failed glob is reported under the glob itself.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public final class BatchResult {
+
+    private final Map<String, IOException> errors;
+    private final Map<String, Long> files;
+
+    /**
+     * Creates an empty BatchResult.
+     */
+    BatchResult() {
+        errors = new LinkedHashMap<>();
+        files = new LinkedHashMap<>();
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Returns the files which could not be downloaded.
+     *
+     * @return  an unmodifiable map from each path to its error, a BFTPException if the server
+     *          could not send the file.
+     */
+    public Map<String, IOException> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * Returns the files which were downloaded.
+     *
+     * @return  an unmodifiable map from each path to the size of the file, in bytes.
+     */
+    public Map<String, Long> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns whether every file was downloaded.
+     *
+     * @return  TRUE if there were no errors, else FALSE.
+     */
+    public boolean isComplete() {
+        return errors.isEmpty();
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Records a file which could not be downloaded.
+     *
+     * @param   path    - path of the file or glob
+     * @param   error   - the reason it was not downloaded
+     */
+    void failed(String path, IOException error) {
+        errors.put(path, error);
+    }
+
+    /**
+     * Records a file which was downloaded.
+     *
+     * @param   path    - path of the file
+     * @param   size    - the size of the file, in bytes
+     */
+    void received(String path, long size) {
+        files.put(path, size);
+    }
+
+}
@@ -0,0 +1,661 @@
+package net.nolasaint.bftp.client;
+
+import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A persistent, lock-step connection to a BFTP server.
+ *
+ * Requests are built in a reused direct buffer and gathered with their file data into as few
+ * writes as possible. Headers are read exactly, so that response content is left in the socket
+ * and can be streamed to its destination through a reused buffer, without holding whole files.
+ *
+ * A connection is broken once its socket fails or the server sends FIN, after which a request
+ * may be retried on another connection. A request is delivered once it has been written in full,
+ * unless the server sends FIN in its place, which it only does for requests it has not read. A connection which is not broken, but whose last
+ * response was not fully read, is out of sync and cannot be reused either. The response to a
+ * batch spans several frames, and is only fully read once endFrames() is called.
+ *
+ * Instances are not thread-safe; each is used by one request at a time.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class Connection implements Closeable {
+
+    /* MAX_PATH_LENGTH is the length, in bytes, of the longest path a request may carry */
+    static final int MAX_PATH_LENGTH = 0xFFFF;
+
+    /* EMPTY_BUFFER is gathered after requests which have no file data */
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    /* MAX_ERROR_LENGTH is the length, in bytes, of the longest error response which is read */
+    private static final int MAX_ERROR_LENGTH = 64 * 1024;
+
+    /* RECEIVE_BUFFER_SIZE is the size, in bytes, of the buffer response content is streamed in */
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer header, receive, request;
+    private final ByteBuffer frame[];
+
+    private boolean broken, delivered, multiframe, pending;
+    private long remaining;
+
+    /**
+     * Opens a Connection to a server.
+     *
+     * @param   address - the address of the server
+     *
+     * @throws  IOException if the connection cannot be made.
+     */
+    Connection(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        header = ByteBuffer.allocateDirect(BFTP.EXTENDED_HEADER_LENGTH);
+        receive = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+        // Sized for the longest fixed fields of any request, those of X_CGET
+        request = ByteBuffer.allocateDirect(BFTP.EXTENDED_HEADER_LENGTH + BFTP.XOP_LENGTH
+                + BFTP.HASH_LENGTH + MAX_PATH_LENGTH);
+        frame = new ByteBuffer[2];
+    }
+
+    /**
+     * Closes the connection, first sending FIN if it is idle and in sync.
+     */
+    @Override
+    public void close() {
+        try {
+            if (isReusable()) {
+                request.clear();
+                FrameCodec.putHeader(request, 0, BFTP.FIN).flip();
+                write(request, null);
+            }
+        }
+        catch (IOException ioe) {
+            // Closing regardless
+        }
+
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            // Nothing more can be done
+        }
+    }
+
+    /**
+     * Marks the end of a response of several frames, once its last frame has been received.
+     */
+    void endFrames() {
+        multiframe = false;
+        pending = (0 != remaining);
+    }
+
+    /**
+     * Returns whether the socket failed, or the server closed the connection.
+     *
+     * @return  TRUE if a request which failed on this connection may be retried on another.
+     */
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Returns whether the server may have acted on the last request sent.
+     *
+     * @return  TRUE if the request was written in full, and the server did not send FIN in place
+     *          of its response.
+     */
+    boolean isDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Returns whether the connection may be used for another request.
+     *
+     * @return  TRUE if the connection is open, not broken, and has no unread response content.
+     */
+    boolean isReusable() {
+        return !broken && !pending && channel.isOpen();
+    }
+
+    /**
+     * Reads response content into a buffer, blocking until at least one byte is read.
+     *
+     * @param   buffer  - the buffer to read into, up to its limit or the end of the content
+     *
+     * @return  the number of bytes read.
+     *
+     * @throws  IOException if the content has been read, or if the socket fails.
+     */
+    int read(ByteBuffer buffer) throws IOException {
+        int limit = buffer.limit(), count;
+
+        if (0 == remaining) {
+            throw new IOException("Response content has already been read");
+        }
+
+        buffer.limit((int) Math.min(limit, buffer.position() + remaining));
+
+        try {
+            count = fill(buffer, false);
+        }
+        finally {
+            buffer.limit(limit);
+        }
+
+        consumed(count);
+
+        return count;
+    }
+
+    /**
+     * Reads the header of the next response.
+     *
+     * ERR responses are read in full and thrown, leaving the connection in sync.
+     *
+     * @return  the opcode of the response, whose content size is then returned by remaining().
+     *
+     * @throws  BFTPException if the response is an ERR response.
+     * @throws  EOFException if the server sends FIN or closes the connection.
+     * @throws  IOException if the socket fails.
+     */
+    byte receive() throws IOException {
+        byte opcode;
+
+        header.clear().limit(BFTP.HEADER_LENGTH);
+        fill(header, true);
+
+        if (FrameCodec.headerLength(header, 0) > BFTP.HEADER_LENGTH) {
+            header.limit(BFTP.EXTENDED_HEADER_LENGTH);
+            fill(header, true);
+        }
+
+        opcode = FrameCodec.opcode(header, 0);
+        remaining = FrameCodec.csize(header, 0);
+
+        if (BFTP.FIN == opcode) {
+            // The server answers every request it has read before sending FIN
+            broken = true;
+            delivered = false;
+
+            throw new EOFException("Server closed the connection");
+        }
+
+        if (FrameCodec.isSet(opcode, BFTP.ERR)) {
+            // An ERR response is never followed by further frames
+            multiframe = false;
+        }
+
+        if (0 == remaining && !multiframe) {
+            pending = false;
+        }
+
+        if (FrameCodec.isSet(opcode, BFTP.ERR)) {
+            throw new BFTPException(readError(opcode));
+        }
+
+        return opcode;
+    }
+
+    /**
+     * Returns the number of content bytes of the current response which have not been read.
+     *
+     * @return  the remaining content size.
+     */
+    long remaining() {
+        return remaining;
+    }
+
+    /**
+     * Sends an X_BATCH request, whose response is not fully read until endFrames() is called.
+     *
+     * @param   entries - the entries of the batch, each a kind, plen and path
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendBatch(ByteBuffer entries) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + entries.remaining(), BFTP.EXT)
+                .put(BFTP.X_BATCH)
+                .flip();
+
+        send(entries);
+
+        multiframe = true;
+    }
+
+    /**
+     * Sends an X_CGET request.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   hash    - SHA-256 digest of the client's copy of the file, or all zeros
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendConditionalGet(byte path[], byte hash[]) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.HASH_LENGTH + path.length,
+                BFTP.EXT);
+        request.put(BFTP.X_CGET)
+                .put(hash)
+                .put(path)
+                .flip();
+
+        send(null);
+    }
+
+    /**
+     * Sends a GET request.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendGet(byte path[]) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, path.length, BFTP.GET).put(path).flip();
+
+        send(null);
+    }
+
+    /**
+     * Sends an X_LIST request.
+     *
+     * @param   path    - UTF-8 path of the directory, at most MAX_PATH_LENGTH bytes
+     * @param   flags   - the listing flags
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendList(byte path[], byte flags) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.FLAGS_LENGTH + path.length,
+                BFTP.EXT);
+        request.put(BFTP.X_LIST)
+                .put(flags)
+                .put(path)
+                .flip();
+
+        send(null);
+    }
+
+    /**
+     * Sends a PUT request whose file data is held in a buffer.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   data    - the file data, which is sent from its position to its limit
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendPut(byte path[], ByteBuffer data) throws IOException {
+        putPutPrefix(path, data.remaining());
+
+        send(data);
+    }
+
+    /**
+     * Sends a PUT request whose file data is read from a file.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   file    - the file to send from its start, which is not read concurrently
+     *
+     * @throws  IOException if the socket fails, or if the file cannot be read or changes size.
+     */
+    void sendPut(byte path[], FileChannel file) throws IOException {
+        long size = file.size();
+
+        putPutPrefix(path, size);
+        send(null);
+
+        transfer(file, 0, size);
+    }
+
+    /**
+     * Sends an X_RANGE request for the remainder of a file.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   offset  - position of the first byte requested
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendRange(byte path[], long offset) throws IOException {
+        sendRange(path, offset, Long.MAX_VALUE - offset);
+    }
+
+    /**
+     * Sends an X_RANGE request.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   offset  - position of the first byte requested
+     * @param   count   - maximum number of bytes requested
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendRange(byte path[], long offset, long count) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.OFFSET_LENGTH + BFTP.COUNT_LENGTH
+                + path.length, BFTP.EXT);
+        request.put(BFTP.X_RANGE)
+                .putLong(offset)
+                .putLong(count)
+                .put(path)
+                .flip();
+
+        send(null);
+    }
+
+    /**
+     * Sends an X_STRIPE request which carries only a token, i.e. STRIPE_COMMIT or STRIPE_ABORT.
+     *
+     * @param   stage   - the stage of the request
+     * @param   token   - the token of the upload
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendStripe(byte stage, long token) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH + BFTP.TOKEN_LENGTH,
+                BFTP.EXT);
+        request.put(BFTP.X_STRIPE)
+                .put(stage)
+                .putLong(token)
+                .flip();
+
+        send(null);
+    }
+
+    /**
+     * Sends a STRIPE_DATA request whose file data is read from a file.
+     *
+     * @param   token   - the token of the upload
+     * @param   file    - the file to send part of, which may be read concurrently
+     * @param   offset  - position in the file of the first byte of the stripe
+     * @param   length  - the number of bytes in the stripe
+     *
+     * @throws  IOException if the socket fails, or if the file cannot be read or is truncated.
+     */
+    void sendStripe(long token, FileChannel file, long offset, long length) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH + BFTP.TOKEN_LENGTH
+                + BFTP.OFFSET_LENGTH + length, BFTP.EXT);
+        request.put(BFTP.X_STRIPE)
+                .put(BFTP.STRIPE_DATA)
+                .putLong(token)
+                .putLong(offset)
+                .flip();
+
+        send(null);
+
+        transfer(file, offset, offset + length);
+    }
+
+    /**
+     * Sends a STRIPE_OPEN request.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   size    - the size of the file, in bytes
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void sendStripeOpen(byte path[], long size) throws IOException {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH + BFTP.FSIZE_LENGTH
+                + path.length, BFTP.EXT);
+        request.put(BFTP.X_STRIPE)
+                .put(BFTP.STRIPE_OPEN)
+                .putLong(size)
+                .put(path)
+                .flip();
+
+        send(null);
+    }
+
+    /**
+     * Discards the remaining content of the current response.
+     *
+     * @throws  IOException if the socket fails.
+     */
+    void skip() throws IOException {
+        while (remaining > 0) {
+            receive.clear();
+            read(receive);
+        }
+    }
+
+    /**
+     * Streams response content to a channel through the receive buffer.
+     *
+     * @param   target  - the channel to write to
+     *
+     * @return  the number of bytes read from the socket and written to target, at least one.
+     *
+     * @throws  IOException if the content has been read, or if the socket or target fails.
+     */
+    int transferTo(WritableByteChannel target) throws IOException {
+        int count;
+
+        receive.clear();
+        count = read(receive);
+        receive.flip();
+
+        while (receive.hasRemaining()) {
+            target.write(receive);
+        }
+
+        return count;
+    }
+
+    /**
+     * Streams response content to a position of a file through the receive buffer.
+     *
+     * @param   target      - the file to write to, which may be written concurrently elsewhere
+     * @param   position    - position in the file of the first byte read
+     *
+     * @return  the number of bytes read from the socket and written to target, at least one.
+     *
+     * @throws  IOException if the content has been read, or if the socket or target fails.
+     */
+    int transferTo(FileChannel target, long position) throws IOException {
+        int count;
+
+        receive.clear();
+        count = read(receive);
+        receive.flip();
+
+        while (receive.hasRemaining()) {
+            position += target.write(receive, position);
+        }
+
+        return count;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to record that response content has been read.
+     *
+     * @param   count   - the number of content bytes read
+     */
+    private void consumed(long count) {
+        remaining -= count;
+
+        if (0 == remaining && !multiframe) {
+            pending = false;
+        }
+    }
+
+    /**
+     * Helper method to read from the socket, marking the connection broken if it fails.
+     *
+     * @param   buffer  - the buffer to read into
+     * @param   fully   - whether to fill the buffer, rather than read at least one byte
+     *
+     * @return  the number of bytes read.
+     *
+     * @throws  EOFException if the server closes the connection.
+     * @throws  IOException if the socket fails.
+     */
+    private int fill(ByteBuffer buffer, boolean fully) throws IOException {
+        int total = 0;
+
+        try {
+            do {
+                int count = channel.read(buffer);
+
+                if (count < 0) {
+                    throw new EOFException("Server closed the connection");
+                }
+
+                total += count;
+            }
+            while (buffer.hasRemaining() && (fully || 0 == total));
+        }
+        catch (IOException ioe) {
+            broken = true;
+            throw ioe;
+        }
+
+        return total;
+    }
+
+    /**
+     * Helper method to build the part of a PUT request which precedes its file data.
+     *
+     * @param   path    - UTF-8 path of the file, at most MAX_PATH_LENGTH bytes
+     * @param   size    - the size of the file data, in bytes
+     */
+    private void putPutPrefix(byte path[], long size) {
+        request.clear();
+        FrameCodec.putHeader(request, BFTP.PLEN_LENGTH + path.length + size, BFTP.PUT);
+        request.putShort((short) path.length).put(path).flip();
+    }
+
+    /**
+     * Helper method to read the content of an ERR response.
+     *
+     * @param   opcode  - the opcode of the response
+     *
+     * @return  the response string, without the xop of an EXT response.
+     *
+     * @throws  IOException if the socket fails.
+     */
+    private String readError(byte opcode) throws IOException {
+        ByteBuffer content;
+
+        if (remaining > MAX_ERROR_LENGTH) {
+            // Not a response this client can make sense of
+            pending = true;
+
+            throw new IOException("Error response too large (" + remaining + " bytes)");
+        }
+
+        content = ByteBuffer.allocate((int) remaining);
+
+        while (content.hasRemaining()) {
+            read(content);
+        }
+
+        content.flip();
+
+        if (FrameCodec.isSet(opcode, BFTP.EXT) && content.hasRemaining()) {
+            content.get();
+        }
+
+        return StandardCharsets.UTF_8.decode(content).toString();
+    }
+
+    /**
+     * Helper method to send the request buffer, followed by any file data.
+     *
+     * @param   data    - file data to gather after the request, or null
+     *
+     * @throws  IOException if the socket fails.
+     */
+    private void send(ByteBuffer data) throws IOException {
+        pending = true;
+        remaining = 0;
+        delivered = false;
+
+        write(request, data);
+
+        delivered = true;
+    }
+
+    /**
+     * Helper method to send part of a file after the request buffer.
+     *
+     * @param   file    - the file to send from
+     * @param   start   - position of the first byte to send
+     * @param   end     - position after the last byte to send
+     *
+     * @throws  IOException if the socket fails, or if the file cannot be read or is truncated.
+     */
+    private void transfer(FileChannel file, long start, long end) throws IOException {
+        long position = start;
+
+        // The request is not delivered until the whole of its file data is sent
+        delivered = false;
+
+        while (position < end) {
+            long count;
+
+            try {
+                count = file.transferTo(position, end - position, channel);
+            }
+            catch (IOException ioe) {
+                // Usually the socket, and if the file failed instead, retrying will fail again
+                broken = true;
+                throw ioe;
+            }
+
+            if (0 == count && file.size() <= position) {
+                throw new IOException("File was truncated while being sent");
+            }
+
+            position += count;
+        }
+
+        delivered = true;
+    }
+
+    /**
+     * Helper method to write to the socket, marking the connection broken if it fails.
+     *
+     * @param   buffer  - the buffer to write
+     * @param   data    - a second buffer to gather after the first, or null
+     *
+     * @throws  IOException if the socket fails.
+     */
+    private void write(ByteBuffer buffer, ByteBuffer data) throws IOException {
+        frame[0] = buffer;
+        frame[1] = (null == data) ? EMPTY_BUFFER : data;
+
+        try {
+            while (buffer.hasRemaining() || frame[1].hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+        catch (IOException ioe) {
+            broken = true;
+            throw ioe;
+        }
+        finally {
+            frame[1] = null;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package net.nolasaint.bftp.client;
+
+/**
+ * A file or directory on a BFTP server, as listed by BFTPClient.list().
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public final class RemoteFile {
+
+    private final boolean directory;
+    private final byte hash[];
+    private final long modified, size;
+    private final String path;
+
+    /**
+     * Creates a RemoteFile.
+     *
+     * @param   path        - path relative to the server's root directory
+     * @param   directory   - whether it is a directory
+     * @param   size        - the size of the file in bytes, or 0 for a directory
+     * @param   modified    - the modification time, in milliseconds since the epoch
+     * @param   hash        - the SHA-256 digest of the file, or null if it is not known
+     */
+    RemoteFile(String path, boolean directory, long size, long modified, byte hash[]) {
+        this.path = path;
+        this.directory = directory;
+        this.size = size;
+        this.modified = modified;
+        this.hash = hash;
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Returns the SHA-256 digest of the file, if it was requested and the server could compute
+     * it.
+     *
+     * @return  a copy of the digest, or null.
+     */
+    public byte[] getHash() {
+        return (null != hash) ? hash.clone() : null;
+    }
+
+    /**
+     * Returns the time the file or directory was last modified.
+     *
+     * @return  the modification time, in milliseconds since the epoch.
+     */
+    public long getLastModified() {
+        return modified;
+    }
+
+    /**
+     * Returns the path of the file or directory, which may be passed to get().
+     *
+     * @return  the path relative to the server's root directory, separated by '/'.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return  the size in bytes, or 0 for a directory.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns whether this is a directory.
+     *
+     * @return  TRUE if it is a directory, FALSE if it is a regular file.
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String toString() {
+        return directory ? path + "/" : path + " (" + size + " bytes)";
+    }
+
+}
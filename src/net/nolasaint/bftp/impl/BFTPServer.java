@@ -1,25 +1,51 @@
 package net.nolasaint.bftp.impl;
 
 import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 
+import java.lang.management.ManagementFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
 
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.security.SecureRandom;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * TODO: Documentation
@@ -36,54 +62,271 @@ import java.util.Set;
  */
 public class BFTPServer {
 
-    /* DEFAULT_ENCODING specifies the server's default String encoding format */
-    private static final String DEFAULT_ENCODING = "UTF-8";
+    /**
+     * Guarantees which a BFTPServer may give for a file before acknowledging its PUT.
+     */
+    public enum Durability {
+        /* SYNC syncs each file on its own before acknowledging it */
+        SYNC,
+
+        /* GROUP syncs files which finish close together as one group, then acknowledges them */
+        GROUP,
+
+        /* NONE acknowledges each file without syncing it, so a crash may lose it */
+        NONE
+    }
+
+    /**
+     * Engines which a BFTPServer may use to handle client connections.
+     */
+    public enum Engine {
+        /* BLOCKING handles each client connection on its own thread */
+        BLOCKING,
+
+        /* SELECTOR multiplexes client connections over a fixed pool of non-blocking event loops */
+        SELECTOR
+    }
+
+    /**
+     * Levels of log entries, in increasing order of severity.
+     */
+    public enum LogLevel {
+        /* DEBUG entries trace individual requests */
+        DEBUG,
+
+        /* INFO entries record the lifecycle of the server and its connections */
+        INFO,
 
-    /* LOGGING_MAX_WIDTH indicates the maximum length of a log entry line without the prefix */
-    private static final int LOGGING_MAX_WIDTH = 120;
+        /* WARNING entries record failures which affect a single request or connection */
+        WARNING,
+
+        /* ERROR entries record failures which affect the whole server */
+        ERROR
+    }
 
-    /* LOGGING_PADDING is used to align multi-line log entries */
-    private static final String LOGGING_PADDING = "         ";
+    /* DEFAULT_ENCODING specifies the server's default String encoding format */
+    private static final String DEFAULT_ENCODING = "UTF-8";
 
     /* LOGGING_PREFIX occurs before all logging entries */
     private static final String LOGGING_PREFIX = "[Server] ";
 
-    /* ROOT_DIRECTORY is the directory from which the server may find target files for BFTP */
-    private static final String ROOT_DIRECTORY = "public/";
+    /* BUFFER_POOL_CAPACITY is the maximum number of direct buffers retained by the buffer pool */
+    private static final int BUFFER_POOL_CAPACITY = 256;
+
+    /* BUFFER_SIZE is the size of each pooled direct buffer, which bounds coalesced responses */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* DEFAULT_CACHE_CAPACITY is the default maximum size, in bytes, of the hot-file cache */
+    private static final long DEFAULT_CACHE_CAPACITY = 64 * 1024 * 1024;
+
+    /* DEFAULT_COMPRESSION_CACHE_CAPACITY is the default maximum size, in bytes, of the cache of
+     * compressed variants */
+    private static final long DEFAULT_COMPRESSION_CACHE_CAPACITY = 32 * 1024 * 1024;
+
+    /* DEFAULT_IDLE_TIMEOUT is the default time, in milliseconds, a connection may wait between
+     * requests before it is closed */
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    /* DEFAULT_LOG_LEVEL is the default lowest level of entry which is logged */
+    private static final LogLevel DEFAULT_LOG_LEVEL = LogLevel.INFO;
+
+    /* DEFAULT_MAPPING_THRESHOLD is the default size of the smallest file served from a mapping,
+     * where 0 means that files are never mapped */
+    private static final long DEFAULT_MAPPING_THRESHOLD = 0;
+
+    /* DEFAULT_PIPELINE_DEPTH is the default maximum number of SEQ requests in flight per client */
+    private static final int DEFAULT_PIPELINE_DEPTH = 32;
+
+    /* DEFAULT_READ_TIMEOUT is the default time, in milliseconds, a request may go without
+     * receiving a byte before its connection is closed */
+    private static final long DEFAULT_READ_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    /* MAX_STRIPED_UPLOADS is the maximum number of striped uploads which may be open at once */
+    private static final int MAX_STRIPED_UPLOADS = 64;
 
-    private final PrintWriter logstream;
+    /* EXECUTOR_SHUTDOWN_TIMEOUT is how long, in seconds, shutdown() waits for running client
+     * handlers before interrupting them */
+    private static final long EXECUTOR_SHUTDOWN_TIMEOUT = 5;
+
+    /* LISTEN_BACKLOG is the number of pending connections each listening socket queues, which
+     * absorbs bursts of connections faster than they are accepted */
+    private static final int LISTEN_BACKLOG = 1024;
+
+    /* METRICS_DOMAIN is the JMX domain under which each server registers its statistics */
+    private static final String METRICS_DOMAIN = "net.nolasaint.bftp";
+
+    /* REAP_INTERVAL is how often, in milliseconds, connections are checked against the idle and
+     * read timeouts */
+    static final long REAP_INTERVAL = 1000;
+
+    /* ROOT_DIRECTORY is the directory from which the server may find target files for BFTP */
+    static final String ROOT_DIRECTORY = "public/";
+
+    /* EMPTY_CONTENT is the content of responses which carry none */
+    static final byte EMPTY_CONTENT[] = new byte[0];
+
+    /* NO_REQUEST_ID marks responses to requests without the SEQ bit, which carry no request ID */
+    static final long NO_REQUEST_ID = -1;
+
+    /* RESPONSE STRINGS */
+    static final String ADDRESS_LIMIT_RESPONSE       = "Too many connections from address";
+    static final String BATCH_TOO_LARGE_RESPONSE     = "Batch exceeds maximum number of files";
+    static final String CONNECTION_LIMIT_RESPONSE    = "Too many connections";
+    static final String FILE_ALREADY_EXISTS_RESPONSE = "File already exists";
+    static final String FILE_NOT_FOUND_RESPONSE      = "File not found";
+    static final String FILE_READ_ERROR_RESPONSE     = "Encountered error while reading from file";
+    static final String FILE_TOO_LARGE_RESPONSE      = "File exceeds maximum file size";
+    static final String FILE_WRITE_ERROR_RESPONSE    = "Encountered error while writing to file";
+    static final String FRAME_TOO_LARGE_RESPONSE     = "Frame exceeds maximum frame size";
+    static final String INCOMPLETE_UPLOAD_RESPONSE   = "Upload is missing stripes";
+    static final String INVALID_PATH_RESPONSE        = "Invalid file path";
+    static final String INVALID_RANGE_RESPONSE       = "Requested range is outside of the file";
+    static final String PIPELINING_DISABLED_RESPONSE = "Pipelining is not available";
+    static final String TOO_MANY_UPLOADS_RESPONSE    = "Too many uploads in progress";
+    static final String UNKNOWN_UPLOAD_RESPONSE      = "Unknown upload token";
+    static final String UNSUPPORTED_COMMAND_RESPONSE = "Unsupported command";
+    static final String UNSUPPORTED_STORAGE_RESPONSE = "Not supported by the storage backend";
+
+    private final BufferPool bufferPool;
+    private final ConnectionDrainer drainer;
+    private final GroupCommitter groupCommitter;
+    private final DirectoryIndex index;
+    private final Logger logger;
+    private final ServerMetrics metrics;
+    private final ObjectName metricsName;
+    private final PathCache pathCache;
+    private final AtomicInteger stripedUploadCount;
+    private final Map<Long, StripedUpload> stripedUploads;
+    private final SecureRandom uploadTokens;
+    private final TrafficShaper shaper;
 
     private volatile boolean listen, overwriting; // TODO constructor parameter for this? + get/set
-    private ServerSocket ssocket;
-    private Set<ClientHandler> clientHandlers;
+    private volatile int maxFrameSize, maxPipelineDepth;
+    private volatile long idleTimeout, readTimeout;
+    private ServerSocket ssocket, ssockets[];
+    private ConnectionRegistry<ClientHandler> connections;
+    private SelectorEngine selectorEngine;
+    private volatile ExecutorService executor;
+    private final ExecutorService requestExecutor;
+    private volatile FileCache compressionCache, fileCache;
+    private volatile Storage storage;
+    private volatile Durability durability;
+    private final FileMappings fileMappings;
+    private volatile long mappingThreshold;
 
     /**
-     * Creates a bound, logging BFTPServer.
+     * Creates a bound, logging BFTPServer which uses the specified engine, and accepts
+     * connections on several threads at once.
+     *
+     * Where the platform supports SO_REUSEPORT, each acceptor has its own listening socket bound
+     * to the port, and the kernel spreads incoming connections between them. Otherwise, the
+     * acceptors share a single listening socket. Each acceptor of the SELECTOR engine hands its
+     * connections to its own share of the event loops.
      *
      * @param   port        the port number on which to bind the server
      * @param   logstream   the OutputStream to log to
+     * @param   engine      the engine with which to handle client connections
+     * @param   acceptors   the number of threads which accept connections
      *
      * @throws  IllegalArgumentException if the port parameter is outside the specified range of
-     *          valid port values, which is between 0 and 65535, inclusive.
+     *          valid port values, which is between 0 and 65535, inclusive, or if acceptors is
+     *          not positive.
      *
-     * @throws  IOException if an I/O error occurs when opening the socket.
+     * @throws  IOException if an I/O error occurs when opening the sockets.
      */
-    public BFTPServer(int port, OutputStream logstream) throws IOException {
+    public BFTPServer(int port, OutputStream logstream, Engine engine, int acceptors)
+            throws IOException {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("There must be at least one acceptor");
+        }
+
         if (null == logstream) {
-            this.logstream = null;
+            logger = null;
         }
         else {
-            this.logstream = new PrintWriter(logstream);
+            logger = new Logger(logstream, LOGGING_PREFIX, DEFAULT_LOG_LEVEL);
         }
 
-        ssocket = new ServerSocket(port);
+        bufferPool = new BufferPool(BUFFER_SIZE, BUFFER_POOL_CAPACITY);
+        metrics = new ServerMetrics();
+
+        ssockets = bind(port, acceptors);
+        ssocket = ssockets[0];
         listen = false;
         overwriting = false; // TODO from parameter?
+        maxFrameSize = FrameCodec.DEFAULT_MAX_FRAME_SIZE;
+        maxPipelineDepth = DEFAULT_PIPELINE_DEPTH;
+        idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        readTimeout = DEFAULT_READ_TIMEOUT;
+        fileCache = new FileCache(DEFAULT_CACHE_CAPACITY, FileCache.DEFAULT_MAX_ENTRY_SIZE, false);
+        compressionCache = new FileCache(DEFAULT_COMPRESSION_CACHE_CAPACITY,
+                FileCache.DEFAULT_MAX_COMPRESSED_ENTRY_SIZE, true);
+        fileMappings = new FileMappings();
+        mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+        storage = Storage.filesystem();
+        durability = Durability.SYNC;
+        drainer = new ConnectionDrainer();
+        groupCommitter = new GroupCommitter(metrics);
+        pathCache = new PathCache(Paths.get(ROOT_DIRECTORY), PathCache.DEFAULT_CAPACITY);
+        index = new DirectoryIndex(Paths.get(ROOT_DIRECTORY), pathCache);
+        stripedUploadCount = new AtomicInteger();
+        stripedUploads = new ConcurrentHashMap<>();
+        uploadTokens = new SecureRandom();
+        shaper = new TrafficShaper();
 
         // Avoid instantiating this if ServerSocket creation causes IOException
-        clientHandlers = new HashSet<>();
+        connections = new ConnectionRegistry<>();
+
+        if (Engine.SELECTOR == engine) {
+            selectorEngine = new SelectorEngine(this,
+                    Math.max(acceptors, Runtime.getRuntime().availableProcessors()), acceptors);
+        }
+
+        // Pipelined requests do not share the client handler executor, so that client handlers
+        // waiting on their requests cannot starve those requests of threads
+        requestExecutor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "BFTP-Request");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        log(LogLevel.INFO, "BFTP server created and bound to port " + port + " using " + engine
+                + " engine with " + acceptors + " acceptors");
+
+        metricsName = registerMetrics();
+    }
+
+    /**
+     * Creates a bound, logging BFTPServer which uses the specified engine.
+     *
+     * @param   port        the port number on which to bind the server
+     * @param   logstream   the OutputStream to log to
+     * @param   engine      the engine with which to handle client connections
+     *
+     * @throws  IllegalArgumentException if the port parameter is outside the specified range of
+     *          valid port values, which is between 0 and 65535, inclusive.
+     *
+     * @throws  IOException if an I/O error occurs when opening the socket.
+     */
+    public BFTPServer(int port, OutputStream logstream, Engine engine) throws IOException {
+        this(port, logstream, engine, 1);
+    }
 
-        log("BFTP server created and bound to port " + port);
+    /**
+     * Creates a bound, logging BFTPServer.
+     *
+     * @param   port        the port number on which to bind the server
+     * @param   logstream   the OutputStream to log to
+     *
+     * @throws  IllegalArgumentException if the port parameter is outside the specified range of
+     *          valid port values, which is between 0 and 65535, inclusive.
+     *
+     * @throws  IOException if an I/O error occurs when opening the socket.
+     */
+    public BFTPServer(int port, OutputStream logstream) throws IOException {
+        this(port, logstream, Engine.BLOCKING);
     }
 
     /**
@@ -106,33 +349,67 @@ public class BFTPServer {
      * Allows server to accept and handle incoming clients.
      *
      * This method is synchronized by necessity, to prevent calling run() on an already-running
-     * server.
+     * server. The first acceptor runs on the calling thread, and any others on threads of their
+     * own, none of which hold the lock.
      *
      * @throws  IOException if an I/O error occurs when waiting for a connection.
      */
     public synchronized void run() throws IOException {
+        Thread acceptors[] = new Thread[ssockets.length - 1];
+
+        long indexing = System.nanoTime();
+
+        // Built in the background, so that a large tree does not delay accepting connections.
+        // Other backends never use the index, which the first listing builds if the filesystem
+        // backend is set later.
+        if (storesFiles()) {
+            index.build().thenAccept(indexed -> log(LogLevel.INFO, "Indexed " + indexed
+                    + " entries of the root directory in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - indexing) + " ms"));
+        }
+
         listen = true;
-        log("Handling incoming connections");
+        log(LogLevel.INFO, "Handling incoming connections");
 
-        while (listen) {
-            try {
-                ClientHandler clientHandler;
-                Socket csocket = ssocket.accept(); // blocks until a connection is available
-                String clientID = csocket.getInetAddress().getHostAddress() + ":" + csocket.getPort();
+        if (null != selectorEngine) {
+            selectorEngine.start();
+        }
+        else {
+            Thread reaper = new Thread(this::reap, "BFTP-Reaper");
+
+            reaper.setDaemon(true);
+            reaper.start();
+        }
 
-                log("Accepted connection from client at " + clientID);
+        for (int i = 0; i < acceptors.length; i++) {
+            int acceptor = 1 + i;
 
-                clientHandler = new ClientHandler(csocket, clientID);
-                clientHandlers.add(clientHandler);
+            acceptors[i] = new Thread(() -> {
+                try {
+                    accept(acceptor);
+                }
+                catch (IOException ioe) {
+                    log(LogLevel.ERROR, "Acceptor " + acceptor + " encountered IOException");
+                }
+            }, "BFTP-Acceptor-" + acceptor);
+
+            acceptors[i].setDaemon(true);
+            acceptors[i].start();
+        }
 
-                new Thread(clientHandler).start();
+        accept(0);
+
+        for (Thread thread : acceptors) {
+            try {
+                thread.join();
             }
-            catch (SocketException se) {
-                // Server socket closed, generally from shutdown()
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
-        log("No longer handling incoming connections");
+        log(LogLevel.INFO, "No longer handling incoming connections");
     }
 
     /**
@@ -143,452 +420,3127 @@ public class BFTPServer {
      *          socket is already closed.
      */
     public void shutdown() throws IOException {
-        ssocket.close();
+        for (ServerSocket listener : ssockets) {
+            listener.close();
+        }
+
         listen = false;
 
         // Gracefully close client handlers
-        clientHandlers.forEach(ClientHandler::stop);
+        connections.forEach(ClientHandler::stop);
+
+        if (null != selectorEngine) {
+            selectorEngine.shutdown();
+        }
+
+        if (null != executor) {
+            shutdownExecutor(executor);
+        }
+
+        shutdownExecutor(requestExecutor);
+        groupCommitter.shutdown();
+        drainer.close();
+        index.close();
+
+        stripedUploads.values().forEach(StripedUpload::close);
+        stripedUploads.clear();
+
+        if (null != metricsName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            }
+            catch (JMException jme) {
+                // Already unregistered
+            }
+        }
+
+        if (null != logger) {
+            logger.close();
+        }
     }
 
     /**
-     * Sets the server's overwriting status.
+     * Sets the limit on the rate at which responses are sent to each client address.
      *
-     * If overwriting is set to true, PUT requests may overwriting existing files.
+     * The limit is shared by all of the address' connections, and applies at once to
+     * connections which are already open. Bulk responses are sent in chunks, which are scheduled
+     * fairly between the connections sharing a limit.
      *
-     * @param   overwriting - whether to set the server to be overwriting
+     * @param   bytesPerSecond  - the limit, in bytes per second, or 0 for none
+     *
+     * @throws  IllegalArgumentException if bytesPerSecond is negative.
      */
-    public void setOverwriting(boolean overwriting) {
-        this.overwriting = overwriting;
+    public void setAddressRateLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit must not be negative");
+        }
+
+        shaper.addressRate(bytesPerSecond);
     }
 
     /**
-     * Returns whether this server is set to be overwriting.
-     *
-     * If overwriting is set to true, PUT requests may overwriting existing files.
+     * Returns the limit on the rate at which responses are sent to each client address.
      *
-     * @return  TRUE if this server is overwriting, FALSE if it is not.
+     * @return  the limit, in bytes per second, or 0 if there is none.
      */
-    public boolean isOverwriting() {
-        return overwriting;
+    public long getAddressRateLimit() {
+        return shaper.addressRate();
     }
 
-    /* PROTECTED MEMBERS */
-
-    /* PRIVATE MEMBERS */
-
     /**
-     * Logs output to the BFTPServer instance's logging PrintWriter, if it exists.
+     * Sets the maximum total size of the files held in the hot-file cache.
      *
-     * If the logging PrintWriter is null, this method does nothing.
+     * Small files are cached off-heap when first requested, and served from the cache until
+     * they are evicted or change. Setting the capacity empties the cache and resets its counters.
+     * If set to 0, files are always read from disk.
      *
-     * @param   entry   - String that will be logged
+     * @param   capacity    - the cache capacity, in bytes
+     *
+     * @throws  IllegalArgumentException if capacity is negative.
      */
-    private void log(String entry) {
-        if (null != logstream) {
-            String partialEntry = LOGGING_PREFIX;
-            String entryLines[] = entry.split("\n");
+    public void setCacheCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative");
+        }
 
-            for (String line : entryLines) {
-                int length, offset = 0;
-                do {
-                    // Determine length of partial entry
-                    length = Math.min(LOGGING_MAX_WIDTH, line.length() - offset);
-                    partialEntry = partialEntry.concat(line.substring(offset, offset + length));
-                    logstream.println(partialEntry);
+        fileCache = (0 == capacity) ? null : new FileCache(capacity,
+                FileCache.DEFAULT_MAX_ENTRY_SIZE, false);
+    }
 
-                    // Pad next partial entry
-                    partialEntry = LOGGING_PADDING;
-                    offset += length;
-                }
-                while (length >= LOGGING_MAX_WIDTH);
-            }
+    /**
+     * Returns the maximum total size of the files held in the hot-file cache.
+     *
+     * @return  the cache capacity, in bytes, or 0 if caching is disabled.
+     */
+    public long getCacheCapacity() {
+        FileCache cache = fileCache;
 
-            logstream.flush();
-        }
+        return (null == cache) ? 0 : cache.capacity();
     }
 
     /**
-     * TODO Documentation
+     * Returns the number of files evicted from the hot-file cache to make room for others.
+     *
+     * @return  the eviction count since the cache capacity was last set.
      */
-    private class ClientHandler implements Runnable {
+    public long getCacheEvictions() {
+        FileCache cache = fileCache;
 
-        private static final String
-                FILE_ALREADY_EXISTS_RESPONSE = "File already exists";
+        return (null == cache) ? 0 : cache.evictions();
+    }
 
-        private static final String
-                FILE_NOT_FOUND_RESPONSE      = "File not found";
+    /**
+     * Returns the number of requests answered from the hot-file cache.
+     *
+     * @return  the hit count since the cache capacity was last set.
+     */
+    public long getCacheHits() {
+        FileCache cache = fileCache;
 
-        private static final String
-                FILE_READ_ERROR_RESPONSE     = "Encountered error while reading from file";
+        return (null == cache) ? 0 : cache.hits();
+    }
 
-        private static final String
-                FILE_WRITE_ERROR_RESPONSE    = "Encountered error while writing to file";
+    /**
+     * Returns the number of requests which could not be answered from the hot-file cache.
+     *
+     * @return  the miss count since the cache capacity was last set.
+     */
+    public long getCacheMisses() {
+        FileCache cache = fileCache;
 
-        private static final String
-                FILE_TOO_LARGE_RESPONSE      = "Requested file is too large (> ~2GiB)";
+        return (null == cache) ? 0 : cache.misses();
+    }
 
-        private static final String
-                UNSUPPORTED_COMMAND_RESPONSE = "Unsupported command";
+    /**
+     * Returns the number of file lookups answered from the path cache, including lookups of
+     * files recently found not to exist, without reading the disk.
+     *
+     * @return  the hit count since the server was created.
+     */
+    public long getPathCacheHits() {
+        return pathCache.hits();
+    }
 
-        private final String clientID, padding;
+    /**
+     * Returns the number of file lookups which read the disk because the path cache did not
+     * hold the file, or held it for too long.
+     *
+     * @return  the miss count since the server was created.
+     */
+    public long getPathCacheMisses() {
+        return pathCache.misses();
+    }
 
-        private boolean isFin, shouldClose, stopped;
-        private DataInputStream input;
-        private DataOutputStream output;
-        private Socket csocket;
+    /**
+     * Returns the server's statistics: request and error counts, bytes transferred, connection
+     * counts and latency percentiles.
+     *
+     * The same statistics are published through JMX, as the attributes of the MBean named
+     * net.nolasaint.bftp:type=BFTPServer,port=[port], and to clients through X_STATS. See
+     * ServerMetrics for the meaning of each name.
+     *
+     * @return  a snapshot of the statistics, by name, in a stable order.
+     */
+    public Map<String, Number> getStatistics() {
+        return metrics.snapshot();
+    }
 
-        /**
-         * Creates a new ClientHandler for the provided socket.
-         *
-         * @param   csocket     the socket connected to the client to be handled
-         * @param   clientID    identification string for the client
-         */
-        public ClientHandler(Socket csocket, String clientID) {
-            this.csocket = csocket;
-            this.clientID = "CH_" + clientID + "> ";
-            shouldClose = false;
-            stopped = false;
+    /**
+     * Sets the maximum total size of the compressed variants held for CMP requests.
+     *
+     * Compressed variants of files are built when first requested, and served to clients which
+     * accept them until they are evicted or the file changes. Setting the capacity empties the
+     * cache. If set to 0, responses are never compressed.
+     *
+     * @param   capacity    - the cache capacity, in bytes
+     *
+     * @throws  IllegalArgumentException if capacity is negative.
+     */
+    public void setCompressionCacheCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative");
+        }
 
-            // Generate padding for logger
-            padding = this.clientID.replaceAll(".", " ");
+        compressionCache = (0 == capacity) ? null : new FileCache(capacity,
+                FileCache.DEFAULT_MAX_COMPRESSED_ENTRY_SIZE, true);
+    }
 
-            log(this.clientID + "Client handler created");
-        }
+    /**
+     * Returns the maximum total size of the compressed variants held for CMP requests.
+     *
+     * @return  the cache capacity, in bytes, or 0 if responses are never compressed.
+     */
+    public long getCompressionCacheCapacity() {
+        FileCache cache = compressionCache;
 
-        /**
-         * Returns whether this ClientHandler has finished running.
-         *
-         * This method is deprecated since ClientHandler removes itself from the parent BFTPServer
-         * instance's set of ClientHandlers once it is done running.
-         *
-         * @return  TRUE if the ClientHandler is no longer running, else FALSE.
-         */
-        @Deprecated
-        public boolean isStopped() {
-            return stopped;
+        return (null == cache) ? 0 : cache.capacity();
+    }
+
+    /**
+     * Sets the limit on the rate at which responses are sent on each connection.
+     *
+     * The limit applies at once to connections which are already open.
+     *
+     * @param   bytesPerSecond  - the limit, in bytes per second, or 0 for none
+     *
+     * @throws  IllegalArgumentException if bytesPerSecond is negative.
+     */
+    public void setConnectionRateLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit must not be negative");
         }
 
-        @Override
-        public void run() {
-            log("Handling client connection");
+        shaper.connectionRate(bytesPerSecond);
+    }
 
-            ByteBuffer buffer; // Used to construct closing FIN packet
+    /**
+     * Returns the limit on the rate at which responses are sent on each connection.
+     *
+     * @return  the limit, in bytes per second, or 0 if there is none.
+     */
+    public long getConnectionRateLimit() {
+        return shaper.connectionRate();
+    }
 
-            // Try to create I/O streams
-            shouldClose = !initializeIOStreams();
-            isFin = false;
+    /**
+     * Sets the guarantee the server gives for a file before acknowledging its PUT.
+     *
+     * With SYNC, each file is synced on its own before it is made visible and acknowledged, so
+     * PUT throughput is bounded by how many syncs the storage device performs per second. GROUP
+     * gives the same guarantee, but files which finish within a millisecond of each other, or
+     * while the previous group is syncing, are synced together before all of their PUTs are
+     * acknowledged, so that concurrent PUTs of small files share syncs. NONE never syncs, and is
+     * only suitable for scratch data, since a crash may lose acknowledged files, or leave them
+     * incomplete on the filesystem backend.
+     *
+     * Striped uploads are committed on their own, and only skip the sync with NONE.
+     *
+     * @param   durability  - the durability, by default SYNC
+     *
+     * @throws  IllegalArgumentException if durability is null.
+     */
+    public void setDurability(Durability durability) {
+        if (null == durability) {
+            throw new IllegalArgumentException("Durability must not be null");
+        }
 
-            while (!shouldClose) {
-                byte content[], opcode;
-                int csize;
+        this.durability = durability;
+    }
 
-                try {
-                    // [0,4] ~ csize, [5,6] ~ opcode
-                    csize = input.readInt();
-                    opcode = input.readByte();
+    /**
+     * Returns the guarantee the server gives for a file before acknowledging its PUT.
+     *
+     * @return  the durability.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
 
-                    content = new byte[csize];
-                    for (int i = 0; i < csize; i++) {
-                        content[i] = input.readByte();
-                    }
+    /**
+     * Sets the ExecutorService on which the blocking engine runs client handlers.
+     *
+     * If no executor is set, each client handler runs on a new platform thread. The executor is
+     * shut down by shutdown(). This has no effect on the SELECTOR engine.
+     *
+     * On Java 21 and later, passing Executors.newVirtualThreadPerTaskExecutor() runs each client
+     * handler on its own virtual thread.
+     *
+     * @param   executor    - the ExecutorService to use, or null for a thread per client handler
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
 
-                    // Determine if FIN bit is set
-                    isFin = ((opcode & BFTP.FIN) != 0);
+    /**
+     * Returns the ExecutorService on which the blocking engine runs client handlers.
+     *
+     * @return  the ExecutorService in use, or null if each client handler runs on a new thread.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
 
-                    switch (opcode) {
-                        case BFTP.GET:
-                            handleGet(content);
-                            break;
+    /**
+     * Sets the limit on the rate at which the server sends responses, across all connections.
+     *
+     * Bulk responses are sent in chunks, which are scheduled fairly between connections, while
+     * responses small enough to be sent in one chunk are not delayed by this limit. Their bytes
+     * still count towards it, and delay the bulk responses instead.
+     *
+     * @param   bytesPerSecond  - the limit, in bytes per second, or 0 for none
+     *
+     * @throws  IllegalArgumentException if bytesPerSecond is negative.
+     */
+    public void setGlobalRateLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit must not be negative");
+        }
 
-                        case BFTP.PUT:
-                            handlePut(content);
-                            break;
+        shaper.globalRate(bytesPerSecond);
+    }
+
+    /**
+     * Returns the limit on the rate at which the server sends responses, across all connections.
+     *
+     * @return  the limit, in bytes per second, or 0 if there is none.
+     */
+    public long getGlobalRateLimit() {
+        return shaper.globalRate();
+    }
+
+    /**
+     * Sets how long a connection may wait between requests before the server closes it.
+     *
+     * An idle connection is closed gracefully, with FIN, once it has received no part of a new
+     * request for this long and has no pipelined requests in flight. The limit applies at once
+     * to connections which are already open.
+     *
+     * @param   idleTimeout - the timeout, in milliseconds, or 0 for none
+     *
+     * @throws  IllegalArgumentException if idleTimeout is negative.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns how long a connection may wait between requests before the server closes it.
+     *
+     * @return  the timeout, in milliseconds, or 0 if there is none.
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the lowest level of entry which the server logs.
+     *
+     * Entries below this level are discarded without being formatted, so DEBUG entries, which
+     * trace every request, cost almost nothing unless enabled. This has no effect on a
+     * non-logging server.
+     *
+     * @param   level   - the logging level
+     *
+     * @throws  IllegalArgumentException if level is null.
+     */
+    public void setLogLevel(LogLevel level) {
+        if (null == level) {
+            throw new IllegalArgumentException("Log level must not be null");
+        }
+
+        if (null != logger) {
+            logger.setLevel(level);
+        }
+    }
+
+    /**
+     * Returns the lowest level of entry which the server logs.
+     *
+     * @return  the logging level, or null if the server is non-logging.
+     */
+    public LogLevel getLogLevel() {
+        return (null == logger) ? null : logger.level();
+    }
+
+    /**
+     * Sets the maximum number of connections from each client address.
+     *
+     * Connections accepted beyond the limit are sent an ERR response and closed at once, before
+     * any of their requests are read. Connections which are already open are not affected.
+     *
+     * @param   maxAddressConnections   - the limit, or 0 for none
+     *
+     * @throws  IllegalArgumentException if maxAddressConnections is negative.
+     */
+    public void setMaxAddressConnections(int maxAddressConnections) {
+        if (maxAddressConnections < 0) {
+            throw new IllegalArgumentException("Maximum connections must not be negative");
+        }
+
+        connections.maxAddressConnections(maxAddressConnections);
+    }
+
+    /**
+     * Returns the maximum number of connections from each client address.
+     *
+     * @return  the limit, or 0 if there is none.
+     */
+    public int getMaxAddressConnections() {
+        return connections.maxAddressConnections();
+    }
+
+    /**
+     * Sets the maximum number of connections which the server handles at once.
+     *
+     * Connections accepted beyond the limit are sent an ERR response and closed at once, before
+     * any of their requests are read. Connections which are already open are not affected.
+     *
+     * @param   maxConnections  - the limit, or 0 for none
+     *
+     * @throws  IllegalArgumentException if maxConnections is negative.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 0) {
+            throw new IllegalArgumentException("Maximum connections must not be negative");
+        }
+
+        connections.maxConnections(maxConnections);
+    }
+
+    /**
+     * Returns the maximum number of connections which the server handles at once.
+     *
+     * @return  the limit, or 0 if there is none.
+     */
+    public int getMaxConnections() {
+        return connections.maxConnections();
+    }
+
+    /**
+     * Sets the maximum size of request content which the server will buffer.
+     *
+     * Requests whose content is buffered in full, such as GET, are rejected with an ERR response
+     * and the connection is closed if their csize exceeds this value. PUT file data is streamed
+     * and is not bounded by it. Only connections accepted after this call are affected.
+     *
+     * @param   maxFrameSize    - the maximum number of content bytes to buffer
+     *
+     * @throws  IllegalArgumentException if maxFrameSize is negative.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("Maximum frame size must not be negative");
+        }
+
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Returns the maximum size of request content which the server will buffer.
+     *
+     * @return  the maximum frame size, in bytes.
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the size of the smallest file which the blocking engine serves from a memory mapping.
+     *
+     * Files at least this large, but too large for the hot-file cache, are mapped once and served
+     * to all of their concurrent readers from the same mapping, rather than each reader streaming
+     * the file from disk. If set to 0, files are never mapped. The SELECTOR engine never maps
+     * files, since a page fault would stall every connection on its event loop.
+     *
+     * @param   mappingThreshold    - the threshold, in bytes
+     *
+     * @throws  IllegalArgumentException if mappingThreshold is negative.
+     */
+    public void setMappingThreshold(long mappingThreshold) {
+        if (mappingThreshold < 0) {
+            throw new IllegalArgumentException("Mapping threshold must not be negative");
+        }
+
+        this.mappingThreshold = mappingThreshold;
+    }
+
+    /**
+     * Returns the size of the smallest file which the blocking engine serves from a memory
+     * mapping.
+     *
+     * @return  the threshold, in bytes, or 0 if files are never mapped.
+     */
+    public long getMappingThreshold() {
+        return mappingThreshold;
+    }
+
+    /**
+     * Sets the maximum number of SEQ requests which each client may have in flight.
+     *
+     * Clients which negotiate pipelining are granted at most this many requests in flight. If
+     * set to 0, pipelining is refused and all clients are handled in lock-step. Only negotiations
+     * after this call are affected. The SELECTOR engine always refuses pipelining.
+     *
+     * @param   maxPipelineDepth    - the maximum number of requests in flight per client
+     *
+     * @throws  IllegalArgumentException if maxPipelineDepth is negative.
+     */
+    public void setMaxPipelineDepth(int maxPipelineDepth) {
+        if (maxPipelineDepth < 0) {
+            throw new IllegalArgumentException("Maximum pipeline depth must not be negative");
+        }
+
+        this.maxPipelineDepth = maxPipelineDepth;
+    }
+
+    /**
+     * Returns the maximum number of SEQ requests which each client may have in flight.
+     *
+     * @return  the maximum pipeline depth.
+     */
+    public int getMaxPipelineDepth() {
+        return maxPipelineDepth;
+    }
+
+    /**
+     * Sets the server's overwriting status.
+     *
+     * If overwriting is set to true, PUT requests may overwriting existing files.
+     *
+     * @param   overwriting - whether to set the server to be overwriting
+     */
+    public void setOverwriting(boolean overwriting) {
+        this.overwriting = overwriting;
+    }
+
+    /**
+     * Returns whether this server is set to be overwriting.
+     *
+     * If overwriting is set to true, PUT requests may overwriting existing files.
+     *
+     * @return  TRUE if this server is overwriting, FALSE if it is not.
+     */
+    public boolean isOverwriting() {
+        return overwriting;
+    }
+
+    /**
+     * Sets how long a request may go without receiving a byte before the server closes its
+     * connection.
+     *
+     * A client which stalls part way through sending a request has its connection closed
+     * without a response. The limit applies at once to connections which are already open.
+     *
+     * @param   readTimeout - the timeout, in milliseconds, or 0 for none
+     *
+     * @throws  IllegalArgumentException if readTimeout is negative.
+     */
+    public void setReadTimeout(long readTimeout) {
+        if (readTimeout < 0) {
+            throw new IllegalArgumentException("Read timeout must not be negative");
+        }
+
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns how long a request may go without receiving a byte before the server closes its
+     * connection.
+     *
+     * @return  the timeout, in milliseconds, or 0 if there is none.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the backend which stores the files the server serves and receives.
+     *
+     * GET, X_RANGE, PUT, X_STRIPE and batches of paths are served from any backend. The hot-file
+     * and compression caches, mappings, listings, X_CGET and batches of globs all work on the
+     * files under public/, so only apply to the filesystem backend, and the last three are
+     * refused with an ERR response by the others. Requests which have already begun keep using
+     * the previous backend, and the caller remains responsible for closing it.
+     *
+     * @param   storage - the backend, by default Storage.filesystem()
+     *
+     * @throws  IllegalArgumentException if storage is null.
+     */
+    public void setStorage(Storage storage) {
+        if (null == storage) {
+            throw new IllegalArgumentException("Storage must not be null");
+        }
+
+        this.storage = storage;
+    }
+
+    /**
+     * Returns the backend which stores the files the server serves and receives.
+     *
+     * @return  the storage backend.
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the port on which this server is bound, which is useful if it was created with
+     * port 0.
+     *
+     * @return  the local port number.
+     */
+    public int getPort() {
+        return ssocket.getLocalPort();
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Returns the server-wide pool of direct buffers used to build responses.
+     *
+     * @return  the server's BufferPool.
+     */
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the server's counters and latency histograms.
+     *
+     * @return  the server's ServerMetrics.
+     */
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the executor which handles pipelined requests, and reads batch files ahead.
+     *
+     * @return  the server's request executor.
+     */
+    Executor requestExecutor() {
+        return requestExecutor;
+    }
+
+    /**
+     * Returns the limits on the rate at which responses are sent.
+     *
+     * @return  the server's TrafficShaper.
+     */
+    TrafficShaper shaper() {
+        return shaper;
+    }
+
+    /**
+     * Helper method to discard a striped upload.
+     *
+     * @param   token   - the token of the upload
+     *
+     * @return  TRUE if the upload was open, else FALSE.
+     */
+    boolean abortUpload(long token) {
+        StripedUpload upload = removeUpload(token);
+
+        if (null != upload) {
+            upload.close();
+        }
+
+        return null != upload;
+    }
+
+    /**
+     * Helper method to convert the given byte array to a String.
+     *
+     * Attempts to use UTF-8 encoding, but will default to the native machine encoding if UTF-8
+     * is not supported.
+     *
+     * This method is essentially a wrapper around an UnsupportedEncodingException.
+     *
+     * @param   bytes   - byte array to convert to a String
+     *
+     * @return  a String formed from the provided bytes.
+     */
+    static String bytesToString(byte bytes[]) {
+        String string;
+
+        try {
+            string = new String(bytes, DEFAULT_ENCODING);
+        }
+        catch (UnsupportedEncodingException uee) {
+            // Should never be reached
+            throw new AssertionError(DEFAULT_ENCODING + " encoding not supported");
+        }
+
+        return string;
+    }
+
+    /**
+     * Helper method to convert the remaining bytes of the given buffer to a String.
+     *
+     * The buffer must be backed by an accessible array. Its position is not changed.
+     *
+     * @param   buffer  - array-backed buffer to convert to a String
+     *
+     * @return  a String formed from the remaining bytes of the buffer.
+     */
+    static String bytesToString(ByteBuffer buffer) {
+        String string;
+
+        try {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining(), DEFAULT_ENCODING);
+        }
+        catch (UnsupportedEncodingException uee) {
+            // Should never be reached
+            throw new AssertionError(DEFAULT_ENCODING + " encoding not supported");
+        }
+
+        return string;
+    }
+
+    /**
+     * Helper method to look up a file in the hot-file cache, reading it into the cache if it is
+     * small enough.
+     *
+     * @param   target  - resolved path of the requested file
+     *
+     * @return  a read-only view of the whole file, or null if it is not cached.
+     */
+    ByteBuffer cachedFile(Path target) {
+        ByteBuffer content;
+        FileCache cache = fileCache;
+
+        if (null == cache || !storesFiles()) {
+            return null;
+        }
+
+        content = cache.get(target);
+
+        return (null != content) ? content : cache.load(target);
+    }
+
+    /**
+     * Helper method to commit a striped upload, once all of its stripes have been received.
+     *
+     * An upload which is only missing stripes is left open, and one which can never be committed
+     * is discarded.
+     *
+     * @param   token       - the token of the upload
+     * @param   executor    - runs the commit, and may run it on the calling thread
+     *
+     * @return  the result, which completes with null once the file is committed, or with the
+     *          error response to send the client.
+     */
+    CompletableFuture<String> commitUpload(long token, Executor executor) {
+        StripedUpload upload = stripedUploads.get(token);
+
+        if (null == upload) {
+            return CompletableFuture.completedFuture(UNKNOWN_UPLOAD_RESPONSE);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> commitUpload(token, upload), executor);
+        }
+        catch (RejectedExecutionException ree) {
+            // Server is shutting down, so commit on this thread instead
+            return CompletableFuture.completedFuture(commitUpload(token, upload));
+        }
+    }
+
+    /**
+     * Helper method to commit the file of a PUT with the server's durability.
+     *
+     * The caller must not use the upload until the result has completed, and remains
+     * responsible for closing it.
+     *
+     * @param   upload      - the upload, whose file data has all been written
+     * @param   executor    - runs the commit, or the sync ahead of a group commit, and may run
+     *                        it on the calling thread
+     *
+     * @return  the result, which completes with null once the file is committed, or with the
+     *          error response to send the client.
+     */
+    CompletableFuture<String> commitPut(Upload upload, Executor executor) {
+        boolean replacing = overwriting;
+        Durability mode = durability;
+
+        if (Durability.GROUP == mode) {
+            return groupCommitter.commit(upload, replacing, executor);
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> upload.commit(replacing, Durability.NONE != mode), executor);
+        }
+        catch (RejectedExecutionException ree) {
+            // Server is shutting down, so commit on this thread instead
+            return CompletableFuture.completedFuture(
+                    upload.commit(replacing, Durability.NONE != mode));
+        }
+    }
+
+    /**
+     * Helper method to look up the compressed variant of a file, compressing it if it is small
+     * enough.
+     *
+     * A cached variant is returned at once, so that only files which must be read and compressed
+     * are handed to the executor.
+     *
+     * @param   target      - resolved path of the requested file
+     * @param   codecs      - the codecs accepted by the client
+     * @param   executor    - compresses the file, and may compress it on the calling thread
+     *
+     * @return  the result, which completes with a read-only view of the codec and compressed
+     *          file, or with null if the file should be sent uncompressed.
+     */
+    CompletableFuture<ByteBuffer> compressedFile(Path target, int codecs, Executor executor) {
+        ByteBuffer content;
+        FileCache cache = compressionCache;
+
+        if (null == cache || 0 == (codecs & BFTP.CODEC_DEFLATE) || !storesFiles()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (null != (content = cache.get(target))) {
+            return CompletableFuture.completedFuture(compressedVariant(content));
+        }
+
+        return supply(() -> compressedVariant(cache.load(target)), executor);
+    }
+
+    /**
+     * Helper method to build the content which precedes the file data of an X_CGET response.
+     *
+     * @param   status  - the status of the response
+     * @param   hash    - the current hash of the file
+     *
+     * @return  the xop, status and hash fields of the response.
+     */
+    static byte[] conditionalPrefix(byte status, byte hash[]) {
+        // [0] ~ xop, [1] ~ status, [2,33] ~ hash
+        return ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH + BFTP.HASH_LENGTH)
+                .put(BFTP.X_CGET)
+                .put(status)
+                .put(hash)
+                .array();
+    }
+
+    /**
+     * Helper method to release the admission of a connection which has closed.
+     *
+     * @param   address - the address of the client
+     */
+    void connectionClosed(InetAddress address) {
+        connections.release(address);
+    }
+
+    /**
+     * Helper method to look up the current version of a requested file in the directory index.
+     *
+     * @param   target  - absolute, normalized path of the file
+     *
+     * @return  its entry, or null if it is not a regular file.
+     */
+    DirectoryIndex.Entry currentFile(Path target) {
+        return index.currentFile(index.relativize(target));
+    }
+
+    /**
+     * Helper method to prefix the content of an EXT response with its xop.
+     *
+     * @param   command - the xop of the request being answered
+     * @param   content - the remaining content of the response
+     *
+     * @return  the content field of the response.
+     */
+    static byte[] extendedContent(byte command, byte content[]) {
+        byte extended[] = new byte[BFTP.XOP_LENGTH + content.length];
+
+        extended[0] = command;
+        System.arraycopy(content, 0, extended, BFTP.XOP_LENGTH, content.length);
+
+        return extended;
+    }
+
+    /**
+     * Helper method to count an ERR response and encode its content.
+     *
+     * @param   response    - the response string, e.g. FILE_NOT_FOUND_RESPONSE
+     *
+     * @return  the content of the ERR response.
+     */
+    byte[] errorContent(String response) {
+        metrics.error(response);
+
+        return stringToBytes(response);
+    }
+
+    /**
+     * Helper method to read the attributes of a file, through the path cache.
+     *
+     * @param   target  - resolved path of the file
+     * @return  the attributes of the file, or null if it does not exist.
+     */
+    BasicFileAttributes fileAttributes(Path target) {
+        return pathCache.attributes(target);
+    }
+
+    /**
+     * Helper method to check if a file exists, through the path cache when the storage backend
+     * keeps files under the root directory.
+     *
+     * @param   target  - resolved path of the file
+     * @return  TRUE if the file exists, FALSE otherwise.
+     */
+    boolean fileExists(Path target) {
+        if (storesFiles()) {
+            return null != fileAttributes(target);
+        }
+
+        try (Storage.Blob file = openFile(target)) {
+            return null != file;
+        }
+        catch (IOException ioe) {
+            // Exists, but cannot be read
+            return true;
+        }
+    }
+
+    /**
+     * Helper method to update the directory index with a file committed by a PUT, and remove the
+     * file it replaced from the path, hot-file and compression caches.
+     *
+     * @param   target  - absolute, normalized path of the file
+     */
+    void fileStored(Path target) {
+        pathCache.invalidate(target, false);
+        index.refresh(index.relativize(target));
+
+        for (FileCache cache : new FileCache[] { fileCache, compressionCache }) {
+            if (null != cache) {
+                cache.invalidate(target);
+            }
+        }
+    }
+
+    /**
+     * Helper method to look up the content hash of a file, computing it if it is not known.
+     *
+     * A known hash is returned at once, so that only files which must be read are handed to the
+     * executor.
+     *
+     * @param   file        - the entry of the file
+     * @param   executor    - computes the hash, and may compute it on the calling thread
+     *
+     * @return  the result, which completes with its SHA-256 digest, or with null if it could not
+     *          be read.
+     */
+    CompletableFuture<byte[]> hash(DirectoryIndex.Entry file, Executor executor) {
+        if (index.isHashed(file)) {
+            return CompletableFuture.completedFuture(index.hash(file));
+        }
+
+        return supply(() -> index.hash(file), executor);
+    }
+
+    /**
+     * Helper method to build the content of an X_LIST response.
+     *
+     * @param   directory   - path of the directory relative to the root directory, as returned
+     *                        by listingPath()
+     * @param   flags       - the flags of the request
+     *
+     * @return  the xop, followed by the entries of the directory, or null if it is not an indexed
+     *          directory.
+     */
+    byte[] listingContent(String directory, byte flags) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteBuffer fields = ByteBuffer.allocate(BFTP.KIND_LENGTH + BFTP.SIZE_LENGTH
+                + BFTP.MTIME_LENGTH + BFTP.PLEN_LENGTH);
+        List<DirectoryIndex.Entry> entries = index.list(directory,
+                FrameCodec.isSet(flags, BFTP.LIST_RECURSIVE));
+
+        if (null == entries) {
+            return null;
+        }
+
+        content.write(BFTP.X_LIST);
+
+        for (DirectoryIndex.Entry entry : entries) {
+            byte path[] = stringToBytes(entry.path);
+
+            // [0] ~ kind, [1,8] ~ size, [9,16] ~ mtime, [17,18] ~ plen, then path and hash
+            fields.clear()
+                    .put(entry.directory ? BFTP.LIST_DIRECTORY : BFTP.LIST_FILE)
+                    .putLong(entry.size)
+                    .putLong(entry.modified)
+                    .putShort((short) path.length);
+
+            content.write(fields.array(), 0, fields.position());
+            content.write(path, 0, path.length);
+
+            if (FrameCodec.isSet(flags, BFTP.LIST_HASHES)) {
+                byte hash[] = index.hash(entry);
+
+                content.write((null != hash) ? hash : new byte[BFTP.HASH_LENGTH], 0,
+                        BFTP.HASH_LENGTH);
+            }
+        }
+
+        return content.toByteArray();
+    }
+
+    /**
+     * Helper method to build the content of an X_LIST response, once the index has been built.
+     *
+     * @param   directory   - path of the directory relative to the root directory, as returned
+     *                        by listingPath()
+     * @param   flags       - the flags of the request
+     * @param   executor    - builds the listing, which may hash every file in a tree, and may
+     *                        build it on the calling thread
+     *
+     * @return  the result, which completes with the content of the response, or with null if it
+     *          is not an indexed directory.
+     */
+    CompletableFuture<byte[]> listingContent(String directory, byte flags, Executor executor) {
+        return index.build().thenCompose(
+                count -> supply(() -> listingContent(directory, flags), executor));
+    }
+
+    /**
+     * Helper method to resolve the directory requested by an X_LIST request.
+     *
+     * @param   requestPath - path received from the client, empty for the root directory
+     *
+     * @return  the path of the directory relative to the root directory, or null if it is invalid
+     *          or would leave the root directory.
+     */
+    String listingPath(String requestPath) {
+        Path path;
+
+        if (requestPath.isEmpty()) {
+            return DirectoryIndex.ROOT;
+        }
+
+        return (null != (path = resolvePath(requestPath))) ? index.relativize(path) : null;
+    }
+
+    /**
+     * Helper method to begin receiving a file into the storage backend.
+     *
+     * @param   target      - absolute, normalized path of the file
+     * @param   compressed  - whether the file data is preceded by a codec and compressed
+     *
+     * @return  the upload, which must be closed.
+     */
+    Upload newUpload(Path target, boolean compressed) {
+        return new Upload(storage, index.relativize(target), compressed);
+    }
+
+    /**
+     * Helper method to look up the size of the largest file the storage backend may store.
+     *
+     * @return  the maximum file size, in bytes.
+     */
+    long maxFileSize() {
+        return storage.maxFileSize();
+    }
+
+    /**
+     * Helper method to open a file from the storage backend.
+     *
+     * @param   target  - absolute, normalized path of the file
+     *
+     * @return  the file, which must be closed, or null if it does not exist.
+     *
+     * @throws  IOException if the file exists but cannot be opened.
+     */
+    Storage.Blob openFile(Path target) throws IOException {
+        return storage.open(index.relativize(target));
+    }
+
+    /**
+     * Helper method to open a striped upload, first discarding uploads which have been idle for
+     * too long.
+     *
+     * @param   target  - absolute, normalized path of the file
+     * @param   size    - the size of the file, in bytes, at most the backend's maximum file size
+     *
+     * @return  the upload, or null if too many uploads are open.
+     */
+    StripedUpload openUpload(Path target, long size) {
+        long now = System.nanoTime(), token;
+
+        for (StripedUpload upload : stripedUploads.values()) {
+            if (upload.isIdle(now)) {
+                abortUpload(upload.token());
+            }
+        }
+
+        // The slot is reserved first, so that concurrent requests cannot exceed the limit
+        if (stripedUploadCount.incrementAndGet() > MAX_STRIPED_UPLOADS) {
+            stripedUploadCount.decrementAndGet();
+
+            return null;
+        }
+
+        do {
+            token = uploadTokens.nextLong();
+        }
+        while (stripedUploads.containsKey(token));
+
+        StripedUpload upload = new StripedUpload(token, target, newUpload(target, false), size);
+
+        stripedUploads.put(token, upload);
+
+        return upload;
+    }
+
+    /**
+     * Helper method to build the content which precedes the file data of an X_RANGE response.
+     *
+     * @param   size    - the total size of the requested file
+     *
+     * @return  the xop and fsize fields of the response.
+     */
+    static byte[] rangePrefix(long size) {
+        // [0] ~ xop, [1,8] ~ fsize
+        return ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.FSIZE_LENGTH)
+                .put(BFTP.X_RANGE)
+                .putLong(size)
+                .array();
+    }
+
+    /**
+     * Helper method to resolve a requested path against the root directory, through the path
+     * cache.
+     *
+     * @param   requestPath - path received from the client
+     *
+     * @return  the normalized absolute path, or null if it is invalid or would leave the root
+     *          directory.
+     */
+    Path resolvePath(String requestPath) {
+        return pathCache.resolve(requestPath);
+    }
+
+    /**
+     * Helper method to build the content of an X_STATS response.
+     *
+     * @return  the xop, followed by one "name value" line per statistic.
+     */
+    byte[] statisticsContent() {
+        StringBuilder statistics = new StringBuilder();
+
+        metrics.snapshot().forEach((name, value) -> statistics.append(name).append(' ')
+                .append(value).append('\n'));
+
+        return extendedContent(BFTP.X_STATS, stringToBytes(statistics.toString()));
+    }
+
+    /**
+     * Helper method to check whether the storage backend keeps each file under the root
+     * directory, so that the caches, mappings and directory index apply to it.
+     *
+     * @return  TRUE for the filesystem backend, else FALSE.
+     */
+    boolean storesFiles() {
+        return storage instanceof FileStorage;
+    }
+
+    /**
+     * Helper method to build the content of an X_STRIPE response.
+     *
+     * @param   stage   - the stage of the request
+     * @param   token   - the token of the upload, which is only sent for STRIPE_OPEN
+     *
+     * @return  the xop and stage, followed by the token of a STRIPE_OPEN response.
+     */
+    static byte[] stripeContent(byte stage, long token) {
+        ByteBuffer content = ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH
+                + ((BFTP.STRIPE_OPEN == stage) ? BFTP.TOKEN_LENGTH : 0));
+
+        // [0] ~ xop, [1] ~ stage, [2,9] ~ token
+        content.put(BFTP.X_STRIPE).put(stage);
+
+        if (BFTP.STRIPE_OPEN == stage) {
+            content.putLong(token);
+        }
+
+        return content.array();
+    }
+
+    /**
+     * Helper method to look up an open striped upload.
+     *
+     * @param   token   - the token of the upload
+     *
+     * @return  the upload, or null if no upload has the token.
+     */
+    StripedUpload stripedUpload(long token) {
+        return stripedUploads.get(token);
+    }
+
+    /**
+     * Helper method to convert the given String to a byte array.
+     *
+     * Attempts to use UTF-8 encoding, but will default to the native machine encoding if UTF-8
+     * is not supported.
+     *
+     * This method is essentially a wrapper around an UnsupportedEncodingException.
+     *
+     * @param   string  - string to get bytes from
+     *
+     * @return  the byte array representation of the provided string.
+     */
+    static byte[] stringToBytes(String string) {
+        byte stringBytes[];
+
+        try {
+            stringBytes = string.getBytes(DEFAULT_ENCODING);
+        }
+        catch (UnsupportedEncodingException uee) {
+            // Should never be reached
+            throw new AssertionError(DEFAULT_ENCODING + " encoding not supported");
+        }
+
+        return stringBytes;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Returns whether the server logs entries of the given level.
+     *
+     * Callers which build an entry from several values should check this first, so that
+     * discarded entries are never built.
+     *
+     * @param   level   - the level of a prospective entry
+     *
+     * @return  TRUE if the server is logging and the level is enabled, else FALSE.
+     */
+    boolean isLoggable(LogLevel level) {
+        return null != logger && logger.isLoggable(level);
+    }
+
+    /**
+     * Logs an entry to the server's Logger, if it exists and the level is enabled.
+     *
+     * @param   level   - the level of the entry
+     * @param   entry   - String that will be logged
+     */
+    void log(LogLevel level, String entry) {
+        log(level, null, entry, null);
+    }
+
+    /**
+     * Logs an entry to the server's Logger, if it exists and the level is enabled.
+     *
+     * The entry is only concatenated by the Logger's writer thread, so that request threads do
+     * not build entries which are discarded.
+     *
+     * @param   level       - the level of the entry
+     * @param   source      - String identifying the client, or null
+     * @param   entry       - String that will be logged
+     * @param   argument    - Object appended to the entry, or null
+     */
+    void log(LogLevel level, String source, String entry, Object argument) {
+        if (null != logger) {
+            logger.log(level, source, entry, argument);
+        }
+    }
+
+    /**
+     * Helper method to accept connections on one of the server's listening sockets, and hand
+     * them to the engine, until the server stops listening.
+     *
+     * @param   acceptor    - index of the acceptor, which selects its socket and event loops
+     *
+     * @throws  IOException if an I/O error occurs when waiting for a connection.
+     */
+    private void accept(int acceptor) throws IOException {
+        ServerSocket listener = ssockets[acceptor];
+
+        while (listen) {
+            try {
+                ClientHandler clientHandler;
+                Socket csocket = listener.accept(); // blocks until a connection is available
+                String clientID = csocket.getInetAddress().getHostAddress() + ":" + csocket.getPort();
+                String rejection = connections.admit(csocket.getInetAddress());
+
+                metrics.accepted();
+                log(LogLevel.INFO, null, "Accepted connection from client at ", clientID);
+
+                if (null != rejection) {
+                    reject(csocket, rejection);
+                    log(LogLevel.INFO, null, "Rejected connection from client at ", clientID);
+                    continue;
+                }
+
+                if (null != selectorEngine) {
+                    selectorEngine.register(csocket.getChannel(), clientID, acceptor);
+                    continue;
+                }
+
+                clientHandler = new ClientHandler(csocket, clientID);
+                connections.add(clientHandler);
+
+                if (null != executor) {
+                    executor.execute(clientHandler);
+                }
+                else {
+                    new Thread(clientHandler).start();
+                }
+            }
+            catch (SocketException | ClosedChannelException e) {
+                // Server socket closed, generally from shutdown()
+            }
+        }
+    }
+
+    /**
+     * Helper method to open the listening sockets of the server's acceptors.
+     *
+     * Sockets are opened through channels, so that accepted sockets can be targeted by
+     * FileChannel.transferTo(). Where SO_REUSEPORT is supported, each acceptor has a socket of its
+     * own, bound to the same port. Otherwise they all share one socket.
+     *
+     * @param   port    - the port number on which to bind, which may be 0 for any free port
+     * @param   count   - the number of acceptors
+     *
+     * @return  the socket of each acceptor, in order.
+     *
+     * @throws  IOException if an I/O error occurs when opening the sockets.
+     */
+    private static ServerSocket[] bind(int port, int count) throws IOException {
+        ServerSocket sockets[] = new ServerSocket[count];
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        boolean sharing = count > 1
+                && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && !sharing) {
+                    sockets[i] = sockets[0];
+                    continue;
+                }
+
+                if (i > 0) {
+                    channel = ServerSocketChannel.open();
+                }
+
+                if (sharing) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+
+                // Later sockets join the port the first was bound to
+                sockets[i] = channel.bind(new InetSocketAddress(port), LISTEN_BACKLOG).socket();
+                port = sockets[i].getLocalPort();
+            }
+        }
+        catch (IOException ioe) {
+            channel.close();
+
+            for (ServerSocket socket : sockets) {
+                if (null != socket) {
+                    socket.close();
+                }
+            }
+
+            throw ioe;
+        }
+
+        return sockets;
+    }
+
+    /**
+     * Helper method to commit a striped upload on the calling thread.
+     *
+     * @param   token   - the token of the upload
+     * @param   upload  - the upload
+     *
+     * @return  null if the file was committed, else the error response to send the client.
+     */
+    private String commitUpload(long token, StripedUpload upload) {
+        String error = upload.commit(overwriting, Durability.NONE != durability);
+
+        if (null == error) {
+            removeUpload(token);
+            fileStored(upload.target());
+        }
+        else if (!INCOMPLETE_UPLOAD_RESPONSE.equals(error)) {
+            abortUpload(token);
+        }
+
+        return error;
+    }
+
+    /**
+     * Helper method to filter out the variants of files which do not compress well.
+     *
+     * @param   content - the cached variant of a file, or null if it is not cached
+     *
+     * @return  the variant, or null if the file should be sent uncompressed.
+     */
+    private static ByteBuffer compressedVariant(ByteBuffer content) {
+        // Empty variants mark files which do not compress well
+        return (null != content && content.hasRemaining()) ? content : null;
+    }
+
+    /**
+     * Helper method to close the blocking engine's stalled connections, every REAP_INTERVAL
+     * milliseconds while the server is listening.
+     */
+    private void reap() {
+        while (listen) {
+            long now = System.nanoTime();
+            long idle = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            long read = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+
+            connections.forEach(clientHandler -> clientHandler.reap(now, idle, read));
+
+            try {
+                Thread.sleep(REAP_INTERVAL);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method to register the server's statistics with the platform MBean server.
+     *
+     * @return  the name the statistics were registered under, or null if they could not be.
+     */
+    private ObjectName registerMetrics() {
+        try {
+            ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=BFTPServer,port="
+                    + ssocket.getLocalPort());
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+
+            return name;
+        }
+        catch (JMException jme) {
+            log(LogLevel.WARNING, null, "Failed to register statistics with JMX: ", jme);
+
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to refuse an accepted connection, by sending an ERR response and closing it.
+     *
+     * The response is written without blocking the accepting thread, which is safe since nothing
+     * has yet been sent on the connection. The connection is then handed to the drainer, which
+     * discards its requests until the client closes it, since closing it with unread data would
+     * reset it before the client could read the response.
+     *
+     * @param   csocket     - the accepted socket
+     * @param   response    - the response string, e.g. CONNECTION_LIMIT_RESPONSE
+     */
+    private void reject(Socket csocket, String response) {
+        byte content[] = errorContent(response);
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.headerLength(content.length)
+                + content.length);
+
+        metrics.rejected();
+
+        try {
+            FrameCodec.putHeader(frame, content.length, BFTP.ERR);
+            frame.put(content).flip();
+
+            csocket.getChannel().configureBlocking(false);
+            csocket.getChannel().write(frame);
+            csocket.shutdownOutput();
+        }
+        catch (IOException ioe) {
+            // The connection is closed regardless
+        }
+
+        drainer.drain(csocket.getChannel());
+    }
+
+    /**
+     * Helper method to remove a striped upload, and release its slot.
+     *
+     * @param   token   - the token of the upload
+     *
+     * @return  the upload, or null if it was not open.
+     */
+    private StripedUpload removeUpload(long token) {
+        StripedUpload upload = stripedUploads.remove(token);
+
+        if (null != upload) {
+            stripedUploadCount.decrementAndGet();
+        }
+
+        return upload;
+    }
+
+    /**
+     * Helper method to shut down a client handler or request executor.
+     *
+     * Running tasks are given EXECUTOR_SHUTDOWN_TIMEOUT seconds to complete gracefully before
+     * they are interrupted.
+     *
+     * @param   executor    - the ExecutorService to shut down
+     */
+    private void shutdownExecutor(ExecutorService executor) {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(EXECUTOR_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                log(LogLevel.WARNING, "Client handlers did not close in time, interrupting them");
+
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException ie) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Helper method to run work which may block, such as reading a whole file, on an executor.
+     *
+     * @param   work        - the work to run
+     * @param   executor    - runs the work, and may run it on the calling thread
+     *
+     * @return  the result of the work.
+     */
+    private static <T> CompletableFuture<T> supply(Supplier<T> work, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        }
+        catch (RejectedExecutionException ree) {
+            // Server is shutting down, so run it on this thread instead
+            return CompletableFuture.completedFuture(work.get());
+        }
+    }
+
+    /**
+     * A request which has been parsed, and whose response is yet to be sent.
+     */
+    @FunctionalInterface
+    private interface Request {
+
+        /**
+         * Handles the request and sends its response.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        void handle() throws IOException;
+
+    }
+
+    /**
+     * TODO Documentation
+     */
+    private class ClientHandler implements Runnable {
+
+        private final InetAddress address;
+        private final String clientID;
+
+        private final ReentrantLock writeLock;
+
+        private boolean isFin, shouldClose, stopped;
+        private volatile boolean reaped;
+        private int window;
+        private long diskTime;
+        private FrameCodec input;
+        private volatile MonitoredInputStream monitor;
+        private volatile Semaphore inFlight;
+        private WritableByteChannel output;
+        private Socket csocket;
+        private TrafficShaper.Throttle throttle;
+
+        /**
+         * Creates a new ClientHandler for the provided socket.
+         *
+         * @param   csocket     the socket connected to the client to be handled
+         * @param   clientID    identification string for the client
+         */
+        public ClientHandler(Socket csocket, String clientID) {
+            this.csocket = csocket;
+            this.clientID = "CH_" + clientID + "> ";
+            address = csocket.getInetAddress();
+            shouldClose = false;
+            stopped = false;
+
+            // Pipelined responses are written from request threads
+            writeLock = new ReentrantLock();
+            window = 0;
+
+            log(LogLevel.INFO, "Client handler created");
+        }
+
+        /**
+         * Returns whether this ClientHandler has finished running.
+         *
+         * This method is deprecated since ClientHandler removes itself from the parent BFTPServer
+         * instance's set of ClientHandlers once it is done running.
+         *
+         * @return  TRUE if the ClientHandler is no longer running, else FALSE.
+         */
+        @Deprecated
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        public void run() {
+            log(LogLevel.INFO, "Handling client connection");
+            metrics.handlerOpened();
+            throttle = shaper.open(address);
+
+            // Try to create I/O streams
+            shouldClose = !initializeIOStreams();
+            isFin = false;
+
+            while (!shouldClose) {
+                ByteBuffer content;
+                byte opcode;
+                boolean compressed, tagged;
+                long received, requestID = NO_REQUEST_ID;
+
+                try {
+                    monitor.awaitRequest();
+                    input.readHeader();
+                    opcode = input.opcode();
+
+                    received = System.nanoTime();
+                    metrics.received(FrameCodec.headerLength(input.csize())
+                            + Math.max(0, input.csize()));
+
+                    // Determine if FIN bit is set
+                    isFin = input.isSet(BFTP.FIN);
+
+                    // Determine if this is a pipelined request, rather than a negotiation
+                    tagged = input.isSet(BFTP.SEQ) && BFTP.SEQ != opcode;
+
+                    if (tagged) {
+                        opcode &= ~BFTP.SEQ;
+
+                        if (0 == window || input.csize() < BFTP.RID_LENGTH) {
+                            // Pipelining was not negotiated, so cannot be trusted
+                            opcode = 0;
+                        }
+                    }
+                    else {
+                        // Lock-step requests are only handled once pipelined ones are answered
+                        awaitInFlight();
+                    }
+
+                    // Determine if CMP bit is set, which only applies to GET and PUT
+                    compressed = input.isSet(BFTP.CMP);
+
+                    if (compressed) {
+                        opcode &= ~BFTP.CMP;
+
+                        if (BFTP.GET != opcode && BFTP.PUT != opcode) {
+                            opcode = 0;
+                        }
+                    }
+
+                    metrics.request(opcode);
+
+                    if (BFTP.PUT == opcode) {
+                        // PUT content is streamed to disk by handlePut()
+                        content = null;
+                    }
+                    else if (input.exceedsMaxFrameSize()) {
+                        // Only stripe data may exceed it, being streamed to disk like PUT
+                        if (BFTP.EXT != opcode || !receiveStripe(tagged)) {
+                            handleOversized();
+
+                            // Content was not consumed, so the connection is out of sync
+                            shouldClose = true;
+                        }
+                        continue;
+                    }
+                    else {
+                        content = input.readContent();
+
+                        if (tagged && 0 != opcode) {
+                            requestID = content.getInt() & 0xFFFFFFFFL;
+                        }
+                    }
+
+                    switch (opcode) {
+                        case BFTP.GET: {
+                            long rid = requestID;
+                            int codecs = (compressed && content.hasRemaining()) ? content.get() : 0;
+                            String requestPath = bytesToString(content);
+
+                            if (tagged) {
+                                dispatch(rid, () -> handleGet(rid, requestPath, codecs,
+                                        received));
+                            }
+                            else {
+                                handleGet(rid, requestPath, codecs, received);
+                            }
+                            break;
+                        }
+
+                        case BFTP.PUT:
+                            handlePut(tagged, compressed, received);
+                            break;
 
                         case BFTP.FIN:
                             shouldClose = true;
                             break;
 
-                        default:
-                            handleUnsupported();
+                        case BFTP.SEQ:
+                            handleSequence(content);
+                            break;
+
+                        case BFTP.EXT:
+                            handleExtended(tagged, requestID, content);
+                            break;
+
+                        default:
+                            handleUnsupported();
+
+                            // Do not trust this client
+                            shouldClose = true;
+                            break;
+                    }
+
+                    log(LogLevel.DEBUG, "Sent response to client");
+                }
+                catch (IOException ioe) {
+                    log(LogLevel.WARNING,
+                            "Encountered IOException while reading from client socket");
+
+                    shouldClose = true;
+                }
+
+                if (isFin) {
+                    log(LogLevel.INFO, "FIN bit was set, closing connection");
+                }
+
+                // Close if we see the socket has closed
+                shouldClose |= (isFin || csocket.isClosed());
+            }
+
+            log(LogLevel.INFO, "Closing connection with client");
+
+            // Answer pipelined requests before sending FIN
+            awaitInFlight();
+
+            if (!csocket.isClosed()) {
+                try {
+                    respond(NO_REQUEST_ID, BFTP.FIN, EMPTY_CONTENT);
+
+                    // Close resources
+                    csocket.close();
+                }
+                catch (IOException ioe) {
+                    log(LogLevel.WARNING, "Encountered IOException while cleaning up connection");
+                }
+            }
+            else {
+                log(LogLevel.WARNING, "Client socket already closed, cannot send FIN");
+            }
+
+            stopped = true;
+            connections.remove(this);
+            connections.release(address);
+            metrics.handlerClosed();
+            throttle.close();
+        }
+
+        /**
+         * Notifies the client handler to close the connection gracefully.
+         *
+         * A graceful close will only terminate the connection when the handler is not currently
+         * processing a command from the client.
+         */
+        public void stop() {
+            shouldClose = true;
+
+            log(LogLevel.INFO, "Will close after handling current command");
+        }
+
+        /**
+         * Closes the connection if it has been waiting for a request for longer than the idle
+         * timeout, or stalled part way through receiving one for longer than the read timeout.
+         *
+         * An idle connection is closed gracefully, by ending its input so that the handler
+         * sends FIN, while a stalled one is closed at once. Called by the server's reaper.
+         *
+         * @param   now         - the current System.nanoTime()
+         * @param   idleTimeout - the idle timeout, in nanoseconds, or 0 for none
+         * @param   readTimeout - the read timeout, in nanoseconds, or 0 for none
+         */
+        public void reap(long now, long idleTimeout, long readTimeout) {
+            MonitoredInputStream stream = monitor;
+            Semaphore pipeline = inFlight;
+            long blocked;
+
+            if (null == stream || reaped || 0 == (blocked = stream.blockedFor(now))) {
+                return;
+            }
+
+            try {
+                if (stream.isIdle()) {
+                    // Pipelined responses may still be being sent
+                    if (0 != idleTimeout && blocked > idleTimeout
+                            && (null == pipeline || pipeline.availablePermits() == window)) {
+                        reaped = true;
+                        metrics.reaped();
+                        log(LogLevel.INFO, "Connection was idle for too long, closing it");
+
+                        csocket.shutdownInput();
+                    }
+                }
+                else if (0 != readTimeout && blocked > readTimeout) {
+                    reaped = true;
+                    metrics.reaped();
+                    log(LogLevel.WARNING, "Request stalled for too long, closing connection");
+
+                    csocket.close();
+                }
+            }
+            catch (IOException ioe) {
+                // The handler notices the closed socket regardless
+            }
+        }
+
+        /**
+         * Helper method to acquire the shared mapping of a file, if it is large enough to be
+         * mapped.
+         *
+         * @param   target  - resolved path of the requested file
+         *
+         * @return  the mapping, which must be released, or null if the file is not mapped.
+         */
+        private FileMappings.Mapping acquireMapping(Path target) {
+            long threshold = mappingThreshold;
+
+            return (0 == threshold || !storesFiles()) ? null
+                    : fileMappings.acquire(target, threshold);
+        }
+
+        /**
+         * Helper method to wait until all pipelined requests have been answered.
+         */
+        private void awaitInFlight() {
+            if (window > 0) {
+                inFlight.acquireUninterruptibly(window);
+                inFlight.release(window);
+            }
+        }
+
+        /**
+         * Helper method to handle a pipelined request on the request executor.
+         *
+         * Blocks while the client already has the negotiated number of requests in flight, which
+         * stops further requests being read until a response has been sent.
+         *
+         * @param   requestID   - the request ID of the request
+         * @param   request     - handles the request and sends its response
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void dispatch(long requestID, Request request) throws IOException {
+            inFlight.acquireUninterruptibly();
+
+            try {
+                requestExecutor.execute(() -> {
+                    try {
+                        request.handle();
+                    }
+                    catch (IOException ioe) {
+                        log(LogLevel.WARNING, "Encountered IOException while answering request ",
+                                requestID);
+
+                        // The response may be incomplete, so the connection cannot continue
+                        try {
+                            csocket.close();
+                        }
+                        catch (IOException cioe) {
+                            // Nothing more can be done with this socket
+                        }
+                    }
+                    finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException ree) {
+                // Server is shutting down, so answer on this thread instead
+                try {
+                    request.handle();
+                }
+                finally {
+                    inFlight.release();
+                }
+            }
+        }
+
+        /**
+         * Helper method to handle an X_BATCH request.
+         *
+         * Each file is sent as its own frame, while the files after it are read ahead on the
+         * request executor. Small files are sent from memory, and large ones straight from the
+         * storage backend, like GET.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   items       - the files of the batch, as parsed by BatchReader
+         *
+         * @throws  IOException if one is encountered while writing to the socket, or while reading
+         *          from a file after its frame has been started.
+         */
+        private void handleBatch(long requestID, List<BatchReader.Item> items)
+                throws IOException {
+            BatchReader batch;
+
+            if (items.size() > BatchReader.MAX_BATCH_FILES) {
+                log(LogLevel.DEBUG, "Requested batch has too many files");
+
+                respond(requestID, (byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                        extendedContent(BFTP.X_BATCH, errorContent(BATCH_TOO_LARGE_RESPONSE)));
+
+                return;
+            }
+
+            batch = new BatchReader(BFTPServer.this, requestExecutor, items);
+
+            try {
+                while (batch.hasNext()) {
+                    BatchReader.Entry entry = batch.take();
+
+                    try (Storage.Blob file = entry.takeFile()) {
+                        if (null != entry.error) {
+                            respond(requestID, (byte) (BFTP.EXT | BFTP.RSP), entry.error);
+                        }
+                        else if (null != file) {
+                            sendFile(requestID, file, 0, file.size(),
+                                    (byte) (BFTP.EXT | BFTP.RSP), entry.prefix);
+                        }
+                        else {
+                            sendBuffer(requestID, (byte) (BFTP.EXT | BFTP.RSP), entry.prefix,
+                                    entry.data);
+                        }
+                    }
+                }
+            }
+            finally {
+                batch.close();
+            }
+
+            log(LogLevel.DEBUG, "Sent batch to client");
+
+            respond(requestID, (byte) (BFTP.EXT | BFTP.RSP), BatchReader.END_CONTENT);
+        }
+
+        /**
+         * Helper method to handle an X_CGET request.
+         *
+         * The file is only sent if its hash differs from the client's. It is then sent straight
+         * from the file, rather than from the hot-file cache, whose content may be older than the
+         * hash. Only the filesystem backend supports X_CGET.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   requestPath - the path received from the client
+         * @param   hash        - the hash of the client's copy of the file
+         *
+         * @throws  IOException if one is encountered while writing to the socket, or while reading
+         *          from the file after the response header has been sent.
+         */
+        private void handleConditionalGet(long requestID, String requestPath, byte hash[])
+                throws IOException {
+            byte current[] = null;
+            DirectoryIndex.Entry entry = null;
+            String error;
+            Path target = resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received X_CGET request from client:\n> X_CGET ", requestPath);
+
+            if (null == target) {
+                error = INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!storesFiles()) {
+                error = UNSUPPORTED_STORAGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Storage backend does not support X_CGET");
+            }
+            else if (null == (entry = currentFile(target))) {
+                error = FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested file was not found");
+            }
+            else if (null == (current = hash(entry, Runnable::run).join())) {
+                error = FILE_READ_ERROR_RESPONSE;
+
+                log(LogLevel.WARNING, "Encountered IOException while hashing file");
+            }
+            else if (Arrays.equals(hash, current)) {
+                log(LogLevel.DEBUG, "Client's copy of the requested file is current");
+
+                metrics.conditionalGet(true, entry.size);
+                respond(requestID, (byte) (BFTP.EXT | BFTP.RSP),
+                        conditionalPrefix(BFTP.CGET_UNCHANGED, current));
+
+                return;
+            }
+            else {
+                Storage.Blob file;
+
+                // Don't throw IOException from opening the file
+                try {
+                    file = openFile(target);
+                }
+                catch (IOException ie) {
+                    file = null;
+                }
+
+                if (null != file) {
+                    try {
+                        log(LogLevel.DEBUG, "Sending requested file to client");
+
+                        metrics.conditionalGet(false, entry.size);
+                        sendFile(requestID, file, 0, file.size(), (byte) (BFTP.EXT | BFTP.RSP),
+                                conditionalPrefix(BFTP.CGET_MODIFIED, current));
+                    }
+                    finally {
+                        file.close();
+                    }
+
+                    return;
+                }
+
+                error = FILE_READ_ERROR_RESPONSE;
+
+                log(LogLevel.WARNING, "Encountered IOException while reading from file");
+            }
+
+            respond(requestID, (byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    extendedContent(BFTP.X_CGET, errorContent(error)));
+        }
+
+        /**
+         * Helper method to handle an EXT request, whose content begins with its xop.
+         *
+         * Pipelined requests are handled on the request executor. Unknown or malformed commands
+         * are rejected, and the connection is closed.
+         *
+         * @param   tagged      - whether the request is a SEQ request
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   content     - view of the content field, after any request ID
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleExtended(boolean tagged, long requestID, ByteBuffer content)
+                throws IOException {
+            List<BatchReader.Item> items;
+            Request request;
+
+            byte command = content.hasRemaining() ? content.get() : 0;
+
+            if (BFTP.X_RANGE == command
+                    && content.remaining() >= BFTP.OFFSET_LENGTH + BFTP.COUNT_LENGTH) {
+                // [0,7] ~ offset, [8,15] ~ count, remainder ~ path
+                long offset = content.getLong(), count = content.getLong();
+                String requestPath = bytesToString(content);
+
+                request = () -> handleRange(requestID, requestPath, offset, count);
+            }
+            else if (BFTP.X_STATS == command && !content.hasRemaining()) {
+                log(LogLevel.DEBUG, "Received X_STATS request from client");
+
+                request = () -> respond(requestID, (byte) (BFTP.EXT | BFTP.RSP),
+                        statisticsContent());
+            }
+            else if (BFTP.X_BATCH == command && null != (items = BatchReader.parse(content,
+                    storesFiles()))) {
+                log(LogLevel.DEBUG, "Received X_BATCH request from client, files: ",
+                        items.size());
+
+                request = () -> handleBatch(requestID, items);
+            }
+            else if (BFTP.X_LIST == command && content.remaining() >= BFTP.FLAGS_LENGTH) {
+                // [0] ~ flags, remainder ~ path
+                byte flags = content.get();
+                String requestPath = bytesToString(content);
+
+                request = () -> handleList(requestID, requestPath, flags);
+            }
+            else if (BFTP.X_CGET == command && content.remaining() >= BFTP.HASH_LENGTH) {
+                // [0,31] ~ hash, remainder ~ path
+                byte hash[] = new byte[BFTP.HASH_LENGTH];
+                String requestPath = bytesToString(content.get(hash));
+
+                request = () -> handleConditionalGet(requestID, requestPath, hash);
+            }
+            else if (BFTP.X_STRIPE == command
+                    && content.remaining() >= BFTP.STAGE_LENGTH + BFTP.TOKEN_LENGTH
+                    && null != (request = stripeRequest(tagged, requestID, content))) {
+                log(LogLevel.DEBUG, "Received X_STRIPE request from client");
+            }
+            else {
+                handleUnsupported();
+
+                // Do not trust this client
+                shouldClose = true;
+                return;
+            }
+
+            if (tagged) {
+                dispatch(requestID, request);
+            }
+            else {
+                request.handle();
+            }
+        }
+
+        /**
+         * Helper method to handle a GET request.
+         *
+         * The file body is sent straight from the storage backend to the socket, so heap usage
+         * does not grow with the size of the requested file.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   requestPath - the path received from the client
+         * @param   codecs      - the codecs accepted by the client, 0 for an uncompressed response
+         * @param   received    - System.nanoTime() when the request header was read
+         *
+         * @throws  IOException if one is encountered while writing to the socket, or while reading
+         *          from the file after the response header has been sent.
+         */
+        private void handleGet(long requestID, String requestPath, int codecs, long received)
+                throws IOException {
+            byte responseOpcode, responseContent[];
+            ByteBuffer cached;
+            FileMappings.Mapping mapping;
+            long started = System.nanoTime(), sending = 0;
+
+            // Only look for file in specific public directory
+            Path target = resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received GET request from client:\n> GET ", requestPath);
+
+            try {
+                // Other backends only look the file up once, when it is opened
+                if (null == target || (storesFiles() && !fileExists(target))) {
+                    responseOpcode = BFTP.GET | BFTP.RSP | BFTP.ERR;
+
+                    if (null == target) {
+                        responseContent = errorContent(INVALID_PATH_RESPONSE);
+
+                        log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+                    }
+                    else {
+                        responseContent = errorContent(FILE_NOT_FOUND_RESPONSE);
+
+                        log(LogLevel.DEBUG, "Requested file was not found");
+                    }
+
+                    sending = System.nanoTime();
+                    respond(requestID, responseOpcode, responseContent);
+
+                    return;
+                }
+
+                if (null != (cached = compressedFile(target, codecs, Runnable::run).join())) {
+                    log(LogLevel.DEBUG, "Sending compressed file to client");
+
+                    sending = System.nanoTime();
+                    sendBuffer(requestID, (byte) (BFTP.GET | BFTP.RSP | BFTP.CMP), EMPTY_CONTENT,
+                            cached);
+
+                    return;
+                }
+
+                if (null != (cached = cachedFile(target))) {
+                    log(LogLevel.DEBUG, "Sending requested file to client from cache");
+
+                    sending = System.nanoTime();
+                    sendBuffer(requestID, (byte) (BFTP.GET | BFTP.RSP), EMPTY_CONTENT, cached);
+
+                    return;
+                }
+
+                if (null != (mapping = acquireMapping(target))) {
+                    try {
+                        log(LogLevel.DEBUG, "Sending requested file to client from mapping");
+
+                        sending = System.nanoTime();
+                        sendBuffer(requestID, (byte) (BFTP.GET | BFTP.RSP), EMPTY_CONTENT,
+                                mapping.slices(0, mapping.size()));
+                    }
+                    finally {
+                        mapping.release();
+                    }
+
+                    return;
+                }
+
+                Storage.Blob file = null;
+
+                responseOpcode = BFTP.GET | BFTP.RSP | BFTP.ERR;
+
+                // Don't throw IOException from opening the file
+                try {
+                    if (null == (file = openFile(target))) {
+                        responseContent = errorContent(FILE_NOT_FOUND_RESPONSE);
+
+                        log(LogLevel.DEBUG, "Requested file was not found");
+                    }
+                    else {
+                        responseOpcode = BFTP.GET | BFTP.RSP;
+                        responseContent = null;
+                    }
+                }
+                catch (IOException ie) {
+                    responseContent = errorContent(FILE_READ_ERROR_RESPONSE);
+
+                    log(LogLevel.WARNING, "Encountered IOException while reading from file");
+                }
+
+                if (null != file) {
+                    try {
+                        log(LogLevel.DEBUG, "Sending requested file to client");
+
+                        sending = System.nanoTime();
+                        sendFile(requestID, file, 0, file.size(), responseOpcode, EMPTY_CONTENT);
+                    }
+                    finally {
+                        file.close();
+                    }
+
+                    return;
+                }
+
+                sending = System.nanoTime();
+                respond(requestID, responseOpcode, responseContent);
+            }
+            finally {
+                // Requests which failed before their response was begun are not timed
+                if (0 != sending) {
+                    metrics.recordGet(started - received, sending - started,
+                            System.nanoTime() - sending);
+                }
+            }
+        }
+
+        /**
+         * Helper method to handle an X_LIST request.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   requestPath - the path received from the client
+         * @param   flags       - the flags of the request
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleList(long requestID, String requestPath, byte flags)
+                throws IOException {
+            String directory = listingPath(requestPath), error;
+            byte listing[];
+
+            log(LogLevel.DEBUG, "Received X_LIST request from client:\n> X_LIST ", requestPath);
+
+            if (null == directory) {
+                error = INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!storesFiles()) {
+                error = UNSUPPORTED_STORAGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Storage backend does not support X_LIST");
+            }
+            else if (null != (listing = listingContent(directory, flags))) {
+                log(LogLevel.DEBUG, "Sending directory listing to client");
+
+                respond(requestID, (byte) (BFTP.EXT | BFTP.RSP), listing);
+
+                return;
+            }
+            else {
+                error = FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested directory was not found");
+            }
+
+            respond(requestID, (byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    extendedContent(BFTP.X_LIST, errorContent(error)));
+        }
+
+        /**
+         * Helper method to handle a PUT request.
+         *
+         * The file data is streamed from the socket into a writer of the storage backend, which
+         * only makes the file visible once it is durable and complete. Concurrent GET requests
+         * therefore only ever see the previous file or the complete new one.
+         *
+         * @param   tagged      - whether the request is a SEQ request, whose content begins with
+         *                        its request ID
+         * @param   compressed  - whether the file data is compressed
+         * @param   received    - System.nanoTime() when the request header was read
+         *
+         * @throws  IOException if one is encountered while reading from or writing to the socket.
+         */
+        private void handlePut(boolean tagged, boolean compressed, long received)
+                throws IOException {
+            byte responseOpcode, responseContent[];
+            int plen;
+            long csize = input.csize(), length, requestID = NO_REQUEST_ID;
+            long started = System.nanoTime();
+            Path target;
+
+            diskTime = 0;
+
+            if (tagged) {
+                requestID = input.readContent(BFTP.RID_LENGTH).getInt() & 0xFFFFFFFFL;
+                csize -= BFTP.RID_LENGTH;
+            }
+
+            if (csize < BFTP.PLEN_LENGTH) {
+                throw new IOException("PUT content is too short to hold a path length");
+            }
+
+            // [0,1] ~ plen, [2,plen+1] ~ path, remainder ~ file data
+            plen = input.readContent(BFTP.PLEN_LENGTH).getShort() & 0xFFFF;
+            length = csize - BFTP.PLEN_LENGTH - plen;
+
+            if (length < 0) {
+                throw new IOException("PUT path length exceeds content size");
+            }
+
+            // Only look for file in specific public directory
+            String requestPath = bytesToString(input.readContent(plen));
+
+            log(LogLevel.DEBUG, "Received PUT request from client:\n> PUT ", requestPath);
+
+            target = resolvePath(requestPath);
+
+            if (null == target) {
+                input.skip(length);
+
+                responseOpcode = BFTP.PUT | BFTP.RSP | BFTP.ERR;
+                responseContent = errorContent(INVALID_PATH_RESPONSE);
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!overwriting && fileExists(target)) {
+                input.skip(length);
+
+                responseOpcode = BFTP.PUT | BFTP.RSP | BFTP.ERR;
+                responseContent = errorContent(FILE_ALREADY_EXISTS_RESPONSE);
+
+                log(LogLevel.DEBUG, "File already exists, server is non-overwriting");
+            }
+            else {
+                String error = receiveFile(target, length, compressed);
+
+                if (null == error) {
+                    fileStored(target);
+
+                    responseOpcode = BFTP.PUT | BFTP.RSP;
+                    responseContent = EMPTY_CONTENT;
+
+                    log(LogLevel.DEBUG, "Received file from client");
+                }
+                else {
+                    responseOpcode = BFTP.PUT | BFTP.RSP | BFTP.ERR;
+                    responseContent = errorContent(error);
+
+                    log(LogLevel.WARNING, "Failed to store file: ", error);
+                }
+            }
+
+            respond(requestID, responseOpcode, responseContent);
+
+            metrics.recordPut(started - received, diskTime,
+                    System.nanoTime() - started - diskTime);
+        }
+
+        /**
+         * Helper method to handle a request whose content exceeds the maximum frame size.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleOversized() throws IOException {
+            if (isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Request content exceeds maximum frame size (" + input.csize()
+                        + " bytes)");
+            }
+
+            respond(NO_REQUEST_ID, BFTP.ERR, errorContent(FRAME_TOO_LARGE_RESPONSE));
+        }
+
+        /**
+         * Helper method to handle an X_RANGE request.
+         *
+         * Like GET, the requested part of the file is sent straight from the storage backend to
+         * the socket.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   requestPath - the path received from the client
+         * @param   offset      - position of the first byte requested
+         * @param   count       - maximum number of bytes requested
+         *
+         * @throws  IOException if one is encountered while writing to the socket, or while reading
+         *          from the file after the response header has been sent.
+         */
+        private void handleRange(long requestID, String requestPath, long offset, long count)
+                throws IOException {
+            String error;
+            ByteBuffer cached;
+            FileMappings.Mapping mapping;
+
+            // Only look for file in specific public directory
+            Path target = resolvePath(requestPath);
+
+            if (isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Received X_RANGE request from client:\n> X_RANGE "
+                        + requestPath + " [" + offset + ", +" + count + "]");
+            }
+
+            if (null == target) {
+                error = INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (storesFiles() && !fileExists(target)) {
+                error = FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested file was not found");
+            }
+            else if (null != (cached = cachedFile(target))) {
+                int size = cached.remaining();
+
+                if (offset >= 0 && offset <= size && count >= 0) {
+                    log(LogLevel.DEBUG, "Sending requested range to client from cache");
+
+                    cached.position((int) offset).limit((int) (offset + Math.min(count,
+                            size - offset)));
 
-                            // Do not trust this client
-                            shouldClose = true;
-                            break;
-                    }
+                    sendBuffer(requestID, (byte) (BFTP.EXT | BFTP.RSP), rangePrefix(size), cached);
 
-                    log("Sent response to client");
+                    return;
                 }
-                catch (IOException ioe) {
-                    log("Encountered IOException while reading from client socket");
 
-                    shouldClose = true;
+                error = INVALID_RANGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested range is outside of the file");
+            }
+            else if (null != (mapping = acquireMapping(target))) {
+                try {
+                    long size = mapping.size();
+
+                    if (offset >= 0 && offset <= size && count >= 0) {
+                        log(LogLevel.DEBUG, "Sending requested range to client from mapping");
+
+                        sendBuffer(requestID, (byte) (BFTP.EXT | BFTP.RSP), rangePrefix(size),
+                                mapping.slices(offset, Math.min(count, size - offset)));
+
+                        return;
+                    }
+                }
+                finally {
+                    mapping.release();
                 }
 
-                if (isFin) {
-                    log("FIN bit was set, closing connection");
+                error = INVALID_RANGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested range is outside of the file");
+            }
+            else {
+                Storage.Blob file;
+
+                // Don't throw IOException from opening the file
+                try {
+                    file = openFile(target);
+                    error = (null == file) ? FILE_NOT_FOUND_RESPONSE : null;
+                }
+                catch (IOException ie) {
+                    file = null;
+                    error = FILE_READ_ERROR_RESPONSE;
                 }
 
-                // Close if we see the socket has closed
-                shouldClose |= (isFin || csocket.isClosed());
+                if (null != file) {
+                    try {
+                        long size = file.size();
+
+                        if (offset >= 0 && offset <= size && count >= 0) {
+                            log(LogLevel.DEBUG, "Sending requested range to client");
+
+                            sendFile(requestID, file, offset, Math.min(count, size - offset),
+                                    (byte) (BFTP.EXT | BFTP.RSP), rangePrefix(size));
+
+                            return;
+                        }
+                    }
+                    finally {
+                        file.close();
+                    }
+
+                    error = INVALID_RANGE_RESPONSE;
+
+                    log(LogLevel.DEBUG, "Requested range is outside of the file");
+                }
+                else if (FILE_NOT_FOUND_RESPONSE == error) {
+                    log(LogLevel.DEBUG, "Requested file was not found");
+                }
+                else {
+                    log(LogLevel.WARNING, "Encountered IOException while reading from file");
+                }
             }
 
-            log("Closing connection with client");
+            respond(requestID, (byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    extendedContent(BFTP.X_RANGE, errorContent(error)));
+        }
+
+        /**
+         * Helper method to handle a pipelining negotiation.
+         *
+         * @param   content - view of the content field, holding the requested window
+         *
+         * @throws  IOException if the content is malformed, or if one is encountered while
+         *          writing to the socket.
+         */
+        private void handleSequence(ByteBuffer content) throws IOException {
+            int granted;
+
+            if (content.remaining() != BFTP.WINDOW_LENGTH) {
+                throw new IOException("Malformed pipelining negotiation");
+            }
 
-            buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH);
+            granted = Math.min(content.getInt(), maxPipelineDepth);
 
-            buffer.putInt(0); // no content
-            buffer.put(BFTP.FIN);
+            log(LogLevel.DEBUG, "Received pipelining negotiation from client");
 
-            if (!csocket.isClosed()) {
-                try {
-                    output.write(buffer.array());
-                    output.flush();
+            if (granted <= 0 || window > 0) {
+                respond(NO_REQUEST_ID, (byte) (BFTP.SEQ | BFTP.RSP | BFTP.ERR),
+                        errorContent(PIPELINING_DISABLED_RESPONSE));
 
-                    // Close resources
-                    input.close();
-                    output.close();
-                    csocket.close();
+                log(LogLevel.INFO, "Refused pipelining, connection remains lock-step");
+            }
+            else {
+                window = granted;
+                inFlight = new Semaphore(granted);
+
+                respond(NO_REQUEST_ID, (byte) (BFTP.SEQ | BFTP.RSP),
+                        ByteBuffer.allocate(BFTP.WINDOW_LENGTH).putInt(granted).array());
+
+                if (isLoggable(LogLevel.INFO)) {
+                    log(LogLevel.INFO, "Granted pipelining with " + granted
+                            + " requests in flight");
                 }
-                catch (IOException ioe) {
-                    log("Encountered IOException while cleaning up connection");
+            }
+        }
+
+        /**
+         * Helper method to handle a STRIPE_DATA request, writing its file data into the upload.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   token       - the token of the upload
+         * @param   offset      - position in the file of the first byte of the stripe
+         * @param   length      - the number of bytes in the stripe
+         * @param   data        - the file data, or null to stream it from the socket
+         *
+         * @throws  IOException if one is encountered while reading from or writing to the socket.
+         */
+        private void handleStripeData(long requestID, long token, long offset, long length,
+                ByteBuffer data) throws IOException {
+            String error;
+            StripedUpload upload = stripedUpload(token);
+            StripedUpload.Stripe stripe = (null != upload) ? upload.begin(offset, length) : null;
+
+            if (isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Received STRIPE_DATA from client:\n> X_STRIPE "
+                        + Long.toHexString(token) + " [" + offset + ", +" + length + "]");
+            }
+
+            if (null == stripe) {
+                error = (null == upload) ? UNKNOWN_UPLOAD_RESPONSE : INVALID_RANGE_RESPONSE;
+
+                if (null == data) {
+                    input.skip(length);
                 }
             }
             else {
-                log("Client socket already closed, cannot send FIN");
+                try {
+                    if (null != data) {
+                        stripe.write(data);
+                    }
+
+                    while (null == data && length > 0) {
+                        ByteBuffer chunk = input.readChunk(length);
+
+                        length -= chunk.remaining();
+                        stripe.write(chunk);
+                    }
+                }
+                finally {
+                    error = stripe.finish();
+                }
             }
 
-            stopped = true;
-            clientHandlers.remove(this);
+            respondStripe(requestID, BFTP.STRIPE_DATA, 0, error);
         }
 
         /**
-         * Notifies the client handler to close the connection gracefully.
+         * Helper method to handle a STRIPE_COMMIT or STRIPE_ABORT request.
          *
-         * A graceful close will only terminate the connection when the handler is not currently
-         * processing a command from the client.
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   stage       - the stage of the request
+         * @param   token       - the token of the upload
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
          */
-        public void stop() {
-            shouldClose = true;
+        private void handleStripeEnd(long requestID, byte stage, long token) throws IOException {
+            String error;
+
+            if (BFTP.STRIPE_COMMIT == stage) {
+                error = commitUpload(token, Runnable::run).join();
+
+                log(LogLevel.DEBUG, (null == error) ? "Committed striped upload"
+                        : "Failed to commit striped upload: " + error);
+            }
+            else {
+                error = abortUpload(token) ? null : UNKNOWN_UPLOAD_RESPONSE;
+
+                log(LogLevel.DEBUG, "Aborted striped upload");
+            }
 
-            log("Will close after handling current command");
+            respondStripe(requestID, stage, 0, error);
         }
 
         /**
-         * Helper method to convert the given byte array to a String.
+         * Helper method to handle a STRIPE_OPEN request.
          *
-         * Attempts to use UTF-8 encoding, but will default to the native machine encoding if UTF-8
-         * is not supported.
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   requestPath - the path received from the client
+         * @param   size        - the size of the file, in bytes
          *
-         * This method is essentially a wrapper around an UnsupportedEncodingException.
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleStripeOpen(long requestID, String requestPath, long size)
+                throws IOException {
+            String error = null;
+            StripedUpload upload = null;
+            Path target = resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received STRIPE_OPEN request from client:\n> X_STRIPE ",
+                    requestPath);
+
+            if (null == target) {
+                error = INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (size < 0) {
+                error = INVALID_RANGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested size is negative");
+            }
+            else if (size > maxFileSize()) {
+                error = FILE_TOO_LARGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested size exceeds the maximum file size");
+            }
+            else if (!overwriting && fileExists(target)) {
+                error = FILE_ALREADY_EXISTS_RESPONSE;
+
+                log(LogLevel.DEBUG, "File already exists, server is non-overwriting");
+            }
+            else if (null == (upload = openUpload(target, size))) {
+                error = TOO_MANY_UPLOADS_RESPONSE;
+
+                log(LogLevel.WARNING, "Refused striped upload, too many are in progress");
+            }
+
+            respondStripe(requestID, BFTP.STRIPE_OPEN, (null != upload) ? upload.token() : 0,
+                    error);
+        }
+
+        /**
+         * Helper method to handle an unsupported message type.
          *
-         * @param   bytes   - byte array to convert to a String
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleUnsupported() throws IOException {
+            log(LogLevel.DEBUG, "Received unsupported command / message from client");
+
+            respond(NO_REQUEST_ID, BFTP.ERR, errorContent(UNSUPPORTED_COMMAND_RESPONSE));
+        }
+
+        /**
+         * Helper method to create the input and output streams
          *
-         * @return  a String formed from the provided bytes.
+         * @return  TRUE if the I/O streams were created, else FALSE.
          */
-        private String bytesToString(byte bytes[]) {
-            String string;
+        private boolean initializeIOStreams() {
+            boolean successful;
 
             try {
-                string = new String(bytes, DEFAULT_ENCODING);
+                monitor = new MonitoredInputStream(csocket.getInputStream());
+                input = new FrameCodec(monitor, maxFrameSize);
+                output = csocket.getChannel();
+
+                if (null == output) {
+                    // Socket was not created by a channel, fall back to a stream-backed channel
+                    output = Channels.newChannel(csocket.getOutputStream());
+                }
+
+                successful = true;
             }
-            catch (UnsupportedEncodingException uee) {
-                // Should never be reached
-                throw new AssertionError(DEFAULT_ENCODING + " encoding not supported");
+            catch (IOException ioe) {
+                successful = false;
+
+                log(LogLevel.WARNING, "Failed to get input/output streams");
             }
 
-            return string;
+            return successful;
         }
 
         /**
-         * Helper method to safely check if a file with the specified path exists.
+         * Helper method to log client handler output, prefixed with the clientID String.
          *
-         * @param   path    - the path at which to check if a file exists
-         * @return  TRUE if the file exists, FALSE otherwise.
+         * @param   level   - the level of the entry
+         * @param   entry   - String that will be logged
          */
-        private boolean fileExists(String path) {
-            boolean exists;
+        private void log(LogLevel level, String entry) {
+            BFTPServer.this.log(level, clientID, entry, null);
+        }
 
-            try {
-                exists = Files.exists(Paths.get(path));
+        /**
+         * Helper method to log client handler output, prefixed with the clientID String.
+         *
+         * @param   level       - the level of the entry
+         * @param   entry       - String that will be logged
+         * @param   argument    - Object appended to the entry by the Logger
+         */
+        private void log(LogLevel level, String entry, Object argument) {
+            BFTPServer.this.log(level, clientID, entry, argument);
+        }
+
+        /**
+         * Helper method to encode a response header, followed by the request ID of SEQ responses.
+         *
+         * The whole response frame is counted as sent.
+         *
+         * @param   buffer      - the buffer to write the header to
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   length      - the length of the response content, excluding the request ID
+         * @param   opcode      - opcode of the response
+         */
+        private void putHeader(ByteBuffer buffer, long requestID, long length, byte opcode) {
+            if (NO_REQUEST_ID == requestID) {
+                FrameCodec.putHeader(buffer, length, opcode);
             }
-            catch (InvalidPathException ipe) {
-                exists = false;
+            else {
+                FrameCodec.putHeader(buffer, BFTP.RID_LENGTH + length, (byte) (opcode | BFTP.SEQ));
+                buffer.putInt((int) requestID);
             }
 
-            return exists;
+            metrics.sent(buffer.position() + length);
         }
 
         /**
-         * Helper method to handle a GET request.
+         * Helper method to stream PUT file data from the socket into the target file.
          *
-         * @param   content - bytes of the content field
+         * All length bytes are always consumed from the socket, even if writing to disk fails, so
+         * that the connection remains usable for the next request.
          *
-         * @throws  IOException if one is encountered while writing to the socket.
+         * @param   target      - resolved path of the file to create or replace
+         * @param   length      - number of file data bytes remaining in the content field
+         * @param   compressed  - whether the file data is compressed
+         *
+         * @return  null if the file was committed, else the error response to send the client.
+         *
+         * @throws  IOException if one is encountered while reading from the socket.
          */
-        private void handleGet(byte content[]) throws IOException {
-            byte responseOpcode, responseContent[];
-            ByteBuffer buffer;
-
-            // Only look for file in specific public directory
-            String requestPath = bytesToString(content), path = ROOT_DIRECTORY + requestPath;
+        private String receiveFile(Path target, long length, boolean compressed)
+                throws IOException {
+            try (Upload upload = newUpload(target, compressed)) {
+                while (length > 0) {
+                    ByteBuffer chunk = input.readChunk(length);
+
+                    length -= chunk.remaining();
+
+                    // Keeps draining the socket after a disk error, but stops writing
+                    long writing = System.nanoTime();
+                    upload.write(chunk);
+                    diskTime += System.nanoTime() - writing;
+                }
 
-            log("Received GET request from client:\n> GET " + requestPath);
+                long committing = System.nanoTime();
 
-            if (fileExists(path)) {
-                // Don't throw IOException from file reads
                 try {
-                    responseOpcode = BFTP.GET | BFTP.RSP;
-                    responseContent = Files.readAllBytes(Paths.get(path));
-
-                    log("Sending requested file to client");
+                    return commitPut(upload, Runnable::run).join();
                 }
-                catch (OutOfMemoryError ome) {
-                    responseOpcode = BFTP.GET | BFTP.RSP | BFTP.ERR;
-                    responseContent = stringToBytes(FILE_TOO_LARGE_RESPONSE);
-
-                    log("Requested file is too large");
+                finally {
+                    diskTime += System.nanoTime() - committing;
                 }
-                catch (IOException ie) {
-                    responseOpcode = BFTP.GET | BFTP.RSP | BFTP.ERR;
-                    responseContent = stringToBytes(FILE_READ_ERROR_RESPONSE);
+            }
+        }
 
-                    log("Encountered IOException while reading from file");
-                }
+        /**
+         * Helper method to stream a STRIPE_DATA request which exceeds the maximum frame size to
+         * disk, like PUT.
+         *
+         * @param   tagged  - whether the request is a SEQ request
+         *
+         * @return  TRUE if the request was handled, or FALSE if it is not STRIPE_DATA, in which
+         *          case part of its content may have been consumed.
+         *
+         * @throws  IOException if one is encountered while reading from or writing to the socket.
+         */
+        private boolean receiveStripe(boolean tagged) throws IOException {
+            ByteBuffer prefix;
+            int prefixLength = BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH + BFTP.TOKEN_LENGTH
+                    + BFTP.OFFSET_LENGTH;
+            long csize = input.csize(), requestID = NO_REQUEST_ID;
+
+            if (csize < (tagged ? BFTP.RID_LENGTH : 0) + prefixLength) {
+                return false;
             }
-            else {
-                responseOpcode = BFTP.GET | BFTP.RSP | BFTP.ERR;
-                responseContent = stringToBytes(FILE_NOT_FOUND_RESPONSE);
 
-                log("Requested file was not found");
+            if (tagged) {
+                requestID = input.readContent(BFTP.RID_LENGTH).getInt() & 0xFFFFFFFFL;
+                csize -= BFTP.RID_LENGTH;
             }
 
-            buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + responseContent.length);
+            // [0] ~ xop, [1] ~ stage, [2,9] ~ token, [10,17] ~ offset, remainder ~ file data
+            prefix = input.readContent(prefixLength);
+
+            if (BFTP.X_STRIPE != prefix.get() || BFTP.STRIPE_DATA != prefix.get()) {
+                return false;
+            }
 
-            buffer.putInt(responseContent.length);
-            buffer.put(responseOpcode);
-            buffer.put(responseContent);
+            handleStripeData(requestID, prefix.getLong(), prefix.getLong(), csize - prefixLength,
+                    null);
 
-            output.write(buffer.array());
+            return true;
         }
 
         /**
-         * Helper method to handle a PUT request.
+         * Helper method to send a response with the given content.
+         *
+         * The response is built in a pooled direct buffer, so that small responses are sent with
+         * a single write. Content too large for the buffer is gathered after the header instead.
          *
-         * @param   content - bytes of the content field
+         * @param   requestID       - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   responseOpcode  - opcode of the response
+         * @param   responseContent - content of the response
          *
-         * @throws  IOException if one is encountered while writing to the socket or file.
+         * @throws  IOException if one is encountered while writing to the socket.
          */
-        private void handlePut(byte content[]) throws IOException {
-            byte responseOpcode, responseContent[];
-            ByteBuffer buffer;
+        private void respond(long requestID, byte responseOpcode, byte responseContent[])
+                throws IOException {
+            ByteBuffer buffer = bufferPool.acquire();
 
-            // Only look for file in specific public directory
-            String requestPath = bytesToString(content), path = ROOT_DIRECTORY + requestPath;
+            writeLock.lock();
 
-            log("Received PUT request from client:\n> PUT " + requestPath);
+            try {
+                putHeader(buffer, requestID, responseContent.length, responseOpcode);
 
-            if (!overwriting && fileExists(path)) {
-                responseOpcode = BFTP.PUT | BFTP.RSP | BFTP.ERR;
-                responseContent = stringToBytes(FILE_ALREADY_EXISTS_RESPONSE);
+                if (responseContent.length <= buffer.remaining()) {
+                    buffer.put(responseContent).flip();
+                    write(buffer);
+                }
+                else {
+                    buffer.flip();
+                    write(buffer, ByteBuffer.wrap(responseContent));
+                }
+            }
+            finally {
+                writeLock.unlock();
+                bufferPool.release(buffer);
+            }
+        }
 
-                log("File already exists, server is non-overwriting");
+        /**
+         * Helper method to send the response to an X_STRIPE request.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   stage       - the stage of the request
+         * @param   token       - the token of the upload, which is only sent for STRIPE_OPEN
+         * @param   error       - the error response to send, or null if the request succeeded
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void respondStripe(long requestID, byte stage, long token, String error)
+                throws IOException {
+            if (null == error) {
+                respond(requestID, (byte) (BFTP.EXT | BFTP.RSP), stripeContent(stage, token));
             }
             else {
-                // TODO: Temp
-                responseOpcode = BFTP.PUT | BFTP.RSP;
-                responseContent = stringToBytes("Placeholder");
+                respond(requestID, (byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                        extendedContent(BFTP.X_STRIPE, errorContent(error)));
             }
-
-            buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + responseContent.length);
-
-            buffer.putInt(responseContent.length);
-            buffer.put(responseOpcode);
-            buffer.put(responseContent);
-
-            output.write(buffer.array());
         }
 
         /**
-         * Helper method to handle an unsupported message type.
+         * Helper method to send a response whose content is held in a buffer, optionally preceded
+         * by a short prefix.
+         *
+         * The content is gathered after the header rather than copied, so cached and mapped files
+         * are sent straight from their buffers.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   opcode      - opcode of the response
+         * @param   prefix      - content sent before the buffers, which fits in a pooled buffer
+         * @param   content     - the remaining content of the response, in order
          *
          * @throws  IOException if one is encountered while writing to the socket.
          */
-        private void handleUnsupported() throws IOException {
-            log("Received unsupported command / message from client");
+        private void sendBuffer(long requestID, byte opcode, byte prefix[], ByteBuffer... content)
+                throws IOException {
+            ByteBuffer buffer = bufferPool.acquire(), buffers[] = new ByteBuffer[1 + content.length];
+            long length = prefix.length;
+
+            for (int i = 0; i < content.length; i++) {
+                length += content[i].remaining();
+                buffers[1 + i] = content[i];
+            }
+
+            buffers[0] = buffer;
 
-            byte responseContent[] = UNSUPPORTED_COMMAND_RESPONSE.getBytes();
-            int length = BFTP.HEADER_LENGTH + responseContent.length;
-            ByteBuffer buffer = ByteBuffer.allocate(length);
+            writeLock.lock();
 
-            // Build response
-            buffer.putInt(responseContent.length);
-            buffer.put(BFTP.ERR);
-            buffer.put(responseContent);
+            try {
+                putHeader(buffer, requestID, length, opcode);
+                buffer.put(prefix).flip();
 
-            output.write(buffer.array());
+                write(buffers);
+            }
+            finally {
+                writeLock.unlock();
+                bufferPool.release(buffer);
+            }
         }
 
         /**
-         * Helper method to create the input and output streams
+         * Helper method to send a response whose content is part of the given file, optionally
+         * preceded by a short prefix.
          *
-         * @return  TRUE if the I/O streams were created, else FALSE.
+         * Parts which fit in a pooled buffer after the header are read into it and sent with a
+         * single write. Otherwise, the header is written first, then the body is transferred from
+         * the file to the socket with Blob.transferTo(), which uses sendfile where the backend and
+         * platform support it.
+         *
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   file        - the open file to send
+         * @param   position    - position of the first byte of the file to send
+         * @param   length      - number of bytes of the file to send
+         * @param   opcode      - opcode of the response
+         * @param   prefix      - content sent before the file data, which fits in a pooled buffer
+         *
+         * @throws  IOException if one is encountered while reading from the file or writing to the
+         *          socket. The response frame is incomplete in this case, so the connection must
+         *          be closed.
          */
-        private boolean initializeIOStreams() {
-            boolean successful;
+        private void sendFile(long requestID, Storage.Blob file, long position, long length,
+                byte opcode, byte prefix[]) throws IOException {
+            long end = position + length;
+
+            // Hold the lock for the whole frame, so that pipelined responses are not interleaved
+            writeLock.lock();
 
             try {
-                input = new DataInputStream(csocket.getInputStream());
-                output = new DataOutputStream(csocket.getOutputStream());
+                ByteBuffer buffer = bufferPool.acquire();
 
-                successful = true;
-            }
-            catch (IOException ioe) {
-                successful = false;
+                try {
+                    int headerLength;
 
-                log ("Failed to get input/output streams");
-            }
+                    putHeader(buffer, requestID, prefix.length + length, opcode);
+                    buffer.put(prefix);
+                    headerLength = buffer.position();
 
-            return successful;
+                    if (length <= buffer.remaining()) {
+                        // Coalesce the header and body of small parts into one write
+                        buffer.limit(headerLength + (int) length);
+
+                        while (buffer.hasRemaining()) {
+                            if (file.read(buffer, position) < 0) {
+                                throw new IOException("File was truncated during transfer");
+                            }
+
+                            position = end - buffer.remaining();
+                        }
+                    }
+
+                    buffer.flip();
+                    write(buffer);
+                }
+                finally {
+                    bufferPool.release(buffer);
+                }
+
+                while (position < end) {
+                    long count = end - position, sent;
+
+                    if (throttle.isLimited()) {
+                        count = Math.min(count, TrafficShaper.CHUNK_SIZE);
+                        TrafficShaper.pause(throttle.reserve(count, false));
+                    }
+
+                    sent = file.transferTo(position, count, output);
+
+                    // transferTo() returns 0 once the position passes the end of a truncated file
+                    if (sent <= 0 && position >= file.size()) {
+                        throw new IOException("File was truncated during transfer");
+                    }
+
+                    position += sent;
+                }
+            }
+            finally {
+                writeLock.unlock();
+            }
         }
 
         /**
-         * Helper method to log client handler output.
+         * Helper method to parse an X_STRIPE request whose content has been read.
          *
-         * The clientID String is added as a prefix to the provided entry before logging.
+         * STRIPE_DATA is handled at once, since its content is only valid until the next read,
+         * unless the request is pipelined, in which case its file data is copied.
          *
-         * @param   entry   - String that will be logged
+         * @param   tagged      - whether the request is a SEQ request
+         * @param   requestID   - the request ID of a SEQ request, else NO_REQUEST_ID
+         * @param   content     - view of the content field, after the xop
+         *
+         * @return  the request, or null if it is malformed.
          */
-        private void log(String entry) {
-            // Ensure newlines will be aligned
-            entry = entry.replaceAll("\n", "\n" + padding);
+        private Request stripeRequest(boolean tagged, long requestID, ByteBuffer content) {
+            // [0] ~ stage, [1,8] ~ token or fsize, remainder ~ path, or offset and file data
+            byte stage = content.get();
+            long token = content.getLong();
+
+            if (BFTP.STRIPE_OPEN == stage) {
+                String requestPath = bytesToString(content);
+
+                return () -> handleStripeOpen(requestID, requestPath, token);
+            }
+            else if (BFTP.STRIPE_DATA == stage && content.remaining() >= BFTP.OFFSET_LENGTH) {
+                long offset = content.getLong();
+                ByteBuffer data = tagged
+                        ? ByteBuffer.allocate(content.remaining()).put(content).flip()
+                        : content;
 
-            BFTPServer.this.log(clientID + entry);
+                return () -> handleStripeData(requestID, token, offset, data.remaining(), data);
+            }
+            else if ((BFTP.STRIPE_COMMIT == stage || BFTP.STRIPE_ABORT == stage)
+                    && !content.hasRemaining()) {
+                return () -> handleStripeEnd(requestID, stage, token);
+            }
+
+            return null;
         }
 
         /**
-         * Helper method to convert the given String to a byte array.
-         *
-         * Attempts to use UTF-8 encoding, but will default to the native machine encoding if UTF-8
-         * is not supported.
+         * Helper method to write the given buffers to the socket in full.
          *
-         * This method is essentially a wrapper around an UnsupportedEncodingException.
+         * Buffers are written with a single gathering write where the channel supports it. If
+         * the connection is rate limited, more than CHUNK_SIZE bytes are instead written a chunk
+         * at a time, each reserved first.
          *
-         * @param   string  - string to get bytes from
+         * @param   buffers - the buffers to write, in order
          *
-         * @return  the byte array representation of the provided string.
+         * @throws  IOException if one is encountered while writing to the socket.
          */
-        private byte[] stringToBytes(String string) {
-            byte stringBytes[];
+        private void write(ByteBuffer... buffers) throws IOException {
+            if (throttle.isLimited()) {
+                long remaining = 0;
 
-            try {
-                stringBytes = string.getBytes(DEFAULT_ENCODING);
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+
+                if (remaining > TrafficShaper.CHUNK_SIZE) {
+                    writeChunked(buffers);
+                    return;
+                }
+
+                TrafficShaper.pause(throttle.reserve(remaining, true));
+            }
+
+            if (output instanceof GatheringByteChannel) {
+                GatheringByteChannel gatheringOutput = (GatheringByteChannel) output;
+                int first = 0;
+
+                // Trailing buffers may be empty, so track the first one with bytes remaining
+                while (first < buffers.length) {
+                    if (buffers[first].hasRemaining()) {
+                        gatheringOutput.write(buffers, first, buffers.length - first);
+                    }
+                    else {
+                        first++;
+                    }
+                }
             }
-            catch (UnsupportedEncodingException uee) {
-                // Should never be reached
-                throw new AssertionError(DEFAULT_ENCODING + " encoding not supported");
+            else {
+                for (ByteBuffer buffer : buffers) {
+                    while (buffer.hasRemaining()) {
+                        output.write(buffer);
+                    }
+                }
             }
+        }
+
+        /**
+         * Helper method to write the given buffers to the socket in full, one rate limited chunk
+         * at a time.
+         *
+         * @param   buffers - the buffers to write, in order
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void writeChunked(ByteBuffer... buffers) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+                int limit = buffer.limit();
+
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(buffer.remaining(), TrafficShaper.CHUNK_SIZE);
+
+                    TrafficShaper.pause(throttle.reserve(count, false));
+                    buffer.limit(buffer.position() + count);
 
-            return stringBytes;
+                    try {
+                        while (buffer.hasRemaining()) {
+                            output.write(buffer);
+                        }
+                    }
+                    finally {
+                        buffer.limit(limit);
+                    }
+                }
+            }
         }
 
     }
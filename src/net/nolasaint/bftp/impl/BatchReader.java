@@ -0,0 +1,487 @@
+package net.nolasaint.bftp.impl;
+
+import net.nolasaint.bftp.BFTP;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Reads the files of an X_BATCH request ahead of the connection which sends them.
+ *
+ * Files are loaded on an executor, up to PREFETCH_DEPTH files ahead of the one being sent, so
+ * that reading later files from disk overlaps with writing earlier ones to the socket. Files of
+ * up to MAX_BUFFERED_SIZE bytes are read whole, from the hot-file cache where possible. Larger
+ * files are only opened ahead, and are streamed by the connection as they are sent, so that a
+ * batch holds at most PREFETCH_DEPTH small files in memory.
+ *
+ * Instances are not thread-safe; entries are taken in order by the connection sending them.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class BatchReader {
+
+    /* END_CONTENT is the content of the frame which completes a batch */
+    static final byte END_CONTENT[] = { BFTP.X_BATCH, BFTP.BATCH_END };
+
+    /* MAX_BATCH_FILES is the largest number of files a batch may name, once globs are expanded */
+    static final int MAX_BATCH_FILES = 1024;
+
+    /* GLOB_CHARACTERS are the characters which make a path segment a pattern, see
+     * java.nio.file.FileSystem.getPathMatcher() */
+    private static final String GLOB_CHARACTERS = "*?[{\\";
+
+    /* MAX_BUFFERED_SIZE is the size, in bytes, of the largest file which is read ahead whole */
+    private static final int MAX_BUFFERED_SIZE = 1024 * 1024;
+
+    /* MAX_PATH_LENGTH is the length, in bytes, of the longest path which is sent, so that the
+     * content preceding any file data fits in a pooled buffer */
+    private static final int MAX_PATH_LENGTH = 4096;
+
+    /* PREFETCH_DEPTH is the number of files which are loaded ahead of the one being sent */
+    private static final int PREFETCH_DEPTH = 8;
+
+    private final BFTPServer server;
+    private final Deque<CompletableFuture<Entry>> loading;
+    private final Executor executor;
+    private final List<Item> items;
+
+    private boolean closed;
+    private int next;
+
+    /**
+     * Creates a BatchReader, and begins loading the first files.
+     *
+     * @param   server      - the server whose files are read
+     * @param   executor    - the executor files are loaded on
+     * @param   items       - the files of the batch, as returned by parse()
+     */
+    BatchReader(BFTPServer server, Executor executor, List<Item> items) {
+        this.server = server;
+        this.executor = executor;
+        this.items = items;
+
+        loading = new ArrayDeque<>(PREFETCH_DEPTH);
+
+        prefetch();
+    }
+
+    /**
+     * Parses the content of an X_BATCH request, expanding its globs.
+     *
+     * Expansion stops once more than MAX_BATCH_FILES files have been found, so the returned list
+     * is then larger than MAX_BATCH_FILES, and the batch should be refused.
+     *
+     * @param   content - view of the content field, after the xop
+     * @param   globs   - whether globs may be expanded, which needs the filesystem backend
+     *
+     * @return  the files of the batch in response order, or null if the content is malformed.
+     */
+    static List<Item> parse(ByteBuffer content, boolean globs) {
+        List<Item> items = new ArrayList<>();
+
+        while (content.hasRemaining() && items.size() <= MAX_BATCH_FILES) {
+            byte kind;
+            int plen, limit = content.limit();
+            String path;
+
+            if (content.remaining() < BFTP.KIND_LENGTH + BFTP.PLEN_LENGTH) {
+                return null;
+            }
+
+            // [0] ~ kind, [1,2] ~ plen, [3,plen+2] ~ path
+            kind = content.get();
+            plen = content.getShort() & 0xFFFF;
+
+            if (content.remaining() < plen) {
+                return null;
+            }
+
+            content.limit(content.position() + plen);
+            path = BFTPServer.bytesToString(content);
+            content.limit(limit).position(content.position() + plen);
+
+            if (BFTP.BATCH_PATH == kind) {
+                items.add(new Item(path, null));
+            }
+            else if (BFTP.BATCH_GLOB == kind && !globs) {
+                items.add(new Item(path, BFTPServer.UNSUPPORTED_STORAGE_RESPONSE));
+            }
+            else if (BFTP.BATCH_GLOB == kind) {
+                expand(path, items);
+            }
+            else {
+                return null;
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Stops loading files, and closes every file which was opened ahead but not taken.
+     */
+    void close() {
+        closed = true;
+
+        for (CompletableFuture<Entry> entry : loading) {
+            entry.thenAccept(Entry::close);
+        }
+
+        loading.clear();
+    }
+
+    /**
+     * Returns whether there are files which have not been taken.
+     *
+     * @return  TRUE if the batch has further entries, else FALSE.
+     */
+    boolean hasNext() {
+        return !loading.isEmpty();
+    }
+
+    /**
+     * Takes the next entry, if it has been loaded.
+     *
+     * @return  the next entry, or null if it is still being loaded.
+     */
+    Entry poll() {
+        CompletableFuture<Entry> entry = loading.peek();
+
+        return (null != entry && entry.isDone()) ? take() : null;
+    }
+
+    /**
+     * Takes the next entry, waiting for it to be loaded.
+     *
+     * @return  the next entry, which the caller must close once it has been sent.
+     */
+    Entry take() {
+        Entry entry = loading.remove().join();
+
+        prefetch();
+
+        return entry;
+    }
+
+    /**
+     * Runs an action once the next entry has been loaded, or immediately if it already has.
+     *
+     * @param   action  - the action to run, on the thread which loaded the entry or this one
+     */
+    void whenReady(Runnable action) {
+        loading.element().thenRun(action);
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to add the files matching a glob to a batch.
+     *
+     * Only the directories below the glob's leading literal segments are searched, and no deeper
+     * than the glob has segments unless it contains "**".
+     *
+     * @param   glob    - the glob, relative to the root directory
+     * @param   items   - the files of the batch, which matching files are added to
+     */
+    private static void expand(String glob, List<Item> items) {
+        List<String> matches = new ArrayList<>();
+        Path root = Paths.get(BFTPServer.ROOT_DIRECTORY).toAbsolutePath().normalize(), start;
+        PathMatcher matcher;
+        String segments[] = glob.split("/", -1);
+        int depth, literal = 0;
+
+        while (literal < segments.length - 1 && !isPattern(segments[literal])) {
+            literal++;
+        }
+
+        try {
+            matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+            start = root.resolve(String.join("/", Arrays.copyOf(segments, literal))).normalize();
+        }
+        catch (IllegalArgumentException iae) {
+            // Includes PatternSyntaxException and InvalidPathException
+            items.add(new Item(glob, BFTPServer.INVALID_PATH_RESPONSE));
+            return;
+        }
+
+        if (!start.startsWith(root)) {
+            items.add(new Item(glob, BFTPServer.INVALID_PATH_RESPONSE));
+            return;
+        }
+
+        depth = glob.contains("**") ? Integer.MAX_VALUE : segments.length - literal;
+
+        try (Stream<Path> files = Files.find(start, depth, (file, attributes) ->
+                attributes.isRegularFile() && matcher.matches(root.relativize(file)))) {
+            files.limit(MAX_BATCH_FILES + 1 - items.size())
+                    .forEach(file -> matches.add(root.relativize(file).toString()
+                            .replace(File.separatorChar, '/')));
+        }
+        catch (NoSuchFileException nsfe) {
+            // No directory, so no matches
+        }
+        catch (IOException | UncheckedIOException ioe) {
+            items.add(new Item(glob, BFTPServer.FILE_READ_ERROR_RESPONSE));
+            return;
+        }
+
+        if (matches.isEmpty()) {
+            items.add(new Item(glob, BFTPServer.FILE_NOT_FOUND_RESPONSE));
+            return;
+        }
+
+        Collections.sort(matches);
+
+        for (String match : matches) {
+            items.add(new Item(match, null));
+        }
+    }
+
+    /**
+     * Helper method to check whether a path segment contains glob syntax.
+     *
+     * @param   segment - one '/' separated segment of a glob
+     *
+     * @return  TRUE if the segment must be matched, FALSE if it names a directory literally.
+     */
+    private static boolean isPattern(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(segment.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Helper method to load one file of the batch, on the executor.
+     *
+     * @param   item    - the file to load
+     *
+     * @return  the entry holding the file, or its error response.
+     */
+    private Entry load(Item item) {
+        ByteBuffer content;
+        Storage.Blob file = null;
+        byte pathBytes[] = BFTPServer.stringToBytes(item.path);
+        BasicFileAttributes attributes;
+        Path target;
+
+        if (null != item.error) {
+            return new Entry(pathBytes, server.errorContent(item.error));
+        }
+
+        target = server.resolvePath(item.path);
+
+        if (pathBytes.length > MAX_PATH_LENGTH || null == target) {
+            return new Entry(pathBytes, server.errorContent(BFTPServer.INVALID_PATH_RESPONSE));
+        }
+
+        // Other backends only look the file up once, when it is opened
+        if (server.storesFiles()) {
+            attributes = server.fileAttributes(target);
+
+            if (null == attributes || !attributes.isRegularFile()) {
+                return new Entry(pathBytes,
+                        server.errorContent(BFTPServer.FILE_NOT_FOUND_RESPONSE));
+            }
+
+            if (null != (content = server.cachedFile(target))) {
+                return new Entry(pathBytes, content, null);
+            }
+        }
+
+        try {
+            if (null == (file = server.openFile(target))) {
+                return new Entry(pathBytes,
+                        server.errorContent(BFTPServer.FILE_NOT_FOUND_RESPONSE));
+            }
+
+            if (file.size() > MAX_BUFFERED_SIZE) {
+                return new Entry(pathBytes, null, file);
+            }
+
+            content = ByteBuffer.allocate((int) file.size());
+
+            while (content.hasRemaining()) {
+                if (file.read(content, content.position()) < 0) {
+                    throw new IOException("File was truncated while being read");
+                }
+            }
+
+            file.close();
+
+            return new Entry(pathBytes, content.flip(), null);
+        }
+        catch (IOException ioe) {
+            if (null != file) {
+                try {
+                    file.close();
+                }
+                catch (IOException cioe) {
+                    // Nothing more can be done with this file
+                }
+            }
+
+            return new Entry(pathBytes, server.errorContent(BFTPServer.FILE_READ_ERROR_RESPONSE));
+        }
+    }
+
+    /**
+     * Helper method to begin loading files, until PREFETCH_DEPTH entries are loading or loaded.
+     *
+     * Once the executor is shut down, files are loaded on this thread instead.
+     */
+    private void prefetch() {
+        while (!closed && loading.size() < PREFETCH_DEPTH && next < items.size()) {
+            Item item = items.get(next++);
+            CompletableFuture<Entry> entry;
+
+            try {
+                entry = CompletableFuture.supplyAsync(() -> load(item), executor);
+            }
+            catch (RejectedExecutionException ree) {
+                entry = CompletableFuture.completedFuture(load(item));
+            }
+
+            loading.add(entry);
+        }
+    }
+
+    /**
+     * A file of a batch, or a glob which could not be expanded.
+     */
+    static final class Item {
+
+        private final String error, path;
+
+        /**
+         * Creates an Item.
+         *
+         * @param   path    - path of the file relative to the root directory, or the glob
+         * @param   error   - the response string to send instead of the file, or null
+         */
+        Item(String path, String error) {
+            this.path = path;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * A loaded file of a batch, ready to be sent as one frame.
+     *
+     * The content of the frame is either error, or prefix followed by the file data, which is
+     * held in data or read from file.
+     */
+    static final class Entry {
+
+        final ByteBuffer data;
+        final byte error[], prefix[];
+
+        private Storage.Blob file;
+
+        /**
+         * Creates an Entry for a file which will be sent.
+         *
+         * @param   path    - UTF-8 path of the file, relative to the root directory
+         * @param   data    - the whole file, or null if it is to be read from file
+         * @param   file    - the open file, or null if it is held in data
+         */
+        private Entry(byte path[], ByteBuffer data, Storage.Blob file) {
+            this.data = data;
+            this.file = file;
+
+            error = null;
+            prefix = content(BFTP.BATCH_OK, path, BFTPServer.EMPTY_CONTENT);
+        }
+
+        /**
+         * Creates an Entry for a file which cannot be sent.
+         *
+         * @param   path        - UTF-8 path of the file or glob
+         * @param   response    - the content of the error response
+         */
+        private Entry(byte path[], byte response[]) {
+            data = null;
+            prefix = null;
+
+            error = content(BFTP.BATCH_ERR, path, response);
+        }
+
+        /**
+         * Closes the file, if it was opened and has not been taken.
+         */
+        void close() {
+            if (null != file) {
+                try {
+                    file.close();
+                }
+                catch (IOException ioe) {
+                    // Nothing more can be done with this file
+                }
+
+                file = null;
+            }
+        }
+
+        /**
+         * Takes the open file, which the caller must then close.
+         *
+         * @return  the file to stream after the prefix, or null if there is none.
+         */
+        Storage.Blob takeFile() {
+            Storage.Blob taken = file;
+
+            file = null;
+
+            return taken;
+        }
+
+        /**
+         * Helper method to build the content of a batch frame.
+         *
+         * @param   status  - the status of the frame
+         * @param   path    - UTF-8 path of the file or glob
+         * @param   suffix  - the content following the path
+         *
+         * @return  the xop, status, plen and path fields, followed by suffix.
+         */
+        private static byte[] content(byte status, byte path[], byte suffix[]) {
+            // [0] ~ xop, [1] ~ status, [2,3] ~ plen, [4,plen+3] ~ path, remainder ~ suffix
+            return ByteBuffer.allocate(BFTP.XOP_LENGTH + BFTP.STATUS_LENGTH + BFTP.PLEN_LENGTH
+                    + path.length + suffix.length)
+                    .put(BFTP.X_BATCH)
+                    .put(status)
+                    .putShort((short) path.length)
+                    .put(path)
+                    .put(suffix)
+                    .array();
+        }
+
+    }
+
+}
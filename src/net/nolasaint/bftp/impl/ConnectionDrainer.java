@@ -0,0 +1,195 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes connections which the server has refused, once their clients have had a chance to read
+ * the response.
+ *
+ * Closing a socket with unread data resets the connection, which may discard the response before
+ * the client reads it. A refused connection's request usually arrives after it was accepted, so
+ * rather than closing it at once, each connection is handed here with its output already shut
+ * down. Its requests are then read and discarded on a single thread until the client closes it,
+ * or for at most LINGER, after which it is closed regardless.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class ConnectionDrainer {
+
+    /* LINGER is how long, in nanoseconds, a refused connection is drained before it is closed */
+    static final long LINGER = TimeUnit.SECONDS.toNanos(1);
+
+    /* POLL_INTERVAL is how often, in milliseconds, lingering connections are checked */
+    private static final long POLL_INTERVAL = 100;
+
+    private final Queue<SocketChannel> pending;
+
+    private volatile boolean closed;
+    private Selector selector;
+
+    /**
+     * Creates a ConnectionDrainer, whose thread is started by the first connection.
+     */
+    ConnectionDrainer() {
+        pending = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Closes every connection still being drained, and stops the thread.
+     */
+    synchronized void close() {
+        closed = true;
+
+        if (null != selector) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Drains a refused connection until its client closes it, or for LINGER, and then closes it.
+     *
+     * @param   channel - the connection, whose response has been written and output shut down
+     */
+    void drain(SocketChannel channel) {
+        synchronized (this) {
+            if (!closed) {
+                try {
+                    if (null == selector) {
+                        Thread thread;
+
+                        selector = Selector.open();
+
+                        thread = new Thread(this::run, "BFTP-Drainer");
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+
+                    pending.add(channel);
+                    selector.wakeup();
+
+                    return;
+                }
+                catch (IOException ioe) {
+                    // Closed at once instead
+                }
+            }
+        }
+
+        close(channel);
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to close a connection.
+     *
+     * @param   channel - the connection
+     */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            // Nothing more can be done with this channel
+        }
+    }
+
+    /**
+     * Helper method to read and discard whatever a connection has received.
+     *
+     * @param   channel - the connection
+     * @param   discard - buffer to read into
+     *
+     * @return  TRUE if the client has closed the connection, or it failed, else FALSE.
+     */
+    private static boolean drained(SocketChannel channel, ByteBuffer discard) {
+        int count;
+
+        try {
+            do {
+                count = channel.read(discard.clear());
+            } while (count > 0);
+        }
+        catch (IOException ioe) {
+            return true;
+        }
+
+        return count < 0;
+    }
+
+    /**
+     * Helper method to drain connections, until closed.
+     */
+    private void run() {
+        ByteBuffer discard = ByteBuffer.allocate(4 * 1024);
+        SocketChannel channel;
+
+        while (!closed) {
+            long now = System.nanoTime();
+
+            while (null != (channel = pending.poll())) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, now + LINGER);
+                }
+                catch (ClosedChannelException cce) {
+                    // Already gone
+                }
+                catch (IOException ioe) {
+                    close(channel);
+                }
+            }
+
+            try {
+                selector.select(POLL_INTERVAL);
+            }
+            catch (IOException ioe) {
+                break;
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (key.isValid() && drained((SocketChannel) key.channel(), discard)) {
+                    key.cancel();
+                    close((SocketChannel) key.channel());
+                }
+            }
+
+            selector.selectedKeys().clear();
+            now = System.nanoTime();
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && now - (Long) key.attachment() > 0) {
+                    key.cancel();
+                    close((SocketChannel) key.channel());
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            close((SocketChannel) key.channel());
+        }
+
+        while (null != (channel = pending.poll())) {
+            close(channel);
+        }
+
+        try {
+            selector.close();
+        }
+        catch (IOException ioe) {
+            // Nothing more can be done with this selector
+        }
+    }
+
+}
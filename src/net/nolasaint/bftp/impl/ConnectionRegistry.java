@@ -0,0 +1,153 @@
+package net.nolasaint.bftp.impl;
+
+import java.net.InetAddress;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe registry of a server's open connections, which decides whether each newly accepted
+ * connection may be handled.
+ *
+ * A connection is admitted while the server has fewer than the maximum number of connections
+ * open, and its client address fewer than the maximum number per address, and each admitted
+ * connection must be released once closed. Connections whose handlers need to be reached from
+ * other threads, such as by shutdown(), are also added as members.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class ConnectionRegistry<T> {
+
+    private final AtomicInteger open;
+    private final Map<InetAddress, Integer> addresses;
+    private final Set<T> members;
+
+    private volatile int maxAddressConnections, maxConnections;
+
+    /**
+     * Creates an empty ConnectionRegistry without limits.
+     */
+    ConnectionRegistry() {
+        open = new AtomicInteger();
+        addresses = new ConcurrentHashMap<>();
+        members = ConcurrentHashMap.newKeySet();
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Adds a member, which may then be reached by forEach().
+     *
+     * @param   member  - the member to add
+     */
+    void add(T member) {
+        members.add(member);
+    }
+
+    /**
+     * Admits a connection from the given address, if neither limit has been reached.
+     *
+     * @param   address - the address of the client
+     *
+     * @return  null if the connection was admitted, and must be released, else the error
+     *          response to send the client.
+     */
+    String admit(InetAddress address) {
+        int max = maxConnections, maxAddress = maxAddressConnections;
+        boolean admitted[] = { true };
+
+        if (open.incrementAndGet() > max && 0 != max) {
+            open.decrementAndGet();
+
+            return BFTPServer.CONNECTION_LIMIT_RESPONSE;
+        }
+
+        addresses.compute(address, (key, count) -> {
+            count = (null != count) ? count : 0;
+
+            if (count >= maxAddress && 0 != maxAddress) {
+                admitted[0] = false;
+            }
+
+            return admitted[0] ? count + 1 : (0 != count ? count : null);
+        });
+
+        if (!admitted[0]) {
+            open.decrementAndGet();
+
+            return BFTPServer.ADDRESS_LIMIT_RESPONSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Calls the given action for each member.
+     *
+     * @param   action  - the action to call
+     */
+    void forEach(Consumer<? super T> action) {
+        members.forEach(action);
+    }
+
+    /**
+     * Returns the maximum number of connections from each client address.
+     *
+     * @return  the limit, or 0 if there is none.
+     */
+    int maxAddressConnections() {
+        return maxAddressConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections from each client address. Connections which are
+     * already open are not closed.
+     *
+     * @param   max - the limit, or 0 for none
+     */
+    void maxAddressConnections(int max) {
+        maxAddressConnections = max;
+    }
+
+    /**
+     * Returns the maximum number of connections.
+     *
+     * @return  the limit, or 0 if there is none.
+     */
+    int maxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections. Connections which are already open are not closed.
+     *
+     * @param   max - the limit, or 0 for none
+     */
+    void maxConnections(int max) {
+        maxConnections = max;
+    }
+
+    /**
+     * Releases a connection admitted by admit().
+     *
+     * @param   address - the address of the client
+     */
+    void release(InetAddress address) {
+        addresses.computeIfPresent(address, (key, count) -> (1 == count) ? null : count - 1);
+        open.decrementAndGet();
+    }
+
+    /**
+     * Removes a member added by add().
+     *
+     * @param   member  - the member to remove
+     */
+    void remove(T member) {
+        members.remove(member);
+    }
+
+}
@@ -0,0 +1,617 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In-memory index of the files and directories under the root directory, which answers X_LIST.
+ *
+ * The index is built once, in the background, when the server starts or is first asked for a
+ * listing, and listings wait until it has been built. Each directory is scanned as its own task on
+ * a ForkJoinPool, so the directories of a large tree are scanned in parallel. From then on, the
+ * index is kept current by a WatchService which watches every indexed directory, and by the
+ * server refreshing each file committed by a PUT, so listings never rescan the disk. A directory
+ * is only rescanned when it is created, or when the WatchService reports that it lost events.
+ *
+ * Paths are relative to the root directory and separated by '/', and the root directory itself
+ * is ROOT. Files still being received by a PUT are not indexed.
+ *
+ * Content hashes are computed when first requested, and are kept until the size or modification
+ * time of the file changes.
+ *
+ * Each change the WatchService reports is also invalidated in the server's PathCache.
+ *
+ * NOTE: Changes made by other processes are only seen once the WatchService reports them, which
+ * may take several seconds on platforms where it polls.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class DirectoryIndex {
+
+    /* HASH_ALGORITHM is the MessageDigest which computes content hashes */
+    static final String HASH_ALGORITHM = "SHA-256";
+
+    /* ROOT is the path of the root directory */
+    static final String ROOT = "";
+
+    /* HASH_BUFFER_SIZE is the size, in bytes, of the buffer files are hashed through */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final PathCache cache;
+    private final CompletableFuture<Integer> built;
+    private final Map<String, ConcurrentSkipListMap<String, Entry>> directories;
+    private final Map<WatchKey, String> keys;
+
+    private volatile boolean closed;
+    private Thread thread;
+    private volatile WatchService watcher;
+
+    /**
+     * Creates an empty DirectoryIndex.
+     *
+     * @param   root    - the root directory, which need not exist yet
+     * @param   cache   - the cache to invalidate as changes are reported
+     */
+    DirectoryIndex(Path root, PathCache cache) {
+        this.root = root.toAbsolutePath().normalize();
+        this.cache = cache;
+
+        built = new CompletableFuture<>();
+        directories = new ConcurrentHashMap<>();
+        keys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts scanning the root directory in the background, and then watching it for changes,
+     * unless this has already been started.
+     *
+     * If the platform cannot watch directories, the index is only kept current by refresh().
+     *
+     * @return  the result, which completes with the number of files and directories indexed
+     *          once the root directory has been scanned.
+     */
+    synchronized CompletableFuture<Integer> build() {
+        if (null == thread) {
+            thread = new Thread(this::run, "BFTP-Index");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return built;
+    }
+
+    /**
+     * Stops watching for changes.
+     */
+    synchronized void close() {
+        closed = true;
+
+        if (null != watcher) {
+            try {
+                watcher.close();
+            }
+            catch (IOException ioe) {
+                // Nothing more can be done with this watcher
+            }
+        }
+    }
+
+    /**
+     * Looks up an indexed file or directory.
+     *
+     * @param   path    - relative path of the file or directory
+     *
+     * @return  its entry, or null if it is not indexed.
+     */
+    Entry entry(String path) {
+        Map<String, Entry> siblings = directories.get(parent(path));
+
+        return (null != siblings) ? siblings.get(name(path)) : null;
+    }
+
+    /**
+     * Looks up a file, after checking its entry against the disk.
+     *
+     * Unlike listings, which may trail changes made by other processes, this never returns an
+     * entry, or therefore a hash, of an earlier version of the file, at the cost of reading its
+     * attributes.
+     *
+     * @param   path    - relative path of the file
+     *
+     * @return  its current entry, or null if it is not a regular file.
+     */
+    Entry currentFile(String path) {
+        Entry entry = entry(path), current = stat(resolve(path), path);
+
+        if (null == current || current.directory) {
+            return null;
+        }
+
+        if (null == entry || !entry.isSameFile(current)) {
+            refresh(path);
+
+            // A hash of a file which still could not be indexed is not kept
+            entry = entry(path);
+            entry = (null != entry && entry.isSameFile(current)) ? entry : current;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the content hash of an indexed file, computing it if it is not known.
+     *
+     * @param   entry   - the entry of the file
+     *
+     * @return  the HASH_ALGORITHM digest of the file, or null if it is a directory, could not be
+     *          read, or changed while it was read.
+     */
+    byte[] hash(Entry entry) {
+        byte hash[] = entry.hash;
+
+        if (null != hash || entry.directory) {
+            return hash;
+        }
+
+        try (FileChannel file = FileChannel.open(resolve(entry.path), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            Entry current;
+
+            while (file.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+
+            hash = digest.digest();
+
+            // Only keep the hash if the file is unchanged since it was indexed
+            current = stat(resolve(entry.path), entry.path);
+
+            if (null == current || !current.isSameFile(entry)) {
+                return null;
+            }
+
+            entry.hash = hash;
+
+            return hash;
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to support SHA-256
+            throw new AssertionError(HASH_ALGORITHM + " not supported");
+        }
+    }
+
+    /**
+     * Returns whether the content hash of an indexed file is known, or it has none.
+     *
+     * @param   entry   - the entry of the file
+     *
+     * @return  TRUE if hash() would return without reading the file, else FALSE.
+     */
+    boolean isHashed(Entry entry) {
+        return null != entry.hash || entry.directory;
+    }
+
+    /**
+     * Lists an indexed directory.
+     *
+     * @param   directory   - relative path of the directory
+     * @param   recursive   - whether to list the contents of its subdirectories as well
+     *
+     * @return  its entries in lexicographic order, each directory followed by its contents if
+     *          recursive, or null if it is not an indexed directory.
+     */
+    List<Entry> list(String directory, boolean recursive) {
+        List<Entry> entries = new ArrayList<>();
+        Map<String, Entry> children;
+
+        // A directory missing from a partly built index may only not have been scanned yet
+        build().join();
+
+        if (null == (children = directories.get(directory))) {
+            return null;
+        }
+
+        for (Entry entry : children.values()) {
+            List<Entry> contents;
+
+            entries.add(entry);
+
+            if (recursive && entry.directory && null != (contents = list(entry.path, true))) {
+                entries.addAll(contents);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Brings the entry of a file or directory up to date with the disk.
+     *
+     * A directory which is not indexed yet is scanned, along with any of its ancestors which are
+     * not indexed either. May be called from any thread.
+     *
+     * @param   path    - relative path of the file or directory
+     */
+    void refresh(String path) {
+        Map<String, Entry> siblings;
+        Entry entry, previous;
+        String name;
+
+        if (closed) {
+            return;
+        }
+
+        if (ROOT.equals(path)) {
+            if (built.isDone() && !directories.containsKey(ROOT) && Files.isDirectory(root)) {
+                scan(ROOT);
+            }
+
+            return;
+        }
+
+        if (null == (siblings = directories.get(parent(path)))) {
+            // The parent is new as well, and scanning it will index this path. While the index
+            // is being built, the build scans it instead.
+            if (built.isDone()) {
+                refresh(parent(path));
+            }
+
+            return;
+        }
+
+        name = name(path);
+        entry = stat(resolve(path), path);
+
+        if (null == entry) {
+            previous = siblings.remove(name);
+        }
+        else {
+            previous = siblings.put(name, entry);
+
+            if (null != previous && previous.isSameFile(entry)) {
+                entry.hash = previous.hash;
+            }
+
+            if (entry.directory && !directories.containsKey(path)) {
+                scan(path);
+            }
+        }
+
+        if (null != previous && previous.directory && (null == entry || !entry.directory)) {
+            remove(path);
+        }
+    }
+
+    /**
+     * Returns the path of a file relative to the root directory.
+     *
+     * @param   file    - absolute, normalized path of a file under the root directory
+     *
+     * @return  its relative path, separated by '/'.
+     */
+    String relativize(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to join a directory and the name of one of its children.
+     *
+     * @param   directory   - relative path of the directory
+     * @param   name        - name of the child
+     *
+     * @return  the relative path of the child.
+     */
+    private static String child(String directory, String name) {
+        return ROOT.equals(directory) ? name : directory + "/" + name;
+    }
+
+    /**
+     * Helper method to return the name of a file or directory.
+     *
+     * @param   path    - relative path of the file or directory
+     *
+     * @return  its last segment.
+     */
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Helper method to return the directory containing a file or directory.
+     *
+     * @param   path    - relative path of the file or directory, other than ROOT
+     *
+     * @return  the relative path of its parent.
+     */
+    private static String parent(String path) {
+        int separator = path.lastIndexOf('/');
+
+        return (separator < 0) ? ROOT : path.substring(0, separator);
+    }
+
+    /**
+     * Helper method to remove a directory and everything below it from the index.
+     *
+     * @param   directory   - relative path of the directory
+     */
+    private void remove(String directory) {
+        String prefix = directory + "/";
+
+        directories.remove(directory);
+        directories.keySet().removeIf(path -> path.startsWith(prefix));
+    }
+
+    /**
+     * Helper method to resolve a relative path against the root directory.
+     *
+     * @param   path    - relative path of a file or directory
+     *
+     * @return  its absolute path.
+     */
+    private Path resolve(String path) {
+        return root.resolve(path);
+    }
+
+    /**
+     * Helper method to build the index, then apply WatchService events to it.
+     */
+    private void run() {
+        synchronized (this) {
+            try {
+                // Not once closed, since nothing would close it
+                watcher = closed ? null : root.getFileSystem().newWatchService();
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                watcher = null;
+            }
+        }
+
+        try {
+            if (!closed && Files.isDirectory(root)) {
+                scan(ROOT);
+            }
+        }
+        finally {
+            // Listings must never wait forever, even on an index which failed to build
+            built.complete(directories.values().stream().mapToInt(Map::size).sum());
+        }
+
+        if (null != watcher) {
+            watch();
+        }
+    }
+
+    /**
+     * Helper method to scan a directory and its subdirectories in parallel, replacing whatever
+     * the index held for them.
+     *
+     * @param   directory   - relative path of the directory
+     */
+    private void scan(String directory) {
+        ForkJoinPool.commonPool().invoke(new Scan(directory));
+    }
+
+    /**
+     * Helper method to read the entry of a file or directory from the disk.
+     *
+     * @param   file    - absolute path of the file or directory
+     * @param   path    - relative path of the file or directory
+     *
+     * @return  its entry, or null if it does not exist, is being received by a PUT, or is neither
+     *          a regular file nor a directory.
+     */
+    private static Entry stat(Path file, String path) {
+        BasicFileAttributes attributes;
+
+        if (path.endsWith(FileStorage.TEMP_FILE_SUFFIX)) {
+            return null;
+        }
+
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+
+        if (!attributes.isDirectory() && !attributes.isRegularFile()) {
+            return null;
+        }
+
+        return new Entry(path, attributes.isDirectory(),
+                attributes.isDirectory() ? 0 : attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Helper method to apply WatchService events to the index, until it is closed.
+     */
+    private void watch() {
+        while (!closed) {
+            String directory;
+            WatchKey key;
+
+            try {
+                key = watcher.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            if (null != (directory = keys.get(key))) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                        // Events were lost, so only a rescan can tell what changed
+                        scan(directory);
+                        cache.invalidate(resolve(directory), true);
+                    }
+                    else {
+                        String path = child(directory, event.context().toString());
+                        Entry previous = entry(path), current;
+
+                        refresh(path);
+                        current = entry(path);
+
+                        // Paths below a directory which came or went may have changed as well
+                        cache.invalidate(resolve(path), (null != previous && previous.directory)
+                                || (null != current && current.directory));
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                // The directory is gone, and its DELETE event removes it from the index
+                keys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A file or directory in the index.
+     */
+    static final class Entry {
+
+        final boolean directory;
+        final long modified, size;
+        final String path;
+
+        private volatile byte hash[];
+
+        /**
+         * Creates an Entry.
+         *
+         * @param   path        - relative path of the file or directory
+         * @param   directory   - whether it is a directory
+         * @param   size        - the size of the file in bytes, or 0 for a directory
+         * @param   modified    - the modification time, in milliseconds since the epoch
+         */
+        private Entry(String path, boolean directory, long size, long modified) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Helper method to check whether two entries describe the same version of a file.
+         *
+         * @param   other   - the other entry
+         *
+         * @return  TRUE if both have the same kind, size and modification time, else FALSE.
+         */
+        private boolean isSameFile(Entry other) {
+            return directory == other.directory && size == other.size
+                    && modified == other.modified;
+        }
+
+    }
+
+    /**
+     * Scans one directory, then its subdirectories as parallel subtasks.
+     */
+    private final class Scan extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String directory;
+
+        /**
+         * Creates a Scan.
+         *
+         * @param   directory   - relative path of the directory to scan
+         */
+        Scan(String directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            ConcurrentSkipListMap<String, Entry> children = new ConcurrentSkipListMap<>(), previous;
+            List<Scan> subdirectories = new ArrayList<>();
+            Path path = resolve(directory);
+
+            // Watch before listing, so that no change after the listing is missed
+            if (null != watcher) {
+                try {
+                    keys.put(path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                }
+                catch (IOException | ClosedWatchServiceException e) {
+                    // Still indexed, but only kept current by refresh()
+                }
+            }
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    Entry entry = stat(file, child(directory, name));
+
+                    if (null != entry) {
+                        children.put(name, entry);
+
+                        if (entry.directory) {
+                            subdirectories.add(new Scan(entry.path));
+                        }
+                    }
+                }
+            }
+            catch (IOException | DirectoryIteratorException e) {
+                // An unreadable directory is listed as empty
+            }
+
+            previous = directories.put(directory, children);
+
+            if (null != previous) {
+                // Keep hashes of unchanged files, and drop directories which are gone
+                for (Entry entry : previous.values()) {
+                    Entry current = children.get(name(entry.path));
+
+                    if (null != current && current.isSameFile(entry)) {
+                        current.hash = entry.hash;
+                    }
+                    else if (entry.directory && (null == current || !current.directory)) {
+                        remove(entry.path);
+                    }
+                }
+            }
+
+            invokeAll(subdirectories);
+        }
+
+    }
+
+}
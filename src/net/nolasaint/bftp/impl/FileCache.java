@@ -0,0 +1,353 @@
+package net.nolasaint.bftp.impl;
+
+import net.nolasaint.bftp.BFTP;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Size-bounded cache of the content of small, frequently requested files.
+ *
+ * Content is held in read-only direct buffers, outside of the Java heap, so that a cached file is
+ * written to a socket without being copied. When the total size of the cached content exceeds the
+ * capacity, the least recently used files are evicted.
+ *
+ * A cache may instead hold compressed variants of files, so that compressible files are not
+ * recompressed for every request. Each variant is the CMP codec field followed by the deflated
+ * file. Files which do not compress well are cached as empty variants, meaning that they should
+ * be sent uncompressed.
+ *
+ * An entry is revalidated against the modification time and size of its file at most once every
+ * REVALIDATION_INTERVAL, so most hits make no filesystem calls. Files replaced by a PUT are
+ * invalidated immediately; files changed by other means may be served stale for up to
+ * REVALIDATION_INTERVAL.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class FileCache {
+
+    /* DEFAULT_MAX_ENTRY_SIZE is the size, in bytes, of the largest file which is cached */
+    static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    /* DEFAULT_MAX_COMPRESSED_ENTRY_SIZE is the size, in bytes, of the largest file which is
+     * compressed, before compression */
+    static final int DEFAULT_MAX_COMPRESSED_ENTRY_SIZE = 8 * 1024 * 1024;
+
+    /* MAX_COMPRESSION_RATIO is the largest compressed / uncompressed size worth sending */
+    private static final double MAX_COMPRESSION_RATIO = 0.9;
+
+    /* REVALIDATION_INTERVAL is how often, in nanoseconds, an entry is checked against its file */
+    private static final long REVALIDATION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean compressed;
+    private final long capacity;
+    private final int maxEntrySize;
+    private final LongAdder evictions, hits, misses;
+    private final LinkedHashMap<Path, Entry> entries;
+
+    private long size;
+
+    /**
+     * Creates an empty FileCache.
+     *
+     * @param   capacity        - the maximum total size of cached content, in bytes
+     * @param   maxEntrySize    - the size, in bytes, of the largest file which is cached
+     * @param   compressed      - whether to cache compressed variants rather than files
+     */
+    FileCache(long capacity, int maxEntrySize, boolean compressed) {
+        this.capacity = capacity;
+        this.maxEntrySize = maxEntrySize;
+        this.compressed = compressed;
+
+        evictions = new LongAdder();
+        hits = new LongAdder();
+        misses = new LongAdder();
+
+        // Access order, so that iteration begins with the least recently used entry
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the maximum total size of cached content.
+     *
+     * @return  the capacity, in bytes.
+     */
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of entries which have been evicted to make room for others.
+     *
+     * @return  the eviction count.
+     */
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Looks up the cached content of a file, revalidating it if it has not been checked for
+     * REVALIDATION_INTERVAL.
+     *
+     * @param   key - absolute, normalized path of the requested file
+     *
+     * @return  a read-only view of the whole file or variant, or null if it is not cached or is
+     *          stale.
+     */
+    ByteBuffer get(Path key) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        if (null != entry && System.nanoTime() - entry.validated > REVALIDATION_INTERVAL) {
+            if (entry.matches(attributes(key))) {
+                entry.validated = System.nanoTime();
+            }
+            else {
+                remove(key, entry);
+                entry = null;
+            }
+        }
+
+        if (null == entry) {
+            misses.increment();
+
+            return null;
+        }
+
+        hits.increment();
+
+        return entry.content.duplicate();
+    }
+
+    /**
+     * Returns the number of lookups which were answered from the cache.
+     *
+     * @return  the hit count.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Removes the cached content of a file, if any.
+     *
+     * @param   target  - absolute, normalized path of the file which has changed
+     */
+    synchronized void invalidate(Path target) {
+        Entry entry = entries.remove(target);
+
+        if (null != entry) {
+            size -= entry.content.capacity();
+        }
+    }
+
+    /**
+     * Reads a file into the cache, if it is a regular file small enough to be cached.
+     *
+     * @param   key - absolute, normalized path of the requested file
+     *
+     * @return  a read-only view of the whole file or variant, or null if it is not cached.
+     */
+    ByteBuffer load(Path key) {
+        BasicFileAttributes attributes;
+        ByteBuffer content;
+        Entry entry;
+
+        // Attributes are read first, so that a file replaced during the read is seen as stale
+        if (null == (attributes = attributes(key)) || !attributes.isRegularFile()
+                || attributes.size() > maxEntrySize || attributes.size() > capacity) {
+            return null;
+        }
+
+        // Files to be compressed are only read onto the heap
+        content = compressed
+                ? ByteBuffer.allocate((int) attributes.size())
+                : ByteBuffer.allocateDirect((int) attributes.size());
+
+        try (FileChannel file = FileChannel.open(key, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (file.read(content, content.position()) < 0) {
+                    break;
+                }
+            }
+
+            if (content.hasRemaining() || file.size() != attributes.size()) {
+                // Changed since its attributes were read, so do not cache it
+                return null;
+            }
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+
+        content.flip();
+
+        if (compressed) {
+            content = compress(content);
+        }
+
+        entry = new Entry(content.asReadOnlyBuffer(), attributes);
+
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+
+            if (null != previous) {
+                size -= previous.content.capacity();
+            }
+
+            size += content.capacity();
+
+            // Evict least recently used entries until the new entry fits
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > capacity && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+
+                if (eldest != entry) {
+                    iterator.remove();
+                    size -= eldest.content.capacity();
+                    evictions.increment();
+                }
+            }
+        }
+
+        return entry.content.duplicate();
+    }
+
+    /**
+     * Returns the number of lookups which were not answered from the cache.
+     *
+     * @return  the miss count.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the total size of cached content.
+     *
+     * @return  the size, in bytes.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Helper method to read the attributes of a file.
+     *
+     * @param   key - absolute, normalized path of the file
+     *
+     * @return  the attributes of the file, or null if it does not exist or cannot be read.
+     */
+    private static BasicFileAttributes attributes(Path key) {
+        try {
+            return Files.readAttributes(key, BasicFileAttributes.class);
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to build the compressed variant of a file.
+     *
+     * @param   file    - heap buffer holding the whole file
+     *
+     * @return  a direct buffer holding the codec and the deflated file, or an empty buffer if the
+     *          file does not compress well.
+     */
+    private static ByteBuffer compress(ByteBuffer file) {
+        byte chunk[] = new byte[8 * 1024];
+        int limit = (int) (file.remaining() * MAX_COMPRESSION_RATIO);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+
+        try {
+            deflater.setInput(file.array(), file.arrayOffset() + file.position(), file.remaining());
+            deflater.finish();
+
+            while (!deflater.finished() && deflated.size() <= limit) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        if (deflated.size() > limit) {
+            return ByteBuffer.allocate(0);
+        }
+
+        return ByteBuffer.allocateDirect(BFTP.CODEC_LENGTH + deflated.size())
+                .put(BFTP.CODEC_DEFLATE)
+                .put(deflated.toByteArray())
+                .flip();
+    }
+
+    /**
+     * Helper method to remove a stale entry, unless it has already been replaced.
+     *
+     * @param   key     - the key of the entry
+     * @param   entry   - the stale entry
+     */
+    private synchronized void remove(Path key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            size -= entry.content.capacity();
+        }
+    }
+
+    /**
+     * Content of a cached file, and the attributes it was read with.
+     */
+    private static final class Entry {
+
+        private final ByteBuffer content;
+        private final long lastModified, size;
+
+        private volatile long validated;
+
+        /**
+         * Creates an Entry which is valid as of now.
+         *
+         * @param   content     - read-only buffer holding the whole file or variant
+         * @param   attributes  - attributes of the file, read before its content
+         */
+        Entry(ByteBuffer content, BasicFileAttributes attributes) {
+            this.content = content;
+
+            lastModified = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+            validated = System.nanoTime();
+        }
+
+        /**
+         * Returns whether the file still has the attributes this entry was read with.
+         *
+         * @param   attributes  - the current attributes of the file, or null if it is gone
+         *
+         * @return  TRUE if the entry is still valid, else FALSE.
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            return null != attributes && attributes.size() == size
+                    && attributes.lastModifiedTime().toMillis() == lastModified;
+        }
+
+    }
+
+}
@@ -0,0 +1,216 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference-counted, read-only memory mappings of large files.
+ *
+ * Every reader of a file shares one mapping, so concurrent requests for the same file are served
+ * from the same pages of the page cache. A file is mapped as a series of regions, since a single
+ * MappedByteBuffer cannot exceed 2GiB.
+ *
+ * The size and modification time of a file are checked whenever its mapping is acquired, and a
+ * changed file is mapped afresh; readers of the old mapping are unaffected. Mappings which have
+ * not been used for IDLE_TIMEOUT are dropped, and unmapped once the garbage collector reclaims
+ * them.
+ *
+ * NOTE: A mapped file which is truncated in place, rather than replaced, will cause readers of
+ * its mapping to fail.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class FileMappings {
+
+    /* IDLE_TIMEOUT is how long, in nanoseconds, an unused mapping is kept */
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /* REGION_SIZE is the size, in bytes, of each mapped region of a file */
+    private static final int REGION_SIZE = 1024 * 1024 * 1024;
+
+    private final Map<Path, Mapping> mappings;
+
+    /**
+     * Creates an empty FileMappings.
+     */
+    FileMappings() {
+        mappings = new HashMap<>();
+    }
+
+    /**
+     * Acquires the shared mapping of a file, mapping it if necessary.
+     *
+     * Each successful call must be paired with a call to Mapping.release().
+     *
+     * @param   key         - absolute, normalized path of the requested file
+     * @param   threshold   - the size, in bytes, of the smallest file which is mapped
+     *
+     * @return  the mapping of the whole file, or null if it is smaller than threshold or cannot
+     *          be mapped.
+     */
+    Mapping acquire(Path key, long threshold) {
+        BasicFileAttributes attributes;
+        Mapping mapping;
+
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+
+        if (!attributes.isRegularFile() || attributes.size() < threshold) {
+            return null;
+        }
+
+        synchronized (this) {
+            removeIdle();
+
+            mapping = mappings.get(key);
+
+            if (null == mapping || !mapping.matches(attributes)) {
+                try {
+                    mapping = new Mapping(key, attributes);
+                }
+                catch (IOException ioe) {
+                    return null;
+                }
+
+                // Readers of a replaced mapping keep their own reference to it
+                mappings.put(key, mapping);
+            }
+
+            mapping.references++;
+        }
+
+        return mapping;
+    }
+
+    /**
+     * Helper method to drop mappings which have not been used for IDLE_TIMEOUT.
+     *
+     * Must be called while holding the lock on this FileMappings.
+     */
+    private void removeIdle() {
+        long now = System.nanoTime();
+
+        Iterator<Mapping> iterator = mappings.values().iterator();
+        while (iterator.hasNext()) {
+            Mapping mapping = iterator.next();
+
+            if (0 == mapping.references && now - mapping.released > IDLE_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Read-only mapping of the whole of a file, shared by its readers.
+     */
+    final class Mapping {
+
+        private final long lastModified, size;
+        private final MappedByteBuffer regions[];
+
+        private int references;
+        private long released;
+
+        /**
+         * Maps the whole of a file.
+         *
+         * @param   key         - absolute, normalized path of the file
+         * @param   attributes  - attributes of the file, read before it was opened
+         *
+         * @throws  IOException if the file cannot be opened or mapped.
+         */
+        Mapping(Path key, BasicFileAttributes attributes) throws IOException {
+            lastModified = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+
+            regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+
+            // The mapping remains valid once the channel is closed
+            try (FileChannel file = FileChannel.open(key, StandardOpenOption.READ)) {
+                for (int i = 0; i < regions.length; i++) {
+                    long position = (long) i * REGION_SIZE;
+
+                    regions[i] = file.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(REGION_SIZE, size - position));
+                }
+            }
+        }
+
+        /**
+         * Releases this reader's reference to the mapping.
+         */
+        void release() {
+            synchronized (FileMappings.this) {
+                if (0 == --references) {
+                    released = System.nanoTime();
+                }
+            }
+        }
+
+        /**
+         * Returns the size of the mapped file.
+         *
+         * @return  the size, in bytes.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Returns views of the mapped bytes in the given range of the file.
+         *
+         * @param   position    - position of the first byte
+         * @param   length      - number of bytes
+         *
+         * @return  one read-only view for each region which the range overlaps.
+         */
+        ByteBuffer[] slices(long position, long length) {
+            long end = position + length;
+            int first = (int) (position / REGION_SIZE);
+            int last = (0 == length) ? first : (int) ((end - 1) / REGION_SIZE);
+            ByteBuffer slices[] = new ByteBuffer[Math.min(last, regions.length - 1) - first + 1];
+
+            for (int i = 0; i < slices.length; i++) {
+                long start = (long) (first + i) * REGION_SIZE;
+                ByteBuffer slice = regions[first + i].asReadOnlyBuffer();
+
+                slice.position((int) (Math.max(position, start) - start));
+                slice.limit((int) (Math.min(end, start + slice.capacity()) - start));
+                slices[i] = slice;
+            }
+
+            return slices;
+        }
+
+        /**
+         * Helper method to check whether the file still has the attributes it was mapped with.
+         *
+         * @param   attributes  - the current attributes of the file
+         *
+         * @return  TRUE if the mapping is still valid, else FALSE.
+         */
+        private boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == size
+                    && attributes.lastModifiedTime().toMillis() == lastModified;
+        }
+
+    }
+
+}
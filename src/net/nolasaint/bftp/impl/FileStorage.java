@@ -0,0 +1,348 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Storage which keeps each file as a file under a root directory.
+ *
+ * Files are written to a temporary file next to their target, which is synced and renamed over
+ * the target when committed, after which the directory is synced so that the rename survives a
+ * crash. Readers of the target therefore only ever see the previous file or the complete new one.
+ * Files committed as a group are synced ahead of it by the threads which wrote them, so the
+ * group only renames them, and then syncs each directory once.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class FileStorage implements Storage {
+
+    /* TEMP_FILE_SUFFIX is appended to files that are still being written */
+    static final String TEMP_FILE_SUFFIX = ".bftp-part";
+
+    private final Path root;
+
+    /**
+     * Creates a FileStorage.
+     *
+     * @param   root    - the root directory, which need not exist yet
+     */
+    FileStorage(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /* PUBLIC MEMBERS */
+
+    @Override
+    public void close() {
+        // Holds no resources of its own
+    }
+
+    @Override
+    public IOException[] commit(List<? extends Writer> writers, boolean overwriting) {
+        IOException errors[] = new IOException[writers.size()];
+        Map<Path, IOException> directories = new LinkedHashMap<>();
+
+        // Files not synced ahead of the group must be durable before any is renamed
+        for (int i = 0; i < errors.length; i++) {
+            try {
+                ((TempFile) writers.get(i)).sync();
+            }
+            catch (IOException ioe) {
+                errors[i] = ioe;
+            }
+        }
+
+        for (int i = 0; i < errors.length; i++) {
+            TempFile writer = (TempFile) writers.get(i);
+
+            if (null == errors[i]) {
+                try {
+                    writer.rename(overwriting);
+                    directories.put(writer.target.getParent(), null);
+                }
+                catch (IOException ioe) {
+                    errors[i] = ioe;
+                }
+            }
+        }
+
+        for (Map.Entry<Path, IOException> directory : directories.entrySet()) {
+            try {
+                syncDirectory(directory.getKey());
+            }
+            catch (IOException ioe) {
+                directory.setValue(ioe);
+            }
+        }
+
+        for (int i = 0; i < errors.length; i++) {
+            if (null == errors[i]) {
+                errors[i] = directories.get(((TempFile) writers.get(i)).target.getParent());
+            }
+        }
+
+        return errors;
+    }
+
+    @Override
+    public Writer create(String key) throws IOException {
+        return new TempFile(root.resolve(key));
+    }
+
+    @Override
+    public Blob open(String key) throws IOException {
+        try {
+            return new FileBlob(FileChannel.open(root.resolve(key), StandardOpenOption.READ));
+        }
+        catch (NoSuchFileException nsfe) {
+            return null;
+        }
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to sync a directory, so that files renamed into it survive a crash.
+     *
+     * @param   directory   - the directory to sync
+     *
+     * @throws  IOException if the directory was opened but cannot be synced.
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        }
+        catch (IOException ioe) {
+            // Directories cannot be opened on every platform, which then sync renames themselves
+            return;
+        }
+
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * A file open for reading.
+     */
+    private static final class FileBlob implements Blob {
+
+        private final FileChannel file;
+
+        /**
+         * Creates a FileBlob.
+         *
+         * @param   file    - open channel of the file
+         */
+        FileBlob(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) throws IOException {
+            return file.read(buffer, position);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+    }
+
+    /**
+     * A file being written to a temporary file next to its target.
+     */
+    private static final class TempFile implements Writer {
+
+        private final Path target;
+
+        private FileChannel file;
+        private Path temp;
+
+        /**
+         * Creates the temporary file for the given target.
+         *
+         * @param   target  - absolute path of the file to create or replace
+         *
+         * @throws  IOException if the temporary file cannot be created.
+         */
+        TempFile(Path target) throws IOException {
+            this.target = target;
+
+            Files.createDirectories(target.getParent());
+
+            // Unlike Files.createTempFile(), keeps the default permissions for new files
+            Path candidate = target.resolveSibling("." + target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                    + TEMP_FILE_SUFFIX);
+
+            file = FileChannel.open(candidate, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            temp = candidate;
+        }
+
+        /**
+         * Extends the file by writing its last byte, which leaves it sparse where it can be.
+         */
+        @Override
+        public void allocate(long size) throws IOException {
+            if (size > 0) {
+                write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+
+        /**
+         * Closes the temporary file, and deletes it if the file was not committed.
+         */
+        @Override
+        public void close() {
+            if (null != file) {
+                try {
+                    file.close();
+                }
+                catch (IOException ioe) {
+                    // Nothing more can be done with this file
+                }
+
+                file = null;
+            }
+
+            if (null != temp) {
+                try {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException ioe) {
+                    // Left behind, but hidden and recognizable by its suffix
+                }
+
+                temp = null;
+            }
+        }
+
+        /**
+         * Syncs the temporary file, renames it over the target, and syncs the directory.
+         */
+        @Override
+        public void commit(boolean overwriting, boolean sync) throws IOException {
+            if (null == temp) {
+                throw new IOException("Writer is closed");
+            }
+
+            if (sync) {
+                sync();
+            }
+            else if (null != file) {
+                file.close();
+                file = null;
+            }
+
+            rename(overwriting);
+
+            if (sync) {
+                syncDirectory(target.getParent());
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+        }
+
+        /**
+         * Renames the closed temporary file over the target.
+         *
+         * When not overwriting, the file is linked to the target instead, since a rename would
+         * replace a target created after it was checked for. Linking fails atomically if the
+         * target exists, so of several uploads racing to create it, exactly one succeeds.
+         *
+         * File systems without hard links, such as FAT and many network mounts, fall back to a
+         * rename which checks for the target first. Uploads racing to create the same file there
+         * are only detected best-effort, and the last of them may replace the others.
+         *
+         * @param   overwriting - whether an existing target may be replaced
+         *
+         * @throws  FileAlreadyExistsException if the target exists, and overwriting is FALSE.
+         * @throws  IOException if the file cannot be renamed.
+         */
+        void rename(boolean overwriting) throws IOException {
+            if (overwriting) {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            else {
+                try {
+                    Files.createLink(target, temp);
+                }
+                catch (FileAlreadyExistsException faee) {
+                    throw faee;
+                }
+                catch (FileSystemException | UnsupportedOperationException e) {
+                    // Hard links are not supported here, so only check for the target first
+                    Files.move(temp, target);
+
+                    temp = null;
+                    return;
+                }
+
+                try {
+                    Files.delete(temp);
+                }
+                catch (IOException ioe) {
+                    // The file is committed; the link is left behind, hidden by its suffix
+                }
+            }
+
+            temp = null;
+        }
+
+        /**
+         * Syncs and closes the temporary file, unless it has already been synced.
+         */
+        @Override
+        public void sync() throws IOException {
+            if (null == temp) {
+                throw new IOException("Writer is closed");
+            }
+
+            if (null != file) {
+                file.force(true);
+                file.close();
+                file = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,260 @@
+package net.nolasaint.bftp.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Commits uploads in groups, so that uploads which finish close together share one sync.
+ *
+ * Each upload's file is first synced on an executor given by its caller, where the storage syncs
+ * files one at a time, so that those syncs run in parallel. Uploads are then queued and committed
+ * by a single thread. A group is every upload which was queued while the previous group was being
+ * committed, and those which arrive within WINDOW of the first, up to MAX_GROUP_SIZE. A group
+ * only waits while other uploads are still being synced, so a lone upload is committed at once.
+ * Each upload's result completes only once its whole group is durable, so acknowledging a PUT
+ * when its result completes gives the same guarantee as syncing it alone.
+ *
+ * How much a group saves depends on the storage: the pack-file store appends and syncs a whole
+ * group at once, while the filesystem store syncs each file ahead of the group, and then syncs
+ * each directory once per group rather than once per file.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class GroupCommitter {
+
+    /* MAX_GROUP_SIZE is the largest number of uploads committed as one group */
+    static final int MAX_GROUP_SIZE = 256;
+
+    /* WINDOW is how long, in nanoseconds, a group waits for more uploads after its first */
+    static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /* STOP is queued by shutdown(), after which uploads are committed by their own threads */
+    private static final Pending STOP = new Pending(null, false);
+
+    private final AtomicInteger syncing;
+    private final ServerMetrics metrics;
+    private final BlockingQueue<Pending> queue;
+
+    private boolean stopped;
+    private Thread thread;
+
+    /**
+     * Creates a GroupCommitter, whose thread is started by the first commit.
+     *
+     * @param   metrics - the metrics which count groups and the uploads in them
+     */
+    GroupCommitter(ServerMetrics metrics) {
+        this.metrics = metrics;
+
+        queue = new LinkedBlockingQueue<>();
+        syncing = new AtomicInteger();
+    }
+
+    /**
+     * Syncs an upload's file on the given executor, then queues it to be committed with the
+     * next group.
+     *
+     * The caller must not use the upload until the result has completed, and remains
+     * responsible for closing it.
+     *
+     * @param   upload      - the upload, whose file data has all been written
+     * @param   overwriting - whether an existing target may be replaced
+     * @param   executor    - runs the sync, and may run it on the calling thread
+     *
+     * @return  the result, which completes with null once the file is committed and durable, or
+     *          with the error response to send the client.
+     */
+    CompletableFuture<String> commit(Upload upload, boolean overwriting, Executor executor) {
+        syncing.incrementAndGet();
+
+        try {
+            return CompletableFuture.supplyAsync(upload::sync, executor)
+                    .handle((error, failure) -> (null != failure)
+                            ? BFTPServer.FILE_WRITE_ERROR_RESPONSE : error)
+                    .thenCompose(error -> enqueue(upload, overwriting, error));
+        }
+        catch (RejectedExecutionException ree) {
+            // Server is shutting down, so commit on this thread instead
+            syncing.decrementAndGet();
+
+            return CompletableFuture.completedFuture(upload.commit(overwriting, true));
+        }
+    }
+
+    /**
+     * Stops the committer once it has committed every upload already queued. Uploads queued
+     * afterwards are committed on their own, by the calling thread.
+     */
+    synchronized void shutdown() {
+        if (!stopped) {
+            stopped = true;
+
+            // Not interrupted, since interrupting a FileChannel operation closes the channel
+            queue.add(STOP);
+        }
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to queue an upload which has been synced, or has failed.
+     *
+     * @param   upload      - the upload
+     * @param   overwriting - whether an existing target may be replaced
+     * @param   error       - the error response to send the client, or null if the upload was
+     *                        synced
+     *
+     * @return  the result of committing the upload.
+     */
+    private CompletableFuture<String> enqueue(Upload upload, boolean overwriting, String error) {
+        Pending pending = new Pending(upload, overwriting);
+
+        try {
+            if (null != error) {
+                return CompletableFuture.completedFuture(error);
+            }
+
+            synchronized (this) {
+                if (!stopped) {
+                    if (null == thread) {
+                        thread = new Thread(this::run, "BFTP-GroupCommit");
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+
+                    queue.add(pending);
+
+                    return pending.result;
+                }
+            }
+        }
+        finally {
+            // Only once queued, so that the group it joins waits for it
+            syncing.decrementAndGet();
+        }
+
+        pending.result.complete(upload.commit(overwriting, true));
+
+        return pending.result;
+    }
+
+    /**
+     * Helper method to commit a group, in sub-groups of uploads which share a storage and
+     * overwriting flag, and complete their results.
+     *
+     * @param   group   - the uploads to commit, which is emptied
+     */
+    private void flush(List<Pending> group) {
+        metrics.groupCommitted(group.size());
+
+        while (!group.isEmpty()) {
+            List<Upload> uploads = new ArrayList<>(group.size());
+            List<Pending> committing = new ArrayList<>(group.size());
+            Pending first = group.get(0);
+            String errors[];
+
+            for (Iterator<Pending> pending = group.iterator(); pending.hasNext(); ) {
+                Pending next = pending.next();
+
+                if (next.upload.storage() == first.upload.storage()
+                        && next.overwriting == first.overwriting) {
+                    uploads.add(next.upload);
+                    committing.add(next);
+                    pending.remove();
+                }
+            }
+
+            try {
+                errors = Upload.commit(uploads, first.overwriting);
+            }
+            catch (RuntimeException re) {
+                // Results must always complete, or their connections never respond
+                errors = new String[uploads.size()];
+                Arrays.fill(errors, BFTPServer.FILE_WRITE_ERROR_RESPONSE);
+            }
+
+            for (int i = 0; i < errors.length; i++) {
+                committing.get(i).result.complete(errors[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper method to gather and commit groups, until STOP is taken.
+     */
+    private void run() {
+        List<Pending> group = new ArrayList<>(MAX_GROUP_SIZE);
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                Pending next = queue.take();
+                long deadline = System.nanoTime() + WINDOW;
+
+                while (STOP != next) {
+                    group.add(next);
+
+                    if (group.size() >= MAX_GROUP_SIZE) {
+                        break;
+                    }
+
+                    // Uploads which finished while the previous group was syncing join at once
+                    next = queue.poll();
+
+                    // Later uploads are only waited for while some are still being synced
+                    if (null == next && syncing.get() > 0) {
+                        next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    }
+
+                    if (null == next) {
+                        break;
+                    }
+                }
+
+                stopping = (STOP == next);
+            }
+            catch (InterruptedException ie) {
+                // Only stopped by STOP
+            }
+
+            if (!group.isEmpty()) {
+                flush(group);
+            }
+        }
+    }
+
+    /**
+     * An upload waiting to be committed.
+     */
+    private static final class Pending {
+
+        final boolean overwriting;
+        final CompletableFuture<String> result;
+        final Upload upload;
+
+        /**
+         * Creates a Pending upload.
+         *
+         * @param   upload      - the upload to commit
+         * @param   overwriting - whether an existing target may be replaced
+         */
+        Pending(Upload upload, boolean overwriting) {
+            this.upload = upload;
+            this.overwriting = overwriting;
+
+            result = new CompletableFuture<>();
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package net.nolasaint.bftp.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies, recorded in microseconds with bounded relative error.
+ *
+ * Values are counted in log-linear buckets, in the style of HdrHistogram: each power of two is
+ * split into SUB_BUCKETS equal buckets, so that any recorded value is reported to within
+ * 1 / SUB_BUCKETS of its true value, whatever its magnitude. Buckets are striped counters, so
+ * recording never locks, and concurrent recorders rarely contend.
+ *
+ * Reads are not atomic with respect to concurrent recording, so a percentile may reflect some
+ * values recorded after the read began.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class LatencyHistogram {
+
+    /* SUB_BUCKET_BITS is log2 of the number of buckets each power of two is split into */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /* SUB_BUCKETS is the number of buckets each power of two is split into */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final LongAdder buckets[], total;
+    private final LongAccumulator max;
+
+    /**
+     * Creates an empty LatencyHistogram.
+     */
+    LatencyHistogram() {
+        // Values below SUB_BUCKETS have a bucket each, larger powers of two have SUB_BUCKETS each
+        buckets = new LongAdder[(Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS];
+        total = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return  the count.
+     */
+    long count() {
+        long count = 0;
+
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return  the maximum, in microseconds, or 0 if none has been recorded.
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return  the mean, in microseconds, or 0 if none has been recorded.
+     */
+    double mean() {
+        long count = count();
+
+        return (0 == count) ? 0 : (double) total.sum() / count;
+    }
+
+    /**
+     * Returns the value below which the given fraction of recorded values fall.
+     *
+     * @param   fraction    - the fraction of values, between 0 and 1, e.g. 0.99
+     *
+     * @return  the highest value in the bucket holding the percentile, in microseconds, or 0 if
+     *          none has been recorded.
+     */
+    long percentile(double fraction) {
+        long counts[] = new long[buckets.length];
+        long count = 0, rank, seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        rank = Math.max(1, (long) Math.ceil(fraction * count));
+
+        for (int i = 0; i < counts.length && count > 0; i++) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param   nanos   - the latency, in nanoseconds; negative values are recorded as 0
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+        buckets[index(micros)].increment();
+        total.add(micros);
+        max.accumulate(micros);
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to find the highest value counted by a bucket.
+     *
+     * @param   index   - the index of the bucket
+     *
+     * @return  the highest value, in microseconds.
+     */
+    private static long highestValue(int index) {
+        int shift;
+
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        // Each power of two above SUB_BUCKETS doubles the width of its buckets
+        shift = index / SUB_BUCKETS - 1;
+
+        return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    /**
+     * Helper method to find the bucket which counts a value.
+     *
+     * @param   value   - a non-negative value, in microseconds
+     *
+     * @return  the index of the bucket.
+     */
+    private static int index(long value) {
+        int exponent;
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+
+        // [exponent] selects the power of two, the following SUB_BUCKET_BITS select the bucket
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+                + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+}
@@ -0,0 +1,368 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger which writes entries from a background thread.
+ *
+ * Logging threads place entries in a bounded ring buffer of preallocated slots, without locking,
+ * formatting or performing I/O. A single writer thread drains the buffer, formats each entry and
+ * flushes the output once per batch, rather than once per entry. If the buffer is full, entries
+ * are dropped rather than blocking the logging thread, and the number dropped is logged once
+ * there is room again.
+ *
+ * An entry is made of a source, a message and an optional argument, which are only concatenated
+ * by the writer thread. Entries below the logging level are discarded before being buffered, and
+ * callers which build an entry from several values should check isLoggable() first.
+ *
+ * Entries longer than MAX_WIDTH, or spanning several lines, are wrapped onto continuation lines
+ * aligned with the start of the message.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class Logger {
+
+    /* CAPACITY is the number of entries the ring buffer holds, which must be a power of two */
+    private static final int CAPACITY = 4096;
+
+    /* FLUSH_INTERVAL is how long, in nanoseconds, the writer waits for entries once idle */
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /* LINE_SEPARATOR ends each line of output */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /* MAX_WIDTH is the maximum length of a line of output, excluding its prefix and source */
+    private static final int MAX_WIDTH = 120;
+
+    /* WRITER_BUFFER_SIZE is the size, in characters, of the output buffer */
+    private static final int WRITER_BUFFER_SIZE = 16 * 1024;
+
+    private final String prefix;
+    private final Writer output;
+    private final Slot slots[];
+    private final AtomicLong dropped, tail;
+    private final StringBuilder text;
+    private final Thread writer;
+
+    private volatile boolean closed;
+    private volatile BFTPServer.LogLevel level;
+    private long head, reported;
+    private char padding[];
+
+    /**
+     * Creates a Logger, and starts its writer thread.
+     *
+     * @param   stream  - the stream to write entries to, which is flushed but never closed
+     * @param   prefix  - the String written before every entry
+     * @param   level   - the lowest level of entry which is logged
+     */
+    Logger(OutputStream stream, String prefix, BFTPServer.LogLevel level) {
+        this.prefix = prefix;
+        this.level = level;
+
+        output = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+                WRITER_BUFFER_SIZE);
+        slots = new Slot[CAPACITY];
+        dropped = new AtomicLong();
+        tail = new AtomicLong();
+        text = new StringBuilder(MAX_WIDTH);
+        padding = new char[0];
+
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+        }
+
+        writer = new Thread(this::drain, "BFTP-Logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes all buffered entries and stops the writer thread.
+     *
+     * Entries logged afterwards are written immediately by the logging thread. Entries logged
+     * while the logger is closing may be lost.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns whether entries of the given level are logged.
+     *
+     * @param   level   - the level of a prospective entry
+     *
+     * @return  TRUE if the level is at least the logging level, else FALSE.
+     */
+    boolean isLoggable(BFTPServer.LogLevel level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    /**
+     * Returns the lowest level of entry which is logged.
+     *
+     * @return  the logging level.
+     */
+    BFTPServer.LogLevel level() {
+        return level;
+    }
+
+    /**
+     * Logs an entry, unless its level is below the logging level.
+     *
+     * @param   level       - the level of the entry
+     * @param   source      - written between the prefix and the message, or null
+     * @param   message     - the message
+     * @param   argument    - written after the message, or null
+     */
+    void log(BFTPServer.LogLevel level, String source, String message, Object argument) {
+        if (!isLoggable(level)) {
+            return;
+        }
+
+        if (closed) {
+            synchronized (this) {
+                try {
+                    write(source, message, argument);
+                    output.flush();
+                }
+                catch (IOException ioe) {
+                    // Nothing more can be done with this entry
+                }
+            }
+        }
+        else if (!offer(source, message, argument)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sets the lowest level of entry which is logged.
+     *
+     * @param   level   - the logging level
+     */
+    void setLevel(BFTPServer.LogLevel level) {
+        this.level = level;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method run by the writer thread, which writes entries until the logger is closed.
+     */
+    private void drain() {
+        boolean stopping = false;
+
+        while (!stopping) {
+            boolean written = false;
+
+            // Read before draining, so that no entry buffered before close() is left behind
+            stopping = closed;
+
+            synchronized (this) {
+                try {
+                    while (poll()) {
+                        // Write the whole batch before flushing
+                        written = true;
+                    }
+
+                    if (written) {
+                        output.flush();
+                    }
+                }
+                catch (IOException ioe) {
+                    // Entries which cannot be written are discarded
+                }
+            }
+
+            // Only wait once the buffer has been found empty
+            if (!stopping && !written) {
+                LockSupport.parkNanos(this, FLUSH_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Helper method to place an entry in the ring buffer.
+     *
+     * @param   source      - written between the prefix and the message, or null
+     * @param   message     - the message
+     * @param   argument    - written after the message, or null
+     *
+     * @return  TRUE if the entry was buffered, or FALSE if the buffer is full.
+     */
+    private boolean offer(String source, String message, Object argument) {
+        Slot slot;
+        long position;
+
+        for (;;) {
+            position = tail.get();
+            slot = slots[(int) position & (slots.length - 1)];
+
+            long difference = slot.sequence - position;
+
+            if (difference < 0) {
+                // The slot still holds an entry from the previous lap
+                return false;
+            }
+
+            if (0 == difference && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+
+        slot.source = source;
+        slot.message = message;
+        slot.argument = argument;
+
+        // Publish the entry to the writer
+        slot.sequence = position + 1;
+
+        return true;
+    }
+
+    /**
+     * Helper method to write the next buffered entry, if any.
+     *
+     * Must be called by the writer thread, while holding the lock on this Logger.
+     *
+     * @return  TRUE if an entry was written, else FALSE.
+     *
+     * @throws  IOException if one is encountered while writing the entry.
+     */
+    private boolean poll() throws IOException {
+        Slot slot = slots[(int) head & (slots.length - 1)];
+        long count;
+
+        if (slot.sequence != head + 1) {
+            return false;
+        }
+
+        try {
+            write(slot.source, slot.message, slot.argument);
+        }
+        finally {
+            slot.source = null;
+            slot.message = null;
+            slot.argument = null;
+
+            // Free the slot for the next lap
+            slot.sequence = head + slots.length;
+            head++;
+        }
+
+        if (reported != (count = dropped.get())) {
+            write(null, "Dropped log entries: ", count - reported);
+            reported = count;
+        }
+
+        return true;
+    }
+
+    /**
+     * Helper method to format and write an entry.
+     *
+     * Must be called while holding the lock on this Logger.
+     *
+     * @param   source      - written between the prefix and the message, or null
+     * @param   message     - the message
+     * @param   argument    - written after the message, or null
+     *
+     * @throws  IOException if one is encountered while writing the entry.
+     */
+    private void write(String source, String message, Object argument) throws IOException {
+        int indent = prefix.length() + ((null == source) ? 0 : source.length());
+        int start = 0;
+
+        if (padding.length < indent) {
+            padding = new char[indent];
+            Arrays.fill(padding, ' ');
+        }
+
+        text.setLength(0);
+        text.append(message);
+
+        if (null != argument) {
+            text.append(argument);
+        }
+
+        output.write(prefix);
+
+        if (null != source) {
+            output.write(source);
+        }
+
+        // Each line of the message is wrapped at MAX_WIDTH
+        while (start <= text.length()) {
+            int end = text.indexOf("\n", start);
+            int offset = start;
+
+            if (end < 0) {
+                end = text.length();
+            }
+
+            do {
+                int length = Math.min(MAX_WIDTH, end - offset);
+
+                if (offset != 0) {
+                    output.write(padding, 0, indent);
+                }
+
+                output.append(text, offset, offset + length);
+                output.write(LINE_SEPARATOR);
+                offset += length;
+            }
+            while (offset < end);
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Preallocated slot of the ring buffer.
+     */
+    private static final class Slot {
+
+        private String source, message;
+        private Object argument;
+
+        /* sequence is position + 1 once the entry at position is published, and position +
+         * CAPACITY once the slot is free for the entry at that position */
+        private volatile long sequence;
+
+        /**
+         * Creates a Slot which is free for the entry at the given position.
+         *
+         * @param   position    - the position of the slot in the ring buffer
+         */
+        Slot(long position) {
+            sequence = position;
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage which holds its files on the heap, for tests and benchmarks.
+ *
+ * Each committed file is a read-only buffer, which is replaced rather than modified, so readers
+ * of a file keep reading the version they opened. Nothing is ever synced, since nothing survives
+ * the process.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class MemoryStorage implements Storage {
+
+    private final Map<String, ByteBuffer> files;
+
+    /**
+     * Creates an empty MemoryStorage.
+     */
+    MemoryStorage() {
+        files = new ConcurrentHashMap<>();
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Discards every file.
+     */
+    @Override
+    public void close() {
+        files.clear();
+    }
+
+    @Override
+    public Writer create(String key) {
+        return new StagedWriter(StagedWriter.MAX_SIZE) {
+            @Override
+            void commit(ByteBuffer data, boolean overwriting, boolean sync) throws IOException {
+                ByteBuffer content = data.slice().asReadOnlyBuffer();
+
+                if (overwriting) {
+                    files.put(key, content);
+                }
+                else if (null != files.putIfAbsent(key, content)) {
+                    throw new FileAlreadyExistsException(key);
+                }
+            }
+        };
+    }
+
+    @Override
+    public long maxFileSize() {
+        return StagedWriter.MAX_SIZE;
+    }
+
+    @Override
+    public Blob open(String key) {
+        ByteBuffer content = files.get(key);
+
+        return (null != content) ? new BufferBlob(content.duplicate()) : null;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * A file held in a buffer.
+     */
+    private static final class BufferBlob implements Blob {
+
+        private final ByteBuffer content;
+
+        /**
+         * Creates a BufferBlob.
+         *
+         * @param   content - a view of the whole file, which is not shared
+         */
+        BufferBlob(ByteBuffer content) {
+            this.content = content;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) {
+            int count;
+
+            if (position >= content.capacity()) {
+                return -1;
+            }
+
+            count = (int) Math.min(buffer.remaining(), content.capacity() - position);
+            buffer.put(buffer.position(), content, (int) position, count);
+            buffer.position(buffer.position() + count);
+
+            return count;
+        }
+
+        @Override
+        public long size() {
+            return content.capacity();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException {
+            if (position >= content.capacity()) {
+                return 0;
+            }
+
+            content.limit((int) Math.min(content.capacity(), position + count))
+                    .position((int) position);
+
+            return target.write(content);
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream which records how long its reader has been blocked, so that another thread can
+ * tell when the connection it reads from has stalled.
+ *
+ * The reader marks each point at which it begins waiting for a new request, and the stream is
+ * idle from then until the first byte of the request arrives.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class MonitoredInputStream extends FilterInputStream {
+
+    private volatile boolean blocked, idle;
+    private volatile long blockedSince;
+
+    /**
+     * Creates a MonitoredInputStream.
+     *
+     * @param   in  - the stream to read from
+     */
+    MonitoredInputStream(InputStream in) {
+        super(in);
+    }
+
+    /* PUBLIC MEMBERS */
+
+    @Override
+    public int read() throws IOException {
+        int read;
+
+        begin();
+
+        try {
+            read = super.read();
+        }
+        finally {
+            blocked = false;
+        }
+
+        idle &= read < 0;
+
+        return read;
+    }
+
+    @Override
+    public int read(byte buffer[], int offset, int length) throws IOException {
+        int read;
+
+        begin();
+
+        try {
+            read = super.read(buffer, offset, length);
+        }
+        finally {
+            blocked = false;
+        }
+
+        idle &= read <= 0;
+
+        return read;
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Marks the stream as idle until the next byte arrives, since a new request is awaited.
+     */
+    void awaitRequest() {
+        idle = true;
+    }
+
+    /**
+     * Returns how long the reader has been blocked on the stream for.
+     *
+     * @param   now - the current System.nanoTime()
+     *
+     * @return  the time, in nanoseconds, or 0 if the reader is not blocked.
+     */
+    long blockedFor(long now) {
+        long since = blockedSince;
+
+        return blocked ? now - since : 0;
+    }
+
+    /**
+     * Returns whether the reader is waiting for a new request, rather than part way through one.
+     *
+     * @return  TRUE if no byte of the next request has arrived, else FALSE.
+     */
+    boolean isIdle() {
+        return idle;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to record that the reader is about to block.
+     */
+    private void begin() {
+        blockedSince = System.nanoTime();
+        blocked = true;
+    }
+
+}
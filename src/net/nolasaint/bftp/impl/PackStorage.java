@@ -0,0 +1,704 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Storage which appends its files to a single pack file, and finds them through an index of
+ * their offsets, for stores of very many small files.
+ *
+ * Each file is staged on the heap while it is received, then appended to the pack file as one
+ * record and synced, so the pack file is only ever written sequentially. Files committed as a
+ * group are appended with a single write and synced once. Replacing a file appends a new record,
+ * and the space held by the old one is not reclaimed.
+ *
+ * The index is an open-addressing hash table from the 64-bit hash of each key to the offset of
+ * the file's latest record, in a memory-mapped file, so finding a file costs one lookup in the
+ * mapping and one read of the record header to confirm its key. The table is doubled into a new
+ * file once it is half full.
+ *
+ * The pack file is the only record of the store which must survive a crash. The index is marked
+ * clean when the store is closed, and a store opened with an index which is not clean, or is
+ * missing, has it rebuilt by reading the pack file. Records are checksummed, so a record which
+ * was only partly written when the server stopped is found and truncated.
+ *
+ * Pack file record: [magic:4][klen:2][dlen:8][crc:4][key:klen][data:dlen]
+ * Index file:       [magic:4][clean:4][slots:8][count:8][covered:8], then slots*[hash:8][offset:8]
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class PackStorage implements Storage {
+
+    /* INDEX_FILE is the name of the index, within the store's directory */
+    static final String INDEX_FILE = "objects.idx";
+
+    /* MAX_FILE_SIZE is the size, in bytes, of the largest file which may be stored */
+    static final long MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    /* PACK_FILE is the name of the pack file, within the store's directory */
+    static final String PACK_FILE = "objects.pack";
+
+    /* INDEX_HEADER_LENGTH is the size, in bytes, of the index header */
+    private static final int INDEX_HEADER_LENGTH = 32;
+
+    /* INDEX_MAGIC and RECORD_MAGIC begin the index and each record */
+    private static final int INDEX_MAGIC = 0x42465849, RECORD_MAGIC = 0x4246504B;
+
+    /* INITIAL_SLOTS and MAX_SLOTS are the numbers of slots in the tables of a new index and of
+     * the largest, which must be mapped as one buffer, each a power of two */
+    private static final long INITIAL_SLOTS = 1024, MAX_SLOTS = 1L << 26;
+
+    /* RECORD_HEADER_LENGTH is the size, in bytes, of a record before its key */
+    private static final int RECORD_HEADER_LENGTH = 18;
+
+    /* SLOT_LENGTH is the size, in bytes, of each slot of the table */
+    private static final int SLOT_LENGTH = 16;
+
+    private final Path directory;
+    private final FileChannel pack;
+    private final ReadWriteLock lock;
+
+    private boolean closed;
+    private long count, end, slots;
+    private MappedByteBuffer index;
+
+    /**
+     * Opens the store in the given directory, creating it if it does not exist.
+     *
+     * @param   directory   - the directory holding the pack file and its index
+     *
+     * @throws  IOException if the store cannot be opened.
+     */
+    PackStorage(Path directory) throws IOException {
+        this.directory = directory;
+
+        lock = new ReentrantReadWriteLock();
+
+        Files.createDirectories(directory);
+        pack = FileChannel.open(directory.resolve(PACK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            end = pack.size();
+
+            if (!load()) {
+                rebuild();
+            }
+
+            // Until closed, the index may not match the pack file after a crash
+            index.putInt(4, 0);
+            index.force();
+        }
+        catch (IOException ioe) {
+            pack.close();
+            throw ioe;
+        }
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Syncs the index and marks it clean, so that it is not rebuilt when the store is next
+     * opened.
+     *
+     * @throws  IOException if the index cannot be synced.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (pack) {
+            lock.writeLock().lock();
+
+            try {
+                if (!closed) {
+                    closed = true;
+
+                    index.putLong(24, end);
+                    index.putInt(4, 1);
+                    index.force();
+                    pack.close();
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Appends the files to the pack file with a single write, and syncs it once.
+     */
+    @Override
+    public IOException[] commit(List<? extends Writer> writers, boolean overwriting) {
+        IOException errors[] = new IOException[writers.size()];
+        List<Record> records = new ArrayList<>(writers.size());
+
+        for (int i = 0; i < errors.length; i++) {
+            PackWriter writer = (PackWriter) writers.get(i);
+
+            try {
+                records.add(new Record(writer.key, writer.take()));
+            }
+            catch (IOException ioe) {
+                errors[i] = ioe;
+                records.add(null);
+            }
+        }
+
+        append(records, overwriting, true);
+
+        for (int i = 0; i < errors.length; i++) {
+            if (null != records.get(i)) {
+                errors[i] = records.get(i).error;
+            }
+        }
+
+        return errors;
+    }
+
+    @Override
+    public Writer create(String key) {
+        return new PackWriter(key);
+    }
+
+    @Override
+    public long maxFileSize() {
+        return MAX_FILE_SIZE;
+    }
+
+    @Override
+    public Blob open(String key) throws IOException {
+        byte keyBytes[] = key.getBytes(StandardCharsets.UTF_8);
+        long offset;
+
+        lock.readLock().lock();
+
+        try {
+            if (closed) {
+                throw new IOException("Store is closed");
+            }
+
+            offset = find(keyBytes, hash(keyBytes));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return (offset < 0) ? null : blob(offset, keyBytes.length);
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to compute the hash of a key, which is never 0, since 0 marks empty slots.
+     *
+     * @param   key - the key, encoded as UTF-8
+     *
+     * @return  the hash.
+     */
+    private static long hash(byte key[]) {
+        // FNV-1a, then the MurmurHash3 finalizer so that the low bits are well mixed
+        long hash = 0xCBF29CE484222325L;
+
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+
+        return (0 != hash) ? hash : 1;
+    }
+
+    /**
+     * Helper method to append records to the pack file with a single write, sync it, and index
+     * them.
+     *
+     * A record which cannot be appended has its error set, which is a FileAlreadyExistsException
+     * if a file with its key exists, or precedes it in the group, and overwriting is FALSE.
+     *
+     * @param   records     - the records to append, in order, where null entries are skipped
+     * @param   overwriting - whether earlier files with the keys may be replaced
+     * @param   sync        - whether to sync the pack file before the records are indexed
+     */
+    private void append(List<Record> records, boolean overwriting, boolean sync) {
+        List<ByteBuffer> buffers = new ArrayList<>(3 * records.size());
+        Set<String> appended = new HashSet<>();
+
+        // Appends are serialized, and only block readers while the records are indexed
+        synchronized (pack) {
+            long offset = end;
+
+            if (closed || 2 * (count + records.size()) > MAX_SLOTS) {
+                fail(records, new IOException(closed ? "Store is closed" : "Store is full"));
+                return;
+            }
+
+            for (Record record : records) {
+                if (null == record) {
+                    continue;
+                }
+
+                try {
+                    if (!overwriting && (!appended.add(record.name)
+                            || find(record.key, record.hash) >= 0)) {
+                        throw new FileAlreadyExistsException(record.name);
+                    }
+                }
+                catch (IOException ioe) {
+                    record.error = ioe;
+                    continue;
+                }
+
+                record.offset = offset;
+                offset += record.length;
+                buffers.addAll(Arrays.asList(record.buffers));
+            }
+
+            try {
+                ByteBuffer gathered[] = buffers.toArray(new ByteBuffer[0]);
+
+                pack.position(end);
+
+                while (pack.position() < offset) {
+                    pack.write(gathered);
+                }
+
+                if (sync) {
+                    pack.force(false);
+                }
+            }
+            catch (IOException ioe) {
+                // Drop partial records, so that the next record follows the last good one
+                try {
+                    pack.truncate(end);
+                }
+                catch (IOException tioe) {
+                    // A torn record is truncated when the index is next rebuilt
+                }
+
+                fail(records, ioe);
+                return;
+            }
+
+            lock.writeLock().lock();
+
+            try {
+                for (Record record : records) {
+                    if (null != record && null == record.error) {
+                        insert(record.key, record.hash, record.offset);
+                    }
+                }
+
+                end = offset;
+            }
+            catch (IOException ioe) {
+                // The records are in the pack file, so are indexed when the index is rebuilt
+                fail(records, ioe);
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Helper method to open the data of a record as a Blob.
+     *
+     * @param   offset      - offset of the record in the pack file
+     * @param   keyLength   - the length of the record's key, in bytes
+     *
+     * @return  the data of the record.
+     *
+     * @throws  IOException if the record header cannot be read.
+     */
+    private Blob blob(long offset, int keyLength) throws IOException {
+        ByteBuffer header = readFully(offset, RECORD_HEADER_LENGTH);
+        long base = offset + RECORD_HEADER_LENGTH + keyLength;
+        long size = header.getLong(6);
+
+        return new Blob() {
+            @Override
+            public void close() {
+                // The pack file is shared, and stays open
+            }
+
+            @Override
+            public int read(ByteBuffer buffer, long position) throws IOException {
+                int limit = buffer.limit();
+
+                if (position >= size) {
+                    return -1;
+                }
+
+                buffer.limit((int) Math.min(limit, buffer.position() + size - position));
+
+                try {
+                    return pack.read(buffer, base + position);
+                }
+                finally {
+                    buffer.limit(limit);
+                }
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target)
+                    throws IOException {
+                if (position >= size) {
+                    return 0;
+                }
+
+                return pack.transferTo(base + position, Math.min(count, size - position),
+                        target);
+            }
+        };
+    }
+
+    /**
+     * Helper method to fail every record which has not already failed.
+     *
+     * @param   records - the records, where null entries are skipped
+     * @param   error   - the error of each record
+     */
+    private static void fail(List<Record> records, IOException error) {
+        for (Record record : records) {
+            if (null != record && null == record.error) {
+                record.error = error;
+            }
+        }
+    }
+
+    /**
+     * Helper method to look up the record of a key in the index.
+     *
+     * Must be called while holding a lock on the index.
+     *
+     * @param   key     - the key, encoded as UTF-8
+     * @param   hash    - the hash of the key
+     *
+     * @return  the offset of the key's latest record, or -1 if it has none.
+     *
+     * @throws  IOException if a record header cannot be read.
+     */
+    private long find(byte key[], long hash) throws IOException {
+        long mask = slots - 1;
+
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int position = INDEX_HEADER_LENGTH + (int) slot * SLOT_LENGTH;
+            long stored = index.getLong(position);
+
+            if (0 == stored) {
+                return -1;
+            }
+
+            if (hash == stored && matches(index.getLong(position + 8), key)) {
+                return index.getLong(position + 8);
+            }
+        }
+    }
+
+    /**
+     * Helper method to record the offset of a key's latest record in the index, growing the
+     * table once it is half full.
+     *
+     * Must be called while holding the write lock on the index.
+     *
+     * @param   key     - the key, encoded as UTF-8
+     * @param   hash    - the hash of the key
+     * @param   offset  - offset of the record in the pack file
+     *
+     * @throws  IOException if the table cannot be grown, or a record header cannot be read.
+     */
+    private void insert(byte key[], long hash, long offset) throws IOException {
+        long mask = slots - 1;
+
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int position = INDEX_HEADER_LENGTH + (int) slot * SLOT_LENGTH;
+            long stored = index.getLong(position);
+
+            if (0 == stored) {
+                index.putLong(position + 8, offset).putLong(position, hash);
+                index.putLong(16, ++count);
+                break;
+            }
+
+            if (hash == stored && matches(index.getLong(position + 8), key)) {
+                index.putLong(position + 8, offset);
+                break;
+            }
+        }
+
+        if (2 * count > slots && slots < MAX_SLOTS) {
+            resize(2 * slots);
+        }
+    }
+
+    /**
+     * Helper method to map an existing index, if it is clean and matches the pack file.
+     *
+     * @return  TRUE if the index was mapped, else FALSE if it must be rebuilt.
+     *
+     * @throws  IOException if one is encountered while mapping the index.
+     */
+    private boolean load() throws IOException {
+        Path path = directory.resolve(INDEX_FILE);
+        long covered;
+
+        if (!Files.isRegularFile(path) || Files.size(path) < INDEX_HEADER_LENGTH) {
+            return false;
+        }
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            index = file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+        }
+
+        slots = index.getLong(8);
+        count = index.getLong(16);
+        covered = index.getLong(24);
+
+        if (INDEX_MAGIC != index.getInt(0) || 1 != index.getInt(4) || covered != end
+                || Long.bitCount(slots) != 1
+                || index.capacity() != INDEX_HEADER_LENGTH + slots * SLOT_LENGTH) {
+            index = null;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Helper method to check whether the record at an offset has the given key.
+     *
+     * @param   offset  - offset of the record in the pack file
+     * @param   key     - the key, encoded as UTF-8
+     *
+     * @return  TRUE if the record has the key, else FALSE.
+     *
+     * @throws  IOException if the record cannot be read.
+     */
+    private boolean matches(long offset, byte key[]) throws IOException {
+        ByteBuffer record = readFully(offset, RECORD_HEADER_LENGTH + key.length);
+
+        return (record.getShort(4) & 0xFFFF) == key.length
+                && Arrays.equals(record.array(), RECORD_HEADER_LENGTH,
+                        RECORD_HEADER_LENGTH + key.length, key, 0, key.length);
+    }
+
+    /**
+     * Helper method to read part of the pack file in full.
+     *
+     * @param   offset  - offset of the first byte to read
+     * @param   length  - the number of bytes to read
+     *
+     * @return  a heap buffer holding the bytes.
+     *
+     * @throws  IOException if the bytes cannot be read, or lie beyond the end of the pack file.
+     */
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (pack.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Pack file is truncated");
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    /**
+     * Helper method to rebuild the index by reading every record of the pack file, truncating
+     * the pack file after the last record which is complete and intact.
+     *
+     * @throws  IOException if one is encountered while reading the pack file or writing the
+     *          index.
+     */
+    private void rebuild() throws IOException {
+        long offset = 0;
+        CRC32C crc = new CRC32C();
+
+        count = 0;
+        slots = 0;
+        resize(INITIAL_SLOTS);
+
+        while (offset + RECORD_HEADER_LENGTH <= end) {
+            ByteBuffer header = readFully(offset, RECORD_HEADER_LENGTH), record;
+            int keyLength = header.getShort(4) & 0xFFFF;
+            long length = header.getLong(6);
+
+            if (RECORD_MAGIC != header.getInt(0) || length < 0 || length > MAX_FILE_SIZE
+                    || offset + RECORD_HEADER_LENGTH + keyLength + length > end) {
+                break;
+            }
+
+            record = readFully(offset + RECORD_HEADER_LENGTH, keyLength + (int) length);
+            crc.reset();
+            crc.update(record.array());
+
+            if ((int) crc.getValue() != header.getInt(14)) {
+                break;
+            }
+
+            byte key[] = Arrays.copyOf(record.array(), keyLength);
+
+            insert(key, hash(key), offset);
+            offset += RECORD_HEADER_LENGTH + keyLength + length;
+        }
+
+        if (offset != end) {
+            pack.truncate(offset);
+            pack.force(true);
+            end = offset;
+        }
+    }
+
+    /**
+     * Helper method to move every entry of the index into a new table, which replaces the index
+     * file.
+     *
+     * @param   size    - the number of slots in the new table, a power of two
+     *
+     * @throws  IOException if the new index cannot be written.
+     */
+    private void resize(long size) throws IOException {
+        Path path = directory.resolve(INDEX_FILE), temp = directory.resolve(INDEX_FILE + ".new");
+        MappedByteBuffer table;
+        long mask = size - 1;
+
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            table = file.map(FileChannel.MapMode.READ_WRITE, 0,
+                    INDEX_HEADER_LENGTH + size * SLOT_LENGTH);
+        }
+
+        table.putInt(0, INDEX_MAGIC).putInt(4, 0).putLong(8, size).putLong(16, count)
+                .putLong(24, 0);
+
+        // Entries are moved by hash alone, so no record needs to be read
+        for (long slot = 0; slot < slots; slot++) {
+            int position = INDEX_HEADER_LENGTH + (int) slot * SLOT_LENGTH;
+            long hash = index.getLong(position);
+
+            if (0 != hash) {
+                long target = hash & mask;
+
+                while (0 != table.getLong(INDEX_HEADER_LENGTH + (int) target * SLOT_LENGTH)) {
+                    target = (target + 1) & mask;
+                }
+
+                table.putLong(INDEX_HEADER_LENGTH + (int) target * SLOT_LENGTH, hash)
+                        .putLong(INDEX_HEADER_LENGTH + (int) target * SLOT_LENGTH + 8,
+                                index.getLong(position + 8));
+            }
+        }
+
+        table.force();
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        index = table;
+        slots = size;
+    }
+
+    /**
+     * A file being staged for this store.
+     */
+    private final class PackWriter extends StagedWriter {
+
+        private final String key;
+
+        /**
+         * Creates an empty PackWriter.
+         *
+         * @param   key - the key of the file
+         */
+        PackWriter(String key) {
+            super(MAX_FILE_SIZE);
+
+            this.key = key;
+        }
+
+        @Override
+        void commit(ByteBuffer data, boolean overwriting, boolean sync) throws IOException {
+            Record record = new Record(key, data);
+
+            append(List.of(record), overwriting, sync);
+
+            if (null != record.error) {
+                throw record.error;
+            }
+        }
+
+    }
+
+    /**
+     * A file to be appended to the pack file, as its header, key and data.
+     */
+    private static final class Record {
+
+        final ByteBuffer buffers[];
+        final byte key[];
+        final long hash, length;
+        final String name;
+
+        IOException error;
+        long offset;
+
+        /**
+         * Creates the Record of a file.
+         *
+         * @param   name    - the key of the file
+         * @param   data    - the file, from its position to its limit
+         */
+        Record(String name, ByteBuffer data) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            CRC32C crc = new CRC32C();
+
+            this.name = name;
+
+            key = name.getBytes(StandardCharsets.UTF_8);
+            hash = hash(key);
+            length = RECORD_HEADER_LENGTH + key.length + data.remaining();
+
+            crc.update(key);
+            crc.update(data.duplicate());
+            header.putInt(RECORD_MAGIC)
+                    .putShort((short) key.length)
+                    .putLong(data.remaining())
+                    .putInt((int) crc.getValue())
+                    .flip();
+
+            buffers = new ByteBuffer[] { header, ByteBuffer.wrap(key), data };
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache of the paths requested by clients, resolved against the root directory, and of
+ * the attributes of the files they name.
+ *
+ * Resolution is purely lexical: a request path is resolved and normalized once, and is only
+ * valid if the result lies strictly below the root directory, so requests cannot escape it with
+ * ".." or absolute paths. Resolutions never go stale, and are only evicted to bound the cache.
+ *
+ * The attributes of a file are trusted for ATTRIBUTES_TTL, and a file found not to exist is
+ * trusted not to for NEGATIVE_TTL, so repeated requests for a missing file make one filesystem
+ * call per NEGATIVE_TTL rather than one each. Files replaced by a PUT are invalidated by the
+ * server, and changes made by other processes are invalidated as the DirectoryIndex's
+ * WatchService reports them, so the TTLs only bound staleness where events are late or lost.
+ *
+ * Both maps are concurrent, so that lookups from every handler and event loop neither lock nor
+ * modify shared state beyond marking an entry as used. Each holds DEFAULT_CAPACITY entries,
+ * evicting with the CLOCK approximation of least recently used: an insertion which takes a map
+ * over its capacity sweeps it, evicting entries which have not been used since the last sweep.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class PathCache {
+
+    /* DEFAULT_CAPACITY is the number of resolutions, and of file attributes, which are cached */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /* ATTRIBUTES_TTL is how long, in nanoseconds, the attributes of an existing file are trusted */
+    private static final long ATTRIBUTES_TTL = TimeUnit.SECONDS.toNanos(1);
+
+    /* MAX_CACHED_LENGTH is the length of the longest request path whose resolution is cached */
+    private static final int MAX_CACHED_LENGTH = 1024;
+
+    /* NEGATIVE_TTL is how long, in nanoseconds, a file which was not found is trusted not to
+     * exist */
+    private static final long NEGATIVE_TTL = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final AtomicLong generation;
+    private final Clock<Path, Entry> files;
+    private final Clock<String, Path> paths;
+    private final LongAdder hits, misses;
+    private final Path root;
+
+    /**
+     * Creates an empty PathCache.
+     *
+     * @param   root        - the root directory, which need not exist yet
+     * @param   capacity    - the number of resolutions, and of file attributes, to cache
+     */
+    PathCache(Path root, int capacity) {
+        this.root = root.toAbsolutePath().normalize();
+
+        generation = new AtomicLong();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        paths = new Clock<>(capacity);
+        files = new Clock<>(capacity);
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Looks up the attributes of a file, reading them if they are not cached or have expired.
+     *
+     * @param   file    - absolute, normalized path of the file, as returned by resolve()
+     *
+     * @return  the attributes of the file, or null if it does not exist or cannot be read.
+     */
+    BasicFileAttributes attributes(Path file) {
+        long now = System.nanoTime(), observed = generation.get();
+        Entry entry = files.get(file);
+
+        if (null != entry && now - entry.read < entry.ttl()) {
+            hits.increment();
+
+            return entry.attributes;
+        }
+
+        misses.increment();
+
+        try {
+            entry = new Entry(Files.readAttributes(file, BasicFileAttributes.class), now);
+        }
+        catch (IOException ioe) {
+            entry = new Entry(null, now);
+        }
+
+        files.put(file, entry);
+
+        // Attributes read across an invalidation may already be stale, so are not kept
+        if (observed != generation.get()) {
+            files.remove(file, entry);
+        }
+
+        return entry.attributes;
+    }
+
+    /**
+     * Returns the number of attribute lookups which were answered from the cache.
+     *
+     * @return  the hit count.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Removes the cached attributes of a file which has changed.
+     *
+     * @param   file    - absolute, normalized path of the file or directory
+     * @param   tree    - whether a directory was created or removed at the path, in which case
+     *                    the attributes of everything below it are removed as well
+     */
+    void invalidate(Path file, boolean tree) {
+        // Before removing, so that attributes read before this are not put back afterwards
+        generation.incrementAndGet();
+
+        if (tree) {
+            files.removeIf(key -> key.startsWith(file));
+        }
+        else {
+            files.remove(file);
+        }
+    }
+
+    /**
+     * Returns the number of attribute lookups which were not answered from the cache.
+     *
+     * @return  the miss count.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Resolves a request path against the root directory.
+     *
+     * @param   requestPath - the path received from the client
+     *
+     * @return  the absolute, normalized path, or null if it is invalid or does not lie strictly
+     *          below the root directory.
+     */
+    Path resolve(String requestPath) {
+        Path path;
+
+        if (requestPath.length() > MAX_CACHED_LENGTH) {
+            path = resolveUncached(requestPath);
+        }
+        else if (null == (path = paths.get(requestPath))) {
+            path = resolveUncached(requestPath);
+            paths.put(requestPath, path);
+        }
+
+        // The root directory itself marks paths which are not valid
+        return (root != path) ? path : null;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to resolve a request path without the cache.
+     *
+     * @param   requestPath - the path received from the client
+     *
+     * @return  the absolute, normalized path, or the root directory if it is not valid.
+     */
+    private Path resolveUncached(String requestPath) {
+        Path path;
+
+        try {
+            path = root.resolve(requestPath).normalize();
+        }
+        catch (InvalidPathException ipe) {
+            return root;
+        }
+
+        return (path.startsWith(root) && !path.equals(root)) ? path : root;
+    }
+
+    /**
+     * Concurrent map which evicts entries that have not been used recently once it holds more
+     * than its capacity.
+     */
+    private static final class Clock<K, V> {
+
+        private final int capacity;
+        private final Map<K, Node<V>> entries;
+
+        /* Guarded by this, and only used while sweeping */
+        private Iterator<Map.Entry<K, Node<V>>> hand;
+
+        /**
+         * Creates an empty Clock.
+         *
+         * @param   capacity    - the number of entries to hold
+         */
+        Clock(int capacity) {
+            this.capacity = capacity;
+
+            entries = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Looks up the value of a key, marking it as used.
+         *
+         * @param   key - the key
+         *
+         * @return  the value, or null if the key is not held.
+         */
+        V get(K key) {
+            Node<V> node = entries.get(key);
+
+            if (null == node) {
+                return null;
+            }
+
+            // Only written when clear, so that hot entries do not bounce between caches
+            if (!node.used) {
+                node.used = true;
+            }
+
+            return node.value;
+        }
+
+        /**
+         * Maps a key to a value, sweeping out unused entries if the map is over its capacity.
+         *
+         * @param   key     - the key
+         * @param   value   - the value
+         */
+        void put(K key, V value) {
+            entries.put(key, new Node<>(value));
+
+            if (entries.size() > capacity) {
+                sweep();
+            }
+        }
+
+        /**
+         * Removes a key.
+         *
+         * @param   key - the key
+         */
+        void remove(K key) {
+            entries.remove(key);
+        }
+
+        /**
+         * Removes a key, if it still maps to the given value.
+         *
+         * @param   key     - the key
+         * @param   value   - the value
+         */
+        void remove(K key, V value) {
+            entries.computeIfPresent(key, (k, node) -> (value == node.value) ? null : node);
+        }
+
+        /**
+         * Removes every key which matches a predicate.
+         *
+         * @param   filter  - the predicate
+         */
+        void removeIf(Predicate<? super K> filter) {
+            entries.keySet().removeIf(filter);
+        }
+
+        /**
+         * Helper method to advance the hand around the map until it is within its capacity,
+         * clearing the marks of used entries and evicting unused ones.
+         */
+        private synchronized void sweep() {
+            // Bounded, since lookups may keep re-marking entries as the hand passes them
+            for (int swept = 0; entries.size() > capacity; swept++) {
+                Map.Entry<K, Node<V>> entry;
+
+                if (null == hand || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+
+                entry = hand.next();
+
+                if (entry.getValue().used && swept < 2 * capacity) {
+                    entry.getValue().used = false;
+                }
+                else {
+                    entries.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The attributes of a file, and when they were read.
+     */
+    private static final class Entry {
+
+        private final BasicFileAttributes attributes;
+        private final long read;
+
+        /**
+         * Creates an Entry.
+         *
+         * @param   attributes  - the attributes of the file, or null if it does not exist
+         * @param   read        - System.nanoTime() before the attributes were read
+         */
+        Entry(BasicFileAttributes attributes, long read) {
+            this.attributes = attributes;
+            this.read = read;
+        }
+
+        /**
+         * Returns how long the entry is trusted for.
+         *
+         * @return  ATTRIBUTES_TTL if the file exists, else NEGATIVE_TTL.
+         */
+        long ttl() {
+            return (null != attributes) ? ATTRIBUTES_TTL : NEGATIVE_TTL;
+        }
+
+    }
+
+    /**
+     * A value held by a Clock, and whether it has been used since the hand last passed it.
+     */
+    private static final class Node<V> {
+
+        private final V value;
+
+        private volatile boolean used;
+
+        /**
+         * Creates an unused Node.
+         *
+         * @param   value   - the value
+         */
+        Node(V value) {
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,2092 @@
+package net.nolasaint.bftp.impl;
+
+import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+import net.nolasaint.bftp.impl.BFTPServer.LogLevel;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking engine for BFTPServer.
+ *
+ * Accepted connections are distributed round-robin over a fixed pool of event loops, each of
+ * which multiplexes its connections with a Selector. Each of the server's acceptors has its own
+ * share of the loops. Requests are parsed incrementally as bytes arrive, PUT content and stripe
+ * data are streamed into an Upload, and GET responses are sent from the file with
+ * Blob.transferTo(), waiting for write readiness whenever the socket buffer is full.
+ *
+ * Each connection is still handled in lock-step: no further requests are parsed from a
+ * connection until the response to its current request has been written. A rate limited response
+ * which must wait for bandwidth stops selecting for writes, and its event loop wakes to resume it
+ * once the wait is over. Each loop also checks its connections against the server's idle and read
+ * timeouts every REAP_INTERVAL.
+ *
+ * NOTE: Reading and writing files runs on the event loop. Committing a PUT, which may sync the
+ * file, runs on the server's request executor or group committer, and the files of an X_BATCH
+ * request are read ahead on the request executor. Either way, the connection is resumed on its
+ * event loop once the work is done.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class SelectorEngine {
+
+    /* BUFFER_SIZE is the initial size of each connection's read buffer, which grows to fit
+     * buffered content up to the server's maximum frame size */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* SHUTDOWN_POLL_INTERVAL is how often, in milliseconds, a stopping event loop checks whether
+     * all of its connections have closed */
+    private static final long SHUTDOWN_POLL_INTERVAL = 100;
+
+    private final BFTPServer server;
+    private final BufferPool bufferPool;
+    private final EventLoop loops[];
+
+    /* Only accessed by the acceptor each element belongs to */
+    private final int nextLoop[];
+
+    private boolean started;
+
+    /**
+     * Creates a SelectorEngine for the given server.
+     *
+     * The event loops are shared out between the server's acceptors, so that acceptor i hands
+     * its connections to loops i, i + acceptorCount, and so on, without coordinating with the
+     * other acceptors.
+     *
+     * @param   server          - the server whose requests this engine handles
+     * @param   loopCount       - the number of event loops to run, at least acceptorCount
+     * @param   acceptorCount   - the number of threads which accept connections
+     *
+     * @throws  IOException if a Selector cannot be opened.
+     */
+    SelectorEngine(BFTPServer server, int loopCount, int acceptorCount) throws IOException {
+        this.server = server;
+
+        bufferPool = server.bufferPool();
+        loops = new EventLoop[Math.max(acceptorCount, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+
+        nextLoop = new int[acceptorCount];
+        for (int i = 0; i < nextLoop.length; i++) {
+            nextLoop[i] = i;
+        }
+    }
+
+    /**
+     * Hands an accepted connection to the next of the acceptor's event loops.
+     *
+     * Must only be called from the thread of the given acceptor.
+     *
+     * @param   channel     - the accepted client channel
+     * @param   clientID    - identification string for the client
+     * @param   acceptor    - index of the acceptor which accepted the connection
+     *
+     * @throws  IOException if the channel cannot be made non-blocking.
+     */
+    void register(SocketChannel channel, String clientID, int acceptor) throws IOException {
+        int next = nextLoop[acceptor] + nextLoop.length;
+
+        channel.configureBlocking(false);
+
+        loops[nextLoop[acceptor]].register(new Connection(channel, clientID));
+        nextLoop[acceptor] = (next < loops.length) ? next : acceptor;
+    }
+
+    /**
+     * Notifies all event loops to close their connections gracefully, and to exit once they have
+     * no connections left.
+     */
+    void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    /**
+     * Starts the event loop threads, if they have not already been started.
+     */
+    synchronized void start() {
+        if (!started) {
+            for (EventLoop loop : loops) {
+                Thread thread = new Thread(loop, "BFTP-EventLoop-" + loop.index);
+
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            started = true;
+        }
+    }
+
+    /**
+     * Selector-driven loop which handles a subset of the server's connections.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final int index;
+        private final Queue<Connection> pending, resumed, waiting;
+        private final Selector selector;
+
+        private long reaped;
+        private volatile boolean stopping;
+
+        /**
+         * Creates an EventLoop with its own Selector.
+         *
+         * @param   index   - position of this loop in the pool, used for naming its thread
+         *
+         * @throws  IOException if the Selector cannot be opened.
+         */
+        EventLoop(int index) throws IOException {
+            this.index = index;
+
+            pending = new ConcurrentLinkedQueue<>();
+            resumed = new ConcurrentLinkedQueue<>();
+            selector = Selector.open();
+
+            // Only accessed by this loop's thread, earliest deadline first
+            waiting = new PriorityQueue<>(
+                    (first, second) -> Long.signum(first.waitingUntil - second.waitingUntil));
+        }
+
+        @Override
+        public void run() {
+            while (!(stopping && pending.isEmpty() && selector.keys().isEmpty())) {
+                try {
+                    // Keys of closed connections are only removed by select, so poll when stopping
+                    long timeout = stopping ? SHUTDOWN_POLL_INTERVAL : 0;
+
+                    if (0 != server.getIdleTimeout() || 0 != server.getReadTimeout()) {
+                        timeout = (0 == timeout) ? BFTPServer.REAP_INTERVAL
+                                : Math.min(timeout, BFTPServer.REAP_INTERVAL);
+                    }
+
+                    // Wake in time to resume the first connection waiting for bandwidth
+                    if (!waiting.isEmpty()) {
+                        long delay = Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+                                waiting.peek().waitingUntil - System.nanoTime()) + 1);
+
+                        timeout = (0 == timeout) ? delay : Math.min(timeout, delay);
+                    }
+
+                    if (0 != timeout) {
+                        selector.select(timeout);
+                    }
+                    else {
+                        selector.select();
+                    }
+                }
+                catch (IOException ioe) {
+                    server.log(LogLevel.ERROR, "Event loop " + index
+                            + " encountered IOException while selecting");
+
+                    break;
+                }
+
+                registerPending();
+                resumePending();
+                resumeWaiting();
+                reapStalled();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    Connection connection = (Connection) key.attachment();
+
+                    keys.remove();
+
+                    try {
+                        connection.handle(key);
+                    }
+                    catch (IOException ioe) {
+                        connection.log(LogLevel.WARNING,
+                                "Encountered IOException, closing connection");
+                        connection.close();
+                    }
+                }
+
+                if (stopping) {
+                    for (SelectionKey key : selector.keys()) {
+                        Connection connection = (Connection) key.attachment();
+
+                        try {
+                            connection.stop();
+                        }
+                        catch (IOException ioe) {
+                            connection.close();
+                        }
+                    }
+                }
+            }
+
+            try {
+                selector.close();
+            }
+            catch (IOException ioe) {
+                // Nothing more can be done with this selector
+            }
+        }
+
+        /**
+         * Pauses a connection until it may send the next bytes of its response.
+         *
+         * Must only be called from this loop's thread.
+         *
+         * @param   connection  - the connection to pause
+         * @param   nanos       - how long, in nanoseconds, the connection must wait
+         */
+        void delay(Connection connection, long nanos) {
+            connection.waitingUntil = System.nanoTime() + nanos;
+            waiting.add(connection);
+        }
+
+        /**
+         * Queues a connection to be registered with this loop's Selector.
+         *
+         * @param   connection  - the connection to register
+         */
+        void register(Connection connection) {
+            connection.loop = this;
+
+            pending.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Queues a connection whose batch is waiting for a file to be resumed by this loop.
+         *
+         * May be called from any thread.
+         *
+         * @param   connection  - the connection to resume
+         */
+        void resume(Connection connection) {
+            resumed.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Notifies this loop to close its connections gracefully.
+         */
+        void stop() {
+            stopping = true;
+            selector.wakeup();
+        }
+
+        /**
+         * Helper method to close the connections which have exceeded the server's idle or read
+         * timeout, at most once every REAP_INTERVAL.
+         */
+        private void reapStalled() {
+            long now = System.nanoTime();
+            long idle = TimeUnit.MILLISECONDS.toNanos(server.getIdleTimeout());
+            long read = TimeUnit.MILLISECONDS.toNanos(server.getReadTimeout());
+
+            if (now - reaped < TimeUnit.MILLISECONDS.toNanos(BFTPServer.REAP_INTERVAL)
+                    || (0 == idle && 0 == read)) {
+                return;
+            }
+
+            reaped = now;
+
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+
+                try {
+                    connection.reap(now, idle, read);
+                }
+                catch (IOException ioe) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Helper method to register the connections queued by register() with the Selector.
+         */
+        private void registerPending() {
+            Connection connection;
+
+            while (null != (connection = pending.poll())) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ,
+                            connection);
+
+                    connection.log(LogLevel.INFO, "Handling client connection");
+                }
+                catch (ClosedChannelException cce) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Helper method to resume the connections queued by resume().
+         */
+        private void resumePending() {
+            Connection connection;
+
+            while (null != (connection = resumed.poll())) {
+                try {
+                    connection.resume();
+                }
+                catch (IOException ioe) {
+                    connection.log(LogLevel.WARNING,
+                            "Encountered IOException, closing connection");
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Helper method to resume the connections paused by delay() whose wait is over.
+         */
+        private void resumeWaiting() {
+            long now = System.nanoTime();
+
+            while (!waiting.isEmpty() && waiting.peek().waitingUntil - now <= 0) {
+                Connection connection = waiting.poll();
+
+                try {
+                    connection.proceed();
+                }
+                catch (IOException ioe) {
+                    connection.log(LogLevel.WARNING,
+                            "Encountered IOException, closing connection");
+                    connection.close();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * State of a single client connection, advanced by its event loop.
+     */
+    private final class Connection {
+
+        /* PARSER STATES */
+        private static final int HEADER   = 0; // awaiting csize and opcode
+        private static final int CONTENT  = 1; // awaiting buffered content
+        private static final int PUT_PLEN = 2; // awaiting PUT path length
+        private static final int PUT_PATH = 3; // awaiting PUT path
+        private static final int PUT_DATA = 4; // streaming PUT or stripe file data
+        private static final int STRIPE_PREFIX = 5; // awaiting the fields before stripe data
+
+        /* STRIPE_PREFIX_LENGTH is the length of the xop, stage, token and offset of STRIPE_DATA */
+        private static final int STRIPE_PREFIX_LENGTH = BFTP.XOP_LENGTH + BFTP.STAGE_LENGTH
+                + BFTP.TOKEN_LENGTH + BFTP.OFFSET_LENGTH;
+
+        private final InetAddress address;
+        private final String clientID;
+        private final SocketChannel channel;
+
+        private boolean bulk, closed, closing, compressed, finSent, limited, responding, striping;
+        private boolean writing;
+        private byte conditionalHash[];
+        private byte opcode, timed;
+        private int maxFrameSize, plen, state;
+        private long allowance, csize, fileEnd, filePosition, remaining, waitingUntil;
+        private long active, commitStarted, diskTime, received, sending, started;
+        private BatchReader batch;
+        private ByteBuffer body, input, output;
+        private CompletableFuture<ByteBuffer> compressing;
+        private CompletableFuture<byte[]> hashing, listing;
+        private CompletableFuture<String> committing, committingStripes;
+        private DirectoryIndex.Entry conditionalEntry;
+        private EventLoop loop;
+        private Storage.Blob file;
+        private Path compressingTarget, conditionalTarget, putTarget;
+        private SelectionKey key;
+        private String putError;
+        private StripedUpload.Stripe stripe;
+        private TrafficShaper.Throttle throttle;
+        private Upload upload;
+
+        /**
+         * Creates the state for a newly accepted connection.
+         *
+         * @param   channel     - the non-blocking client channel
+         * @param   clientID    - identification string for the client
+         */
+        Connection(SocketChannel channel, String clientID) {
+            this.channel = channel;
+            this.clientID = "CH_" + clientID + "> ";
+            address = channel.socket().getInetAddress();
+
+            input = ByteBuffer.allocate(BUFFER_SIZE);
+            maxFrameSize = server.getMaxFrameSize();
+            state = HEADER;
+            throttle = server.shaper().open(address);
+            active = System.nanoTime();
+
+            server.metrics().handlerOpened();
+        }
+
+        /**
+         * Closes the connection and releases any file it is using.
+         */
+        void close() {
+            if (!closed) {
+                closed = true;
+                server.metrics().handlerClosed();
+                server.connectionClosed(address);
+                throttle.close();
+            }
+
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                // Nothing more can be done with this channel
+            }
+
+            if (null != file) {
+                try {
+                    file.close();
+                }
+                catch (IOException ioe) {
+                    // Nothing more can be done with this file
+                }
+
+                file = null;
+            }
+
+            if (null != upload) {
+                Upload closing = upload;
+
+                // An upload being committed off the event loop is closed once committed
+                if (null != committing) {
+                    committing.thenRun(closing::close);
+                }
+                else {
+                    closing.close();
+                }
+
+                upload = null;
+            }
+
+            if (null != stripe) {
+                stripe.finish();
+                stripe = null;
+            }
+
+            if (null != batch) {
+                batch.close();
+                batch = null;
+            }
+
+            releaseOutput();
+            body = null;
+
+            log(LogLevel.INFO, "Closed connection with client");
+        }
+
+        /**
+         * Handles the ready operations of this connection's SelectionKey.
+         *
+         * @param   key - the selected key of this connection
+         *
+         * @throws  IOException if one is encountered while reading from or writing to the socket.
+         */
+        void handle(SelectionKey key) throws IOException {
+            if (key.isValid() && key.isWritable()) {
+                send();
+
+                // Requests may have arrived while the response was being written
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                if (channel.read(input) < 0) {
+                    log(LogLevel.INFO, "Client closed connection");
+                    close();
+
+                    return;
+                }
+
+                active = System.nanoTime();
+                process();
+            }
+        }
+
+        /**
+         * Helper method to log connection output, prefixed with the clientID String.
+         *
+         * @param   level   - the level of the entry
+         * @param   entry   - String that will be logged
+         */
+        void log(LogLevel level, String entry) {
+            server.log(level, clientID, entry, null);
+        }
+
+        /**
+         * Helper method to log connection output, prefixed with the clientID String.
+         *
+         * @param   level       - the level of the entry
+         * @param   entry       - String that will be logged
+         * @param   argument    - Object appended to the entry by the Logger
+         */
+        void log(LogLevel level, String entry, Object argument) {
+            server.log(level, clientID, entry, argument);
+        }
+
+        /**
+         * Continues sending a response which was waiting for bandwidth.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        void proceed() throws IOException {
+            if (channel.isOpen()) {
+                send();
+
+                // Requests may have arrived while the response was being written
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+        }
+
+        /**
+         * Closes the connection if it has been waiting for a request for longer than the idle
+         * timeout, or stalled part way through receiving one for longer than the read timeout.
+         *
+         * An idle connection is closed gracefully, with FIN, while a stalled one is closed at
+         * once. Connections which are sending a response are never reaped.
+         *
+         * @param   now         - the current System.nanoTime()
+         * @param   idleTimeout - the idle timeout, in nanoseconds, or 0 for none
+         * @param   readTimeout - the read timeout, in nanoseconds, or 0 for none
+         *
+         * @throws  IOException if one is encountered while sending the closing FIN.
+         */
+        void reap(long now, long idleTimeout, long readTimeout) throws IOException {
+            if (responding || closing || !channel.isOpen()) {
+                return;
+            }
+
+            if (HEADER == state && 0 == input.position()) {
+                if (0 != idleTimeout && now - active > idleTimeout) {
+                    server.metrics().reaped();
+                    log(LogLevel.INFO, "Connection was idle for too long, closing it");
+
+                    stop();
+                }
+            }
+            else if (0 != readTimeout && now - active > readTimeout) {
+                server.metrics().reaped();
+                log(LogLevel.WARNING, "Request stalled for too long, closing connection");
+
+                close();
+            }
+        }
+
+        /**
+         * Continues a PUT or striped upload whose file has been committed, a GET whose file has been
+         * compressed, a conditional GET whose file has been hashed, a listing which has been built,
+         * or sending a batch whose next file has been loaded.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        void resume() throws IOException {
+            if (null != committing && committing.isDone() && channel.isOpen()) {
+                responding = false;
+
+                completePut();
+
+                // Requests may have arrived while the PUT was being committed
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            if (null != compressing && compressing.isDone() && channel.isOpen()) {
+                ByteBuffer variant = compressing.join();
+
+                responding = false;
+                compressing = null;
+
+                sendRequestedFile(compressingTarget, variant);
+
+                compressingTarget = null;
+
+                // Requests may have arrived while the file was being compressed
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            if (null != hashing && hashing.isDone() && channel.isOpen()) {
+                byte current[] = hashing.join();
+
+                responding = false;
+                hashing = null;
+
+                sendConditional(conditionalTarget, conditionalEntry, conditionalHash, current);
+
+                conditionalEntry = null;
+                conditionalHash = null;
+                conditionalTarget = null;
+
+                // Requests may have arrived while the file was being hashed
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            if (null != listing && listing.isDone() && channel.isOpen()) {
+                byte content[] = listing.join();
+
+                responding = false;
+                listing = null;
+
+                sendListing(content);
+
+                // Requests may have arrived while the listing was being built
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            if (null != committingStripes && committingStripes.isDone() && channel.isOpen()) {
+                responding = false;
+
+                completeStripes();
+
+                // Requests may have arrived while the upload was being committed
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+
+            // Only a batch which is waiting for its next file is resumed
+            if (null != batch && channel.isOpen() && null == output && null == body
+                    && null == file) {
+                sendBatch();
+
+                // Requests may have arrived while the batch was being sent
+                if (!responding && channel.isOpen() && input.position() > 0) {
+                    process();
+                }
+            }
+        }
+
+        /**
+         * Notifies the connection to close gracefully, once it is not processing a request.
+         *
+         * @throws  IOException if one is encountered while sending the closing FIN.
+         */
+        void stop() throws IOException {
+            if (!closing) {
+                closing = true;
+
+                log(LogLevel.INFO, "Will close after handling current command");
+
+                // Only close immediately if no part of a request has been received
+                if (!responding && HEADER == state && 0 == input.position()) {
+                    send();
+                }
+            }
+        }
+
+        /**
+         * Helper method to reserve the next bytes of the response, if the connection is rate
+         * limited and has written all of the bytes it reserved before.
+         *
+         * Only the first chunk of a response may be small, so that the last chunk of a bulk
+         * response still waits on the shared limits.
+         *
+         * @return  TRUE if bytes may be written now, else FALSE if the connection must wait, in
+         *          which case its event loop resumes it once the wait is over.
+         */
+        private boolean permit() {
+            long pending, wait;
+
+            if (!(limited = throttle.isLimited()) || allowance > 0) {
+                return true;
+            }
+
+            pending = ((null != output) ? output.remaining() : 0)
+                    + ((null != body) ? body.remaining() : 0)
+                    + ((null != file) ? fileEnd - filePosition : 0);
+
+            if (0 == pending) {
+                return true;
+            }
+
+            allowance = Math.min(pending, TrafficShaper.CHUNK_SIZE);
+            wait = throttle.reserve(allowance, !bulk && pending <= TrafficShaper.CHUNK_SIZE);
+            bulk = true;
+
+            if (wait > 0) {
+                key.interestOps(0);
+                loop.delay(this, wait);
+
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Helper method to parse and dispatch as many buffered requests as possible.
+         *
+         * Parsing pauses while a response is being written, preserving lock-step handling.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void process() throws IOException {
+            input.flip();
+
+            try {
+                // Once closing, finish the current request but do not begin another
+                while (!responding && channel.isOpen() && !(closing && HEADER == state)) {
+                    if (HEADER == state) {
+                        if (input.remaining() < BFTP.HEADER_LENGTH
+                                || input.remaining() < FrameCodec.headerLength(input,
+                                        input.position())) {
+                            break;
+                        }
+
+                        csize = FrameCodec.csize(input, input.position());
+                        opcode = FrameCodec.opcode(input, input.position());
+                        received = System.nanoTime();
+
+                        server.metrics().received(FrameCodec.headerLength(input, input.position())
+                                + Math.max(0, csize));
+                        input.position(input.position()
+                                + FrameCodec.headerLength(input, input.position()));
+
+                        // Determine if CMP bit is set, which only applies to GET and PUT
+                        compressed = FrameCodec.isSet(opcode, BFTP.CMP);
+
+                        if (compressed && (BFTP.GET | BFTP.CMP) != opcode
+                                && (BFTP.PUT | BFTP.CMP) != opcode) {
+                            compressed = false;
+                        }
+                        else {
+                            opcode &= ~BFTP.CMP;
+                        }
+
+                        server.metrics().request(opcode);
+
+                        if (BFTP.PUT == opcode) {
+                            state = PUT_PLEN;
+                        }
+                        else if (BFTP.EXT == opcode && csize > maxFrameSize
+                                && csize >= STRIPE_PREFIX_LENGTH) {
+                            // Only stripe data may exceed it, being streamed to disk like PUT
+                            state = STRIPE_PREFIX;
+                        }
+                        else if (csize < 0 || csize > maxFrameSize) {
+                            respondOversized();
+                        }
+                        else {
+                            if (csize > input.capacity()) {
+                                ByteBuffer larger = ByteBuffer.allocate((int) csize);
+
+                                larger.put(input);
+                                larger.flip();
+                                input = larger;
+                            }
+
+                            state = CONTENT;
+                        }
+                    }
+                    else if (CONTENT == state) {
+                        if (input.remaining() < csize) {
+                            break;
+                        }
+
+                        int end = input.position() + (int) csize, limit = input.limit();
+
+                        // Dispatch a view of the content, without copying it
+                        input.limit(end);
+                        state = HEADER;
+
+                        try {
+                            dispatch(input);
+                        }
+                        finally {
+                            input.limit(limit).position(end);
+                        }
+                    }
+                    else if (PUT_PLEN == state) {
+                        if (input.remaining() < BFTP.PLEN_LENGTH) {
+                            break;
+                        }
+
+                        // [0,1] ~ plen, [2,plen+1] ~ path, remainder ~ file data
+                        plen = input.getShort() & 0xFFFF;
+                        remaining = csize - BFTP.PLEN_LENGTH - plen;
+
+                        if (remaining < 0) {
+                            throw new IOException("PUT path length exceeds content size");
+                        }
+
+                        state = PUT_PATH;
+                    }
+                    else if (PUT_PATH == state) {
+                        if (input.remaining() < plen) {
+                            break;
+                        }
+
+                        int end = input.position() + plen, limit = input.limit();
+
+                        input.limit(end);
+                        beginPut(BFTPServer.bytesToString(input));
+                        input.limit(limit).position(end);
+
+                        state = PUT_DATA;
+                    }
+                    else if (STRIPE_PREFIX == state) {
+                        if (input.remaining() < STRIPE_PREFIX_LENGTH) {
+                            break;
+                        }
+
+                        // [0] ~ xop, [1] ~ stage, [2,9] ~ token, [10,17] ~ offset, then data
+                        if (BFTP.X_STRIPE != input.get() || BFTP.STRIPE_DATA != input.get()) {
+                            state = HEADER;
+
+                            respondOversized();
+                        }
+                        else {
+                            long token = input.getLong(), offset = input.getLong();
+
+                            remaining = csize - STRIPE_PREFIX_LENGTH;
+                            beginStripe(token, offset, remaining);
+
+                            state = PUT_DATA;
+                        }
+                    }
+                    else {
+                        int count = (int) Math.min(remaining, input.remaining());
+                        int limit = input.limit();
+
+                        input.limit(input.position() + count);
+
+                        if (null != upload) {
+                            long writing = System.nanoTime();
+
+                            upload.write(input);
+                            diskTime += System.nanoTime() - writing;
+                        }
+                        else if (null != stripe) {
+                            stripe.write(input);
+                        }
+                        else {
+                            input.position(input.limit());
+                        }
+
+                        input.limit(limit);
+                        remaining -= count;
+
+                        if (remaining > 0) {
+                            break;
+                        }
+
+                        state = HEADER;
+
+                        if (striping) {
+                            finishStripe();
+                        }
+                        else {
+                            finishPut();
+                        }
+                    }
+                }
+            }
+            finally {
+                input.compact();
+            }
+        }
+
+        /**
+         * Helper method to wait, neither reading nor writing, for work running off the event
+         * loop, which resumes the connection once it completes.
+         *
+         * @param   work    - the work being waited for
+         */
+        private void await(CompletableFuture<?> work) {
+            responding = true;
+            key.interestOps(0);
+            work.thenRun(() -> loop.resume(this));
+        }
+
+        /**
+         * Helper method to begin handling a PUT request whose path has been received.
+         *
+         * @param   requestPath - the path received from the client
+         */
+        private void beginPut(String requestPath) {
+            Path target = server.resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received PUT request from client:\n> PUT ", requestPath);
+
+            started = System.nanoTime();
+            timed = BFTP.PUT;
+            diskTime = 0;
+
+            if (null == target) {
+                putError = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!server.isOverwriting() && server.fileExists(target)) {
+                putError = BFTPServer.FILE_ALREADY_EXISTS_RESPONSE;
+
+                log(LogLevel.DEBUG, "File already exists, server is non-overwriting");
+            }
+            else {
+                putError = null;
+                putTarget = target;
+                upload = server.newUpload(target, compressed);
+            }
+        }
+
+        /**
+         * Helper method to begin handling a STRIPE_DATA request whose fields have been received.
+         *
+         * @param   token   - the token of the upload
+         * @param   offset  - position in the file of the first byte of the stripe
+         * @param   length  - the number of bytes in the stripe
+         */
+        private void beginStripe(long token, long offset, long length) {
+            StripedUpload upload = server.stripedUpload(token);
+
+            if (server.isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Received STRIPE_DATA from client:\n> X_STRIPE "
+                        + Long.toHexString(token) + " [" + offset + ", +" + length + "]");
+            }
+
+            striping = true;
+            stripe = (null != upload) ? upload.begin(offset, length) : null;
+
+            if (null == stripe) {
+                putError = (null == upload) ? BFTPServer.UNKNOWN_UPLOAD_RESPONSE
+                        : BFTPServer.INVALID_RANGE_RESPONSE;
+            }
+        }
+
+        /**
+         * Helper method to respond to a PUT request whose file has been committed, or has failed.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void completePut() throws IOException {
+            String error = putError;
+
+            if (null != upload) {
+                error = committing.join();
+                diskTime += System.nanoTime() - commitStarted;
+
+                committing = null;
+                upload.close();
+                upload = null;
+            }
+
+            if (null == error) {
+                server.fileStored(putTarget);
+
+                log(LogLevel.DEBUG, "Received file from client");
+
+                respond((byte) (BFTP.PUT | BFTP.RSP), BFTPServer.EMPTY_CONTENT);
+            }
+            else {
+                log(LogLevel.WARNING, "Failed to store file: ", error);
+
+                respond((byte) (BFTP.PUT | BFTP.RSP | BFTP.ERR), server.errorContent(error));
+            }
+        }
+
+        /**
+         * Helper method to respond to a STRIPE_COMMIT request whose upload has been committed, or
+         * has failed.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void completeStripes() throws IOException {
+            String error = committingStripes.join();
+
+            committingStripes = null;
+
+            log(LogLevel.DEBUG, (null == error) ? "Committed striped upload"
+                    : "Failed to commit striped upload: " + error);
+
+            respondStripe(BFTP.STRIPE_COMMIT, 0, error);
+        }
+
+        /**
+         * Helper method to dispatch a request whose content has been buffered.
+         *
+         * @param   content - view of the content field
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void dispatch(ByteBuffer content) throws IOException {
+            // Determine if FIN bit is set
+            if ((opcode & BFTP.FIN) != 0) {
+                log(LogLevel.INFO, "FIN bit was set, closing connection");
+
+                closing = true;
+            }
+
+            switch (opcode) {
+                case BFTP.GET:
+                    handleGet(content);
+                    break;
+
+                case BFTP.FIN:
+                    send();
+                    break;
+
+                case BFTP.EXT:
+                    handleExtended(content);
+                    break;
+
+                case BFTP.SEQ:
+                    // Responses are written in request order, so pipelining is refused
+                    log(LogLevel.INFO, "Refused pipelining, connection remains lock-step");
+
+                    respond((byte) (BFTP.SEQ | BFTP.RSP | BFTP.ERR),
+                            server.errorContent(BFTPServer.PIPELINING_DISABLED_RESPONSE));
+                    break;
+
+                default:
+                    respondUnsupported();
+                    break;
+            }
+        }
+
+        /**
+         * Helper method to commit the file of a PUT request whose file data has been received.
+         *
+         * The file is committed on the server's request executor or group committer, so that
+         * syncing it never stalls the event loop, and the connection waits, neither reading nor
+         * writing, until its event loop resumes it.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void finishPut() throws IOException {
+            if (null != upload) {
+                commitStarted = System.nanoTime();
+                committing = server.commitPut(upload, server.requestExecutor());
+
+                if (!committing.isDone()) {
+                    await(committing);
+
+                    return;
+                }
+            }
+
+            completePut();
+        }
+
+        /**
+         * Helper method to complete a STRIPE_DATA request whose file data has been received.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void finishStripe() throws IOException {
+            String error = putError;
+
+            if (null != stripe) {
+                error = stripe.finish();
+                stripe = null;
+            }
+
+            striping = false;
+
+            respondStripe(BFTP.STRIPE_DATA, 0, error);
+        }
+
+        /**
+         * Helper method to handle a GET request.
+         *
+         * A file whose compressed variant is not yet cached is compressed on the server's request
+         * executor, and the request is answered once it has been.
+         *
+         * @param   content - view of the content field, which begins with the accepted codecs if
+         *                    the CMP bit is set
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleGet(ByteBuffer content) throws IOException {
+            CompletableFuture<ByteBuffer> variant;
+            int codecs = (compressed && content.hasRemaining()) ? content.get() : 0;
+            String requestPath = BFTPServer.bytesToString(content), error;
+            Path target = server.resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received GET request from client:\n> GET ", requestPath);
+
+            started = System.nanoTime();
+            timed = BFTP.GET;
+
+            if (null == target) {
+                error = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (server.storesFiles() && !server.fileExists(target)) {
+                error = BFTPServer.FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested file was not found");
+            }
+            else if (!(variant = server.compressedFile(target, codecs,
+                    server.requestExecutor())).isDone()) {
+                // Answered once the file has been compressed, rather than on the event loop
+                compressing = variant;
+                compressingTarget = target;
+
+                await(variant);
+
+                return;
+            }
+            else {
+                sendRequestedFile(target, variant.join());
+
+                return;
+            }
+
+            respond((byte) (BFTP.GET | BFTP.RSP | BFTP.ERR), server.errorContent(error));
+        }
+
+        /**
+         * Helper method to handle an EXT request, whose content begins with its xop.
+         *
+         * Unknown or malformed commands are rejected, and the connection is closed.
+         *
+         * @param   content - view of the content field
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleExtended(ByteBuffer content) throws IOException {
+            List<BatchReader.Item> items;
+
+            byte command = content.hasRemaining() ? content.get() : 0;
+
+            if (BFTP.X_RANGE == command
+                    && content.remaining() >= BFTP.OFFSET_LENGTH + BFTP.COUNT_LENGTH) {
+                // [0,7] ~ offset, [8,15] ~ count, remainder ~ path
+                long offset = content.getLong(), count = content.getLong();
+
+                handleRange(BFTPServer.bytesToString(content), offset, count);
+            }
+            else if (BFTP.X_STATS == command && !content.hasRemaining()) {
+                log(LogLevel.DEBUG, "Received X_STATS request from client");
+
+                respond((byte) (BFTP.EXT | BFTP.RSP), server.statisticsContent());
+            }
+            else if (BFTP.X_BATCH == command
+                    && null != (items = BatchReader.parse(content, server.storesFiles()))) {
+                log(LogLevel.DEBUG, "Received X_BATCH request from client, files: ",
+                        items.size());
+
+                if (items.size() > BatchReader.MAX_BATCH_FILES) {
+                    log(LogLevel.DEBUG, "Requested batch has too many files");
+
+                    respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                            BFTPServer.extendedContent(BFTP.X_BATCH,
+                                    server.errorContent(BFTPServer.BATCH_TOO_LARGE_RESPONSE)));
+
+                    return;
+                }
+
+                batch = new BatchReader(server, server.requestExecutor(), items);
+
+                responding = true;
+                sendBatch();
+            }
+            else if (BFTP.X_LIST == command && content.remaining() >= BFTP.FLAGS_LENGTH) {
+                // [0] ~ flags, remainder ~ path
+                byte flags = content.get();
+
+                handleList(BFTPServer.bytesToString(content), flags);
+            }
+            else if (BFTP.X_CGET == command && content.remaining() >= BFTP.HASH_LENGTH) {
+                // [0,31] ~ hash, remainder ~ path
+                byte hash[] = new byte[BFTP.HASH_LENGTH];
+
+                handleConditionalGet(BFTPServer.bytesToString(content.get(hash)), hash);
+            }
+            else if (BFTP.X_STRIPE == command
+                    && content.remaining() >= BFTP.STAGE_LENGTH + BFTP.TOKEN_LENGTH) {
+                handleStripe(content);
+            }
+            else {
+                respondUnsupported();
+            }
+        }
+
+        /**
+         * Helper method to handle an X_CGET request.
+         *
+         * A file whose hash is not yet known is hashed on the server's request executor, since it
+         * must be read in full, and the request is answered once it has been.
+         *
+         * @param   requestPath - the path received from the client
+         * @param   hash        - the hash of the client's copy of the file
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleConditionalGet(String requestPath, byte hash[]) throws IOException {
+            CompletableFuture<byte[]> current;
+            DirectoryIndex.Entry entry;
+            String error;
+            Path target = server.resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received X_CGET request from client:\n> X_CGET ", requestPath);
+
+            if (null == target) {
+                error = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!server.storesFiles()) {
+                error = BFTPServer.UNSUPPORTED_STORAGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Storage backend does not support X_CGET");
+            }
+            else if (null == (entry = server.currentFile(target))) {
+                error = BFTPServer.FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested file was not found");
+            }
+            else if (!(current = server.hash(entry, server.requestExecutor())).isDone()) {
+                // Answered once the file has been hashed, rather than reading it on the event loop
+                hashing = current;
+                conditionalEntry = entry;
+                conditionalHash = hash;
+                conditionalTarget = target;
+
+                await(current);
+
+                return;
+            }
+            else {
+                sendConditional(target, entry, hash, current.join());
+
+                return;
+            }
+
+            respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    BFTPServer.extendedContent(BFTP.X_CGET, server.errorContent(error)));
+        }
+
+        /**
+         * Helper method to handle an X_LIST request.
+         *
+         * The listing is built on the server's request executor, since it may hash every file in
+         * a tree, and once the directory index has been built.
+         *
+         * @param   requestPath - the path received from the client
+         * @param   flags       - the flags of the request
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleList(String requestPath, byte flags) throws IOException {
+            String directory = server.listingPath(requestPath), error;
+
+            log(LogLevel.DEBUG, "Received X_LIST request from client:\n> X_LIST ", requestPath);
+
+            if (null == directory) {
+                error = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (!server.storesFiles()) {
+                error = BFTPServer.UNSUPPORTED_STORAGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Storage backend does not support X_LIST");
+            }
+            else {
+                listing = server.listingContent(directory, flags, server.requestExecutor());
+
+                await(listing);
+
+                return;
+            }
+
+            respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    BFTPServer.extendedContent(BFTP.X_LIST, server.errorContent(error)));
+        }
+
+        /**
+         * Helper method to handle an X_RANGE request.
+         *
+         * @param   requestPath - the path received from the client
+         * @param   offset      - position of the first byte requested
+         * @param   count       - maximum number of bytes requested
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleRange(String requestPath, long offset, long count) throws IOException {
+            ByteBuffer cached;
+            String error;
+            Path target = server.resolvePath(requestPath);
+
+            if (server.isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Received X_RANGE request from client:\n> X_RANGE "
+                        + requestPath + " [" + offset + ", +" + count + "]");
+            }
+
+            if (null == target) {
+                error = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (server.storesFiles() && !server.fileExists(target)) {
+                error = BFTPServer.FILE_NOT_FOUND_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested file was not found");
+            }
+            else if (null != (cached = server.cachedFile(target))) {
+                int size = cached.remaining();
+
+                if (offset >= 0 && offset <= size && count >= 0) {
+                    log(LogLevel.DEBUG, "Sending requested range to client from cache");
+
+                    cached.position((int) offset).limit((int) (offset + Math.min(count,
+                            size - offset)));
+
+                    sendBuffer((byte) (BFTP.EXT | BFTP.RSP), BFTPServer.rangePrefix(size),
+                            cached);
+
+                    return;
+                }
+
+                error = BFTPServer.INVALID_RANGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested range is outside of the file");
+            }
+            else {
+                try {
+                    if (null == (file = server.openFile(target))) {
+                        throw new NoSuchFileException(requestPath);
+                    }
+
+                    long size = file.size();
+
+                    if (offset >= 0 && offset <= size && count >= 0) {
+                        log(LogLevel.DEBUG, "Sending requested range to client");
+
+                        sendFile(offset, Math.min(count, size - offset),
+                                (byte) (BFTP.EXT | BFTP.RSP), BFTPServer.rangePrefix(size));
+
+                        return;
+                    }
+
+                    releaseFile();
+
+                    error = BFTPServer.INVALID_RANGE_RESPONSE;
+
+                    log(LogLevel.DEBUG, "Requested range is outside of the file");
+                }
+                catch (NoSuchFileException nsfe) {
+                    error = BFTPServer.FILE_NOT_FOUND_RESPONSE;
+
+                    log(LogLevel.DEBUG, "Requested file was not found");
+                }
+                catch (IOException ioe) {
+                    releaseFile();
+
+                    error = BFTPServer.FILE_READ_ERROR_RESPONSE;
+
+                    log(LogLevel.WARNING, "Encountered IOException while reading from file");
+                }
+            }
+
+            respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    BFTPServer.extendedContent(BFTP.X_RANGE, server.errorContent(error)));
+        }
+
+        /**
+         * Helper method to encode a response header at the position of the output buffer.
+         *
+         * The whole response frame is counted as sent, and the response is timed from here.
+         *
+         * @param   csize   - the content size of the response
+         * @param   opcode  - the opcode of the response
+         */
+        private void putHeader(long csize, byte opcode) {
+            FrameCodec.putHeader(output, csize, opcode);
+
+            sending = System.nanoTime();
+            server.metrics().sent(output.position() + csize);
+        }
+
+        /**
+         * Helper method to record the latencies of the GET or PUT request whose response has
+         * just been written.
+         */
+        private void recordLatency() {
+            long finished = System.nanoTime();
+
+            if (BFTP.GET == timed) {
+                server.metrics().recordGet(started - received, sending - started,
+                        finished - sending);
+            }
+            else {
+                server.metrics().recordPut(started - received, diskTime,
+                        finished - started - diskTime);
+            }
+
+            timed = 0;
+        }
+
+        /**
+         * Helper method to handle an X_STRIPE request whose content has been buffered.
+         *
+         * @param   content - view of the content field, after the xop
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleStripe(ByteBuffer content) throws IOException {
+            // [0] ~ stage, [1,8] ~ token or fsize, remainder ~ path, or offset and file data
+            byte stage = content.get();
+            long token = content.getLong();
+
+            if (BFTP.STRIPE_OPEN == stage) {
+                handleStripeOpen(BFTPServer.bytesToString(content), token);
+            }
+            else if (BFTP.STRIPE_DATA == stage && content.remaining() >= BFTP.OFFSET_LENGTH) {
+                beginStripe(token, content.getLong(), content.remaining());
+
+                if (null != stripe) {
+                    stripe.write(content);
+                }
+
+                finishStripe();
+            }
+            else if (BFTP.STRIPE_COMMIT == stage && !content.hasRemaining()) {
+                // The whole file may be synced, so is committed on the request executor
+                committingStripes = server.commitUpload(token, server.requestExecutor());
+
+                if (committingStripes.isDone()) {
+                    completeStripes();
+                }
+                else {
+                    await(committingStripes);
+                }
+            }
+            else if (BFTP.STRIPE_ABORT == stage && !content.hasRemaining()) {
+                String error = server.abortUpload(token) ? null
+                        : BFTPServer.UNKNOWN_UPLOAD_RESPONSE;
+
+                log(LogLevel.DEBUG, "Aborted striped upload");
+
+                respondStripe(stage, 0, error);
+            }
+            else {
+                respondUnsupported();
+            }
+        }
+
+        /**
+         * Helper method to handle a STRIPE_OPEN request.
+         *
+         * @param   requestPath - the path received from the client
+         * @param   size        - the size of the file, in bytes
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void handleStripeOpen(String requestPath, long size) throws IOException {
+            String error = null;
+            StripedUpload upload = null;
+            Path target = server.resolvePath(requestPath);
+
+            log(LogLevel.DEBUG, "Received STRIPE_OPEN request from client:\n> X_STRIPE ",
+                    requestPath);
+
+            if (null == target) {
+                error = BFTPServer.INVALID_PATH_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested path is outside of the root directory");
+            }
+            else if (size < 0) {
+                error = BFTPServer.INVALID_RANGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested size is negative");
+            }
+            else if (size > server.maxFileSize()) {
+                error = BFTPServer.FILE_TOO_LARGE_RESPONSE;
+
+                log(LogLevel.DEBUG, "Requested size exceeds the maximum file size");
+            }
+            else if (!server.isOverwriting() && server.fileExists(target)) {
+                error = BFTPServer.FILE_ALREADY_EXISTS_RESPONSE;
+
+                log(LogLevel.DEBUG, "File already exists, server is non-overwriting");
+            }
+            else if (null == (upload = server.openUpload(target, size))) {
+                error = BFTPServer.TOO_MANY_UPLOADS_RESPONSE;
+
+                log(LogLevel.WARNING, "Refused striped upload, too many are in progress");
+            }
+
+            respondStripe(BFTP.STRIPE_OPEN, (null != upload) ? upload.token() : 0, error);
+        }
+
+        /**
+         * Helper method to close the file being sent and release the output buffer, after the
+         * response could not be started.
+         */
+        private void releaseFile() {
+            if (null != file) {
+                try {
+                    file.close();
+                }
+                catch (IOException ioe) {
+                    // Nothing more can be done with this file
+                }
+
+                file = null;
+            }
+
+            releaseOutput();
+        }
+
+        /**
+         * Helper method to return the output buffer to the pool, if there is one.
+         */
+        private void releaseOutput() {
+            if (null != output) {
+                bufferPool.release(output);
+                output = null;
+            }
+        }
+
+        /**
+         * Helper method to send a response with buffered content.
+         *
+         * The response is built in a pooled direct buffer when it fits, so that it is sent with a
+         * single write.
+         *
+         * @param   responseOpcode  - opcode of the response
+         * @param   responseContent - content of the response
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void respond(byte responseOpcode, byte responseContent[]) throws IOException {
+            if (BFTP.HEADER_LENGTH + responseContent.length <= bufferPool.bufferSize()) {
+                output = bufferPool.acquire();
+            }
+            else {
+                output = ByteBuffer.allocate(BFTP.HEADER_LENGTH + responseContent.length);
+            }
+
+            putHeader(responseContent.length, responseOpcode);
+            output.put(responseContent);
+            output.flip();
+
+            responding = true;
+            if (!writing) {
+                send();
+            }
+        }
+
+        /**
+         * Helper method to reject a request whose content exceeds the maximum frame size, and
+         * close the connection.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void respondOversized() throws IOException {
+            if (server.isLoggable(LogLevel.DEBUG)) {
+                log(LogLevel.DEBUG, "Request content exceeds maximum frame size (" + csize
+                        + " bytes)");
+            }
+
+            // Content will not be consumed, so the connection is out of sync
+            closing = true;
+
+            respond(BFTP.ERR, server.errorContent(BFTPServer.FRAME_TOO_LARGE_RESPONSE));
+        }
+
+        /**
+         * Helper method to send the response to an X_STRIPE request.
+         *
+         * @param   stage   - the stage of the request
+         * @param   token   - the token of the upload, which is only sent for STRIPE_OPEN
+         * @param   error   - the error response to send, or null if the request succeeded
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void respondStripe(byte stage, long token, String error) throws IOException {
+            if (null == error) {
+                respond((byte) (BFTP.EXT | BFTP.RSP), BFTPServer.stripeContent(stage, token));
+            }
+            else {
+                respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                        BFTPServer.extendedContent(BFTP.X_STRIPE, server.errorContent(error)));
+            }
+        }
+
+        /**
+         * Helper method to reject an unsupported request and close the connection.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void respondUnsupported() throws IOException {
+            log(LogLevel.DEBUG, "Received unsupported command / message from client");
+
+            // Do not trust this client
+            closing = true;
+
+            respond(BFTP.ERR, server.errorContent(BFTPServer.UNSUPPORTED_COMMAND_RESPONSE));
+        }
+
+        /**
+         * Helper method to start sending the next frame of the current batch, or the frame which
+         * completes it.
+         *
+         * If the next file is still being read, the connection stops waiting for readiness, and
+         * the batch is resumed by the event loop once the file has been loaded.
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void sendBatch() throws IOException {
+            BatchReader.Entry entry;
+
+            if (!batch.hasNext()) {
+                batch.close();
+                batch = null;
+
+                log(LogLevel.DEBUG, "Sent batch to client");
+
+                respond((byte) (BFTP.EXT | BFTP.RSP), BatchReader.END_CONTENT);
+
+                return;
+            }
+
+            if (null == (entry = batch.poll())) {
+                key.interestOps(0);
+                batch.whenReady(() -> loop.resume(this));
+
+                return;
+            }
+
+            // The file is closed by send() once it has been transferred, or by close()
+            file = entry.takeFile();
+
+            if (null != entry.error) {
+                respond((byte) (BFTP.EXT | BFTP.RSP), entry.error);
+            }
+            else if (null != file) {
+                sendFile(0, file.size(), (byte) (BFTP.EXT | BFTP.RSP), entry.prefix);
+            }
+            else {
+                sendBuffer((byte) (BFTP.EXT | BFTP.RSP), entry.prefix, entry.data);
+            }
+        }
+
+        /**
+         * Helper method to start sending a response whose content is held in a buffer, optionally
+         * preceded by a short prefix.
+         *
+         * The content is written after the header rather than copied, so cached files are sent
+         * straight from their direct buffers.
+         *
+         * @param   opcode  - opcode of the response
+         * @param   prefix  - content sent before the buffer, which fits in a pooled buffer
+         * @param   content - the remaining content of the response
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void sendBuffer(byte opcode, byte prefix[], ByteBuffer content)
+                throws IOException {
+            output = bufferPool.acquire();
+            putHeader(prefix.length + content.remaining(), opcode);
+            output.put(prefix).flip();
+
+            body = content;
+
+            responding = true;
+            if (!writing) {
+                send();
+            }
+        }
+
+        /**
+         * Helper method to answer an X_CGET request, once the hash of its file is known.
+         *
+         * The file is only sent if its hash differs from the client's, and is then read from disk
+         * rather than from the hot-file cache, whose content may be older than the hash.
+         *
+         * @param   target  - resolved path of the requested file
+         * @param   entry   - the entry of the file
+         * @param   hash    - the hash of the client's copy of the file
+         * @param   current - the hash of the file, or null if it could not be read
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void sendConditional(Path target, DirectoryIndex.Entry entry, byte hash[],
+                byte current[]) throws IOException {
+            String error;
+
+            if (null == current) {
+                error = BFTPServer.FILE_READ_ERROR_RESPONSE;
+
+                log(LogLevel.WARNING, "Encountered IOException while hashing file");
+            }
+            else if (Arrays.equals(hash, current)) {
+                log(LogLevel.DEBUG, "Client's copy of the requested file is current");
+
+                server.metrics().conditionalGet(true, entry.size);
+                respond((byte) (BFTP.EXT | BFTP.RSP),
+                        BFTPServer.conditionalPrefix(BFTP.CGET_UNCHANGED, current));
+
+                return;
+            }
+            else {
+                try {
+                    if (null == (file = server.openFile(target))) {
+                        throw new NoSuchFileException(entry.path);
+                    }
+
+                    log(LogLevel.DEBUG, "Sending requested file to client");
+
+                    server.metrics().conditionalGet(false, entry.size);
+                    sendFile(0, file.size(), (byte) (BFTP.EXT | BFTP.RSP),
+                            BFTPServer.conditionalPrefix(BFTP.CGET_MODIFIED, current));
+
+                    return;
+                }
+                catch (IOException ioe) {
+                    releaseFile();
+
+                    error = BFTPServer.FILE_READ_ERROR_RESPONSE;
+
+                    log(LogLevel.WARNING, "Encountered IOException while reading from file");
+                }
+            }
+
+            respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR),
+                    BFTPServer.extendedContent(BFTP.X_CGET, server.errorContent(error)));
+        }
+
+        /**
+         * Helper method to start sending a response whose content is part of the open file,
+         * optionally preceded by a short prefix.
+         *
+         * Parts which fit in a pooled buffer after the header are read into it and sent with a
+         * single write, and the file is closed immediately. Otherwise, send() transfers the body
+         * from the file once the header has been written.
+         *
+         * @param   position    - position of the first byte of the file to send
+         * @param   length      - number of bytes of the file to send
+         * @param   opcode      - opcode of the response
+         * @param   prefix      - content sent before the file data, which fits in a pooled buffer
+         *
+         * @throws  IOException if one is encountered while reading from the file before the
+         *          response has been started, or while writing to the socket.
+         */
+        private void sendFile(long position, long length, byte opcode, byte prefix[])
+                throws IOException {
+            int headerLength;
+
+            filePosition = position;
+            fileEnd = position + length;
+
+            output = bufferPool.acquire();
+            putHeader(prefix.length + length, opcode);
+            output.put(prefix);
+            headerLength = output.position();
+
+            if (length <= output.remaining()) {
+                // Coalesce the header and body of small parts into one write
+                output.limit(headerLength + (int) length);
+
+                while (output.hasRemaining()) {
+                    if (file.read(output, fileEnd - output.remaining()) < 0) {
+                        throw new IOException("File was truncated before transfer");
+                    }
+                }
+
+                file.close();
+                file = null;
+            }
+
+            output.flip();
+
+            responding = true;
+            if (!writing) {
+                send();
+            }
+        }
+
+        /**
+         * Helper method to respond to an X_LIST request, once its listing has been built.
+         *
+         * @param   content - the content of the response, or null if the directory was not found
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void sendListing(byte content[]) throws IOException {
+            if (null != content) {
+                log(LogLevel.DEBUG, "Sending directory listing to client");
+
+                respond((byte) (BFTP.EXT | BFTP.RSP), content);
+            }
+            else {
+                log(LogLevel.DEBUG, "Requested directory was not found");
+
+                respond((byte) (BFTP.EXT | BFTP.RSP | BFTP.ERR), BFTPServer.extendedContent(
+                        BFTP.X_LIST, server.errorContent(BFTPServer.FILE_NOT_FOUND_RESPONSE)));
+            }
+        }
+
+        /**
+         * Helper method to answer a GET request, once the compressed variant of its file has been
+         * looked up.
+         *
+         * @param   target  - resolved path of the requested file
+         * @param   variant - the codec and compressed file, or null to send it uncompressed
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void sendRequestedFile(Path target, ByteBuffer variant) throws IOException {
+            ByteBuffer cached;
+            String error;
+
+            if (null != variant) {
+                log(LogLevel.DEBUG, "Sending compressed file to client");
+
+                sendBuffer((byte) (BFTP.GET | BFTP.RSP | BFTP.CMP), BFTPServer.EMPTY_CONTENT,
+                        variant);
+
+                return;
+            }
+            else if (null != (cached = server.cachedFile(target))) {
+                log(LogLevel.DEBUG, "Sending requested file to client from cache");
+
+                sendBuffer((byte) (BFTP.GET | BFTP.RSP), BFTPServer.EMPTY_CONTENT, cached);
+
+                return;
+            }
+            else {
+                try {
+                    if (null == (file = server.openFile(target))) {
+                        error = BFTPServer.FILE_NOT_FOUND_RESPONSE;
+
+                        log(LogLevel.DEBUG, "Requested file was not found");
+                    }
+                    else {
+                        log(LogLevel.DEBUG, "Sending requested file to client");
+
+                        sendFile(0, file.size(), (byte) (BFTP.GET | BFTP.RSP),
+                                BFTPServer.EMPTY_CONTENT);
+
+                        return;
+                    }
+                }
+                catch (IOException ioe) {
+                    releaseFile();
+
+                    error = BFTPServer.FILE_READ_ERROR_RESPONSE;
+
+                    log(LogLevel.WARNING, "Encountered IOException while reading from file");
+                }
+            }
+
+            respond((byte) (BFTP.GET | BFTP.RSP | BFTP.ERR), server.errorContent(error));
+        }
+
+        /**
+         * Helper method to write as much of the pending output as the socket will accept.
+         *
+         * Once the current response has been written, the next frame of a batch is started, the
+         * closing FIN is queued if the connection is closing, and otherwise the connection resumes
+         * reading requests. If the socket buffer fills up first, the connection waits for write
+         * readiness instead.
+         *
+         * @throws  IOException if one is encountered while reading from the file or writing to the
+         *          socket.
+         */
+        private void send() throws IOException {
+            writing = true;
+
+            try {
+                sendPending();
+            }
+            finally {
+                writing = false;
+            }
+        }
+
+        /**
+         * Helper method to write pending output for send(), which starts further frames itself
+         * rather than through the send helpers.
+         *
+         * @throws  IOException if one is encountered while reading from the file or writing to the
+         *          socket.
+         */
+        private void sendPending() throws IOException {
+            while (true) {
+                while (null != output) {
+                    if (!permit()) {
+                        return;
+                    }
+
+                    if (null != body && !limited) {
+                        // Gather the header and buffered content into one write
+                        channel.write(new ByteBuffer[] { output, body });
+                    }
+                    else {
+                        write(output);
+                    }
+
+                    if (!output.hasRemaining()) {
+                        releaseOutput();
+                    }
+                    else if (!limited || allowance > 0) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                while (null != body) {
+                    if (!permit()) {
+                        return;
+                    }
+
+                    write(body);
+
+                    if (!body.hasRemaining()) {
+                        body = null;
+                    }
+                    else if (!limited || allowance > 0) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                while (null != file && filePosition < fileEnd) {
+                    long count = fileEnd - filePosition, sent;
+
+                    if (!permit()) {
+                        return;
+                    }
+
+                    if (limited) {
+                        count = Math.min(count, allowance);
+                    }
+
+                    sent = file.transferTo(filePosition, count, channel);
+
+                    if (0 == sent) {
+                        // transferTo() returns 0 once the position passes the end of the file
+                        if (filePosition >= file.size()) {
+                            throw new IOException("File was truncated during transfer");
+                        }
+
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    filePosition += sent;
+
+                    if (limited) {
+                        allowance -= sent;
+                    }
+                }
+
+                if (null != file) {
+                    file.close();
+                    file = null;
+                }
+
+                if (null != batch) {
+                    sendBatch();
+
+                    // Otherwise, the batch is waiting for its next file
+                    if (null != output) {
+                        continue;
+                    }
+
+                    return;
+                }
+
+                responding = false;
+                bulk = false;
+                active = System.nanoTime();
+
+                if (0 != timed) {
+                    recordLatency();
+                }
+
+                if (finSent) {
+                    close();
+                    return;
+                }
+
+                if (!closing) {
+                    break;
+                }
+
+                log(LogLevel.INFO, "Closing connection with client");
+
+                output = bufferPool.acquire();
+                putHeader(0, BFTP.FIN); // no content
+                output.flip();
+
+                responding = true;
+                finSent = true;
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Helper method to write as much of the given buffer as the socket accepts, and as the
+         * connection reserved if it is rate limited.
+         *
+         * @param   buffer  - the buffer to write
+         *
+         * @throws  IOException if one is encountered while writing to the socket.
+         */
+        private void write(ByteBuffer buffer) throws IOException {
+            int limit = buffer.limit();
+
+            if (!limited) {
+                channel.write(buffer);
+                return;
+            }
+
+            buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), allowance));
+
+            try {
+                allowance -= channel.write(buffer);
+            }
+            finally {
+                buffer.limit(limit);
+            }
+        }
+
+    }
+
+}
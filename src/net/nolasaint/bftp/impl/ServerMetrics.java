@@ -0,0 +1,442 @@
+package net.nolasaint.bftp.impl;
+
+import net.nolasaint.bftp.BFTP;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Counters and latency histograms describing the work done by a BFTPServer.
+ *
+ * Every counter is striped or atomic, so recording never locks. Statistics are read as a
+ * snapshot, which maps stable names to values, and which is published both through JMX, as the
+ * attributes of this DynamicMBean, and through the X_STATS command. The names are:
+ *
+ *  requests.[command]          - requests received, by opcode
+ *  errors.[error]              - ERR responses sent, by response string
+ *  bytes.in, bytes.out         - frame bytes received and sent
+ *  handlers.active/peak        - connections currently, and at most, being handled
+ *  connections.accepted        - connections accepted
+ *  connections.rate            - connections accepted per second, averaged over a minute
+ *  connections.rejected        - connections refused by the connection limits
+ *  connections.reaped          - connections closed by the idle or read timeout
+ *  cget.[modified|unchanged]   - X_CGET requests answered with and without the file data
+ *  cget.bytes_saved            - file bytes not sent because the client's copy was current
+ *  commit.groups, commit.files - groups of PUTs synced together, and the PUTs in them
+ *  latency.[get|put].[phase].  - count, mean, p50, p90, p99, p999 and max, in microseconds
+ *
+ * GET and PUT latencies are split into three phases. The queue phase runs from the request
+ * header being read until the request is handled, and includes waiting for the request executor.
+ * The disk phase covers locating, reading and compressing the file for GET, and writing the file
+ * for PUT. The socket phase covers writing the response, and receiving the file data of PUT.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class ServerMetrics implements DynamicMBean {
+
+    /* PERCENTILES are the fractions reported for each latency histogram, and their names */
+    private static final double PERCENTILES[]       = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String PERCENTILE_NAMES[]  = { "p50", "p90", "p99", "p999" };
+
+    /* RATE_INTERVAL is how often, in nanoseconds, the accept rate is updated */
+    private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /* RATE_ALPHA weights each RATE_INTERVAL so that the accept rate averages over a minute */
+    private static final double RATE_ALPHA = 1 - Math.exp(-5.0 / 60);
+
+    /* REQUEST_NAMES names the request counters, which are indexed by requestIndex() */
+    private static final String REQUEST_NAMES[] = {
+            "get", "put", "fin", "seq", "ext", "unsupported"
+    };
+
+    private final AtomicInteger activeHandlers, peakHandlers;
+    private final AtomicLong rateTick;
+    private final LongAdder accepted, bytesIn, bytesOut, otherErrors, requests[], unrated;
+    private final LongAdder bytesSaved, modified, unchanged;
+    private final LongAdder groupedFiles, groups;
+    private final LongAdder reaped, rejected;
+    private final LatencyHistogram getLatency[], putLatency[];
+    private final Map<String, LongAdder> errors;
+    private final Map<String, String> errorNames;
+
+    private volatile double acceptRate;
+    private volatile boolean rated;
+
+    /**
+     * Creates a ServerMetrics with every counter at zero.
+     */
+    ServerMetrics() {
+        activeHandlers = new AtomicInteger();
+        peakHandlers = new AtomicInteger();
+        rateTick = new AtomicLong(System.nanoTime());
+
+        accepted = new LongAdder();
+        bytesIn = new LongAdder();
+        bytesOut = new LongAdder();
+        otherErrors = new LongAdder();
+        unrated = new LongAdder();
+        bytesSaved = new LongAdder();
+        modified = new LongAdder();
+        unchanged = new LongAdder();
+        groupedFiles = new LongAdder();
+        groups = new LongAdder();
+        reaped = new LongAdder();
+        rejected = new LongAdder();
+        requests = new LongAdder[REQUEST_NAMES.length];
+        getLatency = new LatencyHistogram[3];
+        putLatency = new LatencyHistogram[3];
+
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new LongAdder();
+        }
+
+        for (int i = 0; i < getLatency.length; i++) {
+            getLatency[i] = new LatencyHistogram();
+            putLatency[i] = new LatencyHistogram();
+        }
+
+        // Only read once built, so need not be concurrent
+        errors = new HashMap<>();
+        errorNames = new LinkedHashMap<>();
+        errorNames.put(BFTPServer.ADDRESS_LIMIT_RESPONSE,       "address_limit");
+        errorNames.put(BFTPServer.BATCH_TOO_LARGE_RESPONSE,     "batch_too_large");
+        errorNames.put(BFTPServer.CONNECTION_LIMIT_RESPONSE,    "connection_limit");
+        errorNames.put(BFTPServer.FILE_ALREADY_EXISTS_RESPONSE, "file_already_exists");
+        errorNames.put(BFTPServer.FILE_NOT_FOUND_RESPONSE,      "file_not_found");
+        errorNames.put(BFTPServer.FILE_READ_ERROR_RESPONSE,     "file_read_error");
+        errorNames.put(BFTPServer.FILE_TOO_LARGE_RESPONSE,      "file_too_large");
+        errorNames.put(BFTPServer.FILE_WRITE_ERROR_RESPONSE,    "file_write_error");
+        errorNames.put(BFTPServer.FRAME_TOO_LARGE_RESPONSE,     "frame_too_large");
+        errorNames.put(BFTPServer.INCOMPLETE_UPLOAD_RESPONSE,   "incomplete_upload");
+        errorNames.put(BFTPServer.INVALID_PATH_RESPONSE,        "invalid_path");
+        errorNames.put(BFTPServer.INVALID_RANGE_RESPONSE,       "invalid_range");
+        errorNames.put(BFTPServer.PIPELINING_DISABLED_RESPONSE, "pipelining_disabled");
+        errorNames.put(BFTPServer.TOO_MANY_UPLOADS_RESPONSE,    "too_many_uploads");
+        errorNames.put(BFTPServer.UNKNOWN_UPLOAD_RESPONSE,      "unknown_upload");
+        errorNames.put(BFTPServer.UNSUPPORTED_COMMAND_RESPONSE, "unsupported_command");
+        errorNames.put(BFTPServer.UNSUPPORTED_STORAGE_RESPONSE, "unsupported_storage");
+
+        for (String response : errorNames.keySet()) {
+            errors.put(response, new LongAdder());
+        }
+    }
+
+    /**
+     * Counts an accepted connection.
+     */
+    void accepted() {
+        accepted.increment();
+        unrated.increment();
+        updateRate();
+    }
+
+    /**
+     * Counts an X_CGET request which has been answered.
+     *
+     * @param   current - whether the client's copy was current, so the file was not sent
+     * @param   size    - the size of the file, in bytes
+     */
+    void conditionalGet(boolean current, long size) {
+        if (current) {
+            unchanged.increment();
+            bytesSaved.add(size);
+        }
+        else {
+            modified.increment();
+        }
+    }
+
+    /**
+     * Counts an ERR response.
+     *
+     * @param   response    - the response string sent, e.g. BFTPServer.FILE_NOT_FOUND_RESPONSE
+     */
+    void error(String response) {
+        LongAdder counter = errors.get(response);
+
+        ((null == counter) ? otherErrors : counter).increment();
+    }
+
+    /**
+     * Counts a group of PUTs committed together.
+     *
+     * @param   size    - the number of PUTs in the group
+     */
+    void groupCommitted(int size) {
+        groups.increment();
+        groupedFiles.add(size);
+    }
+
+    /**
+     * Counts a connection which has finished being handled.
+     */
+    void handlerClosed() {
+        activeHandlers.decrementAndGet();
+    }
+
+    /**
+     * Counts a connection which has begun being handled.
+     */
+    void handlerOpened() {
+        int active = activeHandlers.incrementAndGet();
+
+        peakHandlers.accumulateAndGet(active, Math::max);
+    }
+
+    /**
+     * Counts a connection closed by the idle or read timeout.
+     */
+    void reaped() {
+        reaped.increment();
+    }
+
+    /**
+     * Counts the bytes of a frame which has been received.
+     *
+     * @param   length  - the length of the frame, including its header
+     */
+    void received(long length) {
+        bytesIn.add(length);
+    }
+
+    /**
+     * Records the latencies of a GET request.
+     *
+     * @param   queue   - nanoseconds from the request header being read to handling it
+     * @param   disk    - nanoseconds spent locating and reading the file
+     * @param   socket  - nanoseconds spent writing the response
+     */
+    void recordGet(long queue, long disk, long socket) {
+        getLatency[0].record(queue);
+        getLatency[1].record(disk);
+        getLatency[2].record(socket);
+    }
+
+    /**
+     * Records the latencies of a PUT request.
+     *
+     * @param   queue   - nanoseconds from the request header being read to handling it
+     * @param   disk    - nanoseconds spent writing and committing the file
+     * @param   socket  - nanoseconds spent receiving the file data and writing the response
+     */
+    void recordPut(long queue, long disk, long socket) {
+        putLatency[0].record(queue);
+        putLatency[1].record(disk);
+        putLatency[2].record(socket);
+    }
+
+    /**
+     * Counts a connection refused by the connection limits.
+     */
+    void rejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Counts a request.
+     *
+     * @param   opcode  - the opcode of the request, without its SEQ and CMP bits
+     */
+    void request(byte opcode) {
+        requests[requestIndex(opcode)].increment();
+    }
+
+    /**
+     * Counts the bytes of a frame which has been sent.
+     *
+     * @param   length  - the length of the frame, including its header
+     */
+    void sent(long length) {
+        bytesOut.add(length);
+    }
+
+    /**
+     * Reads every statistic.
+     *
+     * @return  the statistics, by name, in a stable order.
+     */
+    Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+
+        for (int i = 0; i < requests.length; i++) {
+            snapshot.put("requests." + REQUEST_NAMES[i], requests[i].sum());
+        }
+
+        errorNames.forEach((response, name) -> snapshot.put("errors." + name,
+                errors.get(response).sum()));
+        snapshot.put("errors.other", otherErrors.sum());
+
+        snapshot.put("bytes.in", bytesIn.sum());
+        snapshot.put("bytes.out", bytesOut.sum());
+        snapshot.put("handlers.active", (long) activeHandlers.get());
+        snapshot.put("handlers.peak", (long) peakHandlers.get());
+        snapshot.put("connections.accepted", accepted.sum());
+
+        updateRate();
+        snapshot.put("connections.rate", acceptRate);
+        snapshot.put("connections.rejected", rejected.sum());
+        snapshot.put("connections.reaped", reaped.sum());
+        snapshot.put("cget.modified", modified.sum());
+        snapshot.put("cget.unchanged", unchanged.sum());
+        snapshot.put("cget.bytes_saved", bytesSaved.sum());
+        snapshot.put("commit.groups", groups.sum());
+        snapshot.put("commit.files", groupedFiles.sum());
+
+        putLatencies(snapshot, "latency.get.", getLatency);
+        putLatencies(snapshot, "latency.put.", putLatency);
+
+        return snapshot;
+    }
+
+    /* DynamicMBean MEMBERS */
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+
+        if (null == value) {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String attributes[]) {
+        Map<String, Number> snapshot = snapshot();
+        AttributeList list = new AttributeList();
+
+        for (String attribute : attributes) {
+            if (snapshot.containsKey(attribute)) {
+                list.add(new Attribute(attribute, snapshot.get(attribute)));
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        snapshot().forEach((name, value) -> attributes.add(new MBeanAttributeInfo(name,
+                value.getClass().getName(), name, true, false, false)));
+
+        return new MBeanInfo(getClass().getName(), "BFTP server statistics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public Object invoke(String action, Object params[], String signature[]) {
+        throw new UnsupportedOperationException("BFTP server statistics have no operations");
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("BFTP server statistics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        // Read-only, so no attribute is set
+        return new AttributeList();
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to add the statistics of the phases of a request type to a snapshot.
+     *
+     * @param   snapshot    - the snapshot to add to
+     * @param   prefix      - the prefix of the names, e.g. "latency.get."
+     * @param   phases      - the queue, disk and socket histograms
+     */
+    private static void putLatencies(Map<String, Number> snapshot, String prefix,
+            LatencyHistogram phases[]) {
+        String names[] = { "queue.", "disk.", "socket." };
+
+        for (int i = 0; i < phases.length; i++) {
+            String name = prefix + names[i];
+
+            snapshot.put(name + "count", phases[i].count());
+            snapshot.put(name + "mean", phases[i].mean());
+
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                snapshot.put(name + PERCENTILE_NAMES[p], phases[i].percentile(PERCENTILES[p]));
+            }
+
+            snapshot.put(name + "max", phases[i].max());
+        }
+    }
+
+    /**
+     * Helper method to find the counter of a request opcode.
+     *
+     * @param   opcode  - the opcode of the request, without its SEQ and CMP bits
+     *
+     * @return  the index of the counter in requests.
+     */
+    private static int requestIndex(byte opcode) {
+        switch (opcode) {
+            case BFTP.GET:
+                return 0;
+
+            case BFTP.PUT:
+                return 1;
+
+            case BFTP.FIN:
+                return 2;
+
+            case BFTP.SEQ:
+                return 3;
+
+            case BFTP.EXT:
+                return 4;
+
+            default:
+                return 5;
+        }
+    }
+
+    /**
+     * Helper method to fold the connections accepted in each elapsed RATE_INTERVAL into the
+     * accept rate.
+     *
+     * Only the thread which advances rateTick updates the rate, so no lock is needed.
+     */
+    private void updateRate() {
+        long tick = rateTick.get(), now = System.nanoTime();
+        long intervals = (now - tick) / RATE_INTERVAL;
+
+        if (intervals <= 0 || !rateTick.compareAndSet(tick, tick + intervals * RATE_INTERVAL)) {
+            return;
+        }
+
+        for (long i = 0; i < intervals; i++) {
+            // Connections accepted since the last update all count toward the first interval
+            double rate = ((0 == i) ? unrated.sumThenReset() : 0)
+                    / (double) TimeUnit.NANOSECONDS.toSeconds(RATE_INTERVAL);
+
+            acceptRate = rated ? acceptRate + RATE_ALPHA * (rate - acceptRate) : rate;
+            rated = true;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Storage.Writer which stages the file on the heap, and hands it to its backend when committed.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+abstract class StagedWriter implements Storage.Writer {
+
+    /* MAX_SIZE is the size, in bytes, of the largest file which fits in an array */
+    static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    /* INITIAL_CAPACITY is the size, in bytes, of the buffer a file is first staged in */
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final long maxSize;
+
+    private boolean closed;
+    private byte data[];
+    private int length;
+
+    /**
+     * Creates an empty StagedWriter.
+     *
+     * @param   maxSize - the size, in bytes, of the largest file which may be written
+     */
+    StagedWriter(long maxSize) {
+        this.maxSize = Math.min(maxSize, MAX_SIZE);
+
+        data = new byte[INITIAL_CAPACITY];
+    }
+
+    /* PUBLIC MEMBERS */
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        data = null;
+    }
+
+    @Override
+    public void commit(boolean overwriting, boolean sync) throws IOException {
+        commit(take(), overwriting, sync);
+    }
+
+    @Override
+    public synchronized void write(ByteBuffer buffer, long position) throws IOException {
+        int count = buffer.remaining();
+
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+
+        if (position < 0 || position > maxSize - count) {
+            throw new IOException("File exceeds the maximum size of " + maxSize + " bytes");
+        }
+
+        if (position + count > data.length) {
+            // Grow geometrically, so that appending is amortized O(1)
+            data = Arrays.copyOf(data, (int) Math.min(maxSize,
+                    Math.max(position + count, 2L * data.length)));
+        }
+
+        buffer.get(data, (int) position, count);
+        length = Math.max(length, (int) position + count);
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Stores the staged file in the backend.
+     *
+     * @param   data        - the file, from its position to its limit, which the backend may
+     *                        keep
+     * @param   overwriting - whether an earlier file with the key may be replaced
+     * @param   sync        - whether the file must be durable before this returns
+     *
+     * @throws  java.nio.file.FileAlreadyExistsException if a file with the key exists, and
+     *          overwriting is FALSE.
+     * @throws  IOException if the file cannot be stored.
+     */
+    abstract void commit(ByteBuffer data, boolean overwriting, boolean sync) throws IOException;
+
+    /**
+     * Takes the staged file, closing the writer, so that a backend may commit several files as
+     * one group.
+     *
+     * @return  the file, from its position to its limit.
+     *
+     * @throws  IOException if the writer was already closed.
+     */
+    synchronized ByteBuffer take() throws IOException {
+        ByteBuffer staged;
+
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+
+        staged = ByteBuffer.wrap(data, 0, length);
+        close();
+
+        return staged;
+    }
+
+}
@@ -0,0 +1,238 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.List;
+
+/**
+ * Backend which stores the files served by a BFTPServer.
+ *
+ * Files are named by keys: paths relative to the root of the store, separated by '/', which the
+ * server has already normalized and confined to the store. A backend must allow any number of
+ * files to be read and written at once. A file being written is not visible until it is
+ * committed, when it replaces any earlier file with the same key at once, and readers of the
+ * earlier file may keep reading it.
+ *
+ * Three backends are provided:
+ *  - filesystem() stores each file as a file under public/, and is the default
+ *  - memory() holds files on the heap, for tests and benchmarks
+ *  - pack() appends files to a single pack file with an offset index, for very many small files
+ *
+ * Directory listings, X_CGET and batches of globs are served from the server's index of public/,
+ * so are only available with the filesystem backend.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+public interface Storage extends Closeable {
+
+    /**
+     * Returns the backend which stores each file as a file under the server's root directory,
+     * public/ in the working directory.
+     *
+     * @return  the filesystem backend.
+     */
+    static Storage filesystem() {
+        return new FileStorage(Paths.get(BFTPServer.ROOT_DIRECTORY));
+    }
+
+    /**
+     * Creates an empty backend which holds its files on the heap, and loses them once closed.
+     *
+     * @return  the in-memory backend.
+     */
+    static Storage memory() {
+        return new MemoryStorage();
+    }
+
+    /**
+     * Opens the pack-file backend in the given directory, creating it if it does not exist.
+     *
+     * Files are appended to a single pack file, and found through an index of their offsets,
+     * which is memory-mapped. A store which was not closed cleanly has its index rebuilt from the
+     * pack file when it is next opened.
+     *
+     * @param   directory   - the directory holding the pack file and its index
+     *
+     * @return  the pack-file backend, which must be closed.
+     *
+     * @throws  IOException if the store cannot be opened.
+     */
+    static Storage pack(Path directory) throws IOException {
+        return new PackStorage(directory);
+    }
+
+    /**
+     * Commits several files together, as if each were committed and synced in turn, but syncing
+     * them as one group where the backend can. No file is visible before it is durable, and a
+     * file which cannot be committed does not prevent the others from being committed.
+     *
+     * @param   writers     - the files to commit, which were created by this backend
+     * @param   overwriting - whether earlier files with the keys may be replaced
+     *
+     * @return  for each writer in order, null if its file was committed, else the exception
+     *          which prevented it.
+     */
+    default IOException[] commit(List<? extends Writer> writers, boolean overwriting) {
+        IOException errors[] = new IOException[writers.size()];
+
+        for (int i = 0; i < errors.length; i++) {
+            try {
+                writers.get(i).commit(overwriting, true);
+            }
+            catch (IOException ioe) {
+                errors[i] = ioe;
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Begins writing a file.
+     *
+     * @param   key - the key of the file
+     *
+     * @return  the writer, which must be closed.
+     *
+     * @throws  IOException if the file cannot be created.
+     */
+    Writer create(String key) throws IOException;
+
+    /**
+     * Returns the size of the largest file which may be stored.
+     *
+     * @return  the maximum file size, in bytes.
+     */
+    default long maxFileSize() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Opens a file for reading.
+     *
+     * @param   key - the key of the file
+     *
+     * @return  the file, which must be closed, or null if no file has the key.
+     *
+     * @throws  IOException if the file exists but cannot be opened.
+     */
+    Blob open(String key) throws IOException;
+
+    /**
+     * A stored file, open for reading.
+     */
+    interface Blob extends Closeable {
+
+        /**
+         * Reads bytes of the file into a buffer, as FileChannel.read(ByteBuffer, long) does.
+         *
+         * @param   buffer      - the buffer to read into
+         * @param   position    - position in the file of the first byte to read
+         *
+         * @return  the number of bytes read, or -1 if position is at or beyond the end of the
+         *          file.
+         *
+         * @throws  IOException if one is encountered while reading.
+         */
+        int read(ByteBuffer buffer, long position) throws IOException;
+
+        /**
+         * Returns the size of the file.
+         *
+         * @return  the size, in bytes.
+         *
+         * @throws  IOException if one is encountered while reading the size.
+         */
+        long size() throws IOException;
+
+        /**
+         * Writes bytes of the file to a channel, as FileChannel.transferTo() does.
+         *
+         * @param   position    - position in the file of the first byte to write
+         * @param   count       - the maximum number of bytes to write
+         * @param   target      - the channel to write to, which may be non-blocking
+         *
+         * @return  the number of bytes written, which is 0 if position is at or beyond the end of
+         *          the file.
+         *
+         * @throws  IOException if one is encountered while reading or writing.
+         */
+        long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException;
+
+    }
+
+    /**
+     * A file being written. Closing a Writer which was not committed discards the file.
+     */
+    interface Writer extends Closeable {
+
+        /**
+         * Extends the file to its full size ahead of it being written in any order. Backends
+         * which stage files on the heap need not do anything, so that no memory is taken before
+         * the file data arrives.
+         *
+         * @param   size    - the size of the file, in bytes
+         *
+         * @throws  IOException if the file cannot be extended.
+         */
+        default void allocate(long size) throws IOException {
+            // Grown as the file is written
+        }
+
+        /**
+         * Makes the file visible under its key, replacing any earlier file.
+         *
+         * A synced file is only made visible once everything written is durable, and is itself
+         * durable once this returns. Otherwise, the file may be lost or, on the filesystem, left
+         * incomplete by a crash, but is visible sooner and costs no sync.
+         *
+         * @param   overwriting - whether an earlier file with the key may be replaced
+         * @param   sync        - whether the file must be durable before this returns
+         *
+         * @throws  FileAlreadyExistsException if a file with the key exists, and overwriting is
+         *          FALSE.
+         * @throws  IOException if the file cannot be committed.
+         */
+        void commit(boolean overwriting, boolean sync) throws IOException;
+
+        /**
+         * Makes everything written durable ahead of committing the file with a group, so that
+         * the thread which wrote the file syncs it, rather than the thread committing the group.
+         * Backends which sync a whole group at once need not do anything. Nothing may be written
+         * afterwards.
+         *
+         * @throws  IOException if the file cannot be synced.
+         */
+        default void sync() throws IOException {
+            // Synced when the group is committed
+        }
+
+        /**
+         * Writes all remaining bytes of a buffer to the file. May be called concurrently for
+         * different positions.
+         *
+         * @param   buffer      - the bytes to write
+         * @param   position    - position in the file of the first byte of the buffer
+         *
+         * @throws  IOException if the bytes cannot be written.
+         */
+        void write(ByteBuffer buffer, long position) throws IOException;
+
+        /**
+         * Discards the file, unless it was committed.
+         */
+        @Override
+        void close();
+
+    }
+
+}
@@ -0,0 +1,266 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.Closeable;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file being received in stripes by X_STRIPE requests, over any number of connections.
+ *
+ * Stripes are written at their offsets into a single Upload, whose file is extended to the size
+ * of the file when the upload is opened, so they may arrive in any order and at once. The ranges
+ * of the file which were received in full are recorded, and the upload can only be committed
+ * once they cover the whole file and no stripe is still being written.
+ *
+ * Closing a StripedUpload while stripes are being written defers closing its Upload until the
+ * last of them finishes.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class StripedUpload implements Closeable {
+
+    /* IDLE_TIMEOUT is how long, in nanoseconds, an upload may go without a stripe before it is
+     * abandoned */
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(5);
+
+    private final long size, token;
+    private final Path target;
+    private final Upload upload;
+    private final NavigableMap<Long, Long> received;
+
+    private boolean closed;
+    private int writing;
+    private volatile long used;
+
+    /**
+     * Creates a striped upload to the given target, extending its file to the size of the file.
+     *
+     * If the file cannot be created, the upload fails when it is committed.
+     *
+     * @param   token   - the token which names the upload
+     * @param   target  - resolved path of the file to create or replace
+     * @param   upload  - the uncompressed upload of the file
+     * @param   size    - the size of the file, in bytes
+     */
+    StripedUpload(long token, Path target, Upload upload, long size) {
+        this.token = token;
+        this.target = target;
+        this.upload = upload;
+        this.size = size;
+
+        // Start offset to end offset, with adjacent ranges merged
+        received = new TreeMap<>();
+        upload.allocate(size);
+        used = System.nanoTime();
+    }
+
+    /* PUBLIC MEMBERS */
+
+    /**
+     * Discards the upload, once no stripe is being written.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        if (0 == writing) {
+            upload.close();
+        }
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Begins writing a stripe of the file.
+     *
+     * @param   offset  - position in the file of the first byte of the stripe
+     * @param   length  - the number of bytes in the stripe
+     *
+     * @return  the stripe, which must be finished, or null if the range is outside the file or
+     *          the upload was closed.
+     */
+    synchronized Stripe begin(long offset, long length) {
+        if (closed || offset < 0 || length < 0 || offset > size - length) {
+            return null;
+        }
+
+        writing++;
+        used = System.nanoTime();
+
+        return new Stripe(offset, offset + length);
+    }
+
+    /**
+     * Commits the upload, if every byte of the file has been received.
+     *
+     * The upload is closed by a successful commit, and left open otherwise so that missing
+     * stripes may still be sent.
+     *
+     * @param   overwriting - whether an existing target may be replaced
+     * @param   sync        - whether the file must be durable before this returns
+     *
+     * @return  null if the file was committed, else the error response to send the client.
+     */
+    synchronized String commit(boolean overwriting, boolean sync) {
+        String error;
+
+        if (closed) {
+            return BFTPServer.UNKNOWN_UPLOAD_RESPONSE;
+        }
+
+        if (writing > 0 || (size > 0 && !Long.valueOf(size).equals(received.get(0L)))) {
+            return BFTPServer.INCOMPLETE_UPLOAD_RESPONSE;
+        }
+
+        if (null == (error = upload.commit(overwriting, sync))) {
+            close();
+        }
+
+        return error;
+    }
+
+    /**
+     * Returns whether the upload has gone without a stripe for longer than IDLE_TIMEOUT.
+     *
+     * @param   now - the current System.nanoTime()
+     *
+     * @return  TRUE if the upload should be abandoned, else FALSE.
+     */
+    synchronized boolean isIdle(long now) {
+        return 0 == writing && now - used > IDLE_TIMEOUT;
+    }
+
+    /**
+     * Returns whether a write to the temporary file has failed, so the upload can never be
+     * committed.
+     *
+     * @return  TRUE if the upload has failed, else FALSE.
+     */
+    boolean isFailed() {
+        return upload.isFailed();
+    }
+
+    /**
+     * Returns the file the upload replaces once committed.
+     *
+     * @return  the resolved path of the target.
+     */
+    Path target() {
+        return target;
+    }
+
+    /**
+     * Returns the token which names the upload.
+     *
+     * @return  the token.
+     */
+    long token() {
+        return token;
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * Helper method to record a range of the file as received, merging it with the ranges it
+     * overlaps or adjoins.
+     *
+     * @param   start   - position of the first byte of the range
+     * @param   end     - position after the last byte of the range
+     */
+    private void record(long start, long end) {
+        Map.Entry<Long, Long> adjacent = received.floorEntry(start);
+
+        if (null != adjacent && adjacent.getValue() >= start) {
+            start = adjacent.getKey();
+        }
+
+        while (null != (adjacent = received.ceilingEntry(start)) && adjacent.getKey() <= end) {
+            end = Math.max(end, adjacent.getValue());
+            received.remove(adjacent.getKey());
+        }
+
+        received.put(start, end);
+    }
+
+    /**
+     * A range of the file being written by one X_STRIPE request.
+     */
+    final class Stripe {
+
+        private final long end, start;
+
+        private long position;
+
+        /**
+         * Creates a Stripe.
+         *
+         * @param   start   - position in the file of the first byte of the stripe
+         * @param   end     - position after the last byte of the stripe
+         */
+        private Stripe(long start, long end) {
+            this.start = start;
+            this.end = end;
+
+            position = start;
+        }
+
+        /**
+         * Records the stripe as received if all of its bytes were written, and ends it.
+         *
+         * @return  null if the stripe was received, else the error response to send the client.
+         */
+        String finish() {
+            synchronized (StripedUpload.this) {
+                writing--;
+                used = System.nanoTime();
+
+                if (closed) {
+                    if (0 == writing) {
+                        upload.close();
+                    }
+
+                    return BFTPServer.UNKNOWN_UPLOAD_RESPONSE;
+                }
+
+                if (upload.isFailed()) {
+                    return BFTPServer.FILE_WRITE_ERROR_RESPONSE;
+                }
+
+                if (position != end) {
+                    return BFTPServer.INCOMPLETE_UPLOAD_RESPONSE;
+                }
+
+                record(start, end);
+
+                return null;
+            }
+        }
+
+        /**
+         * Writes the next bytes of the stripe. Bytes beyond the end of the stripe are discarded.
+         *
+         * The buffer is always fully consumed, even if the upload has failed.
+         *
+         * @param   buffer  - file data to write
+         */
+        void write(ByteBuffer buffer) {
+            int count = (int) Math.min(buffer.remaining(), end - position);
+            int limit = buffer.limit();
+
+            buffer.limit(buffer.position() + count);
+            upload.write(buffer, position);
+            buffer.limit(limit).position(limit);
+
+            position += count;
+        }
+
+    }
+
+}
@@ -0,0 +1,254 @@
+package net.nolasaint.bftp.impl;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+
+import java.net.InetAddress;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the rate at which responses are sent, per connection, per client address and for the
+ * server as a whole.
+ *
+ * Each limit is a token bucket, kept as the time at which its bytes will have been paid for. A
+ * response reserves its next chunk from every bucket which applies to it, and waits until the
+ * latest of them allows it. Reservations are granted in the order they are made, and a bulk
+ * response only reserves its next chunk once the previous one was sent, so the chunks of active
+ * responses are interleaved and each receives a fair share of a shared limit.
+ *
+ * Responses no larger than a chunk are charged to the shared buckets without waiting on them, so
+ * interactive requests are not queued behind bulk transfers. The bulk transfers pay for them by
+ * waiting longer for their next chunks.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class TrafficShaper {
+
+    /* BURST_TIME is how long, in nanoseconds, a bucket which was idle may send at unlimited rate */
+    static final long BURST_TIME = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /* CHUNK_SIZE is the most bytes a limited response sends before reserving more */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Map<InetAddress, Bucket> addresses;
+    private final Bucket global;
+
+    private volatile long addressRate, connectionRate, globalRate;
+
+    /**
+     * Creates a TrafficShaper with no limits.
+     */
+    TrafficShaper() {
+        addresses = new ConcurrentHashMap<>();
+        global = new Bucket();
+    }
+
+    /* PROTECTED MEMBERS */
+
+    /**
+     * Waits for the given time, as returned by Throttle.reserve().
+     *
+     * @param   nanos   - the time to wait, in nanoseconds, which may be negative
+     *
+     * @throws  InterruptedIOException if the thread is interrupted while waiting.
+     */
+    static void pause(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+
+        while ((nanos = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(nanos);
+
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+
+    /**
+     * Returns the limit on each client address.
+     *
+     * @return  the limit, in bytes per second, or 0 if there is none.
+     */
+    long addressRate() {
+        return addressRate;
+    }
+
+    /**
+     * Sets the limit on each client address, which is shared by all of its connections.
+     *
+     * @param   rate    - the limit, in bytes per second, or 0 for none
+     */
+    void addressRate(long rate) {
+        addressRate = rate;
+    }
+
+    /**
+     * Returns the limit on each connection.
+     *
+     * @return  the limit, in bytes per second, or 0 if there is none.
+     */
+    long connectionRate() {
+        return connectionRate;
+    }
+
+    /**
+     * Sets the limit on each connection.
+     *
+     * @param   rate    - the limit, in bytes per second, or 0 for none
+     */
+    void connectionRate(long rate) {
+        connectionRate = rate;
+    }
+
+    /**
+     * Returns the limit on the server as a whole.
+     *
+     * @return  the limit, in bytes per second, or 0 if there is none.
+     */
+    long globalRate() {
+        return globalRate;
+    }
+
+    /**
+     * Sets the limit on the server as a whole.
+     *
+     * @param   rate    - the limit, in bytes per second, or 0 for none
+     */
+    void globalRate(long rate) {
+        globalRate = rate;
+    }
+
+    /**
+     * Creates the Throttle of a newly accepted connection, which must be closed with it.
+     *
+     * @param   address - the address of the client
+     *
+     * @return  the connection's Throttle.
+     */
+    Throttle open(InetAddress address) {
+        return new Throttle(address, addresses.compute(address, (key, bucket) -> {
+            bucket = (null != bucket) ? bucket : new Bucket();
+            bucket.users++;
+
+            return bucket;
+        }));
+    }
+
+    /* PRIVATE MEMBERS */
+
+    /**
+     * A token bucket, kept as the time at which the bytes reserved from it will have been paid
+     * for.
+     */
+    private static final class Bucket {
+
+        private long paid;
+
+        /* Only modified within addresses.compute() */
+        private int users;
+
+        /**
+         * Reserves bytes from the bucket.
+         *
+         * @param   bytes   - the number of bytes to reserve
+         * @param   rate    - the limit of the bucket, in bytes per second
+         * @param   now     - the current System.nanoTime()
+         *
+         * @return  how long, in nanoseconds, to wait before sending the bytes, which is not
+         *          positive if they may be sent at once.
+         */
+        synchronized long reserve(long bytes, long rate, long now) {
+            // An idle bucket only accumulates BURST_TIME worth of bytes
+            long start = Math.max(paid, now - BURST_TIME);
+
+            paid = start + (long) (bytes * 1e9 / rate);
+
+            return start - now;
+        }
+
+    }
+
+    /**
+     * The buckets which limit one connection.
+     */
+    final class Throttle implements Closeable {
+
+        private final InetAddress address;
+        private final Bucket connection, shared;
+
+        private boolean closed;
+
+        /**
+         * Creates a Throttle.
+         *
+         * @param   address - the address of the client
+         * @param   shared  - the bucket of the client address
+         */
+        private Throttle(InetAddress address, Bucket shared) {
+            this.address = address;
+            this.shared = shared;
+
+            connection = new Bucket();
+        }
+
+        /**
+         * Releases the connection's share of its client address' bucket.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+
+                addresses.computeIfPresent(address,
+                        (key, bucket) -> (0 == --bucket.users) ? null : bucket);
+            }
+        }
+
+        /**
+         * Returns whether any limit applies to the connection, in which case responses must be
+         * sent in chunks of at most CHUNK_SIZE bytes, each reserved first.
+         *
+         * @return  TRUE if responses are limited, else FALSE.
+         */
+        boolean isLimited() {
+            return 0 != connectionRate || 0 != addressRate || 0 != globalRate;
+        }
+
+        /**
+         * Reserves the next bytes of a response from each bucket which applies to it.
+         *
+         * @param   bytes   - the number of bytes to reserve, at most CHUNK_SIZE
+         * @param   small   - whether the whole response fits in one chunk, in which case it is
+         *                    charged to the shared buckets without waiting on them
+         *
+         * @return  how long, in nanoseconds, to wait before sending the bytes, which is not
+         *          positive if they may be sent at once.
+         */
+        long reserve(long bytes, boolean small) {
+            long now = System.nanoTime(), rate, sharedWait = 0, wait = 0;
+
+            if (0 != (rate = connectionRate)) {
+                wait = connection.reserve(bytes, rate, now);
+            }
+
+            if (0 != (rate = addressRate)) {
+                sharedWait = shared.reserve(bytes, rate, now);
+            }
+
+            if (0 != (rate = globalRate)) {
+                sharedWait = Math.max(sharedWait, global.reserve(bytes, rate, now));
+            }
+
+            return small ? wait : Math.max(wait, sharedWait);
+        }
+
+    }
+
+}
@@ -0,0 +1,328 @@
+package net.nolasaint.bftp.impl;
+
+import net.nolasaint.bftp.BFTP;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A file being received by a PUT request, and written through the server's Storage.
+ *
+ * Data is written to a Storage.Writer, which only makes the file visible once commit() is
+ * called. Readers of the target therefore only ever see the previous file or the complete new
+ * one. Closing an Upload that was not committed discards the file.
+ *
+ * Compressed uploads are inflated as they are written, so the storage only ever receives the
+ * uncompressed file.
+ *
+ * Uncompressed uploads may instead be written at given positions of a file which was extended
+ * to its full size up front, concurrently from several threads, as StripedUpload does.
+ *
+ * Write errors are recorded rather than thrown, so that callers can keep draining the request
+ * from the client and report the failure once the content has been consumed.
+ *
+ * Created: 2026-10-17
+ * @version 1.0
+ */
+final class Upload implements Closeable {
+
+    /* INFLATE_BUFFER_SIZE is the size of the buffer into which compressed uploads are inflated */
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private final Storage storage;
+
+    private boolean codecRead;
+    private volatile boolean failed;
+    private long position;
+    private ByteBuffer inflated;
+    private Inflater inflater;
+    private Storage.Writer writer;
+
+    /**
+     * Begins an upload of the file with the given key.
+     *
+     * If the file cannot be created, the Upload is marked as failed.
+     *
+     * @param   storage     - the storage to write the file to
+     * @param   key         - the key of the file to create or replace
+     * @param   compressed  - whether the file data is preceded by a codec and compressed
+     */
+    Upload(Storage storage, String key, boolean compressed) {
+        this.storage = storage;
+
+        if (compressed) {
+            inflated = ByteBuffer.allocate(INFLATE_BUFFER_SIZE);
+            inflater = new Inflater();
+        }
+
+        try {
+            writer = storage.create(key);
+        }
+        catch (IOException ioe) {
+            failed = true;
+        }
+    }
+
+    /**
+     * Extends the file to its full size, so that it may be written in any order. Filesystem
+     * storage leaves the file sparse where it can, and staged files are only grown as they are
+     * written, so no space is reserved.
+     *
+     * @param   size    - the size of the file, in bytes
+     */
+    void allocate(long size) {
+        if (!failed) {
+            try {
+                writer.allocate(size);
+            }
+            catch (IOException ioe) {
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * Discards the file, unless the upload was committed.
+     */
+    @Override
+    public void close() {
+        if (null != inflater) {
+            inflater.end();
+            inflater = null;
+        }
+
+        if (null != writer) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Commits several uploads to the same storage together, syncing them as one group where the
+     * storage can.
+     *
+     * @param   uploads     - the uploads to commit, which were all created with the same storage
+     * @param   overwriting - whether existing targets may be replaced
+     *
+     * @return  for each upload in order, null if its file was committed, else the error response
+     *          to send its client.
+     */
+    static String[] commit(List<Upload> uploads, boolean overwriting) {
+        String errors[] = new String[uploads.size()];
+        List<Storage.Writer> writers = new ArrayList<>(errors.length);
+        IOException failures[];
+        int committed[] = new int[errors.length];
+
+        for (int i = 0; i < errors.length; i++) {
+            if (null == (errors[i] = uploads.get(i).verify())) {
+                committed[writers.size()] = i;
+                writers.add(uploads.get(i).writer);
+            }
+        }
+
+        if (!writers.isEmpty()) {
+            failures = uploads.get(committed[0]).storage.commit(writers, overwriting);
+
+            for (int i = 0; i < failures.length; i++) {
+                errors[committed[i]] = uploads.get(committed[i]).response(failures[i]);
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Makes the file visible under its key.
+     *
+     * @param   overwriting - whether an existing target may be replaced
+     * @param   sync        - whether the file must be durable before this returns
+     *
+     * @return  null if the file was committed, else the error response to send the client.
+     */
+    String commit(boolean overwriting, boolean sync) {
+        String error = verify();
+
+        if (null != error) {
+            return error;
+        }
+
+        try {
+            writer.commit(overwriting, sync);
+        }
+        catch (IOException ioe) {
+            return response(ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether a write to the file has failed.
+     *
+     * @return  TRUE if the upload can no longer be committed, else FALSE.
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the storage the file is written to.
+     *
+     * @return  the storage.
+     */
+    Storage storage() {
+        return storage;
+    }
+
+    /**
+     * Syncs the file ahead of committing it with a group, on the calling thread.
+     *
+     * @return  null if the file may be committed, else the error response to send the client.
+     */
+    String sync() {
+        String error = verify();
+
+        if (null != error) {
+            return error;
+        }
+
+        try {
+            writer.sync();
+        }
+        catch (IOException ioe) {
+            return response(ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer to the file, inflating them first if the upload
+     * is compressed.
+     *
+     * The buffer is always fully consumed, even if the upload has failed.
+     *
+     * @param   buffer  - file data to append
+     */
+    void write(ByteBuffer buffer) {
+        if (!failed) {
+            try {
+                if (null != inflater) {
+                    inflate(buffer);
+                }
+                else {
+                    long count = buffer.remaining();
+
+                    writer.write(buffer, position);
+                    position += count;
+                }
+            }
+            catch (DataFormatException | IOException e) {
+                failed = true;
+            }
+        }
+
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to the file at the given position, which may be
+     * called concurrently for different positions of an uncompressed upload.
+     *
+     * The buffer is always fully consumed, even if the upload has failed.
+     *
+     * @param   buffer      - file data to write
+     * @param   position    - position in the file of the first byte of the buffer
+     */
+    void write(ByteBuffer buffer, long position) {
+        if (!failed) {
+            try {
+                writer.write(buffer, position);
+            }
+            catch (IOException ioe) {
+                failed = true;
+            }
+        }
+
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Helper method to inflate compressed file data into the file.
+     *
+     * @param   buffer  - compressed file data, beginning with the codec if it has not yet been
+     *                    read
+     *
+     * @throws  DataFormatException if the data is not valid for the codec.
+     * @throws  IOException if one is encountered while writing to the file.
+     */
+    private void inflate(ByteBuffer buffer) throws DataFormatException, IOException {
+        int count;
+
+        if (!codecRead && buffer.hasRemaining()) {
+            codecRead = true;
+
+            if (BFTP.CODEC_DEFLATE != buffer.get()) {
+                throw new DataFormatException("Unsupported codec");
+            }
+        }
+
+        inflater.setInput(buffer);
+
+        while (!inflater.needsInput() && !inflater.finished()) {
+            if (0 == inflater.inflate(inflated) && inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionaries are not supported");
+            }
+
+            inflated.flip();
+            count = inflated.remaining();
+            writer.write(inflated, position);
+            position += count;
+            inflated.clear();
+        }
+    }
+
+    /**
+     * Helper method to map the outcome of committing the file to the response to send.
+     *
+     * @param   error   - the exception which prevented the commit, or null if there was none
+     *
+     * @return  null if the file was committed, else the error response to send the client.
+     */
+    private String response(IOException error) {
+        if (null == error) {
+            return null;
+        }
+
+        if (error instanceof FileAlreadyExistsException) {
+            return BFTPServer.FILE_ALREADY_EXISTS_RESPONSE;
+        }
+
+        failed = true;
+
+        return BFTPServer.FILE_WRITE_ERROR_RESPONSE;
+    }
+
+    /**
+     * Helper method to check that the file was received in full and written without error.
+     *
+     * @return  null if the file may be committed, else the error response to send the client.
+     */
+    private String verify() {
+        if (null != inflater && !inflater.finished()) {
+            // Compressed stream was truncated or corrupt
+            failed = true;
+        }
+
+        return failed ? BFTPServer.FILE_WRITE_ERROR_RESPONSE : null;
+    }
+
+}
@@ -1,16 +1,37 @@
 package net.nolasaint.bftp.test;
 
 import net.nolasaint.bftp.BFTP;
+import net.nolasaint.bftp.FrameCodec;
+import net.nolasaint.bftp.client.BFTPClient;
 import net.nolasaint.bftp.impl.BFTPServer;
+import net.nolasaint.bftp.impl.Storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.BindException;
 import java.net.Socket;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Test cases for BFTPServer.
@@ -20,9 +41,54 @@ import java.nio.ByteBuffer;
  */
 public class BFTPServerTests {
 
-    public static void testGet() {
+    public static void testAcceptors() {
         int port = 0xFADE;
-        String path = "README.md";
+        String path = "acceptors-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, BFTPServer.Engine.SELECTOR, 4);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            StringBuilder testOutput = new StringBuilder();
+            long received = 0;
+
+            Files.write(Paths.get("public", path), "Hello, world!".getBytes());
+
+            // Each client opens its own connection, which any of the acceptors may accept
+            for (int i = 0; i < 32; i++) {
+                try (BFTPClient client = new BFTPClient("localhost", port)) {
+                    received += client.get(path,
+                            Channels.newChannel(new ByteArrayOutputStream())).get();
+                }
+            }
+
+            testOutput.append("Received from 32 connections:\n");
+            testOutput.append("\tbytes: " + received);
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testBatch() {
+        int port = 0xFADE;
+        String paths[] = { "README.md", "nonexistent.txt" };
 
         try {
             BFTPServer server   = new BFTPServer(port, System.out);
@@ -33,37 +99,267 @@ public class BFTPServerTests {
             runthread.start();
             // ------------------
 
-            byte content[] = path.getBytes(), response[];
-            int responseCsize;
-            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + content.length);
-            DataInputStream input = new DataInputStream(clientSocket.getInputStream());
+            ByteBuffer entries = ByteBuffer.allocate(1024), buffer;
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
             StringBuilder testOutput = new StringBuilder();
+            ByteBuffer content;
+            byte status;
 
-            buffer.putInt(content.length);
-            buffer.put(BFTP.GET);
-            buffer.put(content);
+            for (String path : paths) {
+                byte pathBytes[] = path.getBytes();
+
+                entries.put(BFTP.BATCH_PATH);
+                entries.putShort((short) pathBytes.length);
+                entries.put(pathBytes);
+            }
+
+            entries.flip();
+            buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + BFTP.XOP_LENGTH
+                    + entries.remaining());
+
+            FrameCodec.putHeader(buffer, BFTP.XOP_LENGTH + entries.remaining(), BFTP.EXT);
+            buffer.put(BFTP.X_BATCH);
+            buffer.put(entries);
 
             clientSocket.getOutputStream().write(buffer.array());
             clientSocket.getOutputStream().flush();
 
-            // Blocks until we get a response
-            responseCsize = input.readInt();
-            response = new byte[responseCsize];
+            // Blocks until we get each response, up to and including BATCH_END
+            do {
+                input.readHeader();
+                content = input.readContent();
 
-            testOutput.append("Received response:\n");
-            testOutput.append("\tcsize:   " + responseCsize + "\n");
-            testOutput.append("\topcode:  " + input.readByte() + "\n");
+                testOutput.append("Received response:\n");
+                testOutput.append("\tcsize:   " + input.csize() + "\n");
+                testOutput.append("\topcode:  " + input.opcode() + "\n");
+                testOutput.append("\txop:     " + content.get() + "\n");
+
+                status = content.get();
+                testOutput.append("\tstatus:  " + status + "\n");
+
+                if (BFTP.BATCH_END != status) {
+                    byte pathBytes[] = new byte[content.getShort() & 0xFFFF];
+
+                    content.get(pathBytes);
+
+                    testOutput.append("\tpath:    " + new String(pathBytes) + "\n");
+                    testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(content)
+                            + "\n");
+                }
+            }
+            while (BFTP.BATCH_END != status);
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testCache() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testCache(engine);
+        }
+    }
+
+    public static void testCache(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "cache-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            StringBuilder testOutput = new StringBuilder();
+
+            server.setOverwriting(true);
+            server.setCacheCapacity(64 * 1024);
+            client.put(path, ByteBuffer.wrap("Hello, world!".getBytes())).get();
+
+            // Only the first of these should read the file from disk
+            for (int i = 0; i < 3; i++) {
+                received.reset();
+                client.get(path, Channels.newChannel(received)).get();
+            }
+
+            testOutput.append("Cached file (" + engine + "):\n");
+            testOutput.append("\tcontent: " + received.toString(StandardCharsets.UTF_8) + "\n");
+            testOutput.append("\thits:    " + server.getCacheHits() + "\n");
+            testOutput.append("\tmisses:  " + server.getCacheMisses() + "\n");
+
+            // The changed file must be read afresh, rather than served from the cache
+            client.put(path, ByteBuffer.wrap("Goodbye, world!".getBytes())).get();
+            received.reset();
+            client.get(path, Channels.newChannel(received)).get();
+
+            testOutput.append("Changed file (" + engine + "):\n");
+            testOutput.append("\tcontent: " + received.toString(StandardCharsets.UTF_8) + "\n");
+            testOutput.append("\thits:    " + server.getCacheHits() + "\n");
+            testOutput.append("\tmisses:  " + server.getCacheMisses());
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testClient() {
+        int port = 0xFADE;
+        String path = "client-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            StringBuilder testOutput = new StringBuilder();
+
+            server.setOverwriting(true);
+            client.put(path, ByteBuffer.wrap("Hello, world!".getBytes())).get();
+
+            testOutput.append("Received file:\n");
+            testOutput.append("\tsize:    "
+                    + client.get(path, Channels.newChannel(received)).get() + "\n");
+            testOutput.append("\tcontent: " + received.toString(StandardCharsets.UTF_8));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testCompression() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testCompression(engine);
+        }
+    }
+
+    public static void testCompression(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "compression-test.txt", putPath = "uploads/compression-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            server.setOverwriting(true);
+            runthread.start();
+            // ------------------
+
+            byte data[] = "BFTP compression test content\n".repeat(1024).getBytes();
+            byte pathBytes[] = path.getBytes(), putPathBytes[] = putPath.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    BFTP.HEADER_LENGTH + BFTP.CODEC_LENGTH + pathBytes.length);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            ByteBuffer response;
 
-            for (int i = 0; i < responseCsize; i++) {
-                response[i] = input.readByte();
+            Files.write(Paths.get("public", path), data);
+
+            // GET | CMP, which the server answers with the deflated file
+            FrameCodec.putHeader(buffer, BFTP.CODEC_LENGTH + pathBytes.length,
+                    (byte) (BFTP.GET | BFTP.CMP));
+            buffer.put(BFTP.CODEC_DEFLATE);
+            buffer.put(pathBytes);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            input.readHeader();
+            response = input.readContent();
+
+            testOutput.append("Compressed GET (" + engine + "):\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcodec:   " + response.get() + "\n");
+            testOutput.append("\tsize:    " + response.remaining() + " of " + data.length + "\n");
+            testOutput.append("\tmatches: " + Arrays.equals(data, new InflaterInputStream(
+                    new ByteArrayInputStream(response.array(), response.arrayOffset()
+                            + response.position(), response.remaining())).readAllBytes())
+                    + "\n");
+
+            try (DeflaterOutputStream output = new DeflaterOutputStream(deflated)) {
+                output.write(data);
             }
 
-            testOutput.append("\tcontent: " + new String(response));
+            // PUT | CMP of the whole deflated file, then of only half of it
+            for (int length : new int[] { deflated.size(), deflated.size() / 2 }) {
+                int csize = BFTP.PLEN_LENGTH + putPathBytes.length + BFTP.CODEC_LENGTH + length;
+
+                buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+
+                FrameCodec.putHeader(buffer, csize, (byte) (BFTP.PUT | BFTP.CMP));
+                buffer.putShort((short) putPathBytes.length);
+                buffer.put(putPathBytes);
+                buffer.put(BFTP.CODEC_DEFLATE);
+                buffer.put(deflated.toByteArray(), 0, length);
+
+                Files.deleteIfExists(Paths.get("public", putPath));
+                clientSocket.getOutputStream().write(buffer.array());
+                clientSocket.getOutputStream().flush();
+
+                input.readHeader();
+
+                testOutput.append((length == deflated.size()) ? "Compressed PUT:\n"
+                        : "Truncated compressed PUT:\n");
+                testOutput.append("\topcode:  " + input.opcode() + "\n");
+                testOutput.append("\tcontent: "
+                        + StandardCharsets.UTF_8.decode(input.readContent()) + "\n");
+                testOutput.append("\tmatches: " + (Files.exists(Paths.get("public", putPath))
+                        && Arrays.equals(data, Files.readAllBytes(Paths.get("public", putPath))))
+                        + "\n");
+            }
 
             System.out.println(testOutput);
 
             server.shutdown();
             clientSocket.close();
+            Files.deleteIfExists(Paths.get("public", path));
+            Files.deleteIfExists(Paths.get("public", putPath));
         }
         catch (BindException be) {
             System.err.println("ERROR: Could not create BFTPServer, port " + port
@@ -74,45 +370,194 @@ public class BFTPServerTests {
         }
     }
 
-    public static void testGetNonexistent() {
+    public static void testConditionalGet() {
         int port = 0xFADE;
-        String path = "fake/README.md";
+        String path = "conditional-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            Path local = Files.createTempFile("bftp", ".txt");
+            StringBuilder testOutput = new StringBuilder();
+
+            server.setOverwriting(true);
+            client.put(path, ByteBuffer.wrap("Hello, world!".getBytes())).get();
+
+            testOutput.append("Received responses:\n");
+            testOutput.append("\tstale copy:   downloaded "
+                    + client.getIfChanged(path, local).get() + "\n");
+            testOutput.append("\tcurrent copy: downloaded "
+                    + client.getIfChanged(path, local).get() + "\n");
+            testOutput.append("\tcontent:      " + Files.readString(local));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testConnectionLimit() {
+        int port = 0xFADE;
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            StringBuilder testOutput = new StringBuilder();
+
+            server.setMaxConnections(1);
+            server.setIdleTimeout(1000);
+
+            try (Socket admitted = new Socket("localhost", port);
+                    Socket refused = new Socket("localhost", port)) {
+                DataInputStream refusedInput = new DataInputStream(refused.getInputStream());
+                DataInputStream admittedInput = new DataInputStream(admitted.getInputStream());
+                byte content[] = new byte[refusedInput.readInt()];
+                byte opcode = refusedInput.readByte();
+
+                refusedInput.readFully(content);
+
+                testOutput.append("Refused connection:\n");
+                testOutput.append("\topcode:  " + opcode + "\n");
+                testOutput.append("\tcontent: " + new String(content, StandardCharsets.UTF_8)
+                        + "\n");
+
+                // The idle connection is closed with FIN once the reaper notices it
+                admittedInput.readInt();
+
+                testOutput.append("Idle connection:\n");
+                testOutput.append("\topcode:  " + admittedInput.readByte());
+            }
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testExecutor() {
+        int port = 0xFADE;
+        String path = "executor-test.txt", data = "BFTP executor test content";
 
         try {
             BFTPServer server   = new BFTPServer(port, System.out);
             Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            // Client handlers run on the pool rather than a thread each
+            server.setExecutor(Executors.newFixedThreadPool(4));
+            runthread.start();
+            // ------------------
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            StringBuilder testOutput = new StringBuilder();
+
+            server.setOverwriting(true);
+            client.put(path, ByteBuffer.wrap(data.getBytes())).get();
+            client.get(path, Channels.newChannel(received)).get();
+
+            testOutput.append("Received file:\n");
+            testOutput.append("\tcontent: " + received + "\n");
+            testOutput.append("\tmatches: " + data.equals(received.toString()));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testFin() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testFin(engine);
+        }
+    }
+
+    public static void testFin(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "README.md";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
             Socket clientSocket = new Socket("localhost", port);
             Thread runthread    = new Thread(runtask);
 
             runthread.start();
             // ------------------
 
-            byte content[] = path.getBytes(), response[];
-            int responseCsize;
-            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + content.length);
-            DataInputStream input = new DataInputStream(clientSocket.getInputStream());
+            byte content[] = path.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(2 * BFTP.HEADER_LENGTH + content.length);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
             StringBuilder testOutput = new StringBuilder();
 
-            buffer.putInt(content.length);
-            buffer.put(BFTP.GET);
+            FrameCodec.putHeader(buffer, content.length, BFTP.GET);
             buffer.put(content);
+            FrameCodec.putHeader(buffer, 0, BFTP.FIN); // no content
 
+            // The request sent with FIN is answered before the connection is closed
             clientSocket.getOutputStream().write(buffer.array());
             clientSocket.getOutputStream().flush();
 
-            // Blocks until we get a response
-            responseCsize = input.readInt();
-            response = new byte[responseCsize];
+            input.readHeader();
 
-            testOutput.append("Received response:\n");
-            testOutput.append("\tcsize:   " + responseCsize + "\n");
-            testOutput.append("\topcode:  " + input.readByte() + "\n");
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tsize:    " + input.readContent().remaining() + "\n");
 
-            for (int i = 0; i < responseCsize; i++) {
-                response[i] = input.readByte();
-            }
+            // The server then sends FIN and closes the connection
+            input.readHeader();
+            testOutput.append("\tthen:    " + input.opcode() + "\n");
 
-            testOutput.append("\tcontent: " + new String(response));
+            try {
+                input.readHeader();
+                testOutput.append("\tclosed:  false");
+            }
+            catch (EOFException eofe) {
+                testOutput.append("\tclosed:  true");
+            }
 
             System.out.println(testOutput);
 
@@ -128,6 +573,982 @@ public class BFTPServerTests {
         }
     }
 
+    public static void testGet() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testGet(engine);
+        }
+    }
+
+    public static void testGet(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "README.md";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte content[] = path.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + content.length);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+
+            FrameCodec.putHeader(buffer, content.length, BFTP.GET);
+            buffer.put(content);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(input.readContent()));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testGetNonexistent() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testGetNonexistent(engine);
+        }
+    }
+
+    public static void testGetNonexistent(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "fake/README.md";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte content[] = path.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + content.length);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+
+            FrameCodec.putHeader(buffer, content.length, BFTP.GET);
+            buffer.put(content);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(input.readContent()));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testGetRange() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testGetRange(engine);
+        }
+    }
+
+    public static void testGetRange(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        long offset = 2, count = 8;
+        String path = "README.md";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte pathBytes[] = path.getBytes();
+            int csize = BFTP.XOP_LENGTH + BFTP.OFFSET_LENGTH + BFTP.COUNT_LENGTH
+                    + pathBytes.length;
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            ByteBuffer content;
+
+            FrameCodec.putHeader(buffer, csize, BFTP.EXT);
+            buffer.put(BFTP.X_RANGE);
+            buffer.putLong(offset);
+            buffer.putLong(count);
+            buffer.put(pathBytes);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+            content = input.readContent();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\txop:     " + content.get() + "\n");
+
+            if (!input.isSet(BFTP.ERR)) {
+                testOutput.append("\tfsize:   " + content.getLong() + "\n");
+            }
+
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(content));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testGroupCommit() {
+        int port = 0xFADE, count = 16;
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port, count);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            CompletableFuture<?> puts[] = new CompletableFuture<?>[count];
+            StringBuilder testOutput = new StringBuilder();
+            int matching = 0;
+
+            server.setOverwriting(true);
+            server.setDurability(BFTPServer.Durability.GROUP);
+
+            for (int i = 0; i < count; i++) {
+                puts[i] = client.put("group/file" + i + ".txt",
+                        ByteBuffer.wrap(("BFTP group commit " + i).getBytes()));
+            }
+
+            CompletableFuture.allOf(puts).get();
+
+            for (int i = 0; i < count; i++) {
+                ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+                client.get("group/file" + i + ".txt", Channels.newChannel(received)).get();
+
+                if (received.toString(StandardCharsets.UTF_8).equals("BFTP group commit " + i)) {
+                    matching++;
+                }
+            }
+
+            testOutput.append("Committed files:\n");
+            testOutput.append("\tmatching: " + matching + " of " + count + "\n");
+            testOutput.append("\tgroups:   " + server.getStatistics().get("commit.groups"));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+
+            for (int i = 0; i < count; i++) {
+                Files.deleteIfExists(Paths.get("public", "group", "file" + i + ".txt"));
+            }
+
+            Files.deleteIfExists(Paths.get("public", "group"));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testList() {
+        int port = 0xFADE;
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            int csize = BFTP.XOP_LENGTH + BFTP.FLAGS_LENGTH; // root directory has an empty path
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            ByteBuffer content;
+
+            FrameCodec.putHeader(buffer, csize, BFTP.EXT);
+            buffer.put(BFTP.X_LIST);
+            buffer.put(BFTP.LIST_RECURSIVE);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+            content = input.readContent();
+
+            testOutput.append("Received response:\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\txop:     " + content.get() + "\n");
+
+            while (content.hasRemaining() && !input.isSet(BFTP.ERR)) {
+                byte kind = content.get();
+                long size = content.getLong(), modified = content.getLong();
+                byte pathBytes[] = new byte[content.getShort() & 0xFFFF];
+
+                content.get(pathBytes);
+
+                testOutput.append("\tentry:   " + new String(pathBytes)
+                        + ((BFTP.LIST_DIRECTORY == kind) ? "/" : "") + ", " + size + " bytes, "
+                        + "modified " + modified + "\n");
+            }
+
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(content));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testMapping() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testMapping(engine);
+        }
+    }
+
+    public static void testMapping(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        long boundary = 1024 * 1024 * 1024; // Where the first mapped region of a file ends
+        String path = "mapping-test.bin";
+        byte pattern[] = "0123456789ABCDEF".getBytes();
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte getPath[] = "README.md".getBytes(), rangePath[] = path.getBytes();
+            int csize = BFTP.XOP_LENGTH + BFTP.OFFSET_LENGTH + BFTP.COUNT_LENGTH
+                    + rangePath.length;
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + getPath.length);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            ByteBuffer content;
+
+            // Sparse, so that only the pattern straddling the boundary takes up any space
+            try (RandomAccessFile file = new RandomAccessFile(Paths.get("public", path).toFile(),
+                    "rw")) {
+                file.setLength(boundary + pattern.length);
+                file.seek(boundary - pattern.length / 2);
+                file.write(pattern);
+            }
+
+            // Bypasses the hot-file cache, so that every file is served from its mapping
+            server.setCacheCapacity(0);
+            server.setMappingThreshold(1);
+
+            FrameCodec.putHeader(buffer, getPath.length, BFTP.GET);
+            buffer.put(getPath);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(input.readContent())
+                    + "\n");
+
+            // The range spans the last bytes of the first region and the first of the second
+            buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+            FrameCodec.putHeader(buffer, csize, BFTP.EXT);
+            buffer.put(BFTP.X_RANGE);
+            buffer.putLong(boundary - pattern.length / 2);
+            buffer.putLong(pattern.length);
+            buffer.put(rangePath);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            input.readHeader();
+            content = input.readContent();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\txop:     " + content.get() + "\n");
+
+            if (!input.isSet(BFTP.ERR)) {
+                testOutput.append("\tfsize:   " + content.getLong() + "\n");
+            }
+
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(content));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testOversizedFrame() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testOversizedFrame(engine);
+        }
+    }
+
+    public static void testOversizedFrame(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        int maxFrameSize = 1024;
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            server.setMaxFrameSize(maxFrameSize);
+            runthread.start();
+            // ------------------
+
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+
+            // Only the header is sent, since the server must not wait for the content
+            FrameCodec.putHeader(buffer, maxFrameSize + 1, BFTP.GET);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: "
+                    + StandardCharsets.UTF_8.decode(input.readContent()) + "\n");
+
+            // The connection is out of sync, so the server sends FIN and closes it
+            input.readHeader();
+            testOutput.append("\tthen:    " + input.opcode() + "\n");
+
+            try {
+                input.readHeader();
+                testOutput.append("\tclosed:  false");
+            }
+            catch (EOFException eofe) {
+                testOutput.append("\tclosed:  true");
+            }
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testPathCache() {
+        int port = 0xFADE;
+        String path = "path-cache-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            StringBuilder testOutput = new StringBuilder();
+            String error = null;
+
+            server.setOverwriting(true);
+
+            // Only the first of these should reach the filesystem
+            for (int i = 0; i < 100; i++) {
+                try {
+                    client.get(path, Channels.newChannel(received)).get();
+                }
+                catch (ExecutionException ee) {
+                    error = ee.getCause().getMessage();
+                }
+            }
+
+            testOutput.append("Missing file:\n");
+            testOutput.append("\terror:   " + error + "\n");
+            testOutput.append("\thits:    " + server.getPathCacheHits() + "\n");
+            testOutput.append("\tmisses:  " + server.getPathCacheMisses() + "\n");
+
+            // The PUT invalidates the negative entry, so the file is found at once
+            client.put(path, ByteBuffer.wrap("Hello, world!".getBytes())).get();
+
+            testOutput.append("Stored file:\n");
+            testOutput.append("\tsize:    "
+                    + client.get(path, Channels.newChannel(received)).get() + "\n");
+
+            try {
+                client.get("../pom.xml", Channels.newChannel(received)).get();
+            }
+            catch (ExecutionException ee) {
+                testOutput.append("Escaping path:\n");
+                testOutput.append("\terror:   " + ee.getCause().getMessage());
+            }
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testPipelining() {
+        int port = 0xFADE;
+        String path = "pipelining-test.txt", data = "BFTP pipelining test content";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte content[] = path.getBytes();
+            int requests = 5;
+            ByteBuffer buffer = ByteBuffer.allocate(requests
+                    * (BFTP.HEADER_LENGTH + BFTP.RID_LENGTH + content.length));
+            StringBuilder testOutput = new StringBuilder();
+
+            Files.write(Paths.get("public", path), data.getBytes());
+            server.setMaxPipelineDepth(2);
+
+            try (Socket pipelined = new Socket("localhost", port);
+                    Socket lockstep = new Socket("localhost", port)) {
+                FrameCodec input = new FrameCodec(pipelined.getInputStream(), Integer.MAX_VALUE);
+                ByteBuffer window = ByteBuffer.allocate(BFTP.HEADER_LENGTH + BFTP.WINDOW_LENGTH);
+
+                // Asks for a larger window than the server allows
+                FrameCodec.putHeader(window, BFTP.WINDOW_LENGTH, BFTP.SEQ);
+                window.putInt(8);
+
+                pipelined.getOutputStream().write(window.array());
+                pipelined.getOutputStream().flush();
+
+                input.readHeader();
+
+                testOutput.append("Negotiated window:\n");
+                testOutput.append("\topcode:  " + input.opcode() + "\n");
+                testOutput.append("\tgranted: " + input.readContent().getInt() + "\n");
+
+                // More requests than the window are sent at once, and are held back by the server
+                for (int rid = 0; rid < requests; rid++) {
+                    FrameCodec.putHeader(buffer, BFTP.RID_LENGTH + content.length,
+                            (byte) (BFTP.SEQ | BFTP.GET));
+                    buffer.putInt(rid);
+                    buffer.put(content);
+                }
+
+                pipelined.getOutputStream().write(buffer.array());
+                pipelined.getOutputStream().flush();
+
+                testOutput.append("Pipelined responses:\n");
+
+                for (int i = 0; i < requests; i++) {
+                    ByteBuffer response;
+
+                    input.readHeader();
+                    response = input.readContent();
+
+                    testOutput.append("\topcode:  " + input.opcode() + ", rid: "
+                            + response.getInt() + ", content: "
+                            + StandardCharsets.UTF_8.decode(response) + "\n");
+                }
+
+                // A client which does not negotiate is answered in lock-step, without request IDs
+                input = new FrameCodec(lockstep.getInputStream(), Integer.MAX_VALUE);
+                buffer = ByteBuffer.allocate(2 * (BFTP.HEADER_LENGTH + content.length));
+
+                for (int i = 0; i < 2; i++) {
+                    FrameCodec.putHeader(buffer, content.length, BFTP.GET);
+                    buffer.put(content);
+                }
+
+                lockstep.getOutputStream().write(buffer.array());
+                lockstep.getOutputStream().flush();
+
+                testOutput.append("Lock-step responses:\n");
+
+                for (int i = 0; i < 2; i++) {
+                    input.readHeader();
+
+                    testOutput.append("\topcode:  " + input.opcode() + ", content: "
+                            + StandardCharsets.UTF_8.decode(input.readContent()) + "\n");
+                }
+            }
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testPut() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testPut(engine);
+        }
+    }
+
+    public static void testPut(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "uploads/test.txt", data = "BFTP PUT test content";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            server.setOverwriting(true);
+            runthread.start();
+            // ------------------
+
+            byte pathBytes[] = path.getBytes(), dataBytes[] = data.getBytes();
+            int csize = BFTP.PLEN_LENGTH + pathBytes.length + dataBytes.length;
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+
+            FrameCodec.putHeader(buffer, csize, BFTP.PUT);
+            buffer.putShort((short) pathBytes.length);
+            buffer.put(pathBytes);
+            buffer.put(dataBytes);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: " + StandardCharsets.UTF_8.decode(input.readContent()));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testPutSplit() {
+        for (BFTPServer.Engine engine : BFTPServer.Engine.values()) {
+            testPutSplit(engine);
+        }
+    }
+
+    public static void testPutSplit(BFTPServer.Engine engine) {
+        int port = 0xFADE;
+        String path = "uploads/split-test.txt", data = "BFTP split PUT test content";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out, engine);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            server.setOverwriting(true);
+            runthread.start();
+            // ------------------
+
+            byte pathBytes[] = path.getBytes(), dataBytes[] = data.getBytes();
+            int csize = BFTP.PLEN_LENGTH + pathBytes.length + dataBytes.length;
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + csize);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            int splits[] = { 2, BFTP.HEADER_LENGTH + 1, BFTP.HEADER_LENGTH + BFTP.PLEN_LENGTH
+                    + pathBytes.length + dataBytes.length / 2, buffer.capacity() };
+            int from = 0;
+
+            FrameCodec.putHeader(buffer, csize, BFTP.PUT);
+            buffer.putShort((short) pathBytes.length);
+            buffer.put(pathBytes);
+            buffer.put(dataBytes);
+
+            // Splits the header, path length and file data across separate reads
+            for (int to : splits) {
+                clientSocket.getOutputStream().write(buffer.array(), from, to - from);
+                clientSocket.getOutputStream().flush();
+                Thread.sleep(100);
+                from = to;
+            }
+
+            input.readHeader();
+
+            testOutput.append("Received response (" + engine + "):\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\tcontent: "
+                    + StandardCharsets.UTF_8.decode(input.readContent()) + "\n");
+            testOutput.append("\tmatches: "
+                    + data.equals(Files.readString(Paths.get("public", path))));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (InterruptedException ie) {
+            System.err.println("ERROR: Interrupted while sleeping, make sure port " + port
+                    + " is closed");
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testRateLimit() {
+        int port = 0xFADE;
+        String path = "rate-limit-test.bin", smallPath = "rate-limit-test.txt";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port, 2);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte data[] = new byte[2 * 1024 * 1024];
+            Path local = Files.createTempFile("bftp", ".bin");
+            StringBuilder testOutput = new StringBuilder();
+            long started, bulkTime, smallTime;
+
+            new Random(0).nextBytes(data);
+            Files.write(Paths.get("public", path), data);
+            Files.write(Paths.get("public", smallPath), "Hello, world!".getBytes());
+
+            server.setGlobalRateLimit(1024 * 1024);
+            started = System.nanoTime();
+
+            CompletableFuture<Long> bulk = client.get(path, local);
+
+            // A small file should not wait behind the bulk transfer
+            Thread.sleep(250);
+            client.get(smallPath, Channels.newChannel(new ByteArrayOutputStream())).get();
+            smallTime = System.nanoTime() - started;
+
+            bulk.get();
+            bulkTime = System.nanoTime() - started;
+
+            testOutput.append("Limited to 1MB/s:\n");
+            testOutput.append("\t2MB file: " + bulkTime / 1000000 + " ms (expected ~2000)\n");
+            testOutput.append("\tsmall file: " + (smallTime / 1000000 - 250)
+                    + " ms after request\n");
+            testOutput.append("\tcontent:  " + (Arrays.equals(data,
+                    Files.readAllBytes(local)) ? "matches" : "differs"));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(Paths.get("public", path));
+            Files.deleteIfExists(Paths.get("public", smallPath));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testStats() {
+        int port = 0xFADE;
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            Socket clientSocket = new Socket("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH + BFTP.XOP_LENGTH);
+            FrameCodec input = new FrameCodec(clientSocket.getInputStream(), Integer.MAX_VALUE);
+            StringBuilder testOutput = new StringBuilder();
+            ByteBuffer content;
+
+            FrameCodec.putHeader(buffer, BFTP.XOP_LENGTH, BFTP.EXT);
+            buffer.put(BFTP.X_STATS);
+
+            clientSocket.getOutputStream().write(buffer.array());
+            clientSocket.getOutputStream().flush();
+
+            // Blocks until we get a response
+            input.readHeader();
+            content = input.readContent();
+
+            testOutput.append("Received response:\n");
+            testOutput.append("\tcsize:   " + input.csize() + "\n");
+            testOutput.append("\topcode:  " + input.opcode() + "\n");
+            testOutput.append("\txop:     " + content.get() + "\n");
+            testOutput.append("\tcontent:\n" + StandardCharsets.UTF_8.decode(content));
+
+            System.out.println(testOutput);
+
+            server.shutdown();
+            clientSocket.close();
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testStorage() {
+        int port = 0xFADE;
+        String path = "storage/test.txt", data = "BFTP storage test content";
+
+        try {
+            Path directory      = Files.createTempDirectory("bftp-pack");
+            Storage storage     = Storage.pack(directory);
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            server.setStorage(storage);
+            runthread.start();
+            // ------------------
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            StringBuilder testOutput = new StringBuilder();
+
+            client.put(path, ByteBuffer.wrap(data.getBytes())).get();
+            client.get(path, Channels.newChannel(received)).get();
+
+            testOutput.append("Stored file:\n");
+            testOutput.append("\tcontent: " + received + "\n");
+
+            try {
+                client.list("storage", false, false).get();
+            }
+            catch (ExecutionException ee) {
+                testOutput.append("Listing:\n");
+                testOutput.append("\terror:   " + ee.getCause().getMessage() + "\n");
+            }
+
+            client.close();
+            server.shutdown();
+            storage.close();
+
+            // The index was closed cleanly, so is loaded rather than rebuilt
+            try (Storage reopened = Storage.pack(directory);
+                    Storage.Blob file = reopened.open(path)) {
+                testOutput.append("Reopened store:\n");
+                testOutput.append("\tsize:    " + ((null != file) ? file.size() : -1));
+            }
+
+            System.out.println(testOutput);
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+
+            Files.delete(directory);
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
+    public static void testStripedPut() {
+        int port = 0xFADE;
+        String path = "striped-test.bin";
+
+        try {
+            BFTPServer server   = new BFTPServer(port, System.out);
+            Runnable runtask    = () -> { try { server.run(); } catch (IOException ioe) { } };
+            BFTPClient client   = new BFTPClient("localhost", port);
+            Thread runthread    = new Thread(runtask);
+
+            runthread.start();
+            // ------------------
+
+            byte data[] = new byte[20 * 1024 * 1024];
+            Path local = Files.createTempFile("bftp", ".bin");
+            StringBuilder testOutput = new StringBuilder();
+
+            new Random(0).nextBytes(data);
+            Files.write(local, data);
+
+            server.setOverwriting(true);
+            client.putStriped(path, local, 4).get();
+
+            testOutput.append("Stored file:\n");
+            testOutput.append("\tsize:    " + Files.size(Paths.get("public", path)) + "\n");
+            testOutput.append("\tcontent: " + (Arrays.equals(data,
+                    Files.readAllBytes(Paths.get("public", path))) ? "matches" : "differs")
+                    + "\n");
+
+            Files.delete(local);
+            client.getStriped(path, local, 4).get();
+
+            testOutput.append("Received file:\n");
+            testOutput.append("\tcontent: " + (Arrays.equals(data,
+                    Files.readAllBytes(local)) ? "matches" : "differs"));
+
+            System.out.println(testOutput);
+
+            client.close();
+            server.shutdown();
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(Paths.get("public", path));
+        }
+        catch (ExecutionException | InterruptedException e) {
+            System.err.println("ERROR: Client request failed: " + e.getCause());
+        }
+        catch (BindException be) {
+            System.err.println("ERROR: Could not create BFTPServer, port " + port
+                    + " already bound");
+        }
+        catch (IOException ioe) {
+            System.err.println("ERROR: Could not create BFTPServer");
+        }
+    }
+
     public static void testUnsupportedCommand() {
         int port = 0xFADE;
 
@@ -142,8 +1563,7 @@ public class BFTPServerTests {
 
             ByteBuffer buffer = ByteBuffer.allocate(BFTP.HEADER_LENGTH);
 
-            buffer.putInt(0); // no content
-            buffer.put((byte) 0);
+            FrameCodec.putHeader(buffer, 0, (byte) 0); // no content
 
             clientSocket.getOutputStream().write(buffer.array());
             clientSocket.getOutputStream().flush();